@@ -21,6 +21,7 @@ import static java.util.Collections.singletonList;
 import static java.util.Collections.unmodifiableList;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -40,6 +41,7 @@ import org.elasticsearch.cluster.node.DiscoveryNodes;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.CheckedFunction;
 import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
 import org.elasticsearch.common.io.stream.NamedWriteableRegistry.Entry;
 import org.elasticsearch.common.settings.ClusterSettings;
@@ -51,9 +53,11 @@ import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.IndexModule;
 import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
 import org.elasticsearch.index.analysis.TokenFilterFactory;
+import org.elasticsearch.index.shard.SearchOperationListener;
 import org.elasticsearch.indices.analysis.AnalysisModule;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.plugins.ActionPlugin;
@@ -66,7 +70,10 @@ import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
 import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.tasks.Task;
 import org.elasticsearch.search.fetch.FetchSubPhase;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.threadpool.ExecutorBuilder;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.watcher.ResourceWatcherService;
 
@@ -75,21 +82,39 @@ import com.o19s.es.ltr.action.AddFeaturesToSetAction;
 import com.o19s.es.ltr.action.CachesStatsAction;
 import com.o19s.es.ltr.action.ClearCachesAction;
 import com.o19s.es.ltr.action.CreateModelFromSetAction;
+import com.o19s.es.ltr.action.ExtractFeaturesAction;
 import com.o19s.es.ltr.action.FeatureStoreAction;
+import com.o19s.es.ltr.action.FeatureStoreBulkAction;
 import com.o19s.es.ltr.action.ListStoresAction;
+import com.o19s.es.ltr.action.LogFeaturesAction;
+import com.o19s.es.ltr.action.ModelAliasAction;
 import com.o19s.es.ltr.action.TransportAddFeatureToSetAction;
 import com.o19s.es.ltr.action.TransportCacheStatsAction;
 import com.o19s.es.ltr.action.TransportClearCachesAction;
 import com.o19s.es.ltr.action.TransportCreateModelFromSetAction;
+import com.o19s.es.ltr.action.TransportExtractFeaturesAction;
 import com.o19s.es.ltr.action.TransportFeatureStoreAction;
+import com.o19s.es.ltr.action.TransportFeatureStoreBulkAction;
 import com.o19s.es.ltr.action.TransportListStoresAction;
+import com.o19s.es.ltr.action.TransportLogFeaturesAction;
+import com.o19s.es.ltr.action.TransportModelAliasAction;
+import com.o19s.es.ltr.feature.store.LtrCircuitBreaker;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
+import com.o19s.es.ltr.feature.store.ParallelFeatureExecutor;
+import com.o19s.es.ltr.feature.store.RenderedQueryCache;
 import com.o19s.es.ltr.feature.store.StorableElement;
 import com.o19s.es.ltr.feature.store.StoredFeature;
 import com.o19s.es.ltr.feature.store.StoredFeatureSet;
 import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.StoredModelAlias;
+import com.o19s.es.ltr.feature.store.file.FileFeatureStore;
+import com.o19s.es.ltr.feature.store.file.FileFeatureStores;
 import com.o19s.es.ltr.feature.store.index.CachedFeatureStore;
 import com.o19s.es.ltr.feature.store.index.Caches;
 import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import com.o19s.es.ltr.feature.store.index.LoadExecutor;
+import com.o19s.es.ltr.feature.store.index.StoreVersionWatcher;
+import com.o19s.es.ltr.logging.FeatureLogSink;
 import com.o19s.es.ltr.logging.LoggingFetchSubPhase;
 import com.o19s.es.ltr.logging.LoggingSearchExtBuilder;
 import com.o19s.es.ltr.query.LtrQueryBuilder;
@@ -102,8 +127,14 @@ import com.o19s.es.ltr.ranker.ranklib.RankLibScriptEngine;
 import com.o19s.es.ltr.ranker.ranklib.RanklibModelParser;
 import com.o19s.es.ltr.rest.RestAddFeatureToSet;
 import com.o19s.es.ltr.rest.RestCreateModelFromSet;
+import com.o19s.es.ltr.rest.RestExtractFeatures;
+import com.o19s.es.ltr.rest.RestFeatureStoreBulk;
 import com.o19s.es.ltr.rest.RestFeatureStoreCaches;
+import com.o19s.es.ltr.rest.RestLogFeatures;
+import com.o19s.es.ltr.rest.RestModelAlias;
 import com.o19s.es.ltr.rest.RestSimpleFeatureStore;
+import com.o19s.es.ltr.training.FeatureExtractionJob;
+import com.o19s.es.ltr.training.FeatureExtractionTask;
 import com.o19s.es.ltr.utils.FeatureStoreLoader;
 import com.o19s.es.ltr.utils.Suppliers;
 
@@ -112,9 +143,13 @@ import ciir.umass.edu.learning.RankerFactory;
 public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, ScriptPlugin, ActionPlugin, AnalysisPlugin {
     private final LtrRankerParserFactory parserFactory;
     private final Caches caches;
+    private final LtrNodeServices services;
+    private StoreVersionWatcher storeVersionWatcher;
+    private FileFeatureStores fileFeatureStores;
 
     public LtrQueryParserPlugin(Settings settings) {
         caches = new Caches(settings);
+        services = new LtrNodeServices();
         // Use memoize to Lazy load the RankerFactory as it's a heavy object to construct
         Supplier<RankerFactory> ranklib = Suppliers.memoize(RankerFactory::new);
         parserFactory = new LtrRankerParserFactory.Builder()
@@ -134,13 +169,13 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
                         (input) -> new StoredLtrQueryBuilder(getFeatureStoreLoader(), input),
                         (ctx) -> StoredLtrQueryBuilder.fromXContent(getFeatureStoreLoader(), ctx)),
                 new QuerySpec<>(ValidatingLtrQueryBuilder.NAME,
-                        (input) -> new ValidatingLtrQueryBuilder(input, parserFactory),
-                        (ctx) -> ValidatingLtrQueryBuilder.fromXContent(ctx, parserFactory)));
+                        (input) -> new ValidatingLtrQueryBuilder(input, parserFactory, caches, services),
+                        (ctx) -> ValidatingLtrQueryBuilder.fromXContent(ctx, parserFactory, caches, services)));
     }
 
     @Override
     public List<FetchSubPhase> getFetchSubPhases(FetchPhaseConstructionContext context) {
-        return singletonList(new LoggingFetchSubPhase());
+        return singletonList(new LoggingFetchSubPhase(services));
     }
 
     @Override
@@ -149,9 +184,20 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
                 new SearchExtSpec<>(LoggingSearchExtBuilder.NAME, LoggingSearchExtBuilder::new, LoggingSearchExtBuilder::parse));
     }
 
+    @Override
+    public void onIndexModule(IndexModule indexModule) {
+        indexModule.addSearchOperationListener(new SearchOperationListener() {
+            @Override
+            public void onFreeContext(SearchContext context) {
+                // the off-heap trees used by the search can be freed once evicted
+                caches.releaseModels(context.getQueryShardContext());
+            }
+        });
+    }
+
     @Override
     public ScriptEngine getScriptEngine(Settings settings, Collection<ScriptContext<?>> contexts) {
-        return new RankLibScriptEngine(settings, parserFactory);
+        return new RankLibScriptEngine(settings, parserFactory, services);
     }
 
     @Override
@@ -162,8 +208,12 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
         List<RestHandler> list = new ArrayList<>();
         RestSimpleFeatureStore.register(list, settings, restController);
         list.add(new RestFeatureStoreCaches(settings, restController));
+        list.add(new RestFeatureStoreBulk(settings, restController));
         list.add(new RestCreateModelFromSet(settings, restController));
         list.add(new RestAddFeatureToSet(settings, restController));
+        list.add(new RestModelAlias(settings, restController));
+        list.add(new RestExtractFeatures(settings, restController));
+        list.add(new RestLogFeatures(settings, restController));
         return unmodifiableList(list);
     }
 
@@ -171,11 +221,15 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
     public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
         return unmodifiableList(asList(
                 new ActionHandler<>(FeatureStoreAction.INSTANCE, TransportFeatureStoreAction.class),
+                new ActionHandler<>(FeatureStoreBulkAction.INSTANCE, TransportFeatureStoreBulkAction.class),
                 new ActionHandler<>(CachesStatsAction.INSTANCE, TransportCacheStatsAction.class),
                 new ActionHandler<>(ClearCachesAction.INSTANCE, TransportClearCachesAction.class),
                 new ActionHandler<>(AddFeaturesToSetAction.INSTANCE, TransportAddFeatureToSetAction.class),
                 new ActionHandler<>(CreateModelFromSetAction.INSTANCE, TransportCreateModelFromSetAction.class),
-                new ActionHandler<>(ListStoresAction.INSTANCE, TransportListStoresAction.class)));
+                new ActionHandler<>(ListStoresAction.INSTANCE, TransportListStoresAction.class),
+                new ActionHandler<>(ModelAliasAction.INSTANCE, TransportModelAliasAction.class),
+                new ActionHandler<>(ExtractFeaturesAction.INSTANCE, TransportExtractFeaturesAction.class),
+                new ActionHandler<>(LogFeaturesAction.INSTANCE, TransportLogFeaturesAction.class)));
     }
 
     @Override
@@ -183,7 +237,9 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
         return unmodifiableList(asList(
                 new Entry(StorableElement.class, StoredFeature.TYPE, StoredFeature::new),
                 new Entry(StorableElement.class, StoredFeatureSet.TYPE, StoredFeatureSet::new),
-                new Entry(StorableElement.class, StoredLtrModel.TYPE, StoredLtrModel::new)
+                new Entry(StorableElement.class, StoredLtrModel.TYPE, StoredLtrModel::new),
+                new Entry(StorableElement.class, StoredModelAlias.TYPE, StoredModelAlias::new),
+                new Entry(Task.Status.class, FeatureExtractionTask.Status.NAME, FeatureExtractionTask.Status::new)
         ));
     }
 
@@ -198,7 +254,10 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
                         (CheckedFunction<XContentParser, StorableElement, IOException>) StoredFeatureSet::parse),
                 new NamedXContentRegistry.Entry(StorableElement.class,
                         new ParseField(StoredLtrModel.TYPE),
-                        (CheckedFunction<XContentParser, StorableElement, IOException>) StoredLtrModel::parse)
+                        (CheckedFunction<XContentParser, StorableElement, IOException>) StoredLtrModel::parse),
+                new NamedXContentRegistry.Entry(StorableElement.class,
+                        new ParseField(StoredModelAlias.TYPE),
+                        (CheckedFunction<XContentParser, StorableElement, IOException>) StoredModelAlias::parse)
         ));
     }
 
@@ -207,8 +266,36 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
         return unmodifiableList(asList(
                 IndexFeatureStore.STORE_VERSION_PROP,
                 Caches.LTR_CACHE_MEM_SETTING,
+                Caches.LTR_CACHE_MEM_PER_STORE_SETTING,
+                Caches.LTR_CACHE_STORE_MEM_SETTING,
+                Caches.LTR_CACHE_ADMISSION_FILTER,
+                Caches.LTR_CACHE_OFF_HEAP_TREES,
+                Caches.LTR_CACHE_RESOLVED_MODEL_TTL,
                 Caches.LTR_CACHE_EXPIRE_AFTER_READ,
-                Caches.LTR_CACHE_EXPIRE_AFTER_WRITE));
+                Caches.LTR_CACHE_EXPIRE_AFTER_WRITE,
+                StoreVersionWatcher.LTR_CACHE_VERSION_CHECK_INTERVAL,
+                TransportFeatureStoreAction.LTR_MODELS_COMPACT_ENCODING,
+                IndexFeatureStore.LTR_STORE_REPLICAS_ON_ALL_NODES,
+                LoadExecutor.LTR_CACHE_LOAD_TIMEOUT,
+                ParallelFeatureExecutor.LTR_PARALLEL_COMPILE_MIN_FEATURES,
+                ParallelFeatureExecutor.LTR_PARALLEL_QUERY_MIN_FEATURES,
+                ParallelFeatureExecutor.LTR_PARALLEL_LOGGING,
+                ParallelFeatureExecutor.LTR_PARALLEL_LOGGING_MIN_HITS_PER_LEAF,
+                RenderedQueryCache.LTR_CACHE_RENDERED_QUERIES_MEM,
+                FileFeatureStores.LTR_FILE_STORES_PATH,
+                LtrCircuitBreaker.LTR_BREAKER_LIMIT,
+                LtrCircuitBreaker.LTR_BREAKER_OVERHEAD,
+                FeatureExtractionJob.LTR_TRAINING_PATH,
+                FeatureLogSink.LTR_LOG_SINK_QUEUE_SIZE,
+                FeatureLogSink.LTR_LOG_SINK_PATH,
+                FeatureLogSink.LTR_LOG_SINK_FLUSH_INTERVAL,
+                FeatureLogSink.LTR_LOG_SINK_MAX_FILE_SIZE,
+                FeatureLogSink.LTR_LOG_SINK_MAX_FILES));
+    }
+
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        return asList(LoadExecutor.executorBuilder(settings), ParallelFeatureExecutor.executorBuilder(settings));
     }
 
     @Override
@@ -224,15 +311,70 @@ public class LtrQueryParserPlugin extends Plugin implements SearchPlugin, Script
         clusterService.addListener(event -> {
             for (Index i : event.indicesDeleted()) {
                 if (IndexFeatureStore.isIndexStore(i.getName())) {
-                    caches.evict(i.getName());
+                    caches.removeStore(i.getName());
                 }
             }
         });
-        return asList(caches, parserFactory);
+        caches.setLoadExecutor(new LoadExecutor(clusterService.getSettings(), threadPool));
+        services.setFeatureExecutor(new ParallelFeatureExecutor(clusterService.getSettings(), threadPool));
+        services.setRenderedQueryCache(RenderedQueryCache.create(clusterService.getSettings()));
+        storeVersionWatcher = new StoreVersionWatcher(clusterService.getSettings(), caches, client, threadPool);
+        storeVersionWatcher.start();
+        services.setFeatureLogSink(FeatureLogSink.create(clusterService.getSettings(), environment.logsFile(),
+                threadPool));
+        fileFeatureStores = new FileFeatureStores(clusterService.getSettings(), environment.configFile(), caches, parserFactory,
+                services);
+        try {
+            fileFeatureStores.start(resourceWatcherService);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return asList(caches, parserFactory, services, storeVersionWatcher, fileFeatureStores);
+    }
+
+    @Override
+    public Collection<Module> createGuiceModules() {
+        return singletonList((b) -> {
+            // the breaker service is only available through injection
+            b.bind(LtrCircuitBreaker.Registration.class).asEagerSingleton();
+            // used by the actions loading feature sets on the shards
+            b.bind(FeatureStoreLoader.class).toInstance(getFeatureStoreLoader());
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        services.setCircuitBreaker(null);
+        if (storeVersionWatcher != null) {
+            storeVersionWatcher.close();
+        }
+        services.setFeatureExecutor(null);
+        RenderedQueryCache renderedQueryCache = services.getRenderedQueryCache();
+        services.setRenderedQueryCache(null);
+        if (renderedQueryCache != null) {
+            renderedQueryCache.clear();
+        }
+        if (fileFeatureStores != null) {
+            fileFeatureStores.close();
+        }
+        services.getFeatureInterner().clear();
+        FeatureLogSink featureLogSink = services.getFeatureLogSink();
+        services.setFeatureLogSink(null);
+        if (featureLogSink != null) {
+            featureLogSink.close();
+        }
     }
 
     protected FeatureStoreLoader getFeatureStoreLoader() {
-        return (storeName, client) -> new CachedFeatureStore(new IndexFeatureStore(storeName, client, parserFactory), caches);
+        return (storeName, client) -> {
+            if (FileFeatureStore.isFileStore(storeName)) {
+                if (fileFeatureStores == null) {
+                    throw new IllegalStateException("File stores are not available");
+                }
+                return new CachedFeatureStore(fileFeatureStores.get(storeName), caches);
+            }
+            return new CachedFeatureStore(new IndexFeatureStore(storeName, client, parserFactory, services), caches);
+        };
     }
 
 
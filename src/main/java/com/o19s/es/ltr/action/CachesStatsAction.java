@@ -16,7 +16,14 @@
 
 package com.o19s.es.ltr.action;
 
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
+import com.o19s.es.ltr.feature.store.RenderedQueryCache;
+import com.o19s.es.ltr.logging.FeatureLogSink;
+import com.o19s.es.ltr.feature.store.index.CacheCounters;
+import com.o19s.es.ltr.feature.store.index.CacheCounters.EvictionCause;
 import com.o19s.es.ltr.feature.store.index.Caches;
+import com.o19s.es.ltr.feature.store.index.LoadExecutor;
+import com.o19s.es.ltr.feature.store.index.LoadTimeHistogram;
 import org.elasticsearch.action.Action;
 import org.elasticsearch.action.ActionRequestBuilder;
 import org.elasticsearch.action.FailedNodeException;
@@ -34,8 +41,11 @@ import org.elasticsearch.common.xcontent.XContentBuilder;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class CachesStatsAction extends Action<CachesStatsAction.CachesStatsNodesRequest,
         CachesStatsAction.CachesStatsNodesResponse, CachesStatsAction.CacheStatsRequestBuilder> {
@@ -119,6 +129,15 @@ public class CachesStatsAction extends Action<CachesStatsAction.CachesStatsNodes
                 builder.field("name", resp.getNode().getName());
                 builder.field("hostname", resp.getNode().getHostName());
                 builder.field("stats", resp.allStores);
+                if (resp.loadStats != null) {
+                    builder.field("load_executor", resp.loadStats);
+                }
+                if (resp.renderedQueryStats != null) {
+                    builder.field("rendered_queries", resp.renderedQueryStats);
+                }
+                if (resp.logSinkStats != null) {
+                    builder.field("log_sink", resp.logSinkStats);
+                }
                 builder.endObject();
             }
             builder.endObject();
@@ -132,6 +151,9 @@ public class CachesStatsAction extends Action<CachesStatsAction.CachesStatsNodes
     public static class CachesStatsNodeResponse extends BaseNodeResponse {
         private StatDetails allStores;
         private Map<String, StatDetails> byStore;
+        private LoadExecutor.Stats loadStats;
+        private RenderedQueryCache.Stats renderedQueryStats;
+        private FeatureLogSink.Stats logSinkStats;
 
         CachesStatsNodeResponse() {
             empty();
@@ -150,6 +172,9 @@ public class CachesStatsAction extends Action<CachesStatsAction.CachesStatsNodes
             super.writeTo(out);
             allStores.writeTo(out);
             out.writeMap(byStore, StreamOutput::writeString, (o, s) -> s.writeTo(o));
+            out.writeOptionalWriteable(loadStats);
+            out.writeOptionalWriteable(renderedQueryStats);
+            out.writeOptionalWriteable(logSinkStats);
         }
 
         @Override
@@ -157,6 +182,9 @@ public class CachesStatsAction extends Action<CachesStatsAction.CachesStatsNodes
             super.readFrom(in);
             allStores = new StatDetails(in);
             byStore = in.readMap(StreamInput::readString, StatDetails::new);
+            loadStats = in.readOptionalWriteable(LoadExecutor.Stats::new);
+            renderedQueryStats = in.readOptionalWriteable(RenderedQueryCache.Stats::new);
+            logSinkStats = in.readOptionalWriteable(FeatureLogSink.Stats::new);
         }
 
         public void empty() {
@@ -164,20 +192,50 @@ public class CachesStatsAction extends Action<CachesStatsAction.CachesStatsNodes
             byStore = new HashMap<>();
         }
 
-        public CachesStatsNodeResponse initFromCaches(Caches caches) {
+        public CachesStatsNodeResponse initFromCaches(Caches caches, LtrNodeServices services) {
             allStores = new StatDetails();
             byStore = new HashMap<>();
-            caches.perStoreStatsStream().forEach((en) -> {
-                StatDetails details = new StatDetails(en.getValue());
+            // Stores without resident entries may still have activity counters
+            Set<String> stores = new HashSet<>(caches.getCachedStoreNames());
+            caches.perStoreCountersStream().forEach((en) -> stores.add(en.getKey()));
+            for (String store : stores) {
+                StatDetails details = new StatDetails(caches.getPerStoreStats(store), caches.getPerStoreCounters(store));
                 allStores.doSum(details);
-                byStore.compute(en.getKey(), (k, v) -> StatDetails.sum(v, details));
-            });
+                byStore.compute(store, (k, v) -> StatDetails.sum(v, details));
+            }
+            LoadExecutor executor = caches.getLoadExecutor();
+            loadStats = executor != null ? executor.stats() : null;
+            RenderedQueryCache renderedQueryCache = services.getRenderedQueryCache();
+            renderedQueryStats = renderedQueryCache != null ? renderedQueryCache.stats() : null;
+            FeatureLogSink logSink = services.getFeatureLogSink();
+            logSinkStats = logSink != null ? logSink.stats() : null;
             return this;
         }
 
         public StatDetails getAllStores() {
             return allStores;
         }
+
+        /**
+         * Stats of the ltr_load executor, null if the loads run on the calling threads
+         */
+        public LoadExecutor.Stats getLoadStats() {
+            return loadStats;
+        }
+
+        /**
+         * Stats of the rendered query cache, null if disabled
+         */
+        public RenderedQueryCache.Stats getRenderedQueryStats() {
+            return renderedQueryStats;
+        }
+
+        /**
+         * Stats of the feature log sink, null if disabled
+         */
+        public FeatureLogSink.Stats getLogSinkStats() {
+            return logSinkStats;
+        }
     }
     public static class StatDetails implements Writeable, ToXContent {
         private Stat total;
@@ -190,10 +248,17 @@ public class CachesStatsAction extends Action<CachesStatsAction.CachesStatsNodes
         }
 
         public StatDetails(Caches.PerStoreStats stats) {
-            total = new Stat(stats.totalRam(), stats.totalCount());
-            features = new Stat(stats.featureRam(), stats.featureCount());
-            featuresets = new Stat(stats.featureSetRam(), stats.featureSetCount());
-            models = new Stat(stats.modelRam(), stats.modelCount());
+            this(stats, Caches.StoreCounters.EMPTY);
+        }
+
+        public StatDetails(Caches.PerStoreStats stats, Caches.StoreCounters counters) {
+            features = new Stat(stats.featureRam(), stats.featureCount(), counters.features());
+            featuresets = new Stat(stats.featureSetRam(), stats.featureSetCount(), counters.featureSets());
+            models = new Stat(stats.modelRam(), stats.modelOffHeapRam(), stats.modelCount(), counters.models());
+            total = new Stat(0, 0);
+            total.sum(features);
+            total.sum(featuresets);
+            total.sum(models);
         }
 
         StatDetails(StreamInput in) throws IOException {
@@ -269,44 +334,208 @@ public class CachesStatsAction extends Action<CachesStatsAction.CachesStatsNodes
 
         public static class Stat implements Writeable, ToXContent {
             private long ram;
+            // part of ram used outside of the heap
+            private long offHeapRam;
             private int count;
+            private long hits;
+            private long misses;
+            private long loads;
+            private long loadFailures;
+            private long[] evictions;
+            private LoadTime fetchTime;
+            private LoadTime compileTime;
 
             public Stat(StreamInput in) throws IOException {
                 ram = in.readVLong();
+                offHeapRam = in.readVLong();
                 count = in.readVInt();
+                hits = in.readVLong();
+                misses = in.readVLong();
+                loads = in.readVLong();
+                loadFailures = in.readVLong();
+                evictions = in.readVLongArray();
+                fetchTime = new LoadTime(in);
+                compileTime = new LoadTime(in);
             }
 
             public Stat(long ram, int count) {
                 this.ram = ram;
                 this.count = count;
+                this.evictions = new long[EvictionCause.values().length];
+                this.fetchTime = new LoadTime();
+                this.compileTime = new LoadTime();
+            }
+
+            public Stat(long ram, int count, CacheCounters counters) {
+                this(ram, 0, count, counters);
+            }
+
+            public Stat(long ram, long offHeapRam, int count, CacheCounters counters) {
+                this.ram = ram;
+                this.offHeapRam = offHeapRam;
+                this.count = count;
+                this.hits = counters.hits();
+                this.misses = counters.misses();
+                this.loads = counters.loads();
+                this.loadFailures = counters.loadFailures();
+                this.evictions = new long[EvictionCause.values().length];
+                for (EvictionCause cause : EvictionCause.values()) {
+                    evictions[cause.ordinal()] = counters.evictions(cause);
+                }
+                this.fetchTime = new LoadTime(counters.fetchTime());
+                this.compileTime = new LoadTime(counters.compileTime());
             }
 
             public void sum(Stat other) {
                 ram += other.ram;
+                offHeapRam += other.offHeapRam;
                 count += other.count;
+                hits += other.hits;
+                misses += other.misses;
+                loads += other.loads;
+                loadFailures += other.loadFailures;
+                for (int i = 0; i < evictions.length; i++) {
+                    evictions[i] += other.evictions[i];
+                }
+                fetchTime.sum(other.fetchTime);
+                compileTime.sum(other.compileTime);
             }
 
             public long getRam() {
                 return ram;
             }
 
+            public long getHeapRam() {
+                return ram - offHeapRam;
+            }
+
+            public long getOffHeapRam() {
+                return offHeapRam;
+            }
+
             public int getCount() {
                 return count;
             }
 
+            public long getHits() {
+                return hits;
+            }
+
+            public long getMisses() {
+                return misses;
+            }
+
+            public long getLoads() {
+                return loads;
+            }
+
+            public long getLoadFailures() {
+                return loadFailures;
+            }
+
+            public long getEvictions(EvictionCause cause) {
+                return evictions[cause.ordinal()];
+            }
+
+            public LoadTime getFetchTime() {
+                return fetchTime;
+            }
+
+            public LoadTime getCompileTime() {
+                return compileTime;
+            }
+
             @Override
             public void writeTo(StreamOutput out) throws IOException {
                 out.writeVLong(ram);
+                out.writeVLong(offHeapRam);
                 out.writeVInt(count);
+                out.writeVLong(hits);
+                out.writeVLong(misses);
+                out.writeVLong(loads);
+                out.writeVLong(loadFailures);
+                out.writeVLongArray(evictions);
+                fetchTime.writeTo(out);
+                compileTime.writeTo(out);
             }
 
             @Override
             public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
-                return builder.startObject()
+                builder.startObject()
                         .field("ram", ram)
+                        .field("heap_ram", ram - offHeapRam)
+                        .field("off_heap_ram", offHeapRam)
                         .field("count", count)
+                        .field("hits", hits)
+                        .field("misses", misses)
+                        .field("loads", loads)
+                        .field("load_failures", loadFailures);
+                builder.startObject("evictions");
+                for (EvictionCause cause : EvictionCause.values()) {
+                    builder.field(cause.toString(), evictions[cause.ordinal()]);
+                }
+                builder.endObject();
+                return builder.field("fetch_time", fetchTime)
+                        .field("compile_time", compileTime)
                         .endObject();
             }
         }
+
+        /**
+         * Load time histogram, see {@link LoadTimeHistogram#BUCKETS_MS}
+         */
+        public static class LoadTime implements Writeable, ToXContent {
+            private final long[] counts;
+            private long totalNanos;
+
+            LoadTime() {
+                counts = new long[LoadTimeHistogram.BUCKETS_MS.length + 1];
+            }
+
+            LoadTime(LoadTimeHistogram histogram) {
+                counts = histogram.counts();
+                totalNanos = histogram.totalNanos();
+            }
+
+            LoadTime(StreamInput in) throws IOException {
+                counts = in.readVLongArray();
+                totalNanos = in.readVLong();
+            }
+
+            void sum(LoadTime other) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += other.counts[i];
+                }
+                totalNanos += other.totalNanos;
+            }
+
+            public long[] getCounts() {
+                return counts;
+            }
+
+            public long getTotalNanos() {
+                return totalNanos;
+            }
+
+            @Override
+            public void writeTo(StreamOutput out) throws IOException {
+                out.writeVLongArray(counts);
+                out.writeVLong(totalNanos);
+            }
+
+            @Override
+            public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+                builder.startObject();
+                builder.field("total_in_millis", TimeUnit.NANOSECONDS.toMillis(totalNanos));
+                builder.startObject("histogram");
+                for (int i = 0; i < LoadTimeHistogram.BUCKETS_MS.length; i++) {
+                    builder.field("le_" + LoadTimeHistogram.BUCKETS_MS[i] + "ms", counts[i]);
+                }
+                builder.field("gt_" + LoadTimeHistogram.BUCKETS_MS[LoadTimeHistogram.BUCKETS_MS.length - 1] + "ms",
+                        counts[LoadTimeHistogram.BUCKETS_MS.length]);
+                builder.endObject();
+                return builder.endObject();
+            }
+        }
     }
 }
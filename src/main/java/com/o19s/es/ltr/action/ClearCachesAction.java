@@ -16,6 +16,7 @@
 
 package com.o19s.es.ltr.action;
 
+import com.o19s.es.ltr.feature.store.index.Caches;
 import org.elasticsearch.action.Action;
 import org.elasticsearch.action.ActionRequestBuilder;
 import org.elasticsearch.action.ActionRequestValidationException;
@@ -30,6 +31,7 @@ import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -65,6 +67,11 @@ public class ClearCachesAction extends Action<ClearCachesAction.ClearCachesNodes
         private String store;
         private Operation operation;
         private String name;
+        private String model;
+        private List<String> features = Collections.emptyList();
+        private List<String> featureSets = Collections.emptyList();
+        private List<String> models = Collections.emptyList();
+        private long version = Caches.CacheKey.UNKNOWN_VERSION;
 
         @Override
         public ActionRequestValidationException validate() {
@@ -77,7 +84,7 @@ public class ClearCachesAction extends Action<ClearCachesAction.ClearCachesNodes
                 arve = addValidationError("no operation provided", arve);
             }
 
-            if (operation != null && operation != Operation.ClearStore && name == null) {
+            if (operation != null && operation != Operation.ClearStore && operation != Operation.ClearElements && name == null) {
                 arve = addValidationError("name must be provided if clearing a specific element", arve);
             }
             return arve;
@@ -89,6 +96,11 @@ public class ClearCachesAction extends Action<ClearCachesAction.ClearCachesNodes
             store = in.readString();
             operation = Operation.values()[in.readVInt()];
             name = in.readOptionalString();
+            model = in.readOptionalString();
+            features = in.readList(StreamInput::readString);
+            featureSets = in.readList(StreamInput::readString);
+            models = in.readList(StreamInput::readString);
+            version = in.readLong();
         }
 
         public void clearStore(String storeName) {
@@ -108,6 +120,37 @@ public class ClearCachesAction extends Action<ClearCachesAction.ClearCachesNodes
             clearElement(storeName, name, ClearCachesNodesRequest.Operation.ClearModel);
         }
 
+        /**
+         * Clear several elements of the same store at once
+         */
+        public void clearElements(String storeName, List<String> features, List<String> featureSets, List<String> models) {
+            operation = Operation.ClearElements;
+            store = Objects.requireNonNull(storeName);
+            this.features = Objects.requireNonNull(features);
+            this.featureSets = Objects.requireNonNull(featureSets);
+            this.models = Objects.requireNonNull(models);
+        }
+
+        /**
+         * Compile a model and load it in the caches
+         */
+        public void warmModel(String storeName, String name) {
+            clearElement(storeName, name, Operation.WarmModel);
+        }
+
+        /**
+         * Point a model alias to a model (or forget it if model is null) and evict the models
+         * the alias no longer points to.
+         *
+         * @param version version of the alias document
+         */
+        public void setModelAlias(String storeName, String alias, String model, long version, List<String> releasedModels) {
+            clearElement(storeName, alias, Operation.SetModelAlias);
+            this.model = model;
+            this.version = version;
+            this.models = Objects.requireNonNull(releasedModels);
+        }
+
         private void clearElement(String storeName, String name, ClearCachesNodesRequest.Operation op) {
             operation = op;
             store = Objects.requireNonNull(storeName);
@@ -120,13 +163,21 @@ public class ClearCachesAction extends Action<ClearCachesAction.ClearCachesNodes
             out.writeString(store);
             out.writeVInt(operation.ordinal());
             out.writeOptionalString(name);
+            out.writeOptionalString(model);
+            out.writeStringList(features);
+            out.writeStringList(featureSets);
+            out.writeStringList(models);
+            out.writeLong(version);
         }
 
         public enum Operation {
             ClearStore,
             ClearFeature,
             ClearFeatureSet,
-            ClearModel
+            ClearModel,
+            ClearElements,
+            WarmModel,
+            SetModelAlias
         }
 
         public String getStore() {
@@ -140,6 +191,29 @@ public class ClearCachesAction extends Action<ClearCachesAction.ClearCachesNodes
         public String getName() {
             return name;
         }
+
+        public String getModel() {
+            return model;
+        }
+
+        public List<String> getFeatures() {
+            return features;
+        }
+
+        public List<String> getFeatureSets() {
+            return featureSets;
+        }
+
+        public List<String> getModels() {
+            return models;
+        }
+
+        /**
+         * Version of the model alias document
+         */
+        public long getVersion() {
+            return version;
+        }
     }
 
     public static class ClearCachesNodesResponse extends BaseNodesResponse<ClearCachesNodeResponse> {
@@ -0,0 +1,281 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.training.FeatureExtractionTask;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Extract the features of the docs of a judgment file and write them as training data.
+ * The files are read and written on the node that runs the task.
+ */
+public class ExtractFeaturesAction extends Action<ExtractFeaturesAction.ExtractFeaturesRequest,
+        ExtractFeaturesAction.ExtractFeaturesResponse, ExtractFeaturesAction.ExtractFeaturesRequestBuilder> {
+    public static final String NAME = "cluster:admin/ltr/training/extract_features";
+    public static final ExtractFeaturesAction INSTANCE = new ExtractFeaturesAction();
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final int MAX_PARALLELISM = 64;
+
+    protected ExtractFeaturesAction() {
+        super(NAME);
+    }
+
+    @Override
+    public ExtractFeaturesRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new ExtractFeaturesRequestBuilder(client);
+    }
+
+    @Override
+    public ExtractFeaturesResponse newResponse() {
+        return new ExtractFeaturesResponse();
+    }
+
+    public static class ExtractFeaturesRequestBuilder extends ActionRequestBuilder<ExtractFeaturesRequest,
+            ExtractFeaturesResponse, ExtractFeaturesRequestBuilder> {
+        protected ExtractFeaturesRequestBuilder(ElasticsearchClient client) {
+            super(client, INSTANCE, new ExtractFeaturesRequest());
+        }
+
+        public ExtractFeaturesRequestBuilder setFeatureSet(String index, String store, String featureSet) {
+            request.index = index;
+            request.store = store;
+            request.featureSet = featureSet;
+            return this;
+        }
+
+        public ExtractFeaturesRequestBuilder setFiles(String judgments, String output) {
+            request.judgments = judgments;
+            request.output = output;
+            return this;
+        }
+
+        public ExtractFeaturesRequestBuilder setParallelism(int parallelism) {
+            request.parallelism = parallelism;
+            return this;
+        }
+    }
+
+    public static class ExtractFeaturesRequest extends ActionRequest {
+        private String index;
+        private String store;
+        private String featureSet;
+        private String judgments;
+        private String output;
+        private int parallelism = DEFAULT_PARALLELISM;
+        private boolean shouldStoreResult;
+
+        public ExtractFeaturesRequest() {
+        }
+
+        @Override
+        public ActionRequestValidationException validate() {
+            ActionRequestValidationException arve = null;
+            if (index == null) {
+                arve = addValidationError("index must be set", null);
+            }
+            if (featureSet == null) {
+                arve = addValidationError("featureset must be set", arve);
+            }
+            if (judgments == null) {
+                arve = addValidationError("judgments must be set", arve);
+            }
+            if (output == null) {
+                arve = addValidationError("output must be set", arve);
+            }
+            if (judgments != null && judgments.equals(output)) {
+                arve = addValidationError("judgments and output must be different files", arve);
+            }
+            if (parallelism < 1 || parallelism > MAX_PARALLELISM) {
+                arve = addValidationError("parallelism must be between 1 and " + MAX_PARALLELISM, arve);
+            }
+            return arve;
+        }
+
+        @Override
+        public Task createTask(long id, String type, String action, TaskId parentTaskId, Map<String, String> headers) {
+            return new FeatureExtractionTask(id, type, action, getDescription(), parentTaskId, headers);
+        }
+
+        @Override
+        public String getDescription() {
+            return "extract features of [" + featureSet + "] on [" + index + "] from [" + judgments + "] to [" + output + "]";
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            index = in.readString();
+            store = in.readOptionalString();
+            featureSet = in.readString();
+            judgments = in.readString();
+            output = in.readString();
+            parallelism = in.readVInt();
+            shouldStoreResult = in.readBoolean();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeString(index);
+            out.writeOptionalString(store);
+            out.writeString(featureSet);
+            out.writeString(judgments);
+            out.writeString(output);
+            out.writeVInt(parallelism);
+            out.writeBoolean(shouldStoreResult);
+        }
+
+        @Override
+        public boolean getShouldStoreResult() {
+            return shouldStoreResult;
+        }
+
+        /**
+         * Store the response in the tasks index so that it can be fetched once the task completes
+         */
+        public void setShouldStoreResult(boolean shouldStoreResult) {
+            this.shouldStoreResult = shouldStoreResult;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public void setIndex(String index) {
+            this.index = index;
+        }
+
+        public String getStore() {
+            return store;
+        }
+
+        public void setStore(String store) {
+            this.store = store;
+        }
+
+        public String getFeatureSet() {
+            return featureSet;
+        }
+
+        public void setFeatureSet(String featureSet) {
+            this.featureSet = featureSet;
+        }
+
+        /**
+         * The judgment file, relative to ltr.training.path
+         */
+        public String getJudgments() {
+            return judgments;
+        }
+
+        public void setJudgments(String judgments) {
+            this.judgments = judgments;
+        }
+
+        /**
+         * The training data file, relative to ltr.training.path
+         */
+        public String getOutput() {
+            return output;
+        }
+
+        public void setOutput(String output) {
+            this.output = output;
+        }
+
+        /**
+         * Number of queries being extracted concurrently
+         */
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+    }
+
+    public static class ExtractFeaturesResponse extends ActionResponse implements ToXContentObject {
+        private String output;
+        private TimeValue took;
+        private FeatureExtractionTask.Status status;
+
+        public ExtractFeaturesResponse() {
+        }
+
+        public ExtractFeaturesResponse(String output, TimeValue took, FeatureExtractionTask.Status status) {
+            this.output = output;
+            this.took = took;
+            this.status = status;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            output = in.readString();
+            took = new TimeValue(in);
+            status = new FeatureExtractionTask.Status(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeString(output);
+            took.writeTo(out);
+            status.writeTo(out);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("output", output);
+            builder.field("took", took.millis());
+            status.toXContentFragment(builder);
+            return builder.endObject();
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+        public TimeValue getTook() {
+            return took;
+        }
+
+        public FeatureExtractionTask.Status getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.FeatureStoreAction.FeatureStoreRequest;
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.StatusToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Store several elements at once: one validation search per validation index,
+ * a single bulk request and a single cache invalidation.
+ */
+public class FeatureStoreBulkAction extends Action<FeatureStoreBulkAction.FeatureStoreBulkRequest,
+        FeatureStoreBulkAction.FeatureStoreBulkResponse, FeatureStoreBulkAction.FeatureStoreBulkRequestBuilder> {
+    public static final String NAME = "cluster:admin/ltr/featurestore/bulk";
+    public static final FeatureStoreBulkAction INSTANCE = new FeatureStoreBulkAction();
+
+    protected FeatureStoreBulkAction() {
+        super(NAME);
+    }
+
+    @Override
+    public FeatureStoreBulkResponse newResponse() {
+        return new FeatureStoreBulkResponse();
+    }
+
+    @Override
+    public FeatureStoreBulkRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new FeatureStoreBulkRequestBuilder(client, this);
+    }
+
+    public static class FeatureStoreBulkRequestBuilder
+            extends ActionRequestBuilder<FeatureStoreBulkRequest, FeatureStoreBulkResponse, FeatureStoreBulkRequestBuilder> {
+        FeatureStoreBulkRequestBuilder(ElasticsearchClient client, FeatureStoreBulkAction action) {
+            super(client, action, new FeatureStoreBulkRequest());
+        }
+    }
+
+    public static class FeatureStoreBulkRequest extends ActionRequest {
+        private String store;
+        private List<FeatureStoreRequest> requests = new ArrayList<>();
+
+        public FeatureStoreBulkRequest() {}
+
+        public FeatureStoreBulkRequest(String store) {
+            this.store = Objects.requireNonNull(store);
+        }
+
+        /**
+         * Add an element, the store of the request must be the store of this bulk request
+         */
+        public FeatureStoreBulkRequest add(FeatureStoreRequest request) {
+            requests.add(Objects.requireNonNull(request));
+            return this;
+        }
+
+        @Override
+        public ActionRequestValidationException validate() {
+            ActionRequestValidationException arve = null;
+            if (store == null) {
+                return addValidationError("store must be set", null);
+            }
+            if (requests.isEmpty()) {
+                arve = addValidationError("no elements provided", arve);
+            }
+            for (int i = 0; i < requests.size(); i++) {
+                FeatureStoreRequest request = requests.get(i);
+                if (!store.equals(request.getStore())) {
+                    arve = addValidationError("element [" + i + "] targets store [" + request.getStore() + "] " +
+                            "but the bulk request targets [" + store + "]", arve);
+                }
+                ActionRequestValidationException itemArve = request.validate();
+                if (itemArve != null) {
+                    for (String error : itemArve.validationErrors()) {
+                        arve = addValidationError("element [" + i + "]: " + error, arve);
+                    }
+                }
+            }
+            return arve;
+        }
+
+        public String getStore() {
+            return store;
+        }
+
+        public void setStore(String store) {
+            this.store = store;
+        }
+
+        public List<FeatureStoreRequest> getRequests() {
+            return requests;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            store = in.readString();
+            requests = in.readStreamableList(FeatureStoreRequest::new);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeString(store);
+            out.writeStreamableList(requests);
+        }
+    }
+
+    public static class FeatureStoreBulkResponse extends ActionResponse implements StatusToXContentObject {
+        private BulkResponse response;
+
+        public FeatureStoreBulkResponse() {}
+
+        public FeatureStoreBulkResponse(BulkResponse response) {
+            this.response = response;
+        }
+
+        public BulkResponse getResponse() {
+            return response;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            BulkItemResponse[] items = new BulkItemResponse[in.readVInt()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = BulkItemResponse.readBulkItem(in);
+            }
+            response = new BulkResponse(items, in.readVLong());
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeVInt(response.getItems().length);
+            for (BulkItemResponse item : response.getItems()) {
+                item.writeTo(out);
+            }
+            out.writeVLong(response.getTook().millis());
+        }
+
+        @Override
+        public RestStatus status() {
+            return response.status();
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            return response.toXContent(builder, params);
+        }
+    }
+}
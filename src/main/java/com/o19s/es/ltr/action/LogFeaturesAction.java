@@ -0,0 +1,397 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.action;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastRequest;
+import org.elasticsearch.action.support.broadcast.BroadcastResponse;
+import org.elasticsearch.action.support.broadcast.BroadcastShardRequest;
+import org.elasticsearch.action.support.broadcast.BroadcastShardResponse;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.action.RestActions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Log the features of a feature set for a batch of queries, each with its own params and docs.
+ * Each shard resolves the docs of all the queries and logs them in a single pass over its segments.
+ */
+public class LogFeaturesAction extends Action<LogFeaturesAction.LogFeaturesRequest,
+        LogFeaturesAction.LogFeaturesResponse, LogFeaturesAction.LogFeaturesRequestBuilder> {
+    public static final String NAME = "indices:data/read/ltr/log_features";
+    public static final LogFeaturesAction INSTANCE = new LogFeaturesAction();
+
+    protected LogFeaturesAction() {
+        super(NAME);
+    }
+
+    @Override
+    public LogFeaturesRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new LogFeaturesRequestBuilder(client);
+    }
+
+    @Override
+    public LogFeaturesResponse newResponse() {
+        return new LogFeaturesResponse();
+    }
+
+    public static class LogFeaturesRequestBuilder extends BroadcastOperationRequestBuilder<LogFeaturesRequest,
+            LogFeaturesResponse, LogFeaturesRequestBuilder> {
+        protected LogFeaturesRequestBuilder(ElasticsearchClient client) {
+            super(client, INSTANCE, new LogFeaturesRequest());
+        }
+
+        public LogFeaturesRequestBuilder setFeatureSet(String store, String featureSet) {
+            request.setStore(store);
+            request.setFeatureSet(featureSet);
+            return this;
+        }
+
+        public LogFeaturesRequestBuilder addQuery(String id, Map<String, Object> params, List<String> docIds) {
+            request.queries.add(new LogQuery(id, params, docIds));
+            return this;
+        }
+    }
+
+    public static class LogFeaturesRequest extends BroadcastRequest<LogFeaturesRequest> {
+        private String store;
+        private String featureSet;
+        private List<LogQuery> queries = new ArrayList<>();
+
+        public LogFeaturesRequest(String... indices) {
+            super(indices);
+        }
+
+        @Override
+        public ActionRequestValidationException validate() {
+            ActionRequestValidationException arve = super.validate();
+            if (featureSet == null) {
+                arve = addValidationError("featureset must be set", arve);
+            }
+            if (queries.isEmpty()) {
+                arve = addValidationError("at least one query must be provided", arve);
+            }
+            return arve;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            store = in.readOptionalString();
+            featureSet = in.readString();
+            queries = in.readList(LogQuery::new);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeOptionalString(store);
+            out.writeString(featureSet);
+            out.writeList(queries);
+        }
+
+        /**
+         * The name of the store as used by the sltr query, null for the default store
+         */
+        public String getStore() {
+            return store;
+        }
+
+        public void setStore(String store) {
+            this.store = store;
+        }
+
+        public String getFeatureSet() {
+            return featureSet;
+        }
+
+        public void setFeatureSet(String featureSet) {
+            this.featureSet = featureSet;
+        }
+
+        public List<LogQuery> getQueries() {
+            return queries;
+        }
+
+        public void setQueries(List<LogQuery> queries) {
+            this.queries = Objects.requireNonNull(queries);
+        }
+    }
+
+    /**
+     * A query to log: the params of the feature set and the ids of the docs
+     */
+    public static class LogQuery implements Writeable {
+        private static final ObjectParser<LogQuery, Void> PARSER = new ObjectParser<>("query", LogQuery::new);
+
+        static {
+            PARSER.declareField((q, v) -> q.id = v, XContentParser::text, new ParseField("id"), ObjectParser.ValueType.VALUE);
+            PARSER.declareObject((q, v) -> q.params = v, (p, c) -> p.map(), new ParseField("params"));
+            PARSER.declareStringArray((q, v) -> q.docIds = v, new ParseField("docs"));
+        }
+
+        private String id;
+        private Map<String, Object> params = Collections.emptyMap();
+        private List<String> docIds;
+
+        public LogQuery(String id, Map<String, Object> params, List<String> docIds) {
+            this.id = Objects.requireNonNull(id);
+            this.params = Objects.requireNonNull(params);
+            this.docIds = Objects.requireNonNull(docIds);
+        }
+
+        public LogQuery(StreamInput in) throws IOException {
+            id = in.readString();
+            params = in.readMap();
+            docIds = in.readList(StreamInput::readString);
+        }
+
+        private LogQuery() {
+        }
+
+        public static LogQuery parse(XContentParser parser) throws IOException {
+            LogQuery query = PARSER.parse(parser, null);
+            if (query.id == null || query.docIds == null) {
+                throw new ParsingException(parser.getTokenLocation(), "Fields [id] and [docs] are mandatory");
+            }
+            return query;
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(id);
+            out.writeMap(params);
+            out.writeStringList(docIds);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Map<String, Object> getParams() {
+            return params;
+        }
+
+        public List<String> getDocIds() {
+            return docIds;
+        }
+    }
+
+    /**
+     * The features of the docs of a query, docs that were not found are missing
+     */
+    public static class LoggedQuery implements Writeable {
+        private final String id;
+        private final Map<String, float[]> docs;
+
+        public LoggedQuery(String id, Map<String, float[]> docs) {
+            this.id = id;
+            this.docs = docs;
+        }
+
+        public LoggedQuery(StreamInput in) throws IOException {
+            id = in.readString();
+            int size = in.readVInt();
+            docs = new LinkedHashMap<>(size);
+            for (int i = 0; i < size; i++) {
+                docs.put(in.readString(), in.readFloatArray());
+            }
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(id);
+            out.writeVInt(docs.size());
+            for (Map.Entry<String, float[]> doc : docs.entrySet()) {
+                out.writeString(doc.getKey());
+                out.writeFloatArray(doc.getValue());
+            }
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * The features of the docs found, by doc id
+         */
+        public Map<String, float[]> getDocs() {
+            return docs;
+        }
+    }
+
+    public static class LogFeaturesShardRequest extends BroadcastShardRequest {
+        private LogFeaturesRequest request;
+
+        public LogFeaturesShardRequest() {
+        }
+
+        public LogFeaturesShardRequest(ShardId shardId, LogFeaturesRequest request) {
+            super(shardId, request);
+            this.request = request;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            request = new LogFeaturesRequest();
+            request.store = in.readOptionalString();
+            request.featureSet = in.readString();
+            request.queries = in.readList(LogQuery::new);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeOptionalString(request.store);
+            out.writeString(request.featureSet);
+            out.writeList(request.queries);
+        }
+
+        public LogFeaturesRequest getRequest() {
+            return request;
+        }
+    }
+
+    public static class LogFeaturesShardResponse extends BroadcastShardResponse {
+        private List<String> featureNames;
+        private List<LoggedQuery> queries;
+
+        public LogFeaturesShardResponse() {
+        }
+
+        public LogFeaturesShardResponse(ShardId shardId, List<String> featureNames, List<LoggedQuery> queries) {
+            super(shardId);
+            this.featureNames = featureNames;
+            this.queries = queries;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            featureNames = in.readList(StreamInput::readString);
+            queries = in.readList(LoggedQuery::new);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeStringList(featureNames);
+            out.writeList(queries);
+        }
+
+        public List<String> getFeatureNames() {
+            return featureNames;
+        }
+
+        /**
+         * The docs found on this shard, in the order of the queries of the request
+         */
+        public List<LoggedQuery> getQueries() {
+            return queries;
+        }
+    }
+
+    public static class LogFeaturesResponse extends BroadcastResponse implements ToXContentObject {
+        private List<String> featureNames;
+        private List<LoggedQuery> queries;
+
+        public LogFeaturesResponse() {
+        }
+
+        public LogFeaturesResponse(int totalShards, int successfulShards, int failedShards,
+                                   List<? extends ShardOperationFailedException> shardFailures,
+                                   List<String> featureNames, List<LoggedQuery> queries) {
+            super(totalShards, successfulShards, failedShards, shardFailures);
+            this.featureNames = featureNames;
+            this.queries = queries;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            featureNames = in.readList(StreamInput::readString);
+            queries = in.readList(LoggedQuery::new);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeStringList(featureNames);
+            out.writeList(queries);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            RestActions.buildBroadcastShardsHeader(builder, params, this);
+            builder.field("features", featureNames);
+            builder.startArray("queries");
+            for (LoggedQuery query : queries) {
+                builder.startObject();
+                builder.field("id", query.getId());
+                builder.startArray("docs");
+                for (Map.Entry<String, float[]> doc : query.getDocs().entrySet()) {
+                    builder.startObject();
+                    builder.field("_id", doc.getKey());
+                    builder.array("values", doc.getValue());
+                    builder.endObject();
+                }
+                builder.endArray();
+                builder.endObject();
+            }
+            builder.endArray();
+            return builder.endObject();
+        }
+
+        /**
+         * The names of the features, empty if no shard could log the queries
+         */
+        public List<String> getFeatureNames() {
+            return featureNames;
+        }
+
+        /**
+         * The logged queries, in the order of the request
+         */
+        public List<LoggedQuery> getQueries() {
+            return queries;
+        }
+    }
+}
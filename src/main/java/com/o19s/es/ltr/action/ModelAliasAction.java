@@ -0,0 +1,186 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * Point a model alias to a model: the model is first loaded in the caches of all the nodes,
+ * then the alias is switched and the model it pointed to is evicted from the caches.
+ * The alias is deleted if no model is provided.
+ */
+public class ModelAliasAction extends Action<ModelAliasAction.ModelAliasRequest,
+        ModelAliasAction.ModelAliasResponse, ModelAliasAction.ModelAliasRequestBuilder> {
+    public static final String NAME = "cluster:admin/ltr/store/model-alias";
+    public static final ModelAliasAction INSTANCE = new ModelAliasAction();
+
+    protected ModelAliasAction() {
+        super(NAME);
+    }
+
+    @Override
+    public ModelAliasRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new ModelAliasRequestBuilder(client);
+    }
+
+    @Override
+    public ModelAliasResponse newResponse() {
+        return new ModelAliasResponse();
+    }
+
+    public static class ModelAliasRequestBuilder extends ActionRequestBuilder<ModelAliasRequest, ModelAliasResponse,
+            ModelAliasRequestBuilder> {
+        protected ModelAliasRequestBuilder(ElasticsearchClient client) {
+            super(client, INSTANCE, new ModelAliasRequest());
+        }
+
+        public ModelAliasRequestBuilder setAlias(String store, String alias, String model) {
+            request.store = store;
+            request.alias = alias;
+            request.model = Objects.requireNonNull(model);
+            return this;
+        }
+
+        public ModelAliasRequestBuilder deleteAlias(String store, String alias) {
+            request.store = store;
+            request.alias = alias;
+            request.model = null;
+            return this;
+        }
+    }
+
+    public static class ModelAliasRequest extends ActionRequest {
+        private String store;
+        private String alias;
+        private String model;
+
+        public ModelAliasRequest() {
+        }
+
+        @Override
+        public ActionRequestValidationException validate() {
+            ActionRequestValidationException arve = null;
+            if (store == null) {
+                arve = addValidationError("store must be set", null);
+            }
+            if (alias == null) {
+                arve = addValidationError("alias must be set", arve);
+            }
+            if (alias != null && alias.equals(model)) {
+                arve = addValidationError("alias and model must have different names", arve);
+            }
+            return arve;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            store = in.readString();
+            alias = in.readString();
+            model = in.readOptionalString();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeString(store);
+            out.writeString(alias);
+            out.writeOptionalString(model);
+        }
+
+        public String getStore() {
+            return store;
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+
+        /**
+         * The model to point to, null if the alias is deleted
+         */
+        public String getModel() {
+            return model;
+        }
+    }
+
+    public static class ModelAliasResponse extends ActionResponse implements ToXContentObject {
+        private String alias;
+        private String model;
+        private String previousModel;
+
+        public ModelAliasResponse() {
+        }
+
+        public ModelAliasResponse(String alias, String model, String previousModel) {
+            this.alias = alias;
+            this.model = model;
+            this.previousModel = previousModel;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            alias = in.readString();
+            model = in.readOptionalString();
+            previousModel = in.readOptionalString();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeString(alias);
+            out.writeOptionalString(model);
+            out.writeOptionalString(previousModel);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("alias", alias);
+            builder.field("model", model);
+            builder.field("previous_model", previousModel);
+            return builder.endObject();
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public String getPreviousModel() {
+            return previousModel;
+        }
+    }
+}
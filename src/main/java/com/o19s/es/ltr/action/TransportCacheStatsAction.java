@@ -19,6 +19,7 @@ package com.o19s.es.ltr.action;
 import com.o19s.es.ltr.action.CachesStatsAction.CachesStatsNodeResponse;
 import com.o19s.es.ltr.action.CachesStatsAction.CachesStatsNodesRequest;
 import com.o19s.es.ltr.action.CachesStatsAction.CachesStatsNodesResponse;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
 import com.o19s.es.ltr.feature.store.index.Caches;
 import org.elasticsearch.action.FailedNodeException;
 import org.elasticsearch.action.support.ActionFilters;
@@ -36,16 +37,18 @@ import java.util.List;
 public class TransportCacheStatsAction extends TransportNodesAction<CachesStatsNodesRequest, CachesStatsNodesResponse,
         TransportCacheStatsAction.CachesStatsNodeRequest, CachesStatsNodeResponse> {
     private final Caches caches;
+    private final LtrNodeServices services;
 
     @Inject
     public TransportCacheStatsAction(Settings settings, ThreadPool threadPool,
                                         ClusterService clusterService, TransportService transportService,
                                         ActionFilters actionFilters, IndexNameExpressionResolver indexNameExpressionResolver,
-                                        Caches caches) {
+                                        Caches caches, LtrNodeServices services) {
         super(settings, CachesStatsAction.NAME, threadPool, clusterService, transportService, actionFilters, indexNameExpressionResolver,
                 CachesStatsNodesRequest::new, CachesStatsNodeRequest::new, ThreadPool.Names.MANAGEMENT,
                 CachesStatsAction.CachesStatsNodeResponse.class);
         this.caches = caches;
+        this.services = services;
     }
 
     @Override
@@ -66,7 +69,7 @@ public class TransportCacheStatsAction extends TransportNodesAction<CachesStatsN
 
     @Override
     protected CachesStatsNodeResponse nodeOperation(CachesStatsNodeRequest request) {
-        return new CachesStatsNodeResponse(clusterService.localNode()).initFromCaches(caches);
+        return new CachesStatsNodeResponse(clusterService.localNode()).initFromCaches(caches, services);
     }
 
     public static class CachesStatsNodeRequest extends BaseNodeRequest {
@@ -19,11 +19,15 @@ package com.o19s.es.ltr.action;
 import com.o19s.es.ltr.action.ClearCachesAction.ClearCachesNodeResponse;
 import com.o19s.es.ltr.action.ClearCachesAction.ClearCachesNodesRequest;
 import com.o19s.es.ltr.action.ClearCachesAction.ClearCachesNodesResponse;
+import com.o19s.es.ltr.feature.store.index.CachedFeatureStore;
 import com.o19s.es.ltr.feature.store.index.Caches;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
 import org.elasticsearch.action.FailedNodeException;
 import org.elasticsearch.action.support.ActionFilters;
 import org.elasticsearch.action.support.nodes.BaseNodeRequest;
 import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.inject.Inject;
@@ -34,20 +38,25 @@ import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 public class TransportClearCachesAction extends TransportNodesAction<ClearCachesNodesRequest, ClearCachesNodesResponse,
         TransportClearCachesAction.ClearCachesNodeRequest, ClearCachesNodeResponse> {
     private final Caches caches;
+    private final Client client;
+    private final LtrRankerParserFactory parserFactory;
 
     @Inject
     public TransportClearCachesAction(Settings settings, ThreadPool threadPool,
                                          ClusterService clusterService, TransportService transportService,
                                          ActionFilters actionFilters, IndexNameExpressionResolver indexNameExpressionResolver,
-                                         Caches caches) {
+                                         Caches caches, Client client, LtrRankerParserFactory parserFactory) {
         super(settings, ClearCachesAction.NAME, threadPool, clusterService, transportService, actionFilters, indexNameExpressionResolver,
                 ClearCachesNodesRequest::new, ClearCachesNodeRequest::new, ThreadPool.Names.MANAGEMENT, ClearCachesNodeResponse.class);
         this.caches = caches;
+        this.client = client;
+        this.parserFactory = parserFactory;
     }
 
     @Override
@@ -82,6 +91,22 @@ public class TransportClearCachesAction extends TransportNodesAction<ClearCaches
         case ClearModel:
             caches.evictModel(r.getStore(), r.getName());
             break;
+        case ClearElements:
+            r.getFeatures().forEach((n) -> caches.evictFeature(r.getStore(), n));
+            r.getFeatureSets().forEach((n) -> caches.evictFeatureSet(r.getStore(), n));
+            r.getModels().forEach((n) -> caches.evictModel(r.getStore(), n));
+            break;
+        case WarmModel:
+            try {
+                new CachedFeatureStore(new IndexFeatureStore(r.getStore(), client, parserFactory), caches).warmModel(r.getName());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            break;
+        case SetModelAlias:
+            caches.setModelAlias(r.getStore(), r.getName(), r.getModel(), r.getVersion());
+            r.getModels().forEach((n) -> caches.evictModel(r.getStore(), n));
+            break;
         default:
             throw new RuntimeException("Unsupported operation [" + r.getOperation() + "]");
         }
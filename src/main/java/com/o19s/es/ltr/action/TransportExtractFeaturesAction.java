@@ -0,0 +1,90 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesRequest;
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesResponse;
+import com.o19s.es.ltr.training.FeatureExtractionJob;
+import com.o19s.es.ltr.training.FeatureExtractionTask;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.HandledTransportAction;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs the feature extraction jobs on the node that received the request, the files are
+ * resolved against ltr.training.path (relative to the first data path).
+ */
+public class TransportExtractFeaturesAction extends HandledTransportAction<ExtractFeaturesRequest, ExtractFeaturesResponse> {
+    private final ClusterService clusterService;
+    private final Client client;
+    private final Path root;
+
+    @Inject
+    public TransportExtractFeaturesAction(Settings settings, ThreadPool threadPool, TransportService transportService,
+                                          ActionFilters actionFilters, IndexNameExpressionResolver indexNameExpressionResolver,
+                                          ClusterService clusterService, Client client, Environment environment) {
+        super(settings, ExtractFeaturesAction.NAME, threadPool, transportService, actionFilters,
+                indexNameExpressionResolver, ExtractFeaturesRequest::new);
+        this.clusterService = clusterService;
+        this.client = client;
+        this.root = environment.dataFiles()[0].resolve(FeatureExtractionJob.LTR_TRAINING_PATH.get(settings))
+                .toAbsolutePath().normalize();
+    }
+
+    @Override
+    protected void doExecute(ExtractFeaturesRequest request, ActionListener<ExtractFeaturesResponse> listener) {
+        throw new UnsupportedOperationException("attempt to execute a TransportExtractFeaturesAction without a task");
+    }
+
+    @Override
+    protected void doExecute(Task task, ExtractFeaturesRequest request, ActionListener<ExtractFeaturesResponse> listener) {
+        Path judgments = FeatureExtractionJob.resolve(root, request.getJudgments());
+        Path output = FeatureExtractionJob.resolve(root, request.getOutput());
+        if (!Files.isRegularFile(judgments)) {
+            throw new IllegalArgumentException("Judgment file [" + request.getJudgments() + "] not found in [" + root + "]");
+        }
+        TaskId taskId = new TaskId(clusterService.localNode().getId(), task.getId());
+        FeatureExtractionJob job = new FeatureExtractionJob(client, (FeatureExtractionTask) task, taskId, request);
+        // reads and writes files and waits for the searches
+        threadPool.generic().execute(new AbstractRunnable() {
+            @Override
+            public void onFailure(Exception e) {
+                listener.onFailure(e);
+            }
+
+            @Override
+            protected void doRun() throws Exception {
+                listener.onResponse(job.run(judgments, output));
+            }
+        });
+    }
+}
@@ -26,6 +26,8 @@ import com.o19s.es.ltr.feature.store.StoredFeatureSet;
 import com.o19s.es.ltr.feature.store.StoredLtrModel;
 import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
 import com.o19s.es.ltr.query.ValidatingLtrQueryBuilder;
+import com.o19s.es.ltr.ranker.CompactRankerEncoding;
+import com.o19s.es.ltr.ranker.LtrRanker;
 import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.index.IndexAction;
@@ -39,7 +41,9 @@ import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.tasks.Task;
 import org.elasticsearch.threadpool.ThreadPool;
@@ -51,10 +55,16 @@ import java.util.Optional;
 import static org.elasticsearch.action.ActionListener.wrap;
 
 public class TransportFeatureStoreAction extends HandledTransportAction<FeatureStoreRequest, FeatureStoreResponse> {
+    /**
+     * Store the models that support it with a compact binary encoding of their ranker.
+     */
+    public static final Setting<Boolean> LTR_MODELS_COMPACT_ENCODING = Setting.boolSetting("ltr.models.compact_encoding",
+            false, Setting.Property.NodeScope);
     private final LtrRankerParserFactory factory;
     private final ClusterService clusterService;
     private final TransportClearCachesAction clearCachesAction;
     private final Client client;
+    private final boolean compactEncoding;
 
     @Inject
     public TransportFeatureStoreAction(Settings settings, ThreadPool threadPool, TransportService transportService,
@@ -68,6 +78,7 @@ public class TransportFeatureStoreAction extends HandledTransportAction<FeatureS
         this.clusterService = clusterService;
         this.clearCachesAction = clearCachesAction;
         this.client = client;
+        this.compactEncoding = LTR_MODELS_COMPACT_ENCODING.get(settings);
     }
 
     @Override
@@ -124,21 +135,45 @@ public class TransportFeatureStoreAction extends HandledTransportAction<FeatureS
      * Will throw an exception if it fails.
      */
     private void precheck(FeatureStoreRequest request) {
-        if (request.getStorableElement() instanceof StoredLtrModel) {
-            StoredLtrModel model = (StoredLtrModel) request.getStorableElement();
+        request.setStorableElement(precheck(request.getStorableElement(), factory, compactEncoding));
+    }
+
+    /**
+     * Synchronous checks of an element before it's stored, will throw an exception if it fails.
+     *
+     * @return the element to store
+     */
+    static StorableElement precheck(StorableElement element, LtrRankerParserFactory factory, boolean compactEncoding) {
+        if (element instanceof StoredLtrModel) {
+            StoredLtrModel model = (StoredLtrModel) element;
+            // The compact encoding is always produced here from the definition, never trusted from the user
+            model = model.withCompactModel(null);
+            LtrRanker ranker;
             try {
-                model.compile(factory);
+                ranker = model.compile(factory).ranker();
             } catch (Exception e) {
                 throw new IllegalArgumentException("Error while parsing model [" + model.name() + "]" +
                         " with type [" + model.rankingModelType() + "]", e);
             }
-        } else if (request.getStorableElement() instanceof StoredFeatureSet) {
-            StoredFeatureSet set = (StoredFeatureSet) request.getStorableElement();
+            if (compactEncoding && CompactRankerEncoding.supports(ranker)) {
+                try {
+                    BytesReference compact = CompactRankerEncoding.encode(ranker);
+                    // Make sure it can be read back
+                    CompactRankerEncoding.decode(compact);
+                    model = model.withCompactModel(compact);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot encode model [" + model.name() + "]", e);
+                }
+            }
+            return model;
+        } else if (element instanceof StoredFeatureSet) {
+            StoredFeatureSet set = (StoredFeatureSet) element;
             set.optimize().validate();
-        } else if (request.getStorableElement() instanceof StoredFeature) {
-            StoredFeature feature = (StoredFeature) request.getStorableElement();
+        } else if (element instanceof StoredFeature) {
+            StoredFeature feature = (StoredFeature) element;
             feature.optimize();
         }
+        return element;
     }
 
     /**
@@ -0,0 +1,298 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.ClearCachesAction.ClearCachesNodesRequest;
+import com.o19s.es.ltr.action.FeatureStoreAction.FeatureStoreRequest;
+import com.o19s.es.ltr.action.FeatureStoreBulkAction.FeatureStoreBulkRequest;
+import com.o19s.es.ltr.action.FeatureStoreBulkAction.FeatureStoreBulkResponse;
+import com.o19s.es.ltr.feature.FeatureValidation;
+import com.o19s.es.ltr.feature.store.StorableElement;
+import com.o19s.es.ltr.feature.store.StoredFeature;
+import com.o19s.es.ltr.feature.store.StoredFeatureSet;
+import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import com.o19s.es.ltr.query.ValidatingLtrQueryBuilder;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import org.apache.lucene.search.BooleanQuery;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.GroupedActionListener;
+import org.elasticsearch.action.support.HandledTransportAction;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.elasticsearch.action.ActionListener.wrap;
+
+public class TransportFeatureStoreBulkAction extends HandledTransportAction<FeatureStoreBulkRequest, FeatureStoreBulkResponse> {
+    /**
+     * Maximum number of elements validated by a single search, kept under index.query.bool.max_clause_count
+     */
+    static final int VALIDATION_BATCH_SIZE = 256;
+    private final LtrRankerParserFactory factory;
+    private final ClusterService clusterService;
+    private final TransportClearCachesAction clearCachesAction;
+    private final Client client;
+    private final boolean compactEncoding;
+
+    @Inject
+    public TransportFeatureStoreBulkAction(Settings settings, ThreadPool threadPool, TransportService transportService,
+                                           ActionFilters actionFilters, IndexNameExpressionResolver indexNameExpressionResolver,
+                                           ClusterService clusterService, Client client,
+                                           LtrRankerParserFactory factory,
+                                           TransportClearCachesAction clearCachesAction) {
+        super(settings, FeatureStoreBulkAction.NAME, false, threadPool, transportService, actionFilters,
+                indexNameExpressionResolver, FeatureStoreBulkRequest::new);
+        this.factory = factory;
+        this.clusterService = clusterService;
+        this.clearCachesAction = clearCachesAction;
+        this.client = client;
+        this.compactEncoding = TransportFeatureStoreAction.LTR_MODELS_COMPACT_ENCODING.get(settings);
+    }
+
+    @Override
+    protected void doExecute(FeatureStoreBulkRequest request, ActionListener<FeatureStoreBulkResponse> listener) {
+        throw new UnsupportedOperationException("attempt to execute a TransportFeatureStoreBulkAction without a task");
+    }
+
+    @Override
+    protected void doExecute(Task task, FeatureStoreBulkRequest request, ActionListener<FeatureStoreBulkResponse> listener) {
+        if (!clusterService.state().routingTable().hasIndex(request.getStore())) {
+            // To prevent index auto creation
+            throw new IllegalArgumentException("Store [" + request.getStore() + "] does not exist, please create it first.");
+        }
+        for (FeatureStoreRequest r : request.getRequests()) {
+            r.setStorableElement(TransportFeatureStoreAction.precheck(r.getStorableElement(), factory, compactEncoding));
+        }
+        List<FeatureStoreRequest> requests = request.getRequests();
+        // validation failure of each element, null if valid
+        AtomicReferenceArray<Exception> failures = new AtomicReferenceArray<>(requests.size());
+        List<List<Integer>> batches = validationBatches(requests);
+        if (batches.isEmpty()) {
+            store(request, failures, task, listener);
+            return;
+        }
+        ActionListener<Collection<Void>> onValidated = wrap((r) -> store(request, failures, task, listener), listener::onFailure);
+        GroupedActionListener<Void> validations = new GroupedActionListener<>(onValidated, batches.size(), Collections.emptyList());
+        for (List<Integer> batch : batches) {
+            validate(requests, batch, failures, task, validations);
+        }
+    }
+
+    /**
+     * Group the elements to validate by validation index in batches of at most {@link #VALIDATION_BATCH_SIZE}
+     * elements, each batch is validated by a single search with one bool clause per element.
+     */
+    static List<List<Integer>> validationBatches(List<FeatureStoreRequest> requests) {
+        int batchSize = Math.min(VALIDATION_BATCH_SIZE, BooleanQuery.getMaxClauseCount());
+        Map<String, List<Integer>> byValidationIndex = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            FeatureValidation validation = requests.get(i).getValidation();
+            if (validation != null) {
+                byValidationIndex.computeIfAbsent(validation.getIndex(), (k) -> new ArrayList<>()).add(i);
+            }
+        }
+        List<List<Integer>> batches = new ArrayList<>();
+        for (List<Integer> elements : byValidationIndex.values()) {
+            for (int from = 0; from < elements.size(); from += batchSize) {
+                batches.add(elements.subList(from, Math.min(elements.size(), from + batchSize)));
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Validate a batch of elements targeting the same index with a single search request.
+     * If the search fails the elements of the batch are validated one by one to report
+     * the failure of each invalid element.
+     */
+    private void validate(List<FeatureStoreRequest> requests, List<Integer> batch, AtomicReferenceArray<Exception> failures,
+                          Task task, ActionListener<Void> listener) {
+        String index = requests.get(batch.get(0)).getValidation().getIndex();
+        BoolQueryBuilder query = QueryBuilders.boolQuery();
+        for (int i : batch) {
+            FeatureStoreRequest r = requests.get(i);
+            query.should(new ValidatingLtrQueryBuilder(r.getStorableElement(), r.getValidation(), factory));
+        }
+        SearchRequestBuilder builder = SearchAction.INSTANCE.newRequestBuilder(client);
+        builder.setIndices(index);
+        builder.setQuery(query);
+        builder.setFrom(0);
+        builder.setSize(20);
+        // Bail out early and don't score the whole index.
+        builder.setTerminateAfter(1000);
+        builder.request().setParentTask(clusterService.localNode().getId(), task.getId());
+        builder.execute(wrap((r) -> {
+                if (r.getFailedShards() > 0) {
+                    ShardSearchFailure failure = r.getShardFailures()[0];
+                    onInvalidBatch(requests, batch, failures, task, listener, new IllegalArgumentException("Validating against index ["
+                            + index + "] caused " + r.getFailedShards() + " shard failures, see root cause: " + failure.reason(),
+                            failure.getCause()));
+                } else {
+                    listener.onResponse(null);
+                }
+            }, (e) -> onInvalidBatch(requests, batch, failures, task, listener, e)));
+    }
+
+    private void onInvalidBatch(List<FeatureStoreRequest> requests, List<Integer> batch, AtomicReferenceArray<Exception> failures,
+                                Task task, ActionListener<Void> listener, Exception e) {
+        if (batch.size() == 1) {
+            StorableElement elt = requests.get(batch.get(0)).getStorableElement();
+            failures.set(batch.get(0), new IllegalArgumentException("Validation of the " + elt.type() + " [" + elt.name()
+                    + "] failed", e));
+            listener.onResponse(null);
+            return;
+        }
+        GroupedActionListener<Void> elements = new GroupedActionListener<>(wrap((r) -> listener.onResponse(null), listener::onFailure),
+                batch.size(), Collections.emptyList());
+        for (int i : batch) {
+            validate(requests, Collections.singletonList(i), failures, task, elements);
+        }
+    }
+
+    /**
+     * Index all the valid elements with a single bulk request and invalidate the caches once,
+     * the elements that failed validation are reported as failed items of the response.
+     */
+    private void store(FeatureStoreBulkRequest request, AtomicReferenceArray<Exception> failures, Task task,
+                       ActionListener<FeatureStoreBulkResponse> listener) {
+        List<FeatureStoreRequest> requests = request.getRequests();
+        BulkRequest bulkRequest = new BulkRequest();
+        // position of each element in the bulk request, -1 if invalid
+        int[] slots = new int[requests.size()];
+        try {
+            for (int i = 0; i < requests.size(); i++) {
+                if (failures.get(i) != null) {
+                    slots[i] = -1;
+                    continue;
+                }
+                FeatureStoreRequest r = requests.get(i);
+                StorableElement elt = r.getStorableElement();
+                slots[i] = bulkRequest.numberOfActions();
+                bulkRequest.add(client.prepareIndex(request.getStore(), IndexFeatureStore.ES_TYPE, elt.id())
+                        .setCreate(r.getAction() == FeatureStoreRequest.Action.CREATE)
+                        .setRouting(r.getRouting())
+                        .setSource(IndexFeatureStore.toSource(elt))
+                        .request());
+            }
+        } catch (IOException ioe) {
+            listener.onFailure(ioe);
+            return;
+        }
+        if (bulkRequest.numberOfActions() == 0) {
+            listener.onResponse(new FeatureStoreBulkResponse(merge(request, failures, slots, null)));
+            return;
+        }
+        bulkRequest.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+        bulkRequest.setParentTask(clusterService.localNode().getId(), task.getId());
+        client.execute(BulkAction.INSTANCE, bulkRequest, wrap(
+                (r) -> {
+                    BulkResponse response = merge(request, failures, slots, r);
+                    clearCaches(request, response);
+                    listener.onResponse(new FeatureStoreBulkResponse(response));
+                },
+                listener::onFailure));
+    }
+
+    /**
+     * One item per element of the request, in order: the validation failure or the item of the bulk response
+     */
+    private static BulkResponse merge(FeatureStoreBulkRequest request, AtomicReferenceArray<Exception> failures, int[] slots,
+                                      @Nullable BulkResponse response) {
+        BulkItemResponse[] items = new BulkItemResponse[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] < 0) {
+                FeatureStoreRequest r = request.getRequests().get(i);
+                DocWriteRequest.OpType opType = r.getAction() == FeatureStoreRequest.Action.CREATE ?
+                        DocWriteRequest.OpType.CREATE : DocWriteRequest.OpType.INDEX;
+                items[i] = new BulkItemResponse(i, opType, new BulkItemResponse.Failure(request.getStore(),
+                        IndexFeatureStore.ES_TYPE, r.getStorableElement().id(), failures.get(i)));
+                continue;
+            }
+            assert response != null;
+            BulkItemResponse item = response.getItems()[slots[i]];
+            items[i] = item.isFailed() ?
+                    new BulkItemResponse(i, item.getOpType(), item.getFailure()) :
+                    new BulkItemResponse(i, item.getOpType(), item.<DocWriteResponse>getResponse());
+        }
+        return new BulkResponse(items, response != null ? response.getTook().millis() : 0);
+    }
+
+    /**
+     * Run and forget, log only if something bad happens
+     */
+    private void clearCaches(FeatureStoreBulkRequest request, BulkResponse response) {
+        List<String> features = new ArrayList<>();
+        List<String> featureSets = new ArrayList<>();
+        List<String> models = new ArrayList<>();
+        BulkItemResponse[] items = response.getItems();
+        for (int i = 0; i < items.length; i++) {
+            FeatureStoreRequest r = request.getRequests().get(i);
+            if (items[i].isFailed() || r.getAction() != FeatureStoreRequest.Action.UPDATE) {
+                continue;
+            }
+            switch (r.getStorableElement().type()) {
+            case StoredFeature.TYPE:
+                features.add(r.getStorableElement().name());
+                break;
+            case StoredFeatureSet.TYPE:
+                featureSets.add(r.getStorableElement().name());
+                break;
+            case StoredLtrModel.TYPE:
+                models.add(r.getStorableElement().name());
+                break;
+            }
+        }
+        if (features.isEmpty() && featureSets.isEmpty() && models.isEmpty()) {
+            return;
+        }
+        ClearCachesNodesRequest clearCachesNodesRequest = new ClearCachesNodesRequest();
+        clearCachesNodesRequest.clearElements(request.getStore(), features, featureSets, models);
+        clearCachesAction.execute(clearCachesNodesRequest, wrap(
+                (r) -> {
+                },
+                (e) -> logger.error("Failed to clear cache", e)));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.LogFeaturesAction.LogFeaturesRequest;
+import com.o19s.es.ltr.action.LogFeaturesAction.LogFeaturesResponse;
+import com.o19s.es.ltr.action.LogFeaturesAction.LogFeaturesShardRequest;
+import com.o19s.es.ltr.action.LogFeaturesAction.LogFeaturesShardResponse;
+import com.o19s.es.ltr.action.LogFeaturesAction.LogQuery;
+import com.o19s.es.ltr.action.LogFeaturesAction.LoggedQuery;
+import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.logging.MultiQueryFeatureLogger;
+import com.o19s.es.ltr.query.RankerQuery;
+import com.o19s.es.ltr.query.StoredLtrQueryBuilder;
+import com.o19s.es.ltr.utils.FeatureStoreLoader;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastAction;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.query.IdsQueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class TransportLogFeaturesAction extends TransportBroadcastAction<LogFeaturesRequest, LogFeaturesResponse,
+        LogFeaturesShardRequest, LogFeaturesShardResponse> {
+    private final IndicesService indicesService;
+    private final FeatureStoreLoader storeLoader;
+
+    @Inject
+    public TransportLogFeaturesAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
+                                      TransportService transportService, ActionFilters actionFilters,
+                                      IndexNameExpressionResolver indexNameExpressionResolver,
+                                      IndicesService indicesService, FeatureStoreLoader storeLoader) {
+        super(settings, LogFeaturesAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, LogFeaturesRequest::new, LogFeaturesShardRequest::new, ThreadPool.Names.SEARCH);
+        this.indicesService = indicesService;
+        this.storeLoader = storeLoader;
+    }
+
+    @Override
+    protected LogFeaturesShardRequest newShardRequest(int numShards, ShardRouting shard, LogFeaturesRequest request) {
+        return new LogFeaturesShardRequest(shard.shardId(), request);
+    }
+
+    @Override
+    protected LogFeaturesShardResponse newShardResponse() {
+        return new LogFeaturesShardResponse();
+    }
+
+    /**
+     * Resolve the docs of all the queries with a single ids query, then log them in a single pass
+     * over the segments. The feature set is loaded once for all the queries.
+     */
+    @Override
+    protected LogFeaturesShardResponse shardOperation(LogFeaturesShardRequest shardRequest) throws IOException {
+        LogFeaturesRequest request = shardRequest.getRequest();
+        ShardId shardId = shardRequest.shardId();
+        IndexService indexService = indicesService.indexServiceSafe(shardId.getIndex());
+        IndexShard shard = indexService.getShard(shardId.id());
+        try (Engine.Searcher searcher = shard.acquireSearcher("ltr_log_features")) {
+            QueryShardContext context = indexService.newQueryShardContext(shardId.id(), searcher.reader(),
+                    System::currentTimeMillis, null);
+            FeatureSet set = storeLoader.load(StoredLtrQueryBuilder.storeIndexName(request.getStore()), context.getClient())
+                    .loadSet(request.getFeatureSet());
+
+            Set<String> allIds = new HashSet<>();
+            request.getQueries().forEach((q) -> allIds.addAll(q.getDocIds()));
+            Map<String, Integer> docIds = MultiQueryFeatureLogger.docIds(searcher.searcher(),
+                    new IdsQueryBuilder().addIds(allIds.toArray(new String[allIds.size()])).toQuery(context));
+
+            MultiQueryFeatureLogger logger = new MultiQueryFeatureLogger();
+            List<String[]> foundIds = new ArrayList<>(request.getQueries().size());
+            for (LogQuery query : request.getQueries()) {
+                String[] ids = query.getDocIds().stream().distinct().filter(docIds::containsKey)
+                        .sorted((a, b) -> Integer.compare(docIds.get(a), docIds.get(b)))
+                        .toArray(String[]::new);
+                int[] docs = Arrays.stream(ids).mapToInt(docIds::get).toArray();
+                foundIds.add(ids);
+                logger.add(RankerQuery.buildLogQuery(logger, set, context, query.getParams()), docs);
+            }
+            List<float[][]> values = logger.log(searcher.searcher());
+
+            List<LoggedQuery> logged = new ArrayList<>(foundIds.size());
+            for (int i = 0; i < foundIds.size(); i++) {
+                Map<String, float[]> docs = new LinkedHashMap<>();
+                for (int j = 0; j < foundIds.get(i).length; j++) {
+                    docs.put(foundIds.get(i)[j], values.get(i)[j]);
+                }
+                logged.add(new LoggedQuery(request.getQueries().get(i).getId(), docs));
+            }
+            List<String> featureNames = new ArrayList<>(set.size());
+            for (int i = 0; i < set.size(); i++) {
+                featureNames.add(set.feature(i).name());
+            }
+            return new LogFeaturesShardResponse(shardId, featureNames, logged);
+        }
+    }
+
+    /**
+     * Merge the docs found on each shard, the docs of a query are in the order of the request
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected LogFeaturesResponse newResponse(LogFeaturesRequest request, AtomicReferenceArray shardsResponses,
+                                              ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<DefaultShardOperationFailedException> shardFailures = null;
+        List<String> featureNames = Collections.emptyList();
+        List<Map<String, float[]>> found = new ArrayList<>(request.getQueries().size());
+        request.getQueries().forEach((q) -> found.add(new HashMap<>()));
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                // simply ignore non active shards
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                if (shardFailures == null) {
+                    shardFailures = new ArrayList<>();
+                }
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                successfulShards++;
+                LogFeaturesShardResponse response = (LogFeaturesShardResponse) shardResponse;
+                featureNames = response.getFeatureNames();
+                for (int j = 0; j < found.size(); j++) {
+                    found.get(j).putAll(response.getQueries().get(j).getDocs());
+                }
+            }
+        }
+        List<LoggedQuery> queries = new ArrayList<>(found.size());
+        for (int i = 0; i < found.size(); i++) {
+            LogQuery query = request.getQueries().get(i);
+            Map<String, float[]> docs = new LinkedHashMap<>();
+            for (String id : query.getDocIds()) {
+                float[] values = found.get(i).get(id);
+                if (values != null) {
+                    docs.put(id, values);
+                }
+            }
+            queries.add(new LoggedQuery(query.getId(), docs));
+        }
+        return new LogFeaturesResponse(shardsResponses.length(), successfulShards, failedShards, shardFailures,
+                featureNames, queries);
+    }
+
+    @Override
+    protected GroupShardsIterator<ShardIterator> shards(ClusterState clusterState, LogFeaturesRequest request,
+                                                        String[] concreteIndices) {
+        return clusterService.operationRouting().searchShards(clusterState, concreteIndices, null, null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, LogFeaturesRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state, LogFeaturesRequest request, String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+    }
+}
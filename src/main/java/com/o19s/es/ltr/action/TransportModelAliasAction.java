@@ -0,0 +1,186 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.ClearCachesAction.ClearCachesNodesRequest;
+import com.o19s.es.ltr.action.ClearCachesAction.ClearCachesNodesResponse;
+import com.o19s.es.ltr.action.ModelAliasAction.ModelAliasRequest;
+import com.o19s.es.ltr.action.ModelAliasAction.ModelAliasResponse;
+import com.o19s.es.ltr.feature.store.StorableElement;
+import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.StoredModelAlias;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.HandledTransportAction;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.elasticsearch.action.ActionListener.wrap;
+
+public class TransportModelAliasAction extends HandledTransportAction<ModelAliasRequest, ModelAliasResponse> {
+    private static final int MAX_SWITCH_ATTEMPTS = 3;
+    // Stores created before model aliases existed do not have this field in their mapping
+    private static final String MAPPING = "{\"properties\":{\"" + StoredModelAlias.TYPE + "\":{\"type\":\"object\",\"enabled\":false}}}";
+    private final ClusterService clusterService;
+    private final TransportClearCachesAction clearCachesAction;
+    private final Client client;
+
+    @Inject
+    public TransportModelAliasAction(Settings settings, ThreadPool threadPool, TransportService transportService,
+                                     ActionFilters actionFilters, IndexNameExpressionResolver indexNameExpressionResolver,
+                                     ClusterService clusterService, Client client,
+                                     TransportClearCachesAction clearCachesAction) {
+        super(settings, ModelAliasAction.NAME, threadPool, transportService, actionFilters,
+                indexNameExpressionResolver, ModelAliasRequest::new);
+        this.clusterService = clusterService;
+        this.clearCachesAction = clearCachesAction;
+        this.client = client;
+    }
+
+    @Override
+    protected void doExecute(ModelAliasRequest request, ActionListener<ModelAliasResponse> listener) {
+        throw new UnsupportedOperationException("attempt to execute a TransportModelAliasAction without a task");
+    }
+
+    @Override
+    protected void doExecute(Task task, ModelAliasRequest request, ActionListener<ModelAliasResponse> listener) {
+        if (!clusterService.state().routingTable().hasIndex(request.getStore())) {
+            throw new IllegalArgumentException("Store [" + request.getStore() + "] does not exist, please create it first.");
+        }
+        TaskId parent = new TaskId(clusterService.localNode().getId(), task.getId());
+        client.prepareGet(request.getStore(), IndexFeatureStore.ES_TYPE, StorableElement.generateId(StoredModelAlias.TYPE,
+                request.getAlias()))
+                .execute(wrap((r) -> {
+                    String previous = r.isExists() ? IndexFeatureStore.parse(StoredModelAlias.class, StoredModelAlias.TYPE,
+                            r.getSourceAsBytesRef()).model() : null;
+                    if (request.getModel() != null) {
+                        checkAlias(parent, request, previous, listener);
+                    } else if (previous == null) {
+                        throw new IllegalArgumentException("Unknown " + StoredModelAlias.TYPE + " [" + request.getAlias() + "]");
+                    } else {
+                        client.prepareDelete(request.getStore(), IndexFeatureStore.ES_TYPE, r.getId())
+                                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE)
+                                .execute(wrap((d) -> switchAlias(parent, request, previous, d.getVersion(), null,
+                                        MAX_SWITCH_ATTEMPTS, listener), listener::onFailure));
+                    }
+                }, listener::onFailure));
+    }
+
+    /**
+     * The alias must not shadow a model and must point to an existing model
+     */
+    private void checkAlias(TaskId parent, ModelAliasRequest request, String previous, ActionListener<ModelAliasResponse> listener) {
+        client.prepareGet(request.getStore(), IndexFeatureStore.ES_TYPE, StorableElement.generateId(StoredLtrModel.TYPE,
+                request.getAlias()))
+                .setFetchSource(false)
+                .execute(wrap((GetResponse r) -> {
+                    if (r.isExists()) {
+                        throw new IllegalArgumentException("A " + StoredLtrModel.TYPE + " named [" + request.getAlias()
+                                + "] already exists");
+                    }
+                    IndexFeatureStore.fetchVersion(client, request.getStore(), StoredLtrModel.TYPE, request.getModel(),
+                            wrap((v) -> warm(parent, request, previous, listener), listener::onFailure));
+                }, listener::onFailure));
+    }
+
+    /**
+     * Compile the model and load it in the caches of all the nodes before switching the alias
+     */
+    private void warm(TaskId parent, ModelAliasRequest request, String previous, ActionListener<ModelAliasResponse> listener) {
+        ClearCachesNodesRequest warmRequest = new ClearCachesNodesRequest();
+        warmRequest.warmModel(request.getStore(), request.getModel());
+        warmRequest.setParentTask(parent);
+        clearCachesAction.execute(warmRequest, wrap((ClearCachesNodesResponse r) -> {
+            if (r.hasFailures()) {
+                FailedNodeException failure = r.failures().get(0);
+                throw new IllegalArgumentException("Failed to load the model [" + request.getModel() + "] on ["
+                        + r.failures().size() + "] node(s), the alias is unchanged", failure);
+            }
+            storeAlias(parent, request, previous, listener);
+        }, listener::onFailure));
+    }
+
+    private void storeAlias(TaskId parent, ModelAliasRequest request, String previous, ActionListener<ModelAliasResponse> listener) {
+        StoredModelAlias alias = new StoredModelAlias(request.getAlias(), request.getModel());
+        client.admin().indices().preparePutMapping(request.getStore())
+                .setType(IndexFeatureStore.ES_TYPE)
+                .setSource(MAPPING, XContentType.JSON)
+                .execute(wrap((m) -> {
+                    try {
+                        client.prepareIndex(request.getStore(), IndexFeatureStore.ES_TYPE, alias.id())
+                                .setSource(IndexFeatureStore.toSource(alias))
+                                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE)
+                                .execute(wrap((r) -> switchAlias(parent, request, previous, r.getVersion(), null,
+                                        MAX_SWITCH_ATTEMPTS, listener), listener::onFailure));
+                    } catch (IOException ioe) {
+                        listener.onFailure(ioe);
+                    }
+                }, listener::onFailure));
+    }
+
+    /**
+     * Switch the alias on all the nodes and release the model it no longer points to.
+     * The nodes that fail to switch are retried, if they still fail the request fails: these nodes
+     * serve the previous model until their resolved alias expires or is found stale by the version checks.
+     *
+     * @param version version of the alias document
+     * @param nodeIds the nodes to switch, null for all the nodes
+     */
+    private void switchAlias(TaskId parent, ModelAliasRequest request, String previous, long version, String[] nodeIds,
+                             int attempts, ActionListener<ModelAliasResponse> listener) {
+        ClearCachesNodesRequest switchRequest = new ClearCachesNodesRequest();
+        switchRequest.setModelAlias(request.getStore(), request.getAlias(), request.getModel(), version,
+                previous != null && !previous.equals(request.getModel()) ?
+                        Collections.singletonList(previous) : Collections.emptyList());
+        if (nodeIds != null) {
+            switchRequest.nodesIds(nodeIds);
+        }
+        switchRequest.setParentTask(parent);
+        clearCachesAction.execute(switchRequest, wrap((r) -> {
+            if (!r.hasFailures()) {
+                listener.onResponse(new ModelAliasResponse(request.getAlias(), request.getModel(), previous));
+                return;
+            }
+            String[] failed = r.failures().stream().map(FailedNodeException::nodeId).toArray(String[]::new);
+            if (attempts > 1) {
+                logger.debug("Failed to switch the model alias [{}] on [{}] node(s), retrying", request.getAlias(), failed.length);
+                switchAlias(parent, request, previous, version, failed, attempts - 1, listener);
+                return;
+            }
+            listener.onFailure(new ElasticsearchException("The model alias [" + request.getAlias() + "] is stored but failed "
+                    + "to switch on [" + failed.length + "] node(s) " + Arrays.toString(failed) + ", these nodes use the previous "
+                    + "model until their resolved alias expires or is found stale", r.failures().get(0)));
+        }, listener::onFailure));
+    }
+}
@@ -16,9 +16,15 @@
 
 package com.o19s.es.ltr.feature;
 
+import org.apache.lucene.search.MatchNoDocsQuery;
 import org.apache.lucene.search.Query;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.regex.Regex;
 import org.elasticsearch.index.query.QueryShardContext;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -39,6 +45,52 @@ public interface FeatureSet {
      */
     List<Query> toQueries(QueryShardContext context, Map<String, Object> params);
 
+    /**
+     * Parse and build the lucene queries of the active features only, the other features
+     * match no docs and are reported as missing.
+     *
+     * @param active ordinals of the active features, null if all the features are active
+     */
+    default List<Query> toQueries(QueryShardContext context, Map<String, Object> params, @Nullable BitSet active) {
+        if (active == null) {
+            return toQueries(context, params);
+        }
+        List<Query> queries = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            queries.add(active.get(i) ? feature(i).doToQuery(context, this, params) : inactiveQuery());
+        }
+        return queries;
+    }
+
+    /**
+     * Ordinals of the features matching these names or simple wildcard patterns (e.g. title_*)
+     *
+     * @throws IllegalArgumentException if a name or a pattern does not match any feature
+     */
+    default BitSet activeFeatures(Collection<String> patterns) {
+        BitSet active = new BitSet(size());
+        for (String pattern : patterns) {
+            boolean matched = false;
+            for (int i = 0; i < size(); i++) {
+                if (Regex.simpleMatch(pattern, feature(i).name())) {
+                    active.set(i);
+                    matched = true;
+                }
+            }
+            if (!matched) {
+                throw new IllegalArgumentException("No feature matching [" + pattern + "] in the feature set [" + name() + "]");
+            }
+        }
+        return active;
+    }
+
+    /**
+     * The query replacing an inactive feature
+     */
+    static Query inactiveQuery() {
+        return new MatchNoDocsQuery("inactive feature");
+    }
+
     /**
      * Retrieve feature ordinal by its name.
      * If the feature does not exist the behavior of this method is
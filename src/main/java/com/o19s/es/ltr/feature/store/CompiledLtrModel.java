@@ -19,6 +19,8 @@ package com.o19s.es.ltr.feature.store;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.LtrModel;
 import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree;
+import com.o19s.es.ltr.ranker.dectree.OffHeapDecisionTree;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
 
@@ -62,6 +64,23 @@ public class CompiledLtrModel implements LtrModel, Accountable {
         return set;
     }
 
+    /**
+     * This model with its trees stored outside of the heap, this model if its ranker is not a tree model.
+     */
+    public CompiledLtrModel toOffHeap() {
+        if (ranker instanceof NaiveAdditiveDecisionTree) {
+            return new CompiledLtrModel(name, set, OffHeapDecisionTree.build((NaiveAdditiveDecisionTree) ranker));
+        }
+        return this;
+    }
+
+    /**
+     * Memory used outside of the heap by the ranker of this model
+     */
+    public long offHeapBytesUsed() {
+        return ranker instanceof OffHeapDecisionTree ? ((OffHeapDecisionTree) ranker).offHeapBytesUsed() : 0;
+    }
+
     /**
      * Return the memory usage of this object in bytes. Negative values are illegal.
      */
@@ -0,0 +1,91 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.ltr.feature.Feature;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Node level interning of the compiled features.
+ * Compiled features are indexed by the content of their definition (name, template language,
+ * template and params, see {@link StoredFeature#equals(Object)}) so that the feature sets and
+ * models sharing the same definitions also share the same compiled feature.
+ * Compiled features are weakly referenced: they are kept as long as a cached set or model uses them.
+ * The interner of a node is held by its {@link LtrNodeServices}.
+ */
+public final class FeatureInterner {
+    private final Map<StoredFeature, Ref> interned = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Feature> collected = new ReferenceQueue<>();
+
+    /**
+     * Return the compiled feature for this definition, compile it if it's not yet interned.
+     * The compilation runs outside of the map, concurrent compilations of the same definition
+     * keep the first feature interned.
+     */
+    Feature intern(StoredFeature feature, Function<StoredFeature, Feature> compiler) {
+        purge();
+        Ref ref = interned.get(feature);
+        Feature compiled = ref != null ? ref.get() : null;
+        if (compiled != null) {
+            return compiled;
+        }
+        compiled = compiler.apply(feature);
+        Ref newRef = new Ref(feature, compiled, collected);
+        while (true) {
+            ref = interned.putIfAbsent(feature, newRef);
+            if (ref == null) {
+                return compiled;
+            }
+            Feature current = ref.get();
+            if (current != null) {
+                return current;
+            }
+            if (interned.replace(feature, ref, newRef)) {
+                return compiled;
+            }
+        }
+    }
+
+    /**
+     * Forget all the interned features
+     */
+    public void clear() {
+        interned.clear();
+        purge();
+    }
+
+    private void purge() {
+        Ref ref;
+        while ((ref = (Ref) collected.poll()) != null) {
+            interned.remove(ref.key, ref);
+        }
+    }
+
+    private static class Ref extends WeakReference<Feature> {
+        private final StoredFeature key;
+
+        Ref(StoredFeature key, Feature compiled, ReferenceQueue<Feature> queue) {
+            super(compiled, queue);
+            this.key = key;
+        }
+    }
+}
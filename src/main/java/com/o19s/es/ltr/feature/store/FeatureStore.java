@@ -18,6 +18,10 @@ package com.o19s.es.ltr.feature.store;
 
 import com.o19s.es.ltr.feature.Feature;
 import com.o19s.es.ltr.feature.FeatureSet;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.index.query.QueryShardContext;
 
 import java.io.IOException;
 
@@ -29,4 +33,89 @@ public interface FeatureStore {
     Feature load(String name) throws IOException;
     FeatureSet loadSet(String name) throws IOException;
     CompiledLtrModel loadModel(String name) throws IOException;
+
+    /**
+     * Load a feature and report the details of the load to the listener.
+     */
+    default Feature load(String name, LoadListener listener) throws IOException {
+        return load(name);
+    }
+
+    /**
+     * Load a feature set and report the details of the load to the listener.
+     */
+    default FeatureSet loadSet(String name, LoadListener listener) throws IOException {
+        return loadSet(name);
+    }
+
+    /**
+     * Load a model and report the details of the load to the listener.
+     */
+    default CompiledLtrModel loadModel(String name, LoadListener listener) throws IOException {
+        return loadModel(name);
+    }
+
+    /**
+     * Load a model at exactly this version of its source document, the name must not be a model alias.
+     * Stores that do not cache models ignore the version, they load the current version.
+     */
+    default CompiledLtrModel loadModel(String name, long version) throws IOException {
+        return loadModel(name);
+    }
+
+    /**
+     * Load a model used to score the documents of the search built with this context, with the version
+     * resolved on the coordinating node or null (see {@link #loadModel(String, long)}).
+     * Stores sharing models release their resources once the search context is freed.
+     */
+    default CompiledLtrModel loadModel(String name, @Nullable Long version, QueryShardContext context) throws IOException {
+        return version != null ? loadModel(name, version) : loadModel(name);
+    }
+
+    /**
+     * Name of the model this alias points to, null if there is no such alias.
+     */
+    default String resolveModelAlias(String name) throws IOException {
+        return null;
+    }
+
+    /**
+     * Name of the model this alias points to, null if there is no such alias.
+     * The version of the alias document is reported to the listener.
+     */
+    default String resolveModelAlias(String name, LoadListener listener) throws IOException {
+        return resolveModelAlias(name);
+    }
+
+    /**
+     * Resolve the model to load for this name, following the model alias if there is no model
+     * with this name, and the current version of its source document.
+     * Stores that do not track versions respond with null.
+     */
+    default void resolveModelVersion(String name, ActionListener<Tuple<String, Long>> listener) {
+        listener.onResponse(null);
+    }
+
+    /**
+     * Details of a load, stores only report what they track.
+     */
+    interface LoadListener {
+        LoadListener NOOP = new LoadListener() {};
+
+        /**
+         * Version of the source document the element is loaded from.
+         */
+        default void onVersion(long version) {}
+
+        /**
+         * Time spent fetching the source document, before it's parsed and compiled.
+         */
+        default void onFetched(long tookInNanos) {}
+
+        /**
+         * Generation of the store the element is loaded from, reported by the stores replaced
+         * as a whole when their source changes.
+         */
+        default void onGeneration(long generation) {}
+    }
 }
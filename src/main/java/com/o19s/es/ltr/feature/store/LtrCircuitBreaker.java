@@ -0,0 +1,105 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.ltr.feature.store.index.Caches;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.indices.breaker.BreakerSettings;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+import org.elasticsearch.indices.breaker.HierarchyCircuitBreakerService;
+
+/**
+ * The ltr circuit breaker, child of the parent breaker of the node.
+ * It accounts for the resident weight of the caches and for the transient memory
+ * needed to parse and compile the models: the estimate is reserved before the model is
+ * parsed so that an oversized model is rejected with a {@link CircuitBreakingException}
+ * instead of exhausting the heap of the node.
+ *
+ * The breaker is registered once per node and passed to the caches and to the node services,
+ * a noop breaker is used until then.
+ */
+public final class LtrCircuitBreaker {
+    public static final String NAME = "ltr";
+    public static final Setting<ByteSizeValue> LTR_BREAKER_LIMIT = Setting.memorySizeSetting("ltr.breaker.limit", "20%",
+            Setting.Property.NodeScope);
+    public static final Setting<Double> LTR_BREAKER_OVERHEAD = Setting.doubleSetting("ltr.breaker.overhead", 1.0D, 0.0D,
+            Setting.Property.NodeScope);
+    /**
+     * Rough number of heap bytes needed by the parse and the compilation per byte of model definition:
+     * the tokens, the intermediate objects of the parsers and the compiled ranker.
+     */
+    static final long COMPILE_BYTES_PER_DEFINITION_BYTE = 4;
+    static final CircuitBreaker NOOP = new NoopCircuitBreaker(NAME);
+
+    private LtrCircuitBreaker() {}
+
+    /**
+     * Register the ltr breaker on this node, a noop breaker is used if the node has its breakers disabled.
+     */
+    public static CircuitBreaker register(Settings settings, CircuitBreakerService service) {
+        CircuitBreaker breaker = NOOP;
+        if (service instanceof HierarchyCircuitBreakerService) {
+            ((HierarchyCircuitBreakerService) service).registerBreaker(new BreakerSettings(NAME,
+                    LTR_BREAKER_LIMIT.get(settings).getBytes(),
+                    LTR_BREAKER_OVERHEAD.get(settings),
+                    CircuitBreaker.Type.MEMORY));
+            breaker = service.getBreaker(NAME);
+        }
+        return breaker;
+    }
+
+    /**
+     * Run the parse and compilation of a model while holding a reservation on the breaker
+     * proportional to the size of its definition.
+     *
+     * @param breaker the breaker of the node
+     * @param label label of the model, reported when the breaker trips
+     * @param definitionBytes size of the model definition
+     * @throws CircuitBreakingException if the reservation exceeds the limit of the breaker
+     */
+    public static <R, E extends Exception> R compile(CircuitBreaker breaker, String label, long definitionBytes,
+                                                     CheckedSupplier<R, E> compiler) throws E {
+        long estimate = definitionBytes * COMPILE_BYTES_PER_DEFINITION_BYTE;
+        breaker.addEstimateBytesAndMaybeBreak(estimate, label);
+        try {
+            return compiler.get();
+        } finally {
+            breaker.addWithoutBreaking(-estimate);
+        }
+    }
+
+    /**
+     * Registers the breaker once the node services are available, reports
+     * the weight of the caches to it and reserves the compilations on it.
+     */
+    public static class Registration {
+        @Inject
+        public Registration(Settings settings, CircuitBreakerService service, Caches caches, LtrNodeServices services) {
+            CircuitBreaker breaker = register(settings, service);
+            caches.setCircuitBreaker(breaker);
+            services.setCircuitBreaker(breaker);
+        }
+    }
+}
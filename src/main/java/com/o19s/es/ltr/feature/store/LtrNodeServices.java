@@ -0,0 +1,89 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.ltr.logging.FeatureLogSink;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+
+/**
+ * Services of a node used to compile the stored elements and to build their queries.
+ * Created by the plugin and passed to the stores of the node, the services are set once the
+ * node components are created: until then, and for the instances built outside of a node,
+ * the features are compiled and rendered sequentially.
+ */
+public class LtrNodeServices {
+    private volatile ParallelFeatureExecutor featureExecutor;
+    private volatile RenderedQueryCache renderedQueryCache;
+    private volatile CircuitBreaker circuitBreaker = LtrCircuitBreaker.NOOP;
+    private volatile FeatureLogSink featureLogSink;
+    private final FeatureInterner featureInterner = new FeatureInterner();
+
+    public void setFeatureExecutor(@Nullable ParallelFeatureExecutor featureExecutor) {
+        this.featureExecutor = featureExecutor;
+    }
+
+    /**
+     * The executor running the per feature work of large sets, null if not set
+     */
+    @Nullable
+    public ParallelFeatureExecutor getFeatureExecutor() {
+        return featureExecutor;
+    }
+
+    public void setRenderedQueryCache(@Nullable RenderedQueryCache renderedQueryCache) {
+        this.renderedQueryCache = renderedQueryCache;
+    }
+
+    /**
+     * The cache of the queries parsed from the rendered templates, null if disabled
+     */
+    @Nullable
+    public RenderedQueryCache getRenderedQueryCache() {
+        return renderedQueryCache;
+    }
+
+    /**
+     * Set the breaker reserving the memory needed to compile the models, a noop breaker is used if null
+     */
+    public void setCircuitBreaker(@Nullable CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker != null ? circuitBreaker : LtrCircuitBreaker.NOOP;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setFeatureLogSink(@Nullable FeatureLogSink featureLogSink) {
+        this.featureLogSink = featureLogSink;
+    }
+
+    /**
+     * The sink writing the sampled feature logs to the disk of the node, null if disabled
+     */
+    @Nullable
+    public FeatureLogSink getFeatureLogSink() {
+        return featureLogSink;
+    }
+
+    /**
+     * The interner sharing the compiled features with identical definitions
+     */
+    public FeatureInterner getFeatureInterner() {
+        return featureInterner;
+    }
+}
@@ -21,9 +21,11 @@ import com.o19s.es.ltr.feature.FeatureSet;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryShardContext;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 
@@ -37,11 +39,20 @@ public class OptimizedFeatureSet implements FeatureSet, Accountable {
     private final String name;
     private final List<Feature> features;
     private final Map<String, Integer> featureMap;
+    private final LtrNodeServices services;
 
     public OptimizedFeatureSet(String name, List<Feature> features, Map<String, Integer> featureMap) {
+        this(name, features, featureMap, new LtrNodeServices());
+    }
+
+    /**
+     * @param services services of the node the set is compiled on, used when its queries are built
+     */
+    public OptimizedFeatureSet(String name, List<Feature> features, Map<String, Integer> featureMap, LtrNodeServices services) {
         this.name = name;
         this.features = features;
         this.featureMap = featureMap;
+        this.services = services;
     }
 
     @Override
@@ -51,9 +62,32 @@ public class OptimizedFeatureSet implements FeatureSet, Accountable {
 
     @Override
     public List<Query> toQueries(QueryShardContext context, Map<String, Object> params) {
+        return toQueries(context, params, null);
+    }
+
+    @Override
+    public List<Query> toQueries(QueryShardContext context, Map<String, Object> params, BitSet active) {
+        // The templates of large sets are rendered and parsed in parallel, the context is not thread safe
+        // so that the queries are always rewritten and built on the calling thread.
+        RenderedQueryCache cache = services.getRenderedQueryCache();
+        QueryBuilder[] rendered = new QueryBuilder[features.size()];
+        ParallelFeatureExecutor.render(services.getFeatureExecutor(), rendered.length, (i) -> {
+            Feature feature = features.get(i);
+            if (feature instanceof PrecompiledTemplateFeature && (active == null || active.get(i))) {
+                rendered[i] = ((PrecompiledTemplateFeature) feature).render(context, params, cache);
+            }
+        });
         List<Query> queries = new ArrayList<>(features.size());
-        for(Feature feature : features) {
-            queries.add(feature.doToQuery(context, this, params));
+        for (int i = 0; i < rendered.length; i++) {
+            Feature feature = features.get(i);
+            if (active != null && !active.get(i)) {
+                queries.add(FeatureSet.inactiveQuery());
+            } else if (feature instanceof PrecompiledTemplateFeature) {
+                PrecompiledTemplateFeature template = (PrecompiledTemplateFeature) feature;
+                queries.add(template.toQuery(context, rendered[i] != null ? rendered[i] : template.render(context, params, cache)));
+            } else {
+                queries.add(feature.doToQuery(context, this, params));
+            }
         }
         return queries;
     }
@@ -0,0 +1,247 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * Fans out the per feature work of large feature sets (compilation and query rendering)
+ * and the logging of the hits of large segments on the bounded ltr_features thread pool.
+ * The work is split in at most one chunk per thread of the pool, the calling thread runs its share and
+ * then takes back the chunks that no pool thread has started yet (fork/join with help on join):
+ * a saturated pool degrades to sequential execution on the calling thread instead of queuing behind it.
+ * Tasks run on threads created by the node thread pool, they do not inherit the access control context
+ * of the caller and the privileged blocks of the compilers (mustache, expressions) behave as they do
+ * on the search threads.
+ *
+ * The executor is created once per node by the plugin and handed to the stores through {@link LtrNodeServices},
+ * sequential execution is used where no executor is available.
+ */
+public final class ParallelFeatureExecutor {
+    public static final String THREAD_POOL_NAME = "ltr_features";
+    /**
+     * Minimum number of features in a set to compile them in parallel, 0 disables parallel compilation
+     */
+    public static final Setting<Integer> LTR_PARALLEL_COMPILE_MIN_FEATURES = Setting.intSetting(
+            "ltr.feature_sets.parallel_compile_min_features", 64, 0, Setting.Property.NodeScope);
+    /**
+     * Minimum number of features in a set to render their queries in parallel, 0 (default) disables parallel rendering
+     */
+    public static final Setting<Integer> LTR_PARALLEL_QUERY_MIN_FEATURES = Setting.intSetting(
+            "ltr.feature_sets.parallel_query_min_features", 0, 0, Setting.Property.NodeScope);
+    /**
+     * Maximum number of chunks of hits logged concurrently by a fetch phase, 0 (default) disables parallel logging
+     */
+    public static final Setting<Integer> LTR_PARALLEL_LOGGING = Setting.intSetting(
+            "ltr.logging.parallelism", 0, 0, Setting.Property.NodeScope);
+    /**
+     * Minimum number of hits in a segment to log them on their own thread
+     */
+    public static final Setting<Integer> LTR_PARALLEL_LOGGING_MIN_HITS_PER_LEAF = Setting.intSetting(
+            "ltr.logging.parallel_min_hits_per_leaf", 32, 1, Setting.Property.NodeScope);
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private final ThreadPool threadPool;
+    private final int parallelism;
+    private final int compileMinFeatures;
+    private final int queryMinFeatures;
+    private final int logParallelism;
+    private final int logMinHitsPerLeaf;
+    // set while a chunk runs on the pool
+    private final ThreadLocal<Boolean> forked = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    public ParallelFeatureExecutor(Settings settings, ThreadPool threadPool) {
+        this.threadPool = threadPool;
+        ThreadPool.Info info = threadPool.info(THREAD_POOL_NAME);
+        // the threads of the pool and the calling thread
+        this.parallelism = info != null ? info.getMax() + 1 : 1;
+        this.compileMinFeatures = LTR_PARALLEL_COMPILE_MIN_FEATURES.get(settings);
+        this.queryMinFeatures = LTR_PARALLEL_QUERY_MIN_FEATURES.get(settings);
+        this.logParallelism = Math.min(parallelism, LTR_PARALLEL_LOGGING.get(settings));
+        this.logMinHitsPerLeaf = LTR_PARALLEL_LOGGING_MIN_HITS_PER_LEAF.get(settings);
+    }
+
+    /**
+     * The ltr_features thread pool, configured with thread_pool.ltr_features.size and thread_pool.ltr_features.queue_size
+     */
+    public static ExecutorBuilder<?> executorBuilder(Settings settings) {
+        int size = Math.max(1, Math.min(8, EsExecutors.numberOfProcessors(settings) / 2));
+        return new FixedExecutorBuilder(settings, THREAD_POOL_NAME, size, DEFAULT_QUEUE_SIZE, "thread_pool." + THREAD_POOL_NAME);
+    }
+
+    /**
+     * Run action for every feature ordinal in [0, size) of a set being compiled
+     *
+     * @param executor the executor of the node, null to run sequentially
+     */
+    static void compile(@Nullable ParallelFeatureExecutor executor, int size, IntConsumer action) {
+        if (executor == null || executor.compileMinFeatures == 0 || size < executor.compileMinFeatures) {
+            sequential(size, action);
+        } else {
+            executor.forEach(size, action);
+        }
+    }
+
+    /**
+     * Run action for every feature ordinal in [0, size) of a set whose queries are being rendered
+     *
+     * @param executor the executor of the node, null to run sequentially
+     * @return false if the set is too small to be rendered in parallel, action is not called
+     */
+    static boolean render(@Nullable ParallelFeatureExecutor executor, int size, IntConsumer action) {
+        if (executor == null || executor.queryMinFeatures == 0 || size < executor.queryMinFeatures) {
+            return false;
+        }
+        executor.forEach(size, action);
+        return true;
+    }
+
+    /**
+     * Maximum number of chunks the hits of a fetch phase can be logged in, 1 if parallel logging is disabled
+     */
+    public int logParallelism() {
+        return Math.max(1, logParallelism);
+    }
+
+    /**
+     * Minimum number of hits in a segment to log them in their own chunk
+     */
+    public int logMinHitsPerLeaf() {
+        return logMinHitsPerLeaf;
+    }
+
+    /**
+     * Run action for every chunk in [0, chunks) of the hits being logged
+     *
+     * @param executor the executor of the node, null to run sequentially
+     */
+    public static void log(@Nullable ParallelFeatureExecutor executor, int chunks, IntConsumer action) {
+        if (executor == null) {
+            sequential(chunks, action);
+        } else {
+            executor.forEach(chunks, action);
+        }
+    }
+
+    private static void sequential(int size, IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(i);
+        }
+    }
+
+    /**
+     * Run action for every ordinal in [0, size), the first failure is rethrown once all the chunks are done
+     */
+    void forEach(int size, IntConsumer action) {
+        ExecutorService pool = threadPool.executor(THREAD_POOL_NAME);
+        int chunks = Math.min(size, parallelism);
+        if (chunks <= 1 || forked.get()) {
+            // Never fan out from our own pool
+            sequential(size, action);
+            return;
+        }
+        Fork fork = new Fork(size, chunks, action);
+        for (int c = 1; c < chunks; c++) {
+            int chunk = c;
+            try {
+                pool.execute(threadPool.getThreadContext().preserveContext(() -> {
+                    forked.set(Boolean.TRUE);
+                    try {
+                        fork.run(chunk);
+                    } finally {
+                        forked.set(Boolean.FALSE);
+                    }
+                }));
+            } catch (EsRejectedExecutionException e) {
+                // will be run by the calling thread
+                break;
+            }
+        }
+        for (int c = 0; c < chunks; c++) {
+            fork.run(c);
+        }
+        fork.join();
+    }
+
+    private static class Fork {
+        private final int size;
+        private final int chunks;
+        private final IntConsumer action;
+        private final AtomicBoolean[] claimed;
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Fork(int size, int chunks, IntConsumer action) {
+            this.size = size;
+            this.chunks = chunks;
+            this.action = action;
+            this.claimed = new AtomicBoolean[chunks];
+            for (int i = 0; i < chunks; i++) {
+                claimed[i] = new AtomicBoolean();
+            }
+            this.done = new CountDownLatch(chunks);
+        }
+
+        void run(int chunk) {
+            if (!claimed[chunk].compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                int from = (int) ((long) size * chunk / chunks);
+                int to = (int) ((long) size * (chunk + 1) / chunks);
+                for (int i = from; i < to && failure.get() == null; i++) {
+                    action.accept(i);
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                done.countDown();
+            }
+        }
+
+        void join() {
+            // all the chunks are claimed, only wait for the ones still running on the pool
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the features to be processed", e);
+            }
+            Throwable t = failure.get();
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            } else if (t != null) {
+                throw new IllegalStateException(t.getMessage(), t);
+            }
+        }
+    }
+}
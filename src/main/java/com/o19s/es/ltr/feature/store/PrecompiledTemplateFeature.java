@@ -23,6 +23,7 @@ import com.o19s.es.template.mustache.MustacheUtils;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.ParsingException;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentParser;
@@ -35,6 +36,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
@@ -49,12 +51,18 @@ public class PrecompiledTemplateFeature implements Feature, Accountable {
     private final Mustache template;
     private final String templateString;
     private final Collection<String> queryParams;
+    // params read by the template, null if unknown
+    private final Set<String> referencedParams;
+    // null if the placeholders are not all whole json values
+    private final QueryPrototype prototype;
 
     private PrecompiledTemplateFeature(String name, Mustache template, String templateString, Collection<String> queryParams) {
         this.name = name;
         this.template = template;
         this.queryParams = queryParams;
         this.templateString = templateString;
+        this.referencedParams = MustacheUtils.referencedParams(template);
+        this.prototype = QueryPrototype.compile(templateString);
     }
 
     public static PrecompiledTemplateFeature compile(StoredFeature feature) {
@@ -71,7 +79,15 @@ public class PrecompiledTemplateFeature implements Feature, Accountable {
                 queryParams.stream()
                         .mapToLong(x -> (Character.BYTES * x.length()) +
                                 NUM_BYTES_OBJECT_REF + NUM_BYTES_OBJECT_HEADER + NUM_BYTES_ARRAY_HEADER).sum() +
-                (((Character.BYTES * templateString.length()) + NUM_BYTES_ARRAY_HEADER)*2);
+                (((Character.BYTES * templateString.length()) + NUM_BYTES_ARRAY_HEADER)*2) +
+                (prototype != null ? prototype.ramBytesUsed() : 0);
+    }
+
+    /**
+     * Whether the queries are parsed from the tokens of the template instead of the rendered template
+     */
+    boolean hasPrototype() {
+        return prototype != null;
     }
 
     @Override
@@ -81,6 +97,15 @@ public class PrecompiledTemplateFeature implements Feature, Accountable {
 
     @Override
     public Query doToQuery(QueryShardContext context, FeatureSet set, Map<String, Object> params) {
+        return toQuery(context, render(context, params, null));
+    }
+
+    /**
+     * Render the template and parse the resulting query, only the xcontent registry of the context is used:
+     * features of the same set can be rendered concurrently.
+     * The returned query may be shared through the {@link RenderedQueryCache}, it must not be modified.
+     */
+    QueryBuilder render(QueryShardContext context, Map<String, Object> params, @Nullable RenderedQueryCache cache) {
         List<String> missingParams = queryParams.stream()
                 .filter((x) -> params == null || !params.containsKey(x))
                 .collect(Collectors.toList());
@@ -89,10 +114,34 @@ public class PrecompiledTemplateFeature implements Feature, Accountable {
             throw new IllegalArgumentException("Missing required param(s): [" + names + "]");
         }
 
-        String query = MustacheUtils.execute(template, params);
+        if (cache != null) {
+            return cache.getOrRender(this, referencedParams, params, () -> doRender(context, params));
+        }
+        return doRender(context, params).query();
+    }
+
+    private RenderedQueryCache.Rendered doRender(QueryShardContext context, Map<String, Object> params) {
+        // params that cannot fill the slots of the prototype (lists, objects) are rendered by mustache
+        String[] slotValues = prototype != null ? prototype.fill(params) : null;
+        String query = slotValues == null ? MustacheUtils.execute(template, params) : null;
         try {
+            if (query == null) {
+                XContentParser parser = prototype.parser(context.getXContentRegistry(), slotValues);
+                return new RenderedQueryCache.Rendered(parseInnerQueryBuilder(parser), templateString.length());
+            }
             XContentParser parser = XContentFactory.xContent(query).createParser(context.getXContentRegistry(), query);
-            QueryBuilder queryBuilder = parseInnerQueryBuilder(parser);
+            return new RenderedQueryCache.Rendered(parseInnerQueryBuilder(parser), query.length());
+        } catch (IOException |ParsingException|IllegalArgumentException e) {
+            // wrap common exceptions as well so we can attach the feature's name to the stack
+            throw new QueryShardException(context, "Cannot create query while parsing feature [" + name +"]", e);
+        }
+    }
+
+    /**
+     * Build the lucene query of a rendered query builder
+     */
+    Query toQuery(QueryShardContext context, QueryBuilder queryBuilder) {
+        try {
             // XXX: QueryShardContext extends QueryRewriteContext (for now)
             return Rewriteable.rewrite(queryBuilder, context).toQuery(context);
         } catch (IOException |ParsingException|IllegalArgumentException e) {
@@ -0,0 +1,378 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentLocation;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.common.xcontent.support.AbstractXContentParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+
+/**
+ * A mustache template whose placeholders are all whole JSON string values ("field": "{{keywords}}"),
+ * compiled once into the sequence of its JSON tokens with parameter slots.
+ * Queries are parsed directly from these tokens with the slots filled from the params:
+ * no mustache execution, no string building and no JSON lexing.
+ */
+final class QueryPrototype implements Accountable {
+    private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(QueryPrototype.class);
+    // {{name}}, sections, partials, comments, unescaped and dotted names are not supported
+    private static final Pattern SLOT = Pattern.compile("^\\{\\{\\s*([^{}#^/!>&=\\s.][^{}\\s.]*)\\s*\\}\\}$");
+    private static final String TAG_START = "{{";
+
+    private final XContentParser.Token[] tokens;
+    // name reported by currentName() for each token
+    private final String[] names;
+    // text of the value tokens
+    private final String[] texts;
+    // Number or Boolean of the number and boolean tokens
+    private final Object[] values;
+    private final XContentParser.NumberType[] numberTypes;
+    // index in slotParams of the slot tokens, -1 for fixed tokens
+    private final int[] slots;
+    private final String[] slotParams;
+    private final int[] lines;
+    private final int[] columns;
+
+    private QueryPrototype(List<RecordedToken> recorded, List<String> slotParams) {
+        int size = recorded.size();
+        this.tokens = new XContentParser.Token[size];
+        this.names = new String[size];
+        this.texts = new String[size];
+        this.values = new Object[size];
+        this.numberTypes = new XContentParser.NumberType[size];
+        this.slots = new int[size];
+        this.lines = new int[size];
+        this.columns = new int[size];
+        for (int i = 0; i < size; i++) {
+            RecordedToken token = recorded.get(i);
+            tokens[i] = token.token;
+            names[i] = token.name;
+            texts[i] = token.text;
+            values[i] = token.value;
+            numberTypes[i] = token.numberType;
+            slots[i] = token.slot;
+            lines[i] = token.location != null ? token.location.lineNumber : -1;
+            columns[i] = token.location != null ? token.location.columnNumber : -1;
+        }
+        this.slotParams = slotParams.toArray(new String[slotParams.size()]);
+    }
+
+    /**
+     * Compile a template
+     *
+     * @return the prototype or null if the template is not a JSON document whose placeholders are whole string values
+     */
+    static QueryPrototype compile(String template) {
+        List<RecordedToken> recorded = new ArrayList<>();
+        Map<String, Integer> slotParams = new LinkedHashMap<>();
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, template)) {
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != null) {
+                RecordedToken recordedToken = new RecordedToken(token, parser.currentName(), parser.getTokenLocation());
+                switch (token) {
+                case FIELD_NAME:
+                    if (parser.currentName().contains(TAG_START)) {
+                        return null;
+                    }
+                    break;
+                case VALUE_STRING:
+                    Matcher matcher = SLOT.matcher(parser.text());
+                    if (matcher.matches()) {
+                        recordedToken.slot = slotParams.computeIfAbsent(matcher.group(1), (k) -> slotParams.size());
+                    } else if (parser.text().contains(TAG_START)) {
+                        return null;
+                    } else {
+                        recordedToken.text = parser.text();
+                    }
+                    break;
+                case VALUE_NUMBER:
+                    recordedToken.text = parser.text();
+                    recordedToken.value = parser.numberValue();
+                    recordedToken.numberType = parser.numberType();
+                    break;
+                case VALUE_BOOLEAN:
+                    recordedToken.text = parser.text();
+                    recordedToken.value = parser.booleanValue();
+                    break;
+                case VALUE_NULL:
+                    recordedToken.text = parser.text();
+                    break;
+                case START_OBJECT:
+                case END_OBJECT:
+                case START_ARRAY:
+                case END_ARRAY:
+                    break;
+                default:
+                    return null;
+                }
+                recorded.add(recordedToken);
+            }
+        } catch (IOException | RuntimeException e) {
+            // not JSON (e.g. placeholders in place of numbers or objects)
+            return null;
+        }
+        if (recorded.isEmpty()) {
+            return null;
+        }
+        return new QueryPrototype(recorded, new ArrayList<>(slotParams.keySet()));
+    }
+
+    /**
+     * Fill the slots with the params
+     *
+     * @return the slot values or null if a param is missing or cannot be rendered as a plain string (lists, objects)
+     */
+    String[] fill(Map<String, Object> params) {
+        String[] slotValues = new String[slotParams.length];
+        for (int i = 0; i < slotParams.length; i++) {
+            Object value = params != null ? params.get(slotParams[i]) : null;
+            if (value instanceof String) {
+                slotValues[i] = (String) value;
+            } else if (value instanceof Number || value instanceof Boolean) {
+                // mustache renders them with toString()
+                slotValues[i] = value.toString();
+            } else {
+                return null;
+            }
+        }
+        return slotValues;
+    }
+
+    /**
+     * A parser over the tokens of the template
+     */
+    XContentParser parser(NamedXContentRegistry registry, String[] slotValues) {
+        assert slotValues.length == slotParams.length;
+        return new Parser(registry, slotValues);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long textsSize = 0;
+        for (String text : texts) {
+            if (text != null) {
+                textsSize += NUM_BYTES_ARRAY_HEADER + Character.BYTES * text.length();
+            }
+        }
+        return BASE_RAM_USED + textsSize + tokens.length * (6L * NUM_BYTES_OBJECT_REF + 3 * Integer.BYTES);
+    }
+
+    private static class RecordedToken {
+        private final XContentParser.Token token;
+        private final String name;
+        private final XContentLocation location;
+        private String text;
+        private Object value;
+        private XContentParser.NumberType numberType;
+        private int slot = -1;
+
+        RecordedToken(XContentParser.Token token, String name, XContentLocation location) {
+            this.token = token;
+            this.name = name;
+            this.location = location;
+        }
+    }
+
+    private class Parser extends AbstractXContentParser {
+        private final String[] slotValues;
+        private int pos = -1;
+        private boolean closed;
+
+        Parser(NamedXContentRegistry registry, String[] slotValues) {
+            super(registry);
+            this.slotValues = slotValues;
+        }
+
+        @Override
+        public XContentType contentType() {
+            return XContentType.JSON;
+        }
+
+        @Override
+        public Token nextToken() throws IOException {
+            if (pos < tokens.length) {
+                pos++;
+            }
+            return currentToken();
+        }
+
+        @Override
+        public void skipChildren() throws IOException {
+            Token token = currentToken();
+            if (token != Token.START_OBJECT && token != Token.START_ARRAY) {
+                return;
+            }
+            int depth = 1;
+            while (depth > 0 && (token = nextToken()) != null) {
+                if (token == Token.START_OBJECT || token == Token.START_ARRAY) {
+                    depth++;
+                } else if (token == Token.END_OBJECT || token == Token.END_ARRAY) {
+                    depth--;
+                }
+            }
+        }
+
+        @Override
+        public Token currentToken() {
+            return pos >= 0 && pos < tokens.length ? tokens[pos] : null;
+        }
+
+        @Override
+        public String currentName() throws IOException {
+            return pos >= 0 && pos < tokens.length ? names[pos] : null;
+        }
+
+        @Override
+        public String text() throws IOException {
+            Token token = currentToken();
+            if (token == null || !token.isValue()) {
+                throw new IllegalStateException("Can't get text on a " + token + " at " + getTokenLocation());
+            }
+            return slots[pos] >= 0 ? slotValues[slots[pos]] : texts[pos];
+        }
+
+        @Override
+        public BytesRef utf8Bytes() throws IOException {
+            return new BytesRef(text());
+        }
+
+        @Override
+        public Object objectText() throws IOException {
+            Token token = currentToken();
+            if (token == Token.VALUE_STRING) {
+                return text();
+            } else if (token == Token.VALUE_NUMBER || token == Token.VALUE_BOOLEAN) {
+                return values[pos];
+            }
+            return null;
+        }
+
+        @Override
+        public Object objectBytes() throws IOException {
+            if (currentToken() == Token.VALUE_STRING) {
+                return utf8Bytes();
+            }
+            return objectText();
+        }
+
+        @Override
+        public boolean hasTextCharacters() {
+            return false;
+        }
+
+        @Override
+        public char[] textCharacters() throws IOException {
+            return text().toCharArray();
+        }
+
+        @Override
+        public int textLength() throws IOException {
+            return text().length();
+        }
+
+        @Override
+        public int textOffset() throws IOException {
+            return 0;
+        }
+
+        @Override
+        public Number numberValue() throws IOException {
+            if (currentToken() != Token.VALUE_NUMBER) {
+                throw new IllegalStateException("Current token (" + currentToken() + ") not numeric at " + getTokenLocation());
+            }
+            return (Number) values[pos];
+        }
+
+        @Override
+        public NumberType numberType() throws IOException {
+            return currentToken() == Token.VALUE_NUMBER ? numberTypes[pos] : null;
+        }
+
+        @Override
+        protected boolean doBooleanValue() throws IOException {
+            if (currentToken() != Token.VALUE_BOOLEAN) {
+                throw new IllegalStateException("Current token (" + currentToken() + ") not a boolean at " + getTokenLocation());
+            }
+            return (Boolean) values[pos];
+        }
+
+        @Override
+        protected short doShortValue() throws IOException {
+            return numberValue().shortValue();
+        }
+
+        @Override
+        protected int doIntValue() throws IOException {
+            return numberValue().intValue();
+        }
+
+        @Override
+        protected long doLongValue() throws IOException {
+            return numberValue().longValue();
+        }
+
+        @Override
+        protected float doFloatValue() throws IOException {
+            return numberValue().floatValue();
+        }
+
+        @Override
+        protected double doDoubleValue() throws IOException {
+            return numberValue().doubleValue();
+        }
+
+        @Override
+        public byte[] binaryValue() throws IOException {
+            return Base64.getMimeDecoder().decode(text());
+        }
+
+        @Override
+        public XContentLocation getTokenLocation() {
+            if (pos >= 0 && pos < tokens.length) {
+                return new XContentLocation(lines[pos], columns[pos]);
+            }
+            return new XContentLocation(-1, -1);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
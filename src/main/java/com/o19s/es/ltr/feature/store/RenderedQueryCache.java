@@ -0,0 +1,255 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_OBJECT_HEADER;
+import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+
+/**
+ * Node level cache of the query builders parsed from the rendered templates.
+ * Entries are keyed by the compiled feature (features with identical definitions share entries)
+ * and the values of the params referenced by its template, so that frequent queries only pay
+ * the rewrite and the creation of the lucene query on each shard.
+ * Parsed query builders do not depend on the shard and are shared, they must not be modified.
+ */
+public final class RenderedQueryCache {
+    public static final Setting<ByteSizeValue> LTR_CACHE_RENDERED_QUERIES_MEM = Setting.memorySizeSetting(
+            "ltr.caches.rendered_queries.max_mem", new ByteSizeValue(5, ByteSizeUnit.MB),
+            Setting.Property.NodeScope);
+    private static final long BASE_ENTRY_RAM_USED = 2 * NUM_BYTES_OBJECT_HEADER + 4 * NUM_BYTES_OBJECT_REF;
+
+    private final Cache<Key, Entry> cache;
+
+    RenderedQueryCache(long maxWeight) {
+        this.cache = CacheBuilder.<Key, Entry>builder()
+                .setMaximumWeight(maxWeight)
+                .weigher((k, v) -> v.weight)
+                .build();
+    }
+
+    /**
+     * Create the cache of a node, null if disabled with ltr.caches.rendered_queries.max_mem set to 0
+     */
+    public static RenderedQueryCache create(Settings settings) {
+        long maxWeight = LTR_CACHE_RENDERED_QUERIES_MEM.get(settings).getBytes();
+        return maxWeight > 0 ? new RenderedQueryCache(maxWeight) : null;
+    }
+
+    /**
+     * Release the cached queries
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Return the cached query builder of this feature for these params or render it.
+     *
+     * @param referencedParams names of the params the template reads, null to key on all the params
+     * @param renderer renders the template and parses the query, returns the query and the size of the rendered template
+     */
+    QueryBuilder getOrRender(PrecompiledTemplateFeature feature, Collection<String> referencedParams, Map<String, Object> params,
+                             Supplier<Rendered> renderer) {
+        Key key = new Key(feature, relevantParams(referencedParams, params));
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            return entry.query;
+        }
+        Rendered rendered = renderer.get();
+        cache.put(key, new Entry(rendered.query, BASE_ENTRY_RAM_USED + key.ramBytesUsed() + rendered.ramBytesUsed()));
+        return rendered.query;
+    }
+
+    private static Map<String, Object> relevantParams(Collection<String> referencedParams, Map<String, Object> params) {
+        if (params == null || params.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (referencedParams == null) {
+            return new HashMap<>(params);
+        }
+        Map<String, Object> relevant = new HashMap<>();
+        for (String name : referencedParams) {
+            if (params.containsKey(name)) {
+                relevant.put(name, params.get(name));
+            }
+        }
+        return relevant;
+    }
+
+    public Stats stats() {
+        Cache.CacheStats stats = cache.stats();
+        return new Stats(stats.getHits(), stats.getMisses(), stats.getEvictions(), cache.count(), cache.weight());
+    }
+
+    /**
+     * A rendered and parsed template
+     */
+    static class Rendered {
+        private final QueryBuilder query;
+        private final int renderedLength;
+
+        Rendered(QueryBuilder query, int renderedLength) {
+            this.query = query;
+            this.renderedLength = renderedLength;
+        }
+
+        QueryBuilder query() {
+            return query;
+        }
+
+        private long ramBytesUsed() {
+            // the parsed query is estimated at twice the size of its source
+            return 2L * Character.BYTES * renderedLength;
+        }
+    }
+
+    private static class Key {
+        private final PrecompiledTemplateFeature feature;
+        private final Map<String, Object> params;
+        private final int hash;
+
+        Key(PrecompiledTemplateFeature feature, Map<String, Object> params) {
+            this.feature = feature;
+            this.params = params;
+            this.hash = 31 * feature.hashCode() + params.hashCode();
+        }
+
+        long ramBytesUsed() {
+            // feature is shared with the caches of the stores
+            return NUM_BYTES_OBJECT_HEADER + RamUsageEstimator.shallowSizeOf(params) +
+                    params.entrySet().stream()
+                            .mapToLong((e) -> 2 * NUM_BYTES_OBJECT_REF + Character.BYTES * (e.getKey().length() +
+                                    String.valueOf(e.getValue()).length()))
+                            .sum();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return hash == key.hash && feature.equals(key.feature) && params.equals(key.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Entry {
+        private final QueryBuilder query;
+        private final long weight;
+
+        Entry(QueryBuilder query, long weight) {
+            this.query = Objects.requireNonNull(query);
+            this.weight = weight;
+        }
+    }
+
+    public static class Stats implements Writeable, ToXContent {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int count;
+        private final long ram;
+
+        public Stats(long hits, long misses, long evictions, int count, long ram) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.count = count;
+            this.ram = ram;
+        }
+
+        public Stats(StreamInput in) throws IOException {
+            hits = in.readVLong();
+            misses = in.readVLong();
+            evictions = in.readVLong();
+            count = in.readVInt();
+            ram = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(hits);
+            out.writeVLong(misses);
+            out.writeVLong(evictions);
+            out.writeVInt(count);
+            out.writeVLong(ram);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            return builder.startObject()
+                    .field("hits", hits)
+                    .field("misses", misses)
+                    .field("hit_rate", hitRate())
+                    .field("evictions", evictions)
+                    .field("count", count)
+                    .field("ram", ram)
+                    .endObject();
+        }
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total > 0 ? (double) hits / total : 0;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getRam() {
+            return ram;
+        }
+    }
+}
@@ -173,11 +173,19 @@ public class StoredFeature implements Feature, Accountable, StorableElement {
 
     @Override
     public Feature optimize() {
+        return optimize(new LtrNodeServices());
+    }
+
+    /**
+     * Compile this feature, features with the same definition compiled with the same
+     * services share the same compiled feature.
+     */
+    public Feature optimize(LtrNodeServices services) {
         switch(templateLanguage) {
             case MustacheUtils.TEMPLATE_LANGUAGE:
-                return PrecompiledTemplateFeature.compile(this);
+                return services.getFeatureInterner().intern(this, PrecompiledTemplateFeature::compile);
             case PrecompiledExpressionFeature.TEMPLATE_LANGUAGE:
-                return PrecompiledExpressionFeature.compile(this);
+                return services.getFeatureInterner().intern(this, PrecompiledExpressionFeature::compile);
             default:
                 return this;
         }
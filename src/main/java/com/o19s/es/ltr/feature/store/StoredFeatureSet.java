@@ -22,6 +22,7 @@ import static org.apache.lucene.util.RamUsageEstimator.NUM_BYTES_OBJECT_REF;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -101,15 +102,24 @@ public class StoredFeatureSet implements FeatureSet, Accountable, StorableElemen
 
     @Override
     public FeatureSet optimize() {
-        List<Feature> optimizedFeatures = new ArrayList<>(this.features.size());
+        return optimize(new LtrNodeServices());
+    }
+
+    /**
+     * Optimize the features with the services of the node: large sets are compiled in parallel,
+     * see ParallelFeatureExecutor, and the compiled features are shared through its FeatureInterner.
+     */
+    public FeatureSet optimize(LtrNodeServices services) {
+        Feature[] optimizedFeatures = new Feature[this.features.size()];
+        ParallelFeatureExecutor.compile(services.getFeatureExecutor(), optimizedFeatures.length,
+                (i) -> optimizedFeatures[i] = features.get(i).optimize(services));
         boolean optimized = false;
-        for (StoredFeature feature: this.features) {
-            Feature optimizedFeature = feature.optimize();
-            optimized |= optimizedFeature != feature;
-            optimizedFeatures.add(optimizedFeature);
+        for (int i = 0; i < optimizedFeatures.length; i++) {
+            optimized |= optimizedFeatures[i] != features.get(i);
         }
         if (optimized) {
-            return new OptimizedFeatureSet(this.name, optimizedFeatures, Collections.unmodifiableMap(featureMap));
+            return new OptimizedFeatureSet(this.name, Arrays.asList(optimizedFeatures), Collections.unmodifiableMap(featureMap),
+                    services);
         }
         return this;
     }
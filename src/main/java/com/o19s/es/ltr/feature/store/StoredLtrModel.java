@@ -23,6 +23,8 @@ import java.util.Objects;
 
 import org.elasticsearch.common.ParseField;
 import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.io.stream.Writeable;
@@ -32,6 +34,7 @@ import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
 
 import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.ranker.CompactRankerEncoding;
 import com.o19s.es.ltr.ranker.LtrRanker;
 import com.o19s.es.ltr.ranker.parser.LtrRankerParser;
 import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
@@ -49,6 +52,8 @@ public class StoredLtrModel implements StorableElement {
     private final String rankingModelType;
     private final String rankingModel;
     private final boolean modelAsString;
+    // Optional compact encoding of the ranker, see CompactRankerEncoding
+    private final BytesReference compactModel;
 
     static {
         PARSER = new ObjectParser<>(TYPE, ParsingState::new);
@@ -61,32 +66,57 @@ public class StoredLtrModel implements StorableElement {
     }
 
     public StoredLtrModel(String name, StoredFeatureSet featureSet, LtrModelDefinition definition) {
-        this(name, featureSet, definition.type, definition.definition, definition.modelAsString);
+        this(name, featureSet, definition.type, definition.definition, definition.modelAsString, definition.compact);
     }
 
     public StoredLtrModel(String name, StoredFeatureSet featureSet, String rankingModelType, String rankingModel, boolean modelAsString) {
+        this(name, featureSet, rankingModelType, rankingModel, modelAsString, null);
+    }
+
+    /**
+     * @param rankingModel the model definition, may be null if compactModel is provided
+     * @param compactModel the compact encoding of the ranker, may be null
+     */
+    public StoredLtrModel(String name, StoredFeatureSet featureSet, String rankingModelType, String rankingModel,
+                          boolean modelAsString, BytesReference compactModel) {
         this.name = Objects.requireNonNull(name);
         this.featureSet = Objects.requireNonNull(featureSet);
         this.rankingModelType = Objects.requireNonNull(rankingModelType);
-        this.rankingModel = Objects.requireNonNull(rankingModel);
+        if (rankingModel == null && compactModel == null) {
+            throw new IllegalArgumentException("The model definition is mandatory");
+        }
+        this.rankingModel = rankingModel;
         this.modelAsString = modelAsString;
+        this.compactModel = compactModel;
     }
 
     public StoredLtrModel(StreamInput input) throws IOException {
         name = input.readString();
         featureSet = new StoredFeatureSet(input);
         rankingModelType = input.readString();
-        rankingModel = input.readString();
+        rankingModel = input.readOptionalString();
         modelAsString = input.readBoolean();
+        compactModel = input.readOptionalBytesReference();
     }
 
+    /**
+     * When the compact encoding is available the definition is not sent.
+     */
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         out.writeString(name);
         featureSet.writeTo(out);
         out.writeString(rankingModelType);
-        out.writeString(rankingModel);
+        out.writeOptionalString(compactModel == null ? rankingModel : null);
         out.writeBoolean(modelAsString);
+        out.writeOptionalBytesReference(compactModel);
+    }
+
+    /**
+     * Copy of this model with the given compact encoding of its ranker (null to remove it)
+     */
+    public StoredLtrModel withCompactModel(BytesReference compactModel) {
+        return new StoredLtrModel(name, featureSet, rankingModelType, rankingModel, modelAsString, compactModel);
     }
 
     public static StoredLtrModel parse(XContentParser parser) {
@@ -109,11 +139,30 @@ public class StoredLtrModel implements StorableElement {
         }
     }
 
+    /**
+     * Parse and compile the model, memory is reserved on the ltr circuit breaker during the compilation.
+     *
+     * @throws org.elasticsearch.common.breaker.CircuitBreakingException if the model is too large
+     */
     public CompiledLtrModel compile(LtrRankerParserFactory factory) throws IOException {
+        return compile(factory, new LtrNodeServices());
+    }
+
+    /**
+     * Parse and compile the model with the services of the node.
+     *
+     * @throws org.elasticsearch.common.breaker.CircuitBreakingException if the model is too large
+     */
+    public CompiledLtrModel compile(LtrRankerParserFactory factory, LtrNodeServices services) throws IOException {
         LtrRankerParser modelParser = factory.getParser(rankingModelType);
-        FeatureSet optimized = featureSet.optimize();
-        LtrRanker ranker = modelParser.parse(optimized, rankingModel);
-        return new CompiledLtrModel(name, optimized, ranker);
+        long definitionBytes = compactModel != null ? compactModel.length() : rankingModel.length() * Character.BYTES;
+        return LtrCircuitBreaker.compile(services.getCircuitBreaker(), "ltr model [" + name + "]", definitionBytes, () -> {
+            FeatureSet optimized = featureSet.optimize(services);
+            LtrRanker ranker = compactModel != null ?
+                    CompactRankerEncoding.decode(compactModel) :
+                    modelParser.parse(optimized, rankingModel);
+            return new CompiledLtrModel(name, optimized, ranker);
+        });
     }
 
     /**
@@ -148,10 +197,20 @@ public class StoredLtrModel implements StorableElement {
         return rankingModelType;
     }
 
+    /**
+     * The model definition, may be null if this model was received with its compact encoding
+     */
     public String rankingModel() {
         return rankingModel;
     }
 
+    /**
+     * The compact encoding of the ranker, null if not available
+     */
+    public BytesReference compactModel() {
+        return compactModel;
+    }
+
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
         builder.startObject();
@@ -160,14 +219,19 @@ public class StoredLtrModel implements StorableElement {
         featureSet.toXContent(builder, params);
         builder.startObject(MODEL.getPreferredName());
         builder.field(LtrModelDefinition.MODEL_TYPE.getPreferredName(), rankingModelType);
-        builder.field(LtrModelDefinition.MODEL_DEFINITION.getPreferredName());
-        if (modelAsString) {
-            builder.value(rankingModel);
-        } else {
-            try (XContentParser parser = JsonXContent.jsonXContent.createParser(EMPTY, rankingModel)) {
-                builder.copyCurrentStructure(parser);
+        if (rankingModel != null) {
+            builder.field(LtrModelDefinition.MODEL_DEFINITION.getPreferredName());
+            if (modelAsString) {
+                builder.value(rankingModel);
+            } else {
+                try (XContentParser parser = JsonXContent.jsonXContent.createParser(EMPTY, rankingModel)) {
+                    builder.copyCurrentStructure(parser);
+                }
             }
         }
+        if (compactModel != null) {
+            builder.field(LtrModelDefinition.MODEL_COMPACT.getPreferredName(), BytesReference.toBytes(compactModel));
+        }
         builder.endObject();
         builder.endObject();
         return builder;
@@ -183,7 +247,8 @@ public class StoredLtrModel implements StorableElement {
         if (!name.equals(that.name)) return false;
         if (!featureSet.equals(that.featureSet)) return false;
         if (!rankingModelType.equals(that.rankingModelType)) return false;
-        return rankingModel.equals(that.rankingModel);
+        if (!Objects.equals(compactModel, that.compactModel)) return false;
+        return Objects.equals(rankingModel, that.rankingModel);
     }
 
     @Override
@@ -191,7 +256,8 @@ public class StoredLtrModel implements StorableElement {
         int result = name.hashCode();
         result = 31 * result + featureSet.hashCode();
         result = 31 * result + rankingModelType.hashCode();
-        result = 31 * result + rankingModel.hashCode();
+        result = 31 * result + Objects.hashCode(rankingModel);
+        result = 31 * result + Objects.hashCode(compactModel);
         return result;
     }
 
@@ -212,11 +278,13 @@ public class StoredLtrModel implements StorableElement {
         private String type;
         private String definition;
         private boolean modelAsString;
+        private BytesReference compact;
 
         public static final ObjectParser<LtrModelDefinition, Void> PARSER;
 
         private static final ParseField MODEL_TYPE = new ParseField("type");
         private static final ParseField MODEL_DEFINITION = new ParseField("definition");
+        private static final ParseField MODEL_COMPACT = new ParseField("compact");
 
         static {
             PARSER = new ObjectParser<LtrModelDefinition, Void>("model", LtrModelDefinition::new);
@@ -225,6 +293,9 @@ public class StoredLtrModel implements StorableElement {
             PARSER.declareField((p, d, c) -> d.parseModel(p),
                     MODEL_DEFINITION,
                     ObjectParser.ValueType.OBJECT_ARRAY_OR_STRING);
+            PARSER.declareField((p, d, c) -> d.compact = new BytesArray(p.binaryValue()),
+                    MODEL_COMPACT,
+                    ObjectParser.ValueType.STRING);
         }
 
 
@@ -241,6 +312,7 @@ public class StoredLtrModel implements StorableElement {
             type = in.readString();
             definition = in.readString();
             modelAsString = in.readBoolean();
+            compact = in.readOptionalBytesReference();
         }
 
         @Override
@@ -248,6 +320,7 @@ public class StoredLtrModel implements StorableElement {
             out.writeString(type);
             out.writeString(definition);
             out.writeBoolean(modelAsString);
+            out.writeOptionalBytesReference(compact);
         }
 
 
@@ -0,0 +1,136 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Name pointing to a model of the same store, models can be loaded with the name of their alias.
+ */
+public class StoredModelAlias implements StorableElement {
+    public static final String TYPE = "model_alias";
+
+    private static final ObjectParser<ParsingState, Void> PARSER;
+
+    static final ParseField NAME = new ParseField("name");
+    static final ParseField MODEL = new ParseField("model");
+
+    static {
+        PARSER = new ObjectParser<>(TYPE, ParsingState::new);
+        PARSER.declareString(ParsingState::setName, NAME);
+        PARSER.declareString(ParsingState::setModel, MODEL);
+    }
+
+    private final String name;
+    private final String model;
+
+    public StoredModelAlias(String name, String model) {
+        this.name = Objects.requireNonNull(name);
+        this.model = Objects.requireNonNull(model);
+        if (name.equals(model)) {
+            throw new IllegalArgumentException("The model alias [" + name + "] cannot point to itself");
+        }
+    }
+
+    public StoredModelAlias(StreamInput input) throws IOException {
+        this(input.readString(), input.readString());
+    }
+
+    public static StoredModelAlias parse(XContentParser parser) {
+        return parse(parser, null);
+    }
+
+    public static StoredModelAlias parse(XContentParser parser, String name) {
+        try {
+            ParsingState state = PARSER.apply(parser, null);
+            state.resolveName(parser, name);
+            if (state.model == null) {
+                throw new ParsingException(parser.getTokenLocation(), "Field [" + MODEL.getPreferredName() + "] is mandatory");
+            }
+            return new StoredModelAlias(state.getName(), state.model);
+        } catch (IllegalArgumentException iae) {
+            throw new ParsingException(parser.getTokenLocation(), iae.getMessage(), iae);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeString(name);
+        out.writeString(model);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field(NAME.getPreferredName(), name);
+        builder.field(MODEL.getPreferredName(), model);
+        builder.endObject();
+        return builder;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String type() {
+        return TYPE;
+    }
+
+    /**
+     * Name of the model this alias points to
+     */
+    public String model() {
+        return model;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StoredModelAlias)) return false;
+
+        StoredModelAlias that = (StoredModelAlias) o;
+
+        if (!name.equals(that.name)) return false;
+        return model.equals(that.model);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = name.hashCode();
+        result = 31 * result + model.hashCode();
+        return result;
+    }
+
+    private static class ParsingState extends StorableElementParserState {
+        private String model;
+
+        public void setModel(String model) {
+            this.model = model;
+        }
+    }
+}
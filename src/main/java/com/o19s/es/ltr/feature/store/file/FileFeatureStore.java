@@ -0,0 +1,283 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.file;
+
+import com.o19s.es.ltr.feature.Feature;
+import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.feature.store.CompiledLtrModel;
+import com.o19s.es.ltr.feature.store.FeatureStore;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
+import com.o19s.es.ltr.feature.store.StorableElement;
+import com.o19s.es.ltr.feature.store.StoredFeature;
+import com.o19s.es.ltr.feature.store.StoredFeatureSet;
+import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.StoredModelAlias;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Read only store whose elements are loaded from the files of a directory.
+ * Each .json file of the directory (or of its sub directories) holds a single element,
+ * in the same format as the documents of an {@link IndexFeatureStore}: {"model": {...}}.
+ *
+ * Instances are immutable snapshots of the directory, {@link FileFeatureStores} replaces
+ * them when the files change.
+ */
+public class FileFeatureStore implements FeatureStore {
+    /**
+     * Prefix of the store names selecting a file store
+     */
+    public static final String STORE_PREFIX = "file:";
+    public static final String FILE_EXTENSION = ".json";
+
+    private final String storeName;
+    // incremented each time the directory is read, reported to the caches
+    private final long generation;
+    private final LtrRankerParserFactory parserFactory;
+    private final LtrNodeServices services;
+    private final Map<String, StoredFeature> features;
+    private final Map<String, StoredFeatureSet> sets;
+    private final Map<String, StoredLtrModel> models;
+    private final Map<String, StoredModelAlias> modelAliases;
+    // Models compiled ahead of their first load, handed over to the caches when loaded
+    private final Map<String, CompiledLtrModel> precompiled = new ConcurrentHashMap<>();
+
+    FileFeatureStore(String storeName, long generation, LtrRankerParserFactory parserFactory, LtrNodeServices services,
+                     Map<String, StoredFeature> features, Map<String, StoredFeatureSet> sets, Map<String, StoredLtrModel> models,
+                     Map<String, StoredModelAlias> modelAliases) {
+        this.storeName = Objects.requireNonNull(storeName);
+        this.generation = generation;
+        this.parserFactory = Objects.requireNonNull(parserFactory);
+        this.services = Objects.requireNonNull(services);
+        this.features = Collections.unmodifiableMap(features);
+        this.sets = Collections.unmodifiableMap(sets);
+        this.models = Collections.unmodifiableMap(models);
+        this.modelAliases = Collections.unmodifiableMap(modelAliases);
+    }
+
+    /**
+     * Read all the elements of the directory
+     *
+     * @param generation generation of the store, greater than the generation of the version it replaces
+     * @throws IllegalArgumentException if a file cannot be parsed or if two files hold the same element
+     */
+    public static FileFeatureStore read(String storeName, long generation, Path dir, LtrRankerParserFactory parserFactory,
+                                        LtrNodeServices services) throws IOException {
+        Map<String, StoredFeature> features = new HashMap<>();
+        Map<String, StoredFeatureSet> sets = new HashMap<>();
+        Map<String, StoredLtrModel> models = new HashMap<>();
+        Map<String, StoredModelAlias> modelAliases = new HashMap<>();
+        Map<String, Path> origins = new HashMap<>();
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            files = paths.filter((p) -> p.getFileName().toString().endsWith(FILE_EXTENSION))
+                    .filter(Files::isRegularFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            StorableElement elt;
+            try {
+                byte[] bytes = Files.readAllBytes(file);
+                try (XContentParser parser = XContentFactory.xContent(bytes).createParser(NamedXContentRegistry.EMPTY, bytes)) {
+                    elt = IndexFeatureStore.parse(parser);
+                }
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalArgumentException("Cannot parse the element of file [" + dir.relativize(file) + "]: "
+                        + e.getMessage(), e);
+            }
+            Path other = origins.putIfAbsent(elt.id(), file);
+            if (other != null) {
+                throw new IllegalArgumentException("Files [" + dir.relativize(other) + "] and [" + dir.relativize(file)
+                        + "] both define the " + elt.type() + " [" + elt.name() + "]");
+            }
+            if (elt instanceof StoredFeature) {
+                features.put(elt.name(), (StoredFeature) elt);
+            } else if (elt instanceof StoredFeatureSet) {
+                sets.put(elt.name(), (StoredFeatureSet) elt);
+            } else if (elt instanceof StoredModelAlias) {
+                modelAliases.put(elt.name(), (StoredModelAlias) elt);
+            } else {
+                assert elt instanceof StoredLtrModel;
+                models.put(elt.name(), (StoredLtrModel) elt);
+            }
+        }
+        for (StoredModelAlias alias : modelAliases.values()) {
+            if (models.containsKey(alias.name())) {
+                throw new IllegalArgumentException("The model alias [" + alias.name() + "] has the name of a model");
+            }
+            if (!models.containsKey(alias.model())) {
+                throw new IllegalArgumentException("The model alias [" + alias.name() + "] points to the unknown model ["
+                        + alias.model() + "]");
+            }
+        }
+        return new FileFeatureStore(storeName, generation, parserFactory, services, features, sets, models, modelAliases);
+    }
+
+    /**
+     * Returns true if this store name selects a file store
+     */
+    public static boolean isFileStore(String storeName) {
+        return Objects.requireNonNull(storeName).startsWith(STORE_PREFIX) && storeName.length() > STORE_PREFIX.length();
+    }
+
+    /**
+     * Name of the store backed by this directory
+     */
+    public static String storeName(String directoryName) {
+        return STORE_PREFIX + directoryName;
+    }
+
+    @Override
+    public String getStoreName() {
+        return storeName;
+    }
+
+    @Override
+    public Feature load(String name) throws IOException {
+        return get(features, StoredFeature.TYPE, name).optimize(services);
+    }
+
+    @Override
+    public FeatureSet loadSet(String name) throws IOException {
+        return get(sets, StoredFeatureSet.TYPE, name).optimize(services);
+    }
+
+    @Override
+    public CompiledLtrModel loadModel(String name) throws IOException {
+        CompiledLtrModel model = precompiled.remove(name);
+        if (model != null) {
+            return model;
+        }
+        return get(models, StoredLtrModel.TYPE, name).compile(parserFactory, services);
+    }
+
+    @Override
+    public String resolveModelAlias(String name) {
+        StoredModelAlias alias = modelAliases.get(name);
+        return alias != null ? alias.model() : null;
+    }
+
+    @Override
+    public Feature load(String name, LoadListener listener) throws IOException {
+        listener.onGeneration(generation);
+        return load(name);
+    }
+
+    @Override
+    public FeatureSet loadSet(String name, LoadListener listener) throws IOException {
+        listener.onGeneration(generation);
+        return loadSet(name);
+    }
+
+    @Override
+    public CompiledLtrModel loadModel(String name, LoadListener listener) throws IOException {
+        listener.onGeneration(generation);
+        return loadModel(name);
+    }
+
+    @Override
+    public String resolveModelAlias(String name, LoadListener listener) {
+        listener.onGeneration(generation);
+        return resolveModelAlias(name);
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    /**
+     * Compile these models now, the next load of each of them returns its precompiled version.
+     */
+    void precompile(Collection<String> names) throws IOException {
+        for (String name : names) {
+            StoredLtrModel model = get(models, StoredLtrModel.TYPE, name);
+            try {
+                precompiled.put(name, model.compile(parserFactory, services));
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalArgumentException("Cannot compile the model [" + name + "]: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Release the precompiled models that were not loaded
+     */
+    void clearPrecompiled() {
+        precompiled.clear();
+    }
+
+    Set<String> changedFeatures(FileFeatureStore previous) {
+        return changed(features, previous.features);
+    }
+
+    Set<String> changedFeatureSets(FileFeatureStore previous) {
+        return changed(sets, previous.sets);
+    }
+
+    Set<String> changedModels(FileFeatureStore previous) {
+        return changed(models, previous.models);
+    }
+
+    Set<String> changedModelAliases(FileFeatureStore previous) {
+        return changed(modelAliases, previous.modelAliases);
+    }
+
+    Set<String> modelNames() {
+        return models.keySet();
+    }
+
+    private <E> E get(Map<String, E> elements, String type, String name) {
+        E elt = elements.get(name);
+        if (elt == null) {
+            throw new IllegalArgumentException("Unknown " + type + " [" + name + "] in store [" + storeName + "]");
+        }
+        return elt;
+    }
+
+    /**
+     * Names of the elements added, removed or modified
+     */
+    private static <E> Set<String> changed(Map<String, E> current, Map<String, E> previous) {
+        Set<String> changed = new HashSet<>();
+        current.forEach((name, elt) -> {
+            if (!elt.equals(previous.get(name))) {
+                changed.add(name);
+            }
+        });
+        previous.keySet().stream().filter((name) -> !current.containsKey(name)).forEach(changed::add);
+        return changed;
+    }
+}
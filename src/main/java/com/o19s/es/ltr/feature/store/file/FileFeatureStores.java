@@ -0,0 +1,244 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.file;
+
+import com.o19s.es.ltr.feature.store.FeatureStore;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
+import com.o19s.es.ltr.feature.store.index.CachedFeatureStore;
+import com.o19s.es.ltr.feature.store.index.Caches;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.watcher.FileChangesListener;
+import org.elasticsearch.watcher.FileWatcher;
+import org.elasticsearch.watcher.ResourceWatcher;
+import org.elasticsearch.watcher.ResourceWatcherService;
+import org.elasticsearch.watcher.WatcherHandle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The file stores of the node, each sub directory of ltr.file_stores.path (relative to the
+ * config path) is a store named file:{directory_name}.
+ * The directories are watched, when their files change the store is read again and
+ * swapped only if all its elements parse and all its modified models compile. Only the
+ * modified elements are evicted from the {@link Caches}, the modified models are compiled
+ * ahead and loaded in the caches before the swap is reported. Each version of a store has a
+ * new generation, the elements loaded from a replaced version are not cached anymore.
+ */
+public class FileFeatureStores implements Closeable {
+    public static final Setting<String> LTR_FILE_STORES_PATH = new Setting<>("ltr.file_stores.path", "ltr-stores",
+            Function.identity(), Setting.Property.NodeScope);
+    private static final Logger LOGGER = ESLoggerFactory.getLogger(FileFeatureStores.class);
+
+    private final Path root;
+    private final Caches caches;
+    private final LtrRankerParserFactory parserFactory;
+    private final LtrNodeServices services;
+    private final Map<String, FileFeatureStore> stores = new ConcurrentHashMap<>();
+    private final AtomicLong generations = new AtomicLong();
+    private volatile WatcherHandle<?> handle;
+
+    public FileFeatureStores(Settings settings, Path configDir, Caches caches, LtrRankerParserFactory parserFactory,
+                             LtrNodeServices services) {
+        this.root = configDir.resolve(LTR_FILE_STORES_PATH.get(settings)).toAbsolutePath().normalize();
+        this.caches = caches;
+        this.parserFactory = parserFactory;
+        this.services = services;
+    }
+
+    /**
+     * Load the stores and watch their directories for changes
+     */
+    public void start(ResourceWatcherService watcherService) throws IOException {
+        handle = watcherService.add(watcher(), ResourceWatcherService.Frequency.HIGH);
+    }
+
+    /**
+     * The watcher of the root directory, the stores are loaded when it's initialized.
+     */
+    ResourceWatcher watcher() {
+        return new StoresWatcher();
+    }
+
+    /**
+     * The current version of a store
+     *
+     * @throws IllegalArgumentException if the store does not exist
+     */
+    public FeatureStore get(String storeName) {
+        FileFeatureStore store = stores.get(storeName);
+        if (store == null) {
+            throw new IllegalArgumentException("Unknown file store [" + storeName + "], no such directory in [" + root + "]");
+        }
+        return store;
+    }
+
+    /**
+     * Read the store from its directory, the current version is kept if the directory
+     * cannot be read.
+     */
+    void reload(String directoryName) {
+        String storeName = FileFeatureStore.storeName(directoryName);
+        Path dir = root.resolve(directoryName);
+        FileFeatureStore previous = stores.get(storeName);
+        if (!Files.isDirectory(dir)) {
+            if (previous != null) {
+                stores.remove(storeName);
+                caches.setStoreGeneration(storeName, generations.incrementAndGet());
+                caches.evict(storeName);
+                LOGGER.info("Removed file store [{}]", storeName);
+            }
+            return;
+        }
+        FileFeatureStore store;
+        Set<String> toCompile;
+        try {
+            store = FileFeatureStore.read(storeName, generations.incrementAndGet(), dir, parserFactory, services);
+            toCompile = new TreeSet<>(previous == null ? store.modelNames() : store.changedModels(previous));
+            toCompile.retainAll(store.modelNames());
+            store.precompile(toCompile);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn((org.apache.logging.log4j.util.Supplier<?>) () -> new ParameterizedMessage(
+                    "Failed to load the file store [{}] from [{}], {}", storeName, dir,
+                    previous != null ? "keeping its previous version" : "the store is not available"), e);
+            return;
+        }
+        stores.put(storeName, store);
+        // the loads still running on the previous version do not cache what they load once the changes are evicted
+        caches.setStoreGeneration(storeName, store.generation());
+        if (previous != null) {
+            store.changedFeatures(previous).forEach((name) -> caches.evictFeature(storeName, name));
+            store.changedFeatureSets(previous).forEach((name) -> caches.evictFeatureSet(storeName, name));
+            store.changedModels(previous).forEach((name) -> caches.evictModel(storeName, name));
+            store.changedModelAliases(previous).forEach((name) -> caches.setModelAlias(storeName, name,
+                    store.resolveModelAlias(name)));
+        }
+        CachedFeatureStore cached = new CachedFeatureStore(store, caches);
+        for (String model : toCompile) {
+            try {
+                cached.warmModel(model);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn((org.apache.logging.log4j.util.Supplier<?>) () -> new ParameterizedMessage(
+                        "Failed to load the model [{}] of the file store [{}] in the caches", model, storeName), e);
+            }
+        }
+        store.clearPrecompiled();
+        LOGGER.info("Loaded file store [{}], [{}] model(s) compiled", storeName, toCompile.size());
+    }
+
+    @Override
+    public void close() {
+        WatcherHandle<?> handle = this.handle;
+        if (handle != null) {
+            handle.stop();
+        }
+        stores.keySet().forEach(caches::evict);
+        stores.clear();
+    }
+
+    /**
+     * Collects the store directories whose files changed during a check and reloads them
+     * once the check is done.
+     */
+    private class StoresWatcher implements ResourceWatcher, FileChangesListener {
+        private final FileWatcher files = new FileWatcher(root);
+        private final Set<String> changed = new HashSet<>();
+
+        StoresWatcher() {
+            files.addListener(this);
+        }
+
+        @Override
+        public void init() throws IOException {
+            files.init();
+            reloadChanged();
+        }
+
+        @Override
+        public void checkAndNotify() throws IOException {
+            files.checkAndNotify();
+            reloadChanged();
+        }
+
+        private void reloadChanged() {
+            changed.forEach(FileFeatureStores.this::reload);
+            changed.clear();
+        }
+
+        private void onChange(Path path) {
+            Path relative = root.relativize(path.toAbsolutePath().normalize());
+            if (relative.getNameCount() == 0 || relative.toString().isEmpty()) {
+                return;
+            }
+            // Files at the root are not part of any store
+            if (relative.getNameCount() == 1 && !Files.isDirectory(path) && !stores.containsKey(
+                    FileFeatureStore.storeName(relative.toString()))) {
+                return;
+            }
+            changed.add(relative.getName(0).toString());
+        }
+
+        @Override
+        public void onFileInit(Path file) {
+            onChange(file);
+        }
+
+        @Override
+        public void onDirectoryInit(Path file) {
+            onChange(file);
+        }
+
+        @Override
+        public void onFileCreated(Path file) {
+            onChange(file);
+        }
+
+        @Override
+        public void onFileDeleted(Path file) {
+            onChange(file);
+        }
+
+        @Override
+        public void onFileChanged(Path file) {
+            onChange(file);
+        }
+
+        @Override
+        public void onDirectoryCreated(Path file) {
+            onChange(file);
+        }
+
+        @Override
+        public void onDirectoryDeleted(Path file) {
+            onChange(file);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.index;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Activity counters of a cache for a single store.
+ * Backed by LongAdder so that the lookup path does not contend on shared counters.
+ */
+public class CacheCounters {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder[] evictions = new LongAdder[EvictionCause.values().length];
+    private final LoadTimeHistogram fetchTime = new LoadTimeHistogram();
+    private final LoadTimeHistogram compileTime = new LoadTimeHistogram();
+
+    CacheCounters() {
+        for (int i = 0; i < evictions.length; i++) {
+            evictions[i] = new LongAdder();
+        }
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void loaded(long fetchNanos, long compileNanos) {
+        loads.increment();
+        fetchTime.record(fetchNanos);
+        compileTime.record(compileNanos);
+    }
+
+    void loadFailed() {
+        loadFailures.increment();
+    }
+
+    void evicted(EvictionCause cause) {
+        evictions[cause.ordinal()].increment();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long loads() {
+        return loads.sum();
+    }
+
+    public long loadFailures() {
+        return loadFailures.sum();
+    }
+
+    public long evictions(EvictionCause cause) {
+        return evictions[cause.ordinal()].sum();
+    }
+
+    /**
+     * Time spent fetching the source documents
+     */
+    public LoadTimeHistogram fetchTime() {
+        return fetchTime;
+    }
+
+    /**
+     * Time spent parsing and compiling the elements
+     */
+    public LoadTimeHistogram compileTime() {
+        return compileTime;
+    }
+
+    public enum EvictionCause {
+        /**
+         * Expired (ltr.caches.expire_after_*)
+         */
+        EXPIRED,
+        /**
+         * Explicitly cleared
+         */
+        INVALIDATED,
+        /**
+         * Source document updated or deleted
+         */
+        STALE,
+        /**
+         * Evicted to make room for a new entry
+         */
+        QUOTA,
+        /**
+         * New entry not admitted by the admission filter
+         */
+        REJECTED;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+}
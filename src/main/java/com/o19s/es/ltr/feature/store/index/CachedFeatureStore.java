@@ -20,7 +20,11 @@ import com.o19s.es.ltr.feature.Feature;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.store.CompiledLtrModel;
 import com.o19s.es.ltr.feature.store.FeatureStore;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.index.query.QueryShardContext;
 
 import java.io.IOException;
 
@@ -43,17 +47,96 @@ public class CachedFeatureStore implements FeatureStore {
 
     @Override
     public Feature load(String id) throws IOException {
-        return caches.loadFeature(key(id), inner::load);
+        return caches.loadFeature(key(id), (l) -> inner.load(id, l));
     }
 
     @Override
     public FeatureSet loadSet(String id) throws IOException {
-        return caches.loadFeatureSet(key(id), inner::loadSet);
+        return caches.loadFeatureSet(key(id), (l) -> inner.loadSet(id, l));
     }
 
+    /**
+     * Model aliases are followed, the model is cached under its own name.
+     */
     @Override
     public CompiledLtrModel loadModel(String id) throws IOException {
-        return caches.loadModel(key(id), inner::loadModel);
+        String model = caches.resolveModelAlias(key(id), (l) -> inner.resolveModelAlias(id, l));
+        return caches.loadModel(key(model), (l) -> inner.loadModel(model, l));
+    }
+
+    @Override
+    public String resolveModelAlias(String name) throws IOException {
+        String model = caches.resolveModelAlias(key(name), (l) -> inner.resolveModelAlias(name, l));
+        return model.equals(name) ? null : model;
+    }
+
+    /**
+     * Served from the caches when the model is cached with a known version or was resolved recently
+     * (ltr.caches.resolved_model_ttl). Otherwise names known as model aliases are resolved from the
+     * caches, the inner store then only looks up the model they point to. Aliases followed by the inner
+     * store are cached.
+     */
+    @Override
+    public void resolveModelVersion(String name, ActionListener<Tuple<String, Long>> listener) {
+        Tuple<String, Long> resolved = caches.getResolvedModel(inner.getStoreName(), name);
+        if (resolved != null) {
+            listener.onResponse(resolved);
+            return;
+        }
+        String alias = caches.getModelAlias(inner.getStoreName(), name);
+        String model = alias != null ? alias : name;
+        long version = caches.cachedModelVersion(inner.getStoreName(), model);
+        if (version != Caches.CacheKey.UNKNOWN_VERSION) {
+            listener.onResponse(new Tuple<>(model, version));
+            return;
+        }
+        ActionListener<Tuple<String, Long>> caching = ActionListener.wrap((m) -> {
+            if (m != null) {
+                caches.cacheResolvedModel(inner.getStoreName(), name, m);
+            }
+            listener.onResponse(m);
+        }, listener::onFailure);
+        if (alias != null) {
+            inner.resolveModelVersion(alias, caching);
+            return;
+        }
+        inner.resolveModelVersion(name, ActionListener.wrap((m) -> {
+            if (m != null && !m.v1().equals(name)) {
+                caches.cacheModelAlias(key(name), m.v1());
+            }
+            caching.onResponse(m);
+        }, listener::onFailure));
+    }
+
+    /**
+     * A cached model loaded from an older version is evicted and the current version is loaded.
+     *
+     * @throws IllegalStateException if the model is found at another version
+     */
+    @Override
+    public CompiledLtrModel loadModel(String id, long version) throws IOException {
+        return caches.loadModel(key(id), (l) -> inner.loadModel(id, l), version, null);
+    }
+
+    /**
+     * The off-heap trees of the model are leased to the context and freed once the model is evicted
+     * and the search context is freed.
+     */
+    @Override
+    public CompiledLtrModel loadModel(String id, @Nullable Long version, QueryShardContext context) throws IOException {
+        if (version != null) {
+            return caches.loadModel(key(id), (l) -> inner.loadModel(id, l), version, context);
+        }
+        String model = caches.resolveModelAlias(key(id), (l) -> inner.resolveModelAlias(id, l));
+        return caches.loadModel(key(model), (l) -> inner.loadModel(model, l), context);
+    }
+
+    /**
+     * Load a model in the caches ahead of the searches, the admission filter does not apply.
+     * The name must not be a model alias.
+     */
+    public CompiledLtrModel warmModel(String id) throws IOException {
+        return caches.warmModel(key(id), (l) -> inner.loadModel(id, l));
     }
 
     Feature getCachedFeature(String id) {
@@ -19,19 +19,46 @@ package com.o19s.es.ltr.feature.store.index;
 import com.o19s.es.ltr.feature.Feature;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.store.CompiledLtrModel;
+import com.o19s.es.ltr.feature.store.FeatureStore;
+import com.o19s.es.ltr.feature.store.LtrCircuitBreaker;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
+import com.o19s.es.ltr.feature.store.StorableElement;
+import com.o19s.es.ltr.feature.store.StoredFeature;
+import com.o19s.es.ltr.feature.store.StoredFeatureSet;
+import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.StoredModelAlias;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import com.o19s.es.ltr.feature.store.index.CacheCounters.EvictionCause;
+import com.o19s.es.ltr.ranker.dectree.OffHeapDecisionTree;
 import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefIterator;
 import org.apache.lucene.util.RamUsageEstimator;
 import org.elasticsearch.common.CheckedFunction;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
 import org.elasticsearch.common.cache.Cache;
 import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryShardContext;
 import org.elasticsearch.monitor.jvm.JvmInfo;
 
 import java.io.IOException;
-import java.util.Iterator;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -39,13 +66,41 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Store various caches used by the plugin
+ *
+ * Entries are partitioned by store: each store is bounded by its own quota
+ * (ltr.caches.max_mem_per_store or ltr.caches.store.{store_name}.max_mem) and
+ * the sum of all the stores is bounded by ltr.caches.max_mem.
+ * When a store (or the whole cache) is full a TinyLFU admission filter decides
+ * whether a newly loaded element is worth evicting the least recently used
+ * entries of the store, one-off loads are returned but not kept in the cache.
+ * The weight of the cached entries is reported to the ltr circuit breaker.
+ * Tree models can be stored outside of the heap (ltr.caches.off_heap_trees), their off heap
+ * memory counts in the quotas but is not reported to the circuit breaker.
  */
 public class Caches {
+    /**
+     * Pseudo store of the models compiled from inline definitions, keyed by content
+     */
+    public static final String INLINE_MODELS_STORE = "_inline_models_";
     public static final Setting<ByteSizeValue> LTR_CACHE_MEM_SETTING;
+    public static final Setting<ByteSizeValue> LTR_CACHE_MEM_PER_STORE_SETTING;
+    public static final Setting.AffixSetting<ByteSizeValue> LTR_CACHE_STORE_MEM_SETTING;
+    public static final Setting<Boolean> LTR_CACHE_ADMISSION_FILTER = Setting.boolSetting("ltr.caches.admission_filter",
+            true,
+            Setting.Property.NodeScope);
+    public static final Setting<Boolean> LTR_CACHE_OFF_HEAP_TREES = Setting.boolSetting("ltr.caches.off_heap_trees",
+            false,
+            Setting.Property.NodeScope);
+    public static final Setting<TimeValue> LTR_CACHE_RESOLVED_MODEL_TTL = Setting.timeSetting("ltr.caches.resolved_model_ttl",
+            TimeValue.timeValueSeconds(1),
+            TimeValue.timeValueNanos(0),
+            Setting.Property.NodeScope);
     public static final Setting<TimeValue> LTR_CACHE_EXPIRE_AFTER_WRITE = Setting.timeSetting("ltr.caches.expire_after_write",
             TimeValue.timeValueHours(1),
             TimeValue.timeValueNanos(0),
@@ -64,33 +119,110 @@ public class Caches {
                 (s) -> new ByteSizeValue(Math.min(RamUsageEstimator.ONE_MB*10,
                         JvmInfo.jvmInfo().getMem().getHeapMax().getBytes()/10)).toString(),
                 Setting.Property.NodeScope);
+        LTR_CACHE_MEM_PER_STORE_SETTING = Setting.memorySizeSetting("ltr.caches.max_mem_per_store",
+                LTR_CACHE_MEM_SETTING::getRaw,
+                Setting.Property.NodeScope);
+        LTR_CACHE_STORE_MEM_SETTING = Setting.affixKeySetting("ltr.caches.store.", "max_mem",
+                (k) -> Setting.memorySizeSetting(k, LTR_CACHE_MEM_PER_STORE_SETTING::getRaw, Setting.Property.NodeScope));
     }
     private final Map<String, PerStoreStats> perStoreStats = new ConcurrentHashMap<>();
+    private final Map<String, StoreCounters> perStoreCounters = new ConcurrentHashMap<>();
+    private final AtomicLong totalWeight = new AtomicLong();
     private final long maxWeight;
+    private final long maxWeightPerStore;
+    // store (index name) -> quota overriding maxWeightPerStore
+    private final Map<String, Long> storeMaxWeights;
+    private final FrequencySketch sketch;
+    private final boolean offHeapTrees;
+    private final ModelLeases modelLeases = new ModelLeases();
+    // model aliases resolved on this node, (store, alias) -> model
+    private final Cache<CacheKey, String> modelAliases;
+    // store -> current generation, for the stores swapped as a whole (see FeatureStore.LoadListener#onGeneration)
+    private final Map<String, Long> storeGenerations = new ConcurrentHashMap<>();
+    // models resolved for the sltr queries coordinated by this node, (store, name) -> (model, version)
+    private final Cache<CacheKey, Tuple<String, Long>> resolvedModels;
+    private final boolean cacheResolvedModels;
+    private volatile LoadExecutor loadExecutor;
+    private volatile CircuitBreaker breaker = new NoopCircuitBreaker(LtrCircuitBreaker.NAME);
 
     public Caches(TimeValue expAfterWrite, TimeValue expAfterAccess, ByteSizeValue maxWeight) {
+        this(expAfterWrite, expAfterAccess, maxWeight, maxWeight, Collections.emptyMap(), true);
+    }
+
+    /**
+     * @param storeMaxWeights quotas of individual stores indexed by store (index) name
+     */
+    public Caches(TimeValue expAfterWrite, TimeValue expAfterAccess, ByteSizeValue maxWeight, ByteSizeValue maxWeightPerStore,
+                  Map<String, ByteSizeValue> storeMaxWeights, boolean admissionFilter) {
+        this(expAfterWrite, expAfterAccess, maxWeight, maxWeightPerStore, storeMaxWeights, admissionFilter, false);
+    }
+
+    /**
+     * @param storeMaxWeights quotas of individual stores indexed by store (index) name
+     * @param offHeapTrees store the trees of the cached tree models outside of the heap
+     */
+    public Caches(TimeValue expAfterWrite, TimeValue expAfterAccess, ByteSizeValue maxWeight, ByteSizeValue maxWeightPerStore,
+                  Map<String, ByteSizeValue> storeMaxWeights, boolean admissionFilter, boolean offHeapTrees) {
+        this(expAfterWrite, expAfterAccess, maxWeight, maxWeightPerStore, storeMaxWeights, admissionFilter, offHeapTrees,
+                LTR_CACHE_RESOLVED_MODEL_TTL.getDefault(Settings.EMPTY));
+    }
+
+    /**
+     * @param storeMaxWeights quotas of individual stores indexed by store (index) name
+     * @param offHeapTrees store the trees of the cached tree models outside of the heap
+     * @param resolvedModelTtl how long the models resolved for the sltr queries are reused, 0 to resolve them for each query
+     */
+    public Caches(TimeValue expAfterWrite, TimeValue expAfterAccess, ByteSizeValue maxWeight, ByteSizeValue maxWeightPerStore,
+                  Map<String, ByteSizeValue> storeMaxWeights, boolean admissionFilter, boolean offHeapTrees,
+                  TimeValue resolvedModelTtl) {
         this.featureCache = configCache(CacheBuilder.<CacheKey, Feature>builder(), expAfterWrite, expAfterAccess, maxWeight)
                 .weigher(Caches::weigther)
-                .removalListener((l) -> this.onRemove(l.getKey(), l.getValue()))
+                .removalListener(this::onRemove)
                 .build();
         this.featureSetCache = configCache(CacheBuilder.<CacheKey, FeatureSet>builder(), expAfterWrite, expAfterAccess, maxWeight)
                 .weigher(Caches::weigther)
-                .removalListener((l) -> this.onRemove(l.getKey(), l.getValue()))
+                .removalListener(this::onRemove)
                 .build();
         this.modelCache = configCache(CacheBuilder.<CacheKey, CompiledLtrModel>builder(), expAfterWrite, expAfterAccess, maxWeight)
-                .weigher((s, w) -> w.ramBytesUsed())
-                .removalListener((l) -> this.onRemove(l.getKey(), l.getValue()))
+                .weigher(Caches::weigther)
+                .removalListener(this::onRemove)
                 .build();
+        // like the other entries the aliases expire, they are not accessed through the cached models
+        CacheBuilder<CacheKey, String> aliasesBuilder = CacheBuilder.builder();
+        if (expAfterWrite.nanos() > 0) {
+            aliasesBuilder.setExpireAfterWrite(expAfterWrite);
+        }
+        this.modelAliases = aliasesBuilder.build();
+        CacheBuilder<CacheKey, Tuple<String, Long>> resolvedBuilder = CacheBuilder.builder();
+        if (resolvedModelTtl.nanos() > 0) {
+            resolvedBuilder.setExpireAfterWrite(resolvedModelTtl);
+        }
+        this.resolvedModels = resolvedBuilder.build();
+        this.cacheResolvedModels = resolvedModelTtl.nanos() > 0;
         this.maxWeight = maxWeight.getBytes();
+        this.maxWeightPerStore = Math.min(this.maxWeight, maxWeightPerStore.getBytes());
+        Map<String, Long> quotas = new HashMap<>();
+        storeMaxWeights.forEach((store, quota) -> quotas.put(store, quota.getBytes()));
+        this.storeMaxWeights = Collections.unmodifiableMap(quotas);
+        // Assume ~1kb per entry to size the sketch
+        this.sketch = admissionFilter ? new FrequencySketch(this.maxWeight / 1024) : null;
+        this.offHeapTrees = offHeapTrees;
     }
 
+    /**
+     * Weight of a cache entry, memory used on and off heap
+     */
     public static long weigther(CacheKey key, Object data) {
         if (data instanceof Accountable) {
-            return ((Accountable)data).ramBytesUsed();
+            return ((Accountable)data).ramBytesUsed() + offHeapBytes(data);
         }
         return 1;
     }
 
+    private static long offHeapBytes(Object data) {
+        return data instanceof CompiledLtrModel ? ((CompiledLtrModel) data).offHeapBytesUsed() : 0;
+    }
+
     private <K, V> CacheBuilder<K, V> configCache(CacheBuilder<K, V> builder, TimeValue expireAfterWrite,
                                                   TimeValue expireAfterAccess, ByteSizeValue maxWeight) {
         if (expireAfterWrite.nanos() > 0) {
@@ -106,52 +238,514 @@ public class Caches {
     public Caches(Settings settings) {
         this(LTR_CACHE_EXPIRE_AFTER_WRITE.get(settings),
                 LTR_CACHE_EXPIRE_AFTER_READ.get(settings),
-                LTR_CACHE_MEM_SETTING.get(settings));
+                LTR_CACHE_MEM_SETTING.get(settings),
+                LTR_CACHE_MEM_PER_STORE_SETTING.get(settings),
+                storeMaxWeights(settings),
+                LTR_CACHE_ADMISSION_FILTER.get(settings),
+                LTR_CACHE_OFF_HEAP_TREES.get(settings),
+                LTR_CACHE_RESOLVED_MODEL_TTL.get(settings));
+    }
+
+    private static Map<String, ByteSizeValue> storeMaxWeights(Settings settings) {
+        Map<String, ByteSizeValue> quotas = new HashMap<>();
+        LTR_CACHE_STORE_MEM_SETTING.getAsMap(settings).forEach((storeName, quota) -> {
+            final String index;
+            if ("_default_".equals(storeName)) {
+                index = IndexFeatureStore.DEFAULT_STORE;
+            } else if (INLINE_MODELS_STORE.equals(storeName)) {
+                index = INLINE_MODELS_STORE;
+            } else {
+                index = IndexFeatureStore.indexName(storeName);
+            }
+            quotas.put(index, quota);
+        });
+        return quotas;
     }
 
-    private void onAdd(CacheKey k, Object acc) {
-        perStoreStats.compute(k.getStoreName(), (k2, v) -> v != null ? v.add(acc) : new PerStoreStats(acc));
+    private void onAdd(CacheKey k, Object acc, Cache<CacheKey, ?> cache) {
+        perStoreStats.compute(k.getStoreName(), (k2, v) -> v != null ? v.add(k, acc, cache) : new PerStoreStats(k, acc, cache));
+        long weight = weigther(k, acc);
+        totalWeight.addAndGet(weight);
+        breaker.addWithoutBreaking(weight - offHeapBytes(acc));
     }
 
-    private void onRemove(CacheKey k, Object acc) {
+    private <E> void onRemove(RemovalNotification<CacheKey, E> notification) {
+        CacheKey k = notification.getKey();
+        Object acc = notification.getValue();
+        EvictionCause[] cause = new EvictionCause[1];
         perStoreStats.compute(k.getStoreName(), (k2, v) -> {
             assert v != null;
+            cause[0] = v.removalCause(k, acc);
             // return null should remove the entry
-            return v.remove(acc) > 0 ? v : null;
+            return v.remove(k, acc) > 0 ? v : null;
         });
+        long weight = weigther(k, acc);
+        totalWeight.addAndGet(-weight);
+        breaker.addWithoutBreaking(offHeapBytes(acc) - weight);
+        if (acc instanceof CompiledLtrModel && ((CompiledLtrModel) acc).ranker() instanceof OffHeapDecisionTree) {
+            // the reference of the cache, the trees are freed now unless a search still uses them
+            ((OffHeapDecisionTree) ((CompiledLtrModel) acc).ranker()).decRef();
+        }
+        if (cause[0] == null) {
+            cause[0] = notification.getRemovalReason() == RemovalNotification.RemovalReason.EVICTED ?
+                    EvictionCause.EXPIRED : EvictionCause.INVALIDATED;
+        }
+        counters(k.getStoreName(), acc).evicted(cause[0]);
+    }
+
+    Feature loadFeature(CacheKey key, CheckedFunction<FeatureStore.LoadListener, Feature, IOException> loader) throws IOException {
+        return cacheLoad(key, featureCache, loader, null, false);
+    }
+
+    FeatureSet loadFeatureSet(CacheKey key, CheckedFunction<FeatureStore.LoadListener, FeatureSet, IOException> loader)
+            throws IOException {
+        return cacheLoad(key, featureSetCache, loader, null, false);
     }
 
-    Feature loadFeature(CacheKey key, CheckedFunction<String, Feature, IOException> loader) throws IOException {
-        return cacheLoad(key, featureCache, loader);
+    /**
+     * Load a model, the trees of an off-heap model are freed once it is evicted: the model must not be
+     * used to score documents, use {@link #loadModel(CacheKey, CheckedFunction, QueryShardContext)} instead.
+     */
+    CompiledLtrModel loadModel(CacheKey key, CheckedFunction<FeatureStore.LoadListener, CompiledLtrModel, IOException> loader)
+            throws IOException {
+        return cacheLoad(key, modelCache, modelLoader(loader), null, false);
     }
 
-    FeatureSet loadFeatureSet(CacheKey key, CheckedFunction<String, FeatureSet, IOException> loader) throws IOException {
-        return cacheLoad(key, featureSetCache, loader);
+    /**
+     * Load a model used by the query built with this context. The trees of an off-heap model are leased
+     * to the context and are freed once the model is evicted and the search context is freed.
+     */
+    CompiledLtrModel loadModel(CacheKey key, CheckedFunction<FeatureStore.LoadListener, CompiledLtrModel, IOException> loader,
+                               QueryShardContext context) throws IOException {
+        return cacheLoad(key, modelCache, modelLoader(loader), (m) -> modelLeases.lease(context, m), false);
     }
 
-    CompiledLtrModel loadModel(CacheKey key, CheckedFunction<String, CompiledLtrModel, IOException> loader) throws IOException {
-        return cacheLoad(key, modelCache, loader);
+    /**
+     * Load a model explicitly requested in the caches (e.g. before switching a model alias to it), the
+     * admission filter does not apply: the model is kept unless it does not fit in the quotas.
+     */
+    CompiledLtrModel warmModel(CacheKey key, CheckedFunction<FeatureStore.LoadListener, CompiledLtrModel, IOException> loader)
+            throws IOException {
+        return cacheLoad(key, modelCache, modelLoader(loader), null, true);
     }
 
+    private CheckedFunction<FeatureStore.LoadListener, CompiledLtrModel, IOException> modelLoader(
+            CheckedFunction<FeatureStore.LoadListener, CompiledLtrModel, IOException> loader) {
+        if (offHeapTrees) {
+            return (l) -> {
+                CompiledLtrModel model = loader.apply(l);
+                return model != null ? model.toOffHeap() : null;
+            };
+        }
+        return loader;
+    }
+
+    /**
+     * Release the models leased to the searches built with this context
+     */
+    public void releaseModels(QueryShardContext context) {
+        modelLeases.release(context);
+    }
+
+    ModelLeases getModelLeases() {
+        return modelLeases;
+    }
+
+    /**
+     * Compile this inline model or return the model compiled from an identical definition.
+     * Entries are keyed by a sha256 of the serialized model (name, type, definition and feature set)
+     * and are accounted in the {@link #INLINE_MODELS_STORE} store.
+     */
+    public CompiledLtrModel loadInlineModel(StoredLtrModel model, LtrRankerParserFactory factory,
+                                            LtrNodeServices services, QueryShardContext context) throws IOException {
+        return loadModel(new CacheKey(INLINE_MODELS_STORE, contentHash(model)), (l) -> model.compile(factory, services), context);
+    }
+
+    static String contentHash(StorableElement element) throws IOException {
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            element.writeTo(out);
+            MessageDigest digest = MessageDigests.sha256();
+            BytesRefIterator iterator = out.bytes().iterator();
+            BytesRef ref;
+            while ((ref = iterator.next()) != null) {
+                digest.update(ref.bytes, ref.offset, ref.length);
+            }
+            return MessageDigests.toHexString(digest.digest());
+        }
+    }
+
+    /**
+     * @param acquire acquires the resources of the element before it can be evicted by the quotas,
+     *                returns false if the element was evicted and its resources released, null if not needed
+     * @param admitted the element bypasses the admission filter
+     */
     private <E extends Object> E cacheLoad(CacheKey key, Cache<CacheKey, E> cache,
-                                                CheckedFunction<String, E, IOException> loader) throws IOException {
+                                           CheckedFunction<FeatureStore.LoadListener, E, IOException> loader,
+                                           @Nullable Predicate<E> acquire, boolean admitted) throws IOException {
+        if (sketch != null && sketch.record(hash(key, cache))) {
+            // applied to the sketch, and the sketch halved, off the search threads
+            LoadExecutor executor = loadExecutor;
+            sketch.scheduleDrain(executor != null ? executor.executor() : null);
+        }
+        CacheCounters counters = counters(key.getStoreName(), cache);
+        E cached = cache.get(key);
+        if (cached != null && !invalidateIfOutdated(key, cached) && (acquire == null || acquire.test(cached))) {
+            counters.hit();
+            PerStoreStats stats = perStoreStats.get(key.getStoreName());
+            if (stats != null) {
+                stats.touch(key, cached);
+            }
+            return cached;
+        }
+        counters.miss();
+        LoadExecutor executor = loadExecutor;
+        E elt;
+        boolean[] acquired = new boolean[1];
+        boolean[] loadedHere = new boolean[1];
+        // acquired before it is cached, it can be evicted as soon as it is cached
+        CheckedFunction<FeatureStore.LoadListener, E, IOException> acquiringLoader = (l) -> {
+            loadedHere[0] = true;
+            E loaded = loader.apply(l);
+            acquired[0] = loaded != null && acquire != null && acquire.test(loaded);
+            return loaded;
+        };
+        while (true) {
+            loadedHere[0] = false;
+            acquired[0] = false;
+            elt = executor != null ?
+                    executor.load(key.getStoreName() + "/" + docId(key, cache), () -> load(key, cache, acquiringLoader, counters)) :
+                    load(key, cache, acquiringLoader, counters);
+            if (elt == null) {
+                break;
+            }
+            // loaded by a concurrent request from a previous generation of the store, this request may use the current one
+            if (invalidateIfOutdated(key, elt) && !loadedHere[0]) {
+                continue;
+            }
+            // loaded by a concurrent request and released if evicted since, the next load compiles it again
+            if (acquire == null || acquired[0] || acquire.test(elt)) {
+                break;
+            }
+        }
+        enforceQuotas(key, cache, admitted);
+        return elt;
+    }
+
+    private <E> E load(CacheKey key, Cache<CacheKey, E> cache, CheckedFunction<FeatureStore.LoadListener, E, IOException> loader,
+                       CacheCounters counters) throws IOException {
         try {
             return cache.computeIfAbsent(key, (k) -> {
-                E elt = loader.apply(k.getId());
-                if (elt != null) {
-                    onAdd(k, elt);
+                long start = System.nanoTime();
+                long[] fetchTime = new long[1];
+                long[] generation = {CacheKey.UNKNOWN_VERSION};
+                E loaded;
+                try {
+                    loaded = loader.apply(new FeatureStore.LoadListener() {
+                        @Override
+                        public void onVersion(long version) {
+                            k.setVersion(version);
+                        }
+
+                        @Override
+                        public void onFetched(long tookInNanos) {
+                            fetchTime[0] = tookInNanos;
+                        }
+
+                        @Override
+                        public void onGeneration(long gen) {
+                            generation[0] = gen;
+                        }
+                    });
+                } catch (Exception e) {
+                    counters.loadFailed();
+                    throw e;
                 }
-                return elt;
+                counters.loaded(fetchTime[0], System.nanoTime() - start - fetchTime[0]);
+                if (loaded != null) {
+                    onAdd(k, loaded, cache);
+                    if (isOutdated(k.getStoreName(), generation[0])) {
+                        markOutdated(k, loaded);
+                    }
+                }
+                return loaded;
             });
         } catch (ExecutionException e) {
             throw new IOException(e.getMessage(), e.getCause());
         }
     }
 
+    /**
+     * Name of the model to load for this name: the model it points to if the name is a model alias.
+     * Resolved aliases are kept until they are changed with {@link #setModelAlias(String, String, String, long)},
+     * their store is evicted or they expire (see {@link #LTR_CACHE_EXPIRE_AFTER_WRITE}). Like the cached
+     * elements, the aliases resolved with their version are evicted by the version checks once their document
+     * changes. The names of the cached models are not resolved.
+     * Like the loads, the resolution runs on the load executor when one is set.
+     *
+     * @param resolver returns the model the alias points to, or null if the name is not an alias,
+     *                 and reports the version of the alias document
+     */
+    String resolveModelAlias(CacheKey key, CheckedFunction<FeatureStore.LoadListener, String, IOException> resolver)
+            throws IOException {
+        String model = modelAliases.get(key);
+        if (model != null) {
+            return model;
+        }
+        if (modelCache.get(key) != null) {
+            return key.getId();
+        }
+        long[] generation = {CacheKey.UNKNOWN_VERSION};
+        FeatureStore.LoadListener listener = new FeatureStore.LoadListener() {
+            @Override
+            public void onVersion(long version) {
+                key.setVersion(version);
+            }
+
+            @Override
+            public void onGeneration(long gen) {
+                generation[0] = gen;
+            }
+        };
+        LoadExecutor executor = loadExecutor;
+        model = executor != null ?
+                executor.load(key.getStoreName() + "/" + StorableElement.generateId(StoredModelAlias.TYPE, key.getId()),
+                        () -> resolver.apply(listener)) :
+                resolver.apply(listener);
+        if (model == null) {
+            return key.getId();
+        }
+        String cached = cacheModelAlias(key, model);
+        if (isOutdated(key.getStoreName(), generation[0])) {
+            // resolved from a previous generation of the store, possibly after the alias was switched
+            modelAliases.invalidate(key);
+            return model;
+        }
+        return cached;
+    }
+
+    /**
+     * Remember a resolved alias unless it was changed while it was resolved.
+     *
+     * @param key the alias, with the version of its document if known
+     * @return the model the alias points to
+     */
+    String cacheModelAlias(CacheKey key, String model) {
+        try {
+            return modelAliases.computeIfAbsent(key, (k) -> model);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Point a model alias to another model, the alias is forgotten if the model is null.
+     */
+    public void setModelAlias(String index, String alias, String model) {
+        setModelAlias(index, alias, model, CacheKey.UNKNOWN_VERSION);
+    }
+
+    /**
+     * Point a model alias to another model, the alias is forgotten if the model is null.
+     *
+     * @param version version of the alias document, checked like the versions of the cached elements
+     */
+    public void setModelAlias(String index, String alias, String model, long version) {
+        CacheKey key = new CacheKey(index, alias);
+        resolvedModels.invalidate(key);
+        if (model != null) {
+            key.setVersion(version);
+            // replaced, not updated: the key holds the version
+            modelAliases.invalidate(key);
+            modelAliases.put(key, model);
+        } else {
+            modelAliases.invalidate(key);
+        }
+    }
+
+    /**
+     * Set the current generation of a store swapped as a whole. Must be set before evicting the elements
+     * changed by the new generation: the loads still running on a previous generation can complete after
+     * the eviction, their elements are then used by their request but not served from the caches.
+     */
+    public void setStoreGeneration(String index, long generation) {
+        storeGenerations.put(index, generation);
+    }
+
+    private boolean isOutdated(String index, long generation) {
+        if (generation == CacheKey.UNKNOWN_VERSION) {
+            return false;
+        }
+        Long current = storeGenerations.get(index);
+        return current != null && generation < current;
+    }
+
+    private void markOutdated(CacheKey key, Object elt) {
+        PerStoreStats stats = perStoreStats.get(key.getStoreName());
+        PerStoreStats.Entry entry = stats != null ? stats.entries(elt).get(key) : null;
+        if (entry != null && entry.value == elt) {
+            entry.outdated = true;
+        }
+    }
+
+    /**
+     * Invalidate this cached element if it was loaded from a previous generation of its store
+     *
+     * @return true if the element is outdated
+     */
+    private boolean invalidateIfOutdated(CacheKey key, Object elt) {
+        PerStoreStats stats = perStoreStats.get(key.getStoreName());
+        PerStoreStats.Entry entry = stats != null ? stats.entries(elt).get(key) : null;
+        if (entry == null || entry.value != elt || !entry.outdated) {
+            return false;
+        }
+        invalidate(entry, EvictionCause.STALE);
+        return true;
+    }
+
+    /**
+     * The model this alias points to, null if the alias was not resolved on this node
+     */
+    public String getModelAlias(String index, String alias) {
+        return modelAliases.get(new CacheKey(index, alias));
+    }
+
+    /**
+     * Run the loads on this executor, loads run on the calling thread if not set.
+     */
+    public void setLoadExecutor(LoadExecutor loadExecutor) {
+        this.loadExecutor = loadExecutor;
+    }
+
+    public LoadExecutor getLoadExecutor() {
+        return loadExecutor;
+    }
+
+    /**
+     * Report the weight of the cached entries to this breaker, the weight of the
+     * entries already cached is moved from the previous breaker.
+     * Should be set once when the node starts.
+     */
+    public synchronized void setCircuitBreaker(CircuitBreaker breaker) {
+        long weight = totalWeight.get() - perStoreStats.values().stream().mapToLong(PerStoreStats::totalOffHeapRam).sum();
+        this.breaker.addWithoutBreaking(-weight);
+        breaker.addWithoutBreaking(weight);
+        this.breaker = breaker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    private CacheCounters counters(String store, Cache<CacheKey, ?> cache) {
+        StoreCounters counters = perStoreCounters.get(store);
+        if (counters == null) {
+            counters = perStoreCounters.computeIfAbsent(store, (s) -> new StoreCounters());
+        }
+        if (cache == featureCache) {
+            return counters.features;
+        } else if (cache == featureSetCache) {
+            return counters.featureSets;
+        }
+        assert cache == modelCache;
+        return counters.models;
+    }
+
+    private CacheCounters counters(String store, Object elt) {
+        if (elt instanceof Feature) {
+            return counters(store, featureCache);
+        } else if (elt instanceof FeatureSet) {
+            return counters(store, featureSetCache);
+        }
+        return counters(store, modelCache);
+    }
+
+    private static int hash(CacheKey key, Cache<CacheKey, ?> cache) {
+        // The same key can be used by a feature, a set and a model
+        return 31 * key.hashCode() + System.identityHashCode(cache);
+    }
+
+    private void enforceQuotas(CacheKey candidate, Cache<CacheKey, ?> cache, boolean admitted) {
+        String store = candidate.getStoreName();
+        long overQuota = getPerStoreStats(store).totalRam() - getStoreMaxWeight(store);
+        if (overQuota > 0 && makeRoom(store, overQuota, candidate, cache, admitted) < 0) {
+            return;
+        }
+        long overMax;
+        while ((overMax = totalWeight.get() - maxWeight) > 0) {
+            String largest = largestStore();
+            if (largest == null || makeRoom(largest, overMax, candidate, cache, admitted) <= 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Evict the least recently used entries of this store until at least toFree bytes are freed,
+     * only the entries of this store are inspected.
+     * With the admission filter (TinyLFU) the candidate is evicted instead if it was not accessed
+     * more often than all the entries it would replace, unless it is already admitted.
+     *
+     * @return the number of bytes freed or -1 if the candidate was evicted
+     */
+    private long makeRoom(String store, long toFree, CacheKey candidate, Cache<CacheKey, ?> cache, boolean admitted) {
+        PerStoreStats stats = perStoreStats.get(store);
+        if (stats == null) {
+            return 0;
+        }
+        List<PerStoreStats.Entry> victims = new ArrayList<>();
+        long freed = 0;
+        for (PerStoreStats.Entry entry : stats.entriesByLastAccess()) {
+            if (freed >= toFree) {
+                break;
+            }
+            if (entry.cache == cache && entry.key.equals(candidate)) {
+                continue;
+            }
+            victims.add(entry);
+            freed += entry.ram;
+        }
+        if (freed < toFree || (!admitted && !admit(candidate, cache, victims))) {
+            stats.markForRemoval(candidate, cache, EvictionCause.REJECTED);
+            cache.invalidate(candidate);
+            return -1;
+        }
+        victims.forEach((e) -> invalidate(e, EvictionCause.QUOTA));
+        return freed;
+    }
+
+    private boolean admit(CacheKey candidate, Cache<CacheKey, ?> cache, List<PerStoreStats.Entry> victims) {
+        if (sketch == null) {
+            return true;
+        }
+        int freq = sketch.frequency(hash(candidate, cache));
+        return victims.stream().allMatch((e) -> freq > sketch.frequency(hash(e.key, e.cache)));
+    }
+
+    private String largestStore() {
+        String largest = null;
+        long largestRam = 0;
+        for (Map.Entry<String, PerStoreStats> e : perStoreStats.entrySet()) {
+            long ram = e.getValue().totalRam();
+            if (ram > largestRam) {
+                largest = e.getKey();
+                largestRam = ram;
+            }
+        }
+        return largest;
+    }
+
+    private void invalidate(PerStoreStats.Entry entry, EvictionCause cause) {
+        entry.removalCause = cause;
+        entry.cache.invalidate(entry.key);
+    }
+
     public void evict(String index) {
-        evict(index, featureCache);
-        evict(index, featureSetCache);
-        evict(index, modelCache);
+        PerStoreStats stats = perStoreStats.get(index);
+        if (stats != null) {
+            stats.entries().forEach((e) -> e.cache.invalidate(e.key));
+        }
+        modelAliasKeys(index).forEach(modelAliases::invalidate);
+        resolvedModelKeys(index, (m) -> true).forEach(resolvedModels::invalidate);
     }
 
     public void evictFeature(String index, String name) {
@@ -164,15 +758,187 @@ public class Caches {
 
     public void evictModel(String index, String name) {
         modelCache.invalidate(new CacheKey(index, name));
+        resolvedModelKeys(index, (m) -> m.v1().equals(name)).forEach(resolvedModels::invalidate);
+    }
+
+    /**
+     * Ids of the store documents backing the versioned entries and model aliases cached for this store.
+     */
+    public Set<String> versionedDocIds(String index) {
+        Set<String> ids = new HashSet<>();
+        PerStoreStats stats = perStoreStats.get(index);
+        if (stats != null) {
+            stats.entries()
+                    .filter((e) -> e.key.version != CacheKey.UNKNOWN_VERSION)
+                    .forEach((e) -> ids.add(docId(e)));
+        }
+        modelAliasKeys(index).stream()
+                .filter((k) -> k.version != CacheKey.UNKNOWN_VERSION)
+                .forEach((k) -> ids.add(aliasDocId(k)));
+        return ids;
+    }
+
+    /**
+     * Evict the versioned entries and model aliases of this store whose source document was checked
+     * and found either at a newer version than the one they were loaded from, or deleted.
+     * Entries whose document was not part of the check are left untouched: they may have been
+     * loaded while the check was running. A searched version that is older than the cached one
+     * only means that the search is not yet refreshed, such entries are kept as well.
+     *
+     * @param index the store
+     * @param currentVersions versions of the checked store documents indexed by document id
+     * @param deletedIds ids of the checked store documents that no longer exist
+     * @return the number of entries evicted
+     */
+    public int evictStale(String index, Map<String, Long> currentVersions, Set<String> deletedIds) {
+        List<CacheKey> staleAliases = modelAliasKeys(index).stream()
+                .filter((k) -> isStale(k.version, aliasDocId(k), currentVersions, deletedIds))
+                .collect(Collectors.toList());
+        staleAliases.forEach(modelAliases::invalidate);
+        resolvedModelKeys(index, (m) -> isStale(m.v2(), StorableElement.generateId(StoredLtrModel.TYPE, m.v1()),
+                currentVersions, deletedIds)).forEach(resolvedModels::invalidate);
+        PerStoreStats stats = perStoreStats.get(index);
+        if (stats == null) {
+            return staleAliases.size();
+        }
+        List<PerStoreStats.Entry> stale = stats.entries()
+                .filter((e) -> isStale(e.key.version, docId(e), currentVersions, deletedIds))
+                .collect(Collectors.toList());
+        stale.forEach((e) -> invalidate(e, EvictionCause.STALE));
+        return staleAliases.size() + stale.size();
     }
 
-    private void evict(String index, Cache<CacheKey, ?> cache) {
-        Iterator<CacheKey> ite = cache.keys().iterator();
-        while(ite.hasNext()) {
-            if(ite.next().storeName.equals(index)) {
-                ite.remove();
+    private static boolean isStale(long version, String docId, Map<String, Long> currentVersions, Set<String> deletedIds) {
+        if (version == CacheKey.UNKNOWN_VERSION) {
+            return false;
+        }
+        if (deletedIds.contains(docId)) {
+            return true;
+        }
+        Long current = currentVersions.get(docId);
+        return current != null && current > version;
+    }
+
+    private List<CacheKey> modelAliasKeys(String index) {
+        List<CacheKey> keys = new ArrayList<>();
+        for (CacheKey key : modelAliases.keys()) {
+            if (key.getStoreName().equals(index)) {
+                keys.add(key);
             }
         }
+        return keys;
+    }
+
+    private List<CacheKey> resolvedModelKeys(String index, Predicate<Tuple<String, Long>> filter) {
+        List<CacheKey> keys = new ArrayList<>();
+        for (CacheKey key : resolvedModels.keys()) {
+            Tuple<String, Long> model = resolvedModels.get(key);
+            if (key.getStoreName().equals(index) && model != null && filter.test(model)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static String aliasDocId(CacheKey key) {
+        return StorableElement.generateId(StoredModelAlias.TYPE, key.id);
+    }
+
+    /**
+     * The model and version resolved for this name by a recent sltr query coordinated by this node,
+     * null if not resolved within ltr.caches.resolved_model_ttl.
+     */
+    Tuple<String, Long> getResolvedModel(String index, String name) {
+        return resolvedModels.get(new CacheKey(index, name));
+    }
+
+    /**
+     * Reuse this resolution for ltr.caches.resolved_model_ttl, it is forgotten sooner if the model is evicted,
+     * found stale, or if the name is an alias that is switched.
+     */
+    void cacheResolvedModel(String index, String name, Tuple<String, Long> model) {
+        if (cacheResolvedModels && model.v2() != null) {
+            resolvedModels.put(new CacheKey(index, name), model);
+        }
+    }
+
+    /**
+     * Load the model at exactly this version of its source document: a model cached from an older
+     * version is evicted and loaded again.
+     *
+     * @param context the context of the search scoring with the model, null if the model does not score documents
+     * @throws IllegalStateException if the document is found at another version, i.e. it was updated while the search ran
+     */
+    CompiledLtrModel loadModel(CacheKey key, CheckedFunction<FeatureStore.LoadListener, CompiledLtrModel, IOException> loader,
+                               long version, @Nullable QueryShardContext context) throws IOException {
+        evictStaleModel(key.getStoreName(), key.getId(), version);
+        CompiledLtrModel model = context != null ? loadModel(key, loader, context) : loadModel(key, loader);
+        long loaded = loadedVersion(key, model);
+        if (loaded != CacheKey.UNKNOWN_VERSION && loaded != version) {
+            throw new IllegalStateException("The model [" + key.getId() + "] of store [" + key.getStoreName()
+                    + "] was updated while the search was running, version [" + version + "] was requested but version ["
+                    + loaded + "] was found, retry the search");
+        }
+        return model;
+    }
+
+    private long loadedVersion(CacheKey key, CompiledLtrModel model) {
+        PerStoreStats stats = perStoreStats.get(key.getStoreName());
+        PerStoreStats.Entry entry = stats != null ? stats.modelEntries.get(key) : null;
+        if (entry != null && entry.value == model) {
+            return entry.key.version;
+        }
+        // not kept in the caches, the version is only known if loaded by this request
+        return key.version;
+    }
+
+    /**
+     * Evict the cached model if it was loaded from an older version of its store document.
+     * Models loaded from the same or a newer version are kept.
+     *
+     * @return true if the model was evicted
+     */
+    public boolean evictStaleModel(String index, String name, long version) {
+        PerStoreStats stats = perStoreStats.get(index);
+        if (stats == null) {
+            return false;
+        }
+        PerStoreStats.Entry entry = stats.modelEntries.get(new CacheKey(index, name));
+        if (entry == null || entry.key.version == CacheKey.UNKNOWN_VERSION || entry.key.version >= version) {
+            return false;
+        }
+        invalidate(entry, EvictionCause.STALE);
+        return true;
+    }
+
+    /**
+     * Version of the store document the cached model was loaded from,
+     * {@link CacheKey#UNKNOWN_VERSION} if the model is not cached or its version is not tracked.
+     */
+    public long cachedModelVersion(String index, String name) {
+        PerStoreStats stats = perStoreStats.get(index);
+        if (stats == null) {
+            return CacheKey.UNKNOWN_VERSION;
+        }
+        PerStoreStats.Entry entry = stats.modelEntries.get(new CacheKey(index, name));
+        return entry != null ? entry.key.version : CacheKey.UNKNOWN_VERSION;
+    }
+
+    private String docId(PerStoreStats.Entry entry) {
+        return docId(entry.key, entry.cache);
+    }
+
+    private String docId(CacheKey key, Cache<CacheKey, ?> cache) {
+        final String type;
+        if (cache == featureCache) {
+            type = StoredFeature.TYPE;
+        } else if (cache == featureSetCache) {
+            type = StoredFeatureSet.TYPE;
+        } else {
+            assert cache == modelCache;
+            type = StoredLtrModel.TYPE;
+        }
+        return StorableElement.generateId(type, key.id);
     }
 
     public Cache<CacheKey, Feature> featureCache() {
@@ -187,10 +953,41 @@ public class Caches {
         return modelCache;
     }
 
+    /**
+     * Evict the entries of a deleted store and forget its counters
+     */
+    public void removeStore(String index) {
+        evict(index);
+        perStoreCounters.remove(index);
+    }
+
+    public Stream<Map.Entry<String, StoreCounters>> perStoreCountersStream() {
+        return perStoreCounters.entrySet().stream();
+    }
+
+    public StoreCounters getPerStoreCounters(String store) {
+        StoreCounters counters = perStoreCounters.get(store);
+        if (counters != null) {
+            return counters;
+        }
+        return StoreCounters.EMPTY;
+    }
+
     public Set<String> getCachedStoreNames() {
         return perStoreStats.keySet();
     }
 
+    /**
+     * Names of the stores with cached elements or resolved model aliases
+     */
+    public Set<String> getCachedAndAliasedStoreNames() {
+        Set<String> stores = new HashSet<>(perStoreStats.keySet());
+        for (CacheKey key : modelAliases.keys()) {
+            stores.add(key.getStoreName());
+        }
+        return stores;
+    }
+
     public Stream<Map.Entry<String, PerStoreStats>> perStoreStatsStream() {
         return perStoreStats.entrySet().stream();
     }
@@ -207,9 +1004,29 @@ public class Caches {
         return maxWeight;
     }
 
+    /**
+     * Memory quota of this store
+     */
+    public long getStoreMaxWeight(String store) {
+        return Math.min(maxWeight, storeMaxWeights.getOrDefault(store, maxWeightPerStore));
+    }
+
+    /**
+     * Memory used by all the stores
+     */
+    public long getTotalWeight() {
+        return totalWeight.get();
+    }
+
     public static class CacheKey {
+        public static final long UNKNOWN_VERSION = -1L;
         private final String storeName;
         private final String id;
+        /**
+         * Version of the store document this entry was loaded from.
+         * Not part of the key identity, set by the loader once the document is fetched.
+         */
+        private volatile long version = UNKNOWN_VERSION;
 
         public CacheKey(String storeName, String id) {
             this.storeName = Objects.requireNonNull(storeName);
@@ -224,6 +1041,14 @@ public class Caches {
             return id;
         }
 
+        public long getVersion() {
+            return version;
+        }
+
+        public void setVersion(long version) {
+            this.version = version;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -243,6 +1068,28 @@ public class Caches {
         }
     }
 
+    /**
+     * Activity counters of a store, kept after its entries are evicted
+     */
+    public static class StoreCounters {
+        public static final StoreCounters EMPTY = new StoreCounters();
+        private final CacheCounters features = new CacheCounters();
+        private final CacheCounters featureSets = new CacheCounters();
+        private final CacheCounters models = new CacheCounters();
+
+        public CacheCounters features() {
+            return features;
+        }
+
+        public CacheCounters featureSets() {
+            return featureSets;
+        }
+
+        public CacheCounters models() {
+            return models;
+        }
+    }
+
     public static class PerStoreStats {
         public static final PerStoreStats EMPTY = new PerStoreStats();
         private final AtomicLong ramAll = new AtomicLong();
@@ -254,23 +1101,55 @@ public class Caches {
         private final AtomicInteger featureSetCount = new AtomicInteger();
         private final AtomicLong modelRam = new AtomicLong();
         private final AtomicInteger modelCount = new AtomicInteger();
+        // included in the ram of the models
+        private final AtomicLong modelOffHeapRam = new AtomicLong();
+
+        // Entries of this store, allows to evict a store without scanning the other stores
+        private final Map<CacheKey, Entry> featureEntries = new ConcurrentHashMap<>();
+        private final Map<CacheKey, Entry> featureSetEntries = new ConcurrentHashMap<>();
+        private final Map<CacheKey, Entry> modelEntries = new ConcurrentHashMap<>();
 
         PerStoreStats() {}
 
-        PerStoreStats(Object acc) {
-            add(Objects.requireNonNull(acc));
+        PerStoreStats(CacheKey key, Object acc, Cache<CacheKey, ?> cache) {
+            add(key, Objects.requireNonNull(acc), cache);
         }
 
-        public PerStoreStats add(Object elt) {
+        PerStoreStats add(CacheKey key, Object elt, Cache<CacheKey, ?> cache) {
             int nb = update(true, elt);
             assert nb > 0;
+            entries(elt).put(key, new Entry(key, elt, cache));
             return this;
         }
 
-        private long remove(Object elt) {
+        private long remove(CacheKey key, Object elt) {
+            // Only remove the entry if it was not replaced by a more recent load
+            entries(elt).computeIfPresent(key, (k, e) -> e.value == elt ? null : e);
             return update(false, elt);
         }
 
+        /**
+         * Record why an entry is about to be invalidated
+         */
+        private void markForRemoval(CacheKey key, Cache<CacheKey, ?> cache, EvictionCause cause) {
+            Stream.of(featureEntries, featureSetEntries, modelEntries)
+                    .map((m) -> m.get(key))
+                    .filter((e) -> e != null && e.cache == cache)
+                    .forEach((e) -> e.removalCause = cause);
+        }
+
+        private EvictionCause removalCause(CacheKey key, Object elt) {
+            Entry entry = entries(elt).get(key);
+            return entry != null && entry.value == elt ? entry.removalCause : null;
+        }
+
+        private void touch(CacheKey key, Object elt) {
+            Entry entry = entries(elt).get(key);
+            if (entry != null) {
+                entry.lastAccess = System.nanoTime();
+            }
+        }
+
         private int update(boolean add, Object elt) {
             Objects.requireNonNull(elt);
             final AtomicInteger count;
@@ -288,12 +1167,12 @@ public class Caches {
             } else {
                 throw new IllegalArgumentException("Unsupported class " + elt.getClass());
             }
-            long ramUsed = 1;
-            if (elt instanceof Accountable) {
-                ramUsed = ((Accountable)elt).ramBytesUsed();
-            }
+            long ramUsed = weigther(null, elt);
+            long offHeapUsed = offHeapBytes(elt);
 
             ram.addAndGet(factor * ramUsed);
+            modelOffHeapRam.addAndGet(factor * offHeapUsed);
+            assert modelOffHeapRam.get() >= 0;
             assert ram.get() >= 0;
             count.addAndGet(factor);
             assert count.get() >= 0;
@@ -303,6 +1182,25 @@ public class Caches {
             return countAll.addAndGet(factor);
         }
 
+        private Map<CacheKey, Entry> entries(Object elt) {
+            if (elt instanceof Feature) {
+                return featureEntries;
+            } else if (elt instanceof FeatureSet) {
+                return featureSetEntries;
+            } else if (elt instanceof CompiledLtrModel) {
+                return modelEntries;
+            }
+            throw new IllegalArgumentException("Unsupported class " + elt.getClass());
+        }
+
+        private Stream<Entry> entries() {
+            return Stream.of(featureEntries, featureSetEntries, modelEntries).flatMap((m) -> m.values().stream());
+        }
+
+        private List<Entry> entriesByLastAccess() {
+            return entries().sorted(Comparator.comparingLong((e) -> e.lastAccess)).collect(Collectors.toList());
+        }
+
         public long totalRam() {
             return ramAll.get();
         }
@@ -334,5 +1232,37 @@ public class Caches {
         public int modelCount() {
             return modelCount.get();
         }
+
+        /**
+         * Memory used outside of the heap by the models, included in {@link #modelRam()}
+         */
+        public long modelOffHeapRam() {
+            return modelOffHeapRam.get();
+        }
+
+        /**
+         * Memory used outside of the heap, included in {@link #totalRam()}
+         */
+        public long totalOffHeapRam() {
+            return modelOffHeapRam.get();
+        }
+
+        private static class Entry {
+            private final CacheKey key;
+            private final Object value;
+            private final Cache<CacheKey, ?> cache;
+            private final long ram;
+            private volatile long lastAccess = System.nanoTime();
+            private volatile EvictionCause removalCause;
+            // loaded from a previous generation of its store
+            private volatile boolean outdated;
+
+            Entry(CacheKey key, Object value, Cache<CacheKey, ?> cache) {
+                this.key = key;
+                this.value = value;
+                this.cache = cache;
+                this.ram = weigther(key, value);
+            }
+        }
     }
 }
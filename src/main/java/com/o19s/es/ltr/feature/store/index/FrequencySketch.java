@@ -0,0 +1,215 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.index;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Approximate access frequency of the cache entries, used by the
+ * TinyLFU admission policy of {@link Caches}.
+ * Count-min sketch with 4 rows, counters saturate at 15 and are all halved
+ * after {@code 10 * width} recorded accesses so that the popularity of
+ * old entries decays.
+ * <p>
+ * The cache lookups only append the hash of the accessed entry to a lossy buffer
+ * striped by thread, accesses are dropped when the buffer of a stripe is full
+ * or contended. The buffers are applied to the sketch, and the sketch halved,
+ * by a drain running under a lock, scheduled on an executor when a buffer fills
+ * up and run before reading the frequencies.
+ * The sketch is approximate by design.
+ */
+class FrequencySketch {
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xb0b2fe25, 0x1d8e4e27, 0x6a09e667};
+    private static final int MIN_WIDTH = 256;
+    private static final int MAX_WIDTH = 1 << 16;
+    static final int BUFFER_SIZE = 32;
+    private static final int MAX_STRIPES = 64;
+
+    // guarded by lock
+    private final int[] table;
+    private final int width;
+    private final int resetAt;
+    private int samples;
+
+    private final Stripe[] stripes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    /**
+     * @param expectedEntries approximate number of entries the cache can hold
+     */
+    FrequencySketch(long expectedEntries) {
+        this(expectedEntries, Runtime.getRuntime().availableProcessors());
+    }
+
+    FrequencySketch(long expectedEntries, int processors) {
+        long w = Math.max(MIN_WIDTH, Math.min(MAX_WIDTH, expectedEntries));
+        this.width = Integer.highestOneBit((int) w - 1) << 1;
+        this.table = new int[SEEDS.length * width];
+        this.resetAt = 10 * width;
+        int nStripes = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, 2 * processors - 1)) << 1);
+        this.stripes = new Stripe[nStripes];
+        for (int i = 0; i < nStripes; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Record an access, never blocks: the access is dropped if the buffer of the calling thread is full.
+     *
+     * @return true if the buffer should be drained
+     */
+    boolean record(int hash) {
+        Stripe stripe = stripes[stripe(Thread.currentThread().getId())];
+        long tail = stripe.writes.get();
+        long size = tail - stripe.reads;
+        if (size >= BUFFER_SIZE) {
+            return true;
+        }
+        if (stripe.writes.compareAndSet(tail, tail + 1)) {
+            // 0 marks the slots not yet written
+            stripe.slots.lazySet((int) tail & (BUFFER_SIZE - 1), hash != 0 ? hash : 1);
+        }
+        return size + 1 >= BUFFER_SIZE / 2;
+    }
+
+    /**
+     * Drain the buffers on this executor unless a drain is already scheduled,
+     * drain them on the calling thread if the executor is null.
+     */
+    void scheduleDrain(@Nullable Executor executor) {
+        if (executor == null) {
+            if (lock.tryLock()) {
+                try {
+                    drainBuffers();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return;
+        }
+        if (drainScheduled.get() || !drainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    drain();
+                } finally {
+                    drainScheduled.set(false);
+                }
+            });
+        } catch (EsRejectedExecutionException e) {
+            // the accesses are buffered until the next drain
+            drainScheduled.set(false);
+        }
+    }
+
+    /**
+     * Apply the buffered accesses to the sketch
+     */
+    void drain() {
+        lock.lock();
+        try {
+            drainBuffers();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimated number of recent accesses
+     */
+    int frequency(int hash) {
+        lock.lock();
+        try {
+            drainBuffers();
+            int freq = MAX_COUNT;
+            for (int row = 0; row < SEEDS.length; row++) {
+                freq = Math.min(freq, table[index(hash, row)]);
+            }
+            return freq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainBuffers() {
+        assert lock.isHeldByCurrentThread();
+        for (Stripe stripe : stripes) {
+            long head = stripe.reads;
+            long tail = stripe.writes.get();
+            while (head < tail) {
+                int idx = (int) head & (BUFFER_SIZE - 1);
+                int hash = stripe.slots.get(idx);
+                if (hash == 0) {
+                    // claimed but not yet written, read on the next drain
+                    break;
+                }
+                stripe.slots.lazySet(idx, 0);
+                increment(hash);
+                head++;
+            }
+            stripe.reads = head;
+        }
+    }
+
+    private void increment(int hash) {
+        for (int row = 0; row < SEEDS.length; row++) {
+            int idx = index(hash, row);
+            if (table[idx] < MAX_COUNT) {
+                table[idx]++;
+            }
+        }
+        if (++samples >= resetAt) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        samples = 0;
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+    }
+
+    private int stripe(long threadId) {
+        long h = threadId * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (stripes.length - 1);
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        return row * width + (h & (width - 1));
+    }
+
+    private static class Stripe {
+        private final AtomicIntegerArray slots = new AtomicIntegerArray(BUFFER_SIZE);
+        private final AtomicLong writes = new AtomicLong();
+        // only written by the drain
+        private volatile long reads;
+    }
+}
@@ -28,15 +28,18 @@ import java.util.regex.Pattern;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.ParameterizedMessage;
 import org.apache.lucene.util.IOUtils;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MetaDataCreateIndexService;
+import org.elasticsearch.cluster.routing.Preference;
 import org.elasticsearch.common.CheckedFunction;
 import org.elasticsearch.common.ParseField;
 import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.Setting;
@@ -52,16 +55,24 @@ import com.o19s.es.ltr.feature.Feature;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.store.CompiledLtrModel;
 import com.o19s.es.ltr.feature.store.FeatureStore;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
 import com.o19s.es.ltr.feature.store.StorableElement;
 import com.o19s.es.ltr.feature.store.StoredFeature;
 import com.o19s.es.ltr.feature.store.StoredFeatureSet;
 import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.StoredModelAlias;
 import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
 
 public class IndexFeatureStore implements FeatureStore {
     public static final int VERSION = 2;
     public static final Setting<Integer> STORE_VERSION_PROP = Setting.intSetting("index.ltrstore_version",
             VERSION, -1, Integer.MAX_VALUE, Setting.Property.IndexScope);
+    /**
+     * Create the store indices with a replica on every data node so that the elements
+     * can always be read from a local shard copy.
+     */
+    public static final Setting<Boolean> LTR_STORE_REPLICAS_ON_ALL_NODES = Setting.boolSetting("ltr.stores.replicas_on_all_nodes",
+            false, Setting.Property.NodeScope);
     public static final String DEFAULT_STORE = ".ltrstore";
     public static final String STORE_PREFIX = DEFAULT_STORE + "_";
     private static final String MAPPING_FILE = "fstore-index-mapping.json";
@@ -90,16 +101,28 @@ public class IndexFeatureStore implements FeatureStore {
         SOURCE_PARSER.declareField(ParserState::setElement,
                 (CheckedFunction<XContentParser, StoredLtrModel, IOException>) StoredLtrModel::parse,
                 new ParseField(StoredLtrModel.TYPE), ObjectParser.ValueType.OBJECT);
+        SOURCE_PARSER.declareField(ParserState::setElement,
+                (CheckedFunction<XContentParser, StoredModelAlias, IOException>) StoredModelAlias::parse,
+                new ParseField(StoredModelAlias.TYPE), ObjectParser.ValueType.OBJECT);
     }
 
     private final String index;
     private final Client client;
     private final LtrRankerParserFactory parserFactory;
+    private final LtrNodeServices services;
 
     public IndexFeatureStore(String index, Client client, LtrRankerParserFactory factory) {
+        this(index, client, factory, new LtrNodeServices());
+    }
+
+    /**
+     * @param services services of the node, used to compile the feature sets and the models
+     */
+    public IndexFeatureStore(String index, Client client, LtrRankerParserFactory factory, LtrNodeServices services) {
         this.index = Objects.requireNonNull(index);
         this.client = Objects.requireNonNull(client);
         this.parserFactory = Objects.requireNonNull(factory);
+        this.services = Objects.requireNonNull(services);
     }
 
     @Override
@@ -109,12 +132,22 @@ public class IndexFeatureStore implements FeatureStore {
 
     @Override
     public Feature load(String name) throws IOException {
-        return getAndParse(name, StoredFeature.class, StoredFeature.TYPE).optimize();
+        return load(name, LoadListener.NOOP);
+    }
+
+    @Override
+    public Feature load(String name, LoadListener listener) throws IOException {
+        return getAndParse(name, StoredFeature.class, StoredFeature.TYPE, listener).optimize(services);
     }
 
     @Override
     public FeatureSet loadSet(String name) throws IOException {
-        return getAndParse(name, StoredFeatureSet.class, StoredFeatureSet.TYPE).optimize();
+        return loadSet(name, LoadListener.NOOP);
+    }
+
+    @Override
+    public FeatureSet loadSet(String name, LoadListener listener) throws IOException {
+        return getAndParse(name, StoredFeatureSet.class, StoredFeatureSet.TYPE, listener).optimize(services);
     }
 
     /**
@@ -159,16 +192,44 @@ public class IndexFeatureStore implements FeatureStore {
 
     @Override
     public CompiledLtrModel loadModel(String name) throws IOException {
-        StoredLtrModel model = getAndParse(name, StoredLtrModel.class, StoredLtrModel.TYPE);
+        return loadModel(name, LoadListener.NOOP);
+    }
+
+    @Override
+    public CompiledLtrModel loadModel(String name, LoadListener listener) throws IOException {
+        StoredLtrModel model = getAndParse(name, StoredLtrModel.class, StoredLtrModel.TYPE, listener);
         if (model == null) {
             throw new IllegalArgumentException("Unkown model [" + name + "]");
         }
-        return model.compile(parserFactory);
+        return model.compile(parserFactory, services);
+    }
+
+    @Override
+    public String resolveModelAlias(String name) throws IOException {
+        return resolveModelAlias(name, LoadListener.NOOP);
+    }
+
+    @Override
+    public String resolveModelAlias(String name, LoadListener listener) throws IOException {
+        StoredModelAlias alias = getAndParse(name, StoredModelAlias.class, StoredModelAlias.TYPE, listener);
+        return alias != null ? alias.model() : null;
     }
 
     public <E extends StorableElement> E getAndParse(String name, Class<E> eltClass, String type) throws IOException {
+        return getAndParse(name, eltClass, type, LoadListener.NOOP);
+    }
+
+    /**
+     * Fetch and parse an element, the fetch time and the version of the source document
+     * are reported to the listener.
+     */
+    public <E extends StorableElement> E getAndParse(String name, Class<E> eltClass, String type,
+                                                     LoadListener listener) throws IOException {
+        long start = System.nanoTime();
         GetResponse response = internalGet(generateId(type, name)).get();
+        listener.onFetched(System.nanoTime() - start);
         if (response.isExists()) {
+            listener.onVersion(response.getVersion());
             return parse(eltClass, type, response.getSourceAsBytes());
         } else {
             return null;
@@ -187,8 +248,59 @@ public class IndexFeatureStore implements FeatureStore {
         return internalGet(generateId(StoredLtrModel.TYPE, name)).get();
     }
 
+    /**
+     * Fetch the current version of a stored element, without its source.
+     * Fails with an IllegalArgumentException if the element does not exist.
+     */
+    public static void fetchVersion(Client client, String index, String type, String name, ActionListener<Long> listener) {
+        client.prepareGet(index, ES_TYPE, generateId(type, name))
+                .setPreference(Preference.LOCAL.type())
+                .setFetchSource(false)
+                .execute(ActionListener.wrap((r) -> {
+                    if (!r.isExists()) {
+                        throw new IllegalArgumentException("Unknown " + type + " [" + name + "] in store [" + index + "]");
+                    }
+                    listener.onResponse(r.getVersion());
+                }, listener::onFailure));
+    }
+
+    /**
+     * Fetch the current version of the model document, or follow the model alias if there is no model
+     * with this name.
+     * Fails with an IllegalArgumentException if neither a model nor a model alias exist.
+     */
+    @Override
+    public void resolveModelVersion(String name, ActionListener<Tuple<String, Long>> listener) {
+        client.prepareGet(index, ES_TYPE, generateId(StoredLtrModel.TYPE, name))
+                .setPreference(Preference.LOCAL.type())
+                .setFetchSource(false)
+                .execute(ActionListener.wrap((r) -> {
+                    if (r.isExists()) {
+                        listener.onResponse(new Tuple<>(name, r.getVersion()));
+                        return;
+                    }
+                    client.prepareGet(index, ES_TYPE, generateId(StoredModelAlias.TYPE, name))
+                            .setPreference(Preference.LOCAL.type())
+                            .execute(ActionListener.wrap((a) -> {
+                                if (!a.isExists()) {
+                                    throw new IllegalArgumentException("Unknown " + StoredLtrModel.TYPE + " [" + name + "] in store ["
+                                            + index + "]");
+                                }
+                                String model = parse(StoredModelAlias.class, StoredModelAlias.TYPE, a.getSourceAsBytesRef()).model();
+                                fetchVersion(client, index, StoredLtrModel.TYPE, model, ActionListener.wrap(
+                                        (v) -> listener.onResponse(new Tuple<>(model, v)), listener::onFailure));
+                            }, listener::onFailure));
+                }, listener::onFailure));
+    }
+
+    /**
+     * Read from the local copy of the store shard when one is allocated on this node,
+     * the request falls back to any other copy otherwise.
+     */
     private Supplier<GetResponse> internalGet(String id) {
-        return () -> client.prepareGet(index, ES_TYPE, id).get();
+        return () -> client.prepareGet(index, ES_TYPE, id)
+                .setPreference(Preference.LOCAL.type())
+                .get();
     }
 
     /**
@@ -219,10 +331,7 @@ public class IndexFeatureStore implements FeatureStore {
     }
 
     public static <E extends StorableElement> E parse(Class<E> eltClass, String type, XContentParser parser) throws IOException {
-        StorableElement elt = SOURCE_PARSER.parse(parser, null).element;
-        if (elt == null) {
-            throw new IllegalArgumentException("No StorableElement found.");
-        }
+        StorableElement elt = parse(parser);
         if (!elt.type().equals(type)) {
             throw new IllegalArgumentException("Expected an element of type [" + type + "] but got [" + elt.type() + "].");
         }
@@ -232,6 +341,17 @@ public class IndexFeatureStore implements FeatureStore {
         return eltClass.cast(elt);
     }
 
+    /**
+     * Parse a store document whatever the type of the element it holds
+     */
+    public static StorableElement parse(XContentParser parser) throws IOException {
+        StorableElement elt = SOURCE_PARSER.parse(parser, null).element;
+        if (elt == null) {
+            throw new IllegalArgumentException("No StorableElement found.");
+        }
+        return elt;
+    }
+
     private static class ParserState {
         StorableElement element;
 
@@ -244,9 +364,16 @@ public class IndexFeatureStore implements FeatureStore {
     }
 
     public static CreateIndexRequest buildIndexRequest(String indexName) {
+        return buildIndexRequest(indexName, false);
+    }
+
+    /**
+     * @param replicasOnAllNodes auto expand the replicas to all the data nodes instead of 0-2
+     */
+    public static CreateIndexRequest buildIndexRequest(String indexName, boolean replicasOnAllNodes) {
         return new CreateIndexRequest(indexName)
                 .mapping(ES_TYPE, readResourceFile(indexName, MAPPING_FILE), XContentType.JSON)
-                .settings(storeIndexSettings(indexName));
+                .settings(storeIndexSettings(indexName, replicasOnAllNodes));
     }
 
     private static String readResourceFile(String indexName, String resource) {
@@ -263,10 +390,10 @@ public class IndexFeatureStore implements FeatureStore {
         }
     }
 
-    private static Settings storeIndexSettings(String indexName) {
+    private static Settings storeIndexSettings(String indexName, boolean replicasOnAllNodes) {
         return Settings.builder()
                 .put(IndexMetaData.INDEX_NUMBER_OF_SHARDS_SETTING.getKey(), 1)
-                .put(IndexMetaData.INDEX_AUTO_EXPAND_REPLICAS_SETTING.getKey(), "0-2")
+                .put(IndexMetaData.INDEX_AUTO_EXPAND_REPLICAS_SETTING.getKey(), replicasOnAllNodes ? "0-all" : "0-2")
                 .put(STORE_VERSION_PROP.getKey(), VERSION)
                 .put(IndexMetaData.SETTING_PRIORITY, Integer.MAX_VALUE)
                 .put(Settings.builder()
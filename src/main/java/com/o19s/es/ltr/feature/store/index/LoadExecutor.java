@@ -0,0 +1,242 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.index;
+
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the cache loads on the dedicated ltr_load thread pool so that cold elements
+ * do not hold the search threads while being fetched and compiled.
+ * Concurrent loads of the same element are coalesced, callers wait at most ltr.caches.load_timeout.
+ */
+public class LoadExecutor {
+    public static final String THREAD_POOL_NAME = "ltr_load";
+    public static final Setting<TimeValue> LTR_CACHE_LOAD_TIMEOUT = Setting.timeSetting("ltr.caches.load_timeout",
+            TimeValue.timeValueSeconds(30),
+            TimeValue.timeValueMillis(1),
+            Setting.Property.NodeScope);
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private final ThreadPool threadPool;
+    private final TimeValue timeout;
+    private final ConcurrentHashMap<Object, CompletableFuture<Object>> inflight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    // set while a load submitted by this executor runs
+    private final ThreadLocal<Boolean> loading = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    public LoadExecutor(Settings settings, ThreadPool threadPool) {
+        this.threadPool = threadPool;
+        this.timeout = LTR_CACHE_LOAD_TIMEOUT.get(settings);
+    }
+
+    /**
+     * The ltr_load thread pool, configured with thread_pool.ltr_load.size and thread_pool.ltr_load.queue_size
+     */
+    public static ExecutorBuilder<?> executorBuilder(Settings settings) {
+        int size = Math.max(1, Math.min(4, EsExecutors.numberOfProcessors(settings) / 2));
+        return new FixedExecutorBuilder(settings, THREAD_POOL_NAME, size, DEFAULT_QUEUE_SIZE, "thread_pool." + THREAD_POOL_NAME);
+    }
+
+    /**
+     * Run the loader on the ltr_load thread pool, or join the load already running for this key.
+     *
+     * @param key identifies the element being loaded
+     * @param loader the load
+     * @throws EsRejectedExecutionException if the ltr_load queue is full
+     * @throws ElasticsearchTimeoutException if the load did not complete in time, the load itself is not cancelled
+     */
+    @SuppressWarnings("unchecked")
+    public <E> E load(Object key, CheckedSupplier<E, IOException> loader) throws IOException {
+        if (loading.get()) {
+            // Never wait on our own pool
+            return loader.get();
+        }
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inflight.putIfAbsent(key, future);
+        if (running == null) {
+            submit(key, future, loader);
+            running = future;
+        } else {
+            coalesced.increment();
+        }
+        try {
+            return (E) running.get(timeout.nanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw new ElasticsearchTimeoutException("Timed out after [{}] waiting for the load of [{}]", timeout, key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the load of [" + key + "]", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private <E> void submit(Object key, CompletableFuture<Object> future, CheckedSupplier<E, IOException> loader) {
+        Runnable load = threadPool.getThreadContext().preserveContext(() -> {
+            // Unregister before completing so that a caller arriving after completion
+            // never coalesces onto an already completed (possibly failed) load
+            Object result;
+            loading.set(Boolean.TRUE);
+            try {
+                result = loader.get();
+            } catch (Throwable t) {
+                inflight.remove(key, future);
+                future.completeExceptionally(t);
+                return;
+            } finally {
+                loading.set(Boolean.FALSE);
+            }
+            inflight.remove(key, future);
+            future.complete(result);
+        });
+        try {
+            threadPool.executor(THREAD_POOL_NAME).execute(load);
+        } catch (EsRejectedExecutionException e) {
+            rejected.increment();
+            inflight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * The ltr_load thread pool, also runs the maintenance of the caches
+     */
+    Executor executor() {
+        return threadPool.executor(THREAD_POOL_NAME);
+    }
+
+    public Stats stats() {
+        int queue = 0;
+        int active = 0;
+        ExecutorService executor = threadPool.executor(THREAD_POOL_NAME);
+        if (executor instanceof ThreadPoolExecutor) {
+            queue = ((ThreadPoolExecutor) executor).getQueue().size();
+            active = ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        return new Stats(queue, active, inflight.size(), coalesced.sum(), rejected.sum(), timeouts.sum());
+    }
+
+    public static class Stats implements Writeable, ToXContent {
+        private final int queue;
+        private final int active;
+        private final int inflight;
+        private final long coalesced;
+        private final long rejected;
+        private final long timeouts;
+
+        public Stats(int queue, int active, int inflight, long coalesced, long rejected, long timeouts) {
+            this.queue = queue;
+            this.active = active;
+            this.inflight = inflight;
+            this.coalesced = coalesced;
+            this.rejected = rejected;
+            this.timeouts = timeouts;
+        }
+
+        public Stats(StreamInput in) throws IOException {
+            queue = in.readVInt();
+            active = in.readVInt();
+            inflight = in.readVInt();
+            coalesced = in.readVLong();
+            rejected = in.readVLong();
+            timeouts = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVInt(queue);
+            out.writeVInt(active);
+            out.writeVInt(inflight);
+            out.writeVLong(coalesced);
+            out.writeVLong(rejected);
+            out.writeVLong(timeouts);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            return builder.startObject()
+                    .field("queue", queue)
+                    .field("active", active)
+                    .field("inflight", inflight)
+                    .field("coalesced", coalesced)
+                    .field("rejected", rejected)
+                    .field("timeouts", timeouts)
+                    .endObject();
+        }
+
+        public int getQueue() {
+            return queue;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getInflight() {
+            return inflight;
+        }
+
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+    }
+}
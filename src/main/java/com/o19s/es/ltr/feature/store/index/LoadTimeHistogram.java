@@ -0,0 +1,65 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.index;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of load times, bucketed by upper bound in milliseconds.
+ * Backed by LongAdder so that concurrent loads can record without contention.
+ */
+public class LoadTimeHistogram {
+    /**
+     * Upper bounds (inclusive) of the buckets, an extra bucket holds the slower loads.
+     */
+    public static final long[] BUCKETS_MS = {1, 5, 10, 50, 100, 500, 1000, 5000};
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS_MS.length + 1];
+    private final LongAdder totalNanos = new LongAdder();
+
+    LoadTimeHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < BUCKETS_MS.length && millis > BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        counts[bucket].increment();
+        totalNanos.add(nanos);
+    }
+
+    /**
+     * Number of loads per bucket, see {@link #BUCKETS_MS}
+     */
+    public long[] counts() {
+        long[] snapshot = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.feature.store.index;
+
+import com.o19s.es.ltr.feature.store.CompiledLtrModel;
+import com.o19s.es.ltr.ranker.dectree.OffHeapDecisionTree;
+import org.elasticsearch.common.util.concurrent.RefCounted;
+import org.elasticsearch.index.query.QueryShardContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Off-heap trees used by the searches of this node. The trees of a model are leased to the
+ * {@link QueryShardContext} that built its query and released when the search context is freed.
+ * The queries built outside of a search context (e.g. explain or percolate) never release their
+ * lease, their trees are freed once the ranker is collected.
+ */
+class ModelLeases {
+    // keyed by identity, the leases of the contexts that are never released are dropped with the context
+    private final Map<QueryShardContext, List<RefCounted>> leases = new WeakHashMap<>();
+
+    /**
+     * Lease the resources of this model to this context
+     *
+     * @return false if the resources of the model are already freed, the model must not be used
+     */
+    boolean lease(QueryShardContext context, CompiledLtrModel model) {
+        if (!(model.ranker() instanceof OffHeapDecisionTree)) {
+            return true;
+        }
+        OffHeapDecisionTree trees = (OffHeapDecisionTree) model.ranker();
+        if (!trees.tryIncRef()) {
+            return false;
+        }
+        synchronized (leases) {
+            leases.computeIfAbsent(context, (c) -> new ArrayList<>()).add(trees);
+        }
+        return true;
+    }
+
+    /**
+     * Release the resources leased to this context
+     */
+    void release(QueryShardContext context) {
+        List<RefCounted> released;
+        synchronized (leases) {
+            if (leases.isEmpty()) {
+                return;
+            }
+            released = leases.remove(context);
+        }
+        if (released != null) {
+            released.forEach(RefCounted::decRef);
+        }
+    }
+
+    /**
+     * Number of contexts holding leases
+     */
+    int size() {
+        synchronized (leases) {
+            return leases.size();
+        }
+    }
+}
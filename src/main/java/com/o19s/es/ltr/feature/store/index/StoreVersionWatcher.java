@@ -0,0 +1,227 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.index;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.CountDown;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.threadpool.Scheduler;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.elasticsearch.action.ActionListener.wrap;
+
+/**
+ * Periodically compares the version of the cached elements and of the resolved model aliases with
+ * the version of their source document in the store index, and evicts only the entries whose source changed.
+ * The check fetches the _version of the cached ids only (no _source).
+ * Since the versions are read with a near real-time search, a document is considered
+ * deleted only once it is missing from two consecutive checks.
+ */
+public class StoreVersionWatcher implements Closeable {
+    public static final Setting<TimeValue> LTR_CACHE_VERSION_CHECK_INTERVAL = Setting.timeSetting("ltr.caches.version_check_interval",
+            TimeValue.timeValueNanos(0),
+            TimeValue.timeValueNanos(0),
+            Setting.Property.NodeScope);
+    private static final Logger LOGGER = ESLoggerFactory.getLogger(StoreVersionWatcher.class);
+    // Stay well below index.max_result_window
+    private static final int MAX_IDS_PER_REQUEST = 1000;
+
+    private final Caches caches;
+    private final Client client;
+    private final ThreadPool threadPool;
+    private final TimeValue interval;
+    private final AtomicBoolean running = new AtomicBoolean();
+    // ids missing from the previous check, per store
+    private volatile Map<String, Set<String>> missing = Collections.emptyMap();
+    private volatile Scheduler.Cancellable scheduled;
+
+    public StoreVersionWatcher(Settings settings, Caches caches, Client client, ThreadPool threadPool) {
+        this.caches = caches;
+        this.client = client;
+        this.threadPool = threadPool;
+        this.interval = LTR_CACHE_VERSION_CHECK_INTERVAL.get(settings);
+    }
+
+    /**
+     * Schedule the periodic checks, noop if the check interval is 0.
+     */
+    public void start() {
+        if (interval.nanos() > 0) {
+            scheduled = threadPool.scheduleWithFixedDelay(this::check, interval, ThreadPool.Names.GENERIC);
+        }
+    }
+
+    /**
+     * Check all the stores that currently have entries in the caches or resolved model aliases.
+     * Skipped if the previous check is still running.
+     */
+    void check() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            CheckRun run = new CheckRun(caches.getCachedAndAliasedStoreNames());
+            ThreadContext.StoredContext stored = threadPool.getThreadContext().stashContext();
+            try {
+                // internal requests, do not run with the credentials of the caller
+                threadPool.getThreadContext().markAsSystemContext();
+                run.start();
+            } finally {
+                stored.restore();
+            }
+        } catch (Exception e) {
+            running.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * A single pass over the cached stores:
+     * - send one search request per batch of cached ids to fetch their current versions
+     * - synchronize on CountDown, the last response triggers the eviction of stale entries
+     * Only the ids captured when the run is created are considered, entries loaded while
+     * the searches are in flight are checked by the next run.
+     */
+    private class CheckRun {
+        private final Map<String, Set<String>> queried = new HashMap<>();
+        private final Map<String, Map<String, Long>> versions = new HashMap<>();
+        private final List<Runnable> requests = new ArrayList<>();
+        private final CountDown countDown;
+
+        CheckRun(Set<String> stores) {
+            for (String store : stores) {
+                Set<String> ids = caches.versionedDocIds(store);
+                if (ids.isEmpty()) {
+                    continue;
+                }
+                queried.put(store, ids);
+                versions.put(store, new HashMap<>());
+                List<String> batch = new ArrayList<>();
+                for (String id : ids) {
+                    batch.add(id);
+                    if (batch.size() == MAX_IDS_PER_REQUEST) {
+                        requests.add(fetchVersions(store, batch));
+                        batch = new ArrayList<>();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    requests.add(fetchVersions(store, batch));
+                }
+            }
+            countDown = new CountDown(Math.max(1, requests.size()));
+        }
+
+        void start() {
+            if (requests.isEmpty()) {
+                running.set(false);
+                return;
+            }
+            requests.forEach(Runnable::run);
+        }
+
+        private Runnable fetchVersions(String store, List<String> ids) {
+            String[] idArray = ids.toArray(new String[ids.size()]);
+            return () -> client.prepareSearch(store)
+                    .setTypes(IndexFeatureStore.ES_TYPE)
+                    .setQuery(QueryBuilders.idsQuery().addIds(idArray))
+                    .setFetchSource(false)
+                    .setVersion(true)
+                    .setSize(idArray.length)
+                    .execute(wrap((r) -> onResponse(store, r), (e) -> onFailure(store, e)));
+        }
+
+        private void onResponse(String store, SearchResponse response) {
+            if (response.getFailedShards() > 0) {
+                // Do not consider missing docs as deleted if some shards failed
+                onFailure(store, new IllegalStateException(response.getFailedShards() + " shard failure(s)"));
+                return;
+            }
+            synchronized (versions) {
+                Map<String, Long> storeVersions = versions.get(store);
+                if (storeVersions != null) {
+                    for (SearchHit hit : response.getHits().getHits()) {
+                        storeVersions.put(hit.getId(), hit.getVersion());
+                    }
+                }
+            }
+            maybeFinish();
+        }
+
+        private void onFailure(String store, Exception e) {
+            LOGGER.debug((org.apache.logging.log4j.util.Supplier<?>) () -> new ParameterizedMessage(
+                    "Failed to check the versions of the cached elements of store [{}]", store), e);
+            // Keep the entries of this store, TTLs still apply
+            synchronized (versions) {
+                versions.remove(store);
+            }
+            maybeFinish();
+        }
+
+        private void maybeFinish() {
+            if (!countDown.countDown()) {
+                return;
+            }
+            try {
+                Map<String, Set<String>> previouslyMissing = missing;
+                Map<String, Set<String>> nowMissing = new HashMap<>();
+                synchronized (versions) {
+                    versions.forEach((store, storeVersions) -> {
+                        Set<String> storeMissing = new HashSet<>(queried.get(store));
+                        storeMissing.removeAll(storeVersions.keySet());
+                        nowMissing.put(store, storeMissing);
+                        Set<String> deleted = new HashSet<>(storeMissing);
+                        deleted.retainAll(previouslyMissing.getOrDefault(store, Collections.emptySet()));
+                        int evicted = caches.evictStale(store, storeVersions, deleted);
+                        if (evicted > 0) {
+                            LOGGER.debug("Evicted [{}] stale entries from the caches of store [{}]", evicted, store);
+                        }
+                    });
+                }
+                missing = nowMissing;
+            } finally {
+                running.set(false);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        Scheduler.Cancellable scheduled = this.scheduled;
+        if (scheduled != null) {
+            scheduled.cancel();
+        }
+    }
+}
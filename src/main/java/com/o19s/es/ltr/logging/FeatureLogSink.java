@@ -0,0 +1,353 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.logging;
+
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.tasks.TaskId;
+import org.elasticsearch.threadpool.Scheduler;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Node level sink of the feature logs of the sampled search requests (see {@link LoggingSearchExtBuilder.Sink}).
+ * The fetch phase adds the logs to a bounded lock-free queue and never blocks on it: entries are dropped when
+ * the queue is full. The queue is drained by a task scheduled on the generic pool that writes one json document
+ * per line to rolling files under ltr.logging.sink.path (relative to the logs path of the node), the oldest
+ * files are deleted once there are more than ltr.logging.sink.max_files.
+ *
+ * The sink is opt-in: it is only created, and its writer scheduled, when ltr.logging.sink.queue_size is set.
+ * Sink logging is a noop otherwise.
+ */
+public final class FeatureLogSink implements Closeable {
+    /**
+     * Maximum number of logs waiting to be written, 0 (default) disables the sink
+     */
+    public static final Setting<Integer> LTR_LOG_SINK_QUEUE_SIZE = Setting.intSetting("ltr.logging.sink.queue_size",
+            0, 0, Setting.Property.NodeScope);
+    /**
+     * Directory of the log files, resolved against the logs path of the node (path.logs) when relative
+     */
+    public static final Setting<String> LTR_LOG_SINK_PATH = new Setting<>("ltr.logging.sink.path", "ltr-features",
+            Function.identity(), Setting.Property.NodeScope);
+    public static final Setting<TimeValue> LTR_LOG_SINK_FLUSH_INTERVAL = Setting.timeSetting("ltr.logging.sink.flush_interval",
+            TimeValue.timeValueSeconds(1), TimeValue.timeValueMillis(1), Setting.Property.NodeScope);
+    public static final Setting<ByteSizeValue> LTR_LOG_SINK_MAX_FILE_SIZE = Setting.byteSizeSetting("ltr.logging.sink.max_file_size",
+            new ByteSizeValue(64, ByteSizeUnit.MB), new ByteSizeValue(1, ByteSizeUnit.KB),
+            new ByteSizeValue(Long.MAX_VALUE), Setting.Property.NodeScope);
+    public static final Setting<Integer> LTR_LOG_SINK_MAX_FILES = Setting.intSetting("ltr.logging.sink.max_files",
+            10, 1, Setting.Property.NodeScope);
+    static final String FILE_PREFIX = "ltr-features-";
+    static final String FILE_SUFFIX = ".log";
+    private static final Logger LOGGER = ESLoggerFactory.getLogger(FeatureLogSink.class);
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int capacity;
+    private final Path dir;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile Scheduler.Cancellable scheduled;
+
+    // Only accessed by the drain task
+    private Writer writer;
+    private long fileSize;
+    private long lastFileId;
+
+    FeatureLogSink(Settings settings, Path dir) {
+        this.capacity = LTR_LOG_SINK_QUEUE_SIZE.get(settings);
+        this.dir = dir;
+        this.maxFileSize = LTR_LOG_SINK_MAX_FILE_SIZE.get(settings).getBytes();
+        this.maxFiles = LTR_LOG_SINK_MAX_FILES.get(settings);
+    }
+
+    /**
+     * Create the sink of a node and schedule its writer, null unless enabled with ltr.logging.sink.queue_size
+     */
+    public static FeatureLogSink create(Settings settings, Path logsPath, ThreadPool threadPool) {
+        FeatureLogSink sink = null;
+        if (LTR_LOG_SINK_QUEUE_SIZE.get(settings) > 0) {
+            sink = new FeatureLogSink(settings, dir(settings, logsPath));
+            sink.scheduled = threadPool.scheduleWithFixedDelay(sink::drain, LTR_LOG_SINK_FLUSH_INTERVAL.get(settings),
+                    ThreadPool.Names.GENERIC);
+        }
+        return sink;
+    }
+
+    static Path dir(Settings settings, Path logsPath) {
+        return logsPath.resolve(LTR_LOG_SINK_PATH.get(settings)).normalize();
+    }
+
+    /**
+     * Whether the request of this parent task is sampled, all the shards of a search request share
+     * its parent task and take the same decision.
+     */
+    public static boolean sampled(TaskId parentTask, double rate) {
+        if (rate >= 1D) {
+            return true;
+        }
+        if (parentTask == null || !parentTask.isSet()) {
+            return ThreadLocalRandom.current().nextDouble() < rate;
+        }
+        return (mix(parentTask.hashCode()) >>> 11) * 0x1.0p-53 < rate;
+    }
+
+    // murmur3 finalizer, task ids are sequential
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Queue a log, returns false if the queue is full and the log is dropped
+     */
+    public boolean offer(Entry entry) {
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        queue.add(entry);
+        return true;
+    }
+
+    /**
+     * Write the queued logs, called by a single thread at a time
+     */
+    synchronized void drain() {
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            queued.decrementAndGet();
+            try {
+                write(entry);
+                written.incrementAndGet();
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                LOGGER.warn("Failed to write to the feature log sink", e);
+                closeWriter();
+            }
+        }
+        if (writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to flush the feature log sink", e);
+                closeWriter();
+            }
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        if (writer == null || fileSize >= maxFileSize) {
+            roll();
+        }
+        String line = entry.toJson();
+        writer.write(line);
+        writer.write('\n');
+        // close enough, the logs are mostly ascii
+        fileSize += line.length() + 1;
+    }
+
+    private void roll() throws IOException {
+        closeWriter();
+        Files.createDirectories(dir);
+        lastFileId = Math.max(lastFileId + 1, System.currentTimeMillis());
+        Path file = dir.resolve(String.format(Locale.ROOT, "%s%020d%s", FILE_PREFIX, lastFileId, FILE_SUFFIX));
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        fileSize = 0;
+        deleteOldFiles();
+    }
+
+    private void deleteOldFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        if (files.size() <= maxFiles) {
+            return;
+        }
+        // fixed length names, the oldest first
+        Collections.sort(files);
+        for (Path file : files.subList(0, files.size() - maxFiles)) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the feature log sink", e);
+        }
+        writer = null;
+    }
+
+    public Stats stats() {
+        return new Stats(queued.get(), written.get(), dropped.get(), failed.get());
+    }
+
+    /**
+     * Stop accepting logs, the queued logs are written.
+     */
+    @Override
+    public void close() {
+        Scheduler.Cancellable scheduled = this.scheduled;
+        if (scheduled != null) {
+            scheduled.cancel();
+        }
+        synchronized (this) {
+            drain();
+            closeWriter();
+        }
+    }
+
+    /**
+     * The feature logs of a hit
+     */
+    public static class Entry {
+        private final long timestamp;
+        private final String request;
+        private final String index;
+        private final int shard;
+        private final int rank;
+        private final String id;
+        private final Map<String, Object> log;
+
+        /**
+         * @param request id of the search request, shared by the logs of all its shards
+         * @param rank position of the hit in the hits fetched by the shard
+         * @param log the loggers and their logs, as returned in the _ltrlog field
+         */
+        public Entry(long timestamp, String request, String index, int shard, int rank, String id, Map<String, Object> log) {
+            this.timestamp = timestamp;
+            this.request = request;
+            this.index = index;
+            this.shard = shard;
+            this.rank = rank;
+            this.id = id;
+            this.log = log;
+        }
+
+        String toJson() throws IOException {
+            XContentBuilder builder = XContentFactory.jsonBuilder();
+            builder.startObject()
+                    .field("timestamp", timestamp)
+                    .field("request", request)
+                    .field("index", index)
+                    .field("shard", shard)
+                    .field("rank", rank)
+                    .field("_id", id)
+                    .field(LoggingFetchSubPhase.LOG_FIELD, log)
+                    .endObject();
+            return builder.bytes().utf8ToString();
+        }
+    }
+
+    public static class Stats implements Writeable, ToXContent {
+        private final int queued;
+        private final long written;
+        private final long dropped;
+        private final long failed;
+
+        public Stats(int queued, long written, long dropped, long failed) {
+            this.queued = queued;
+            this.written = written;
+            this.dropped = dropped;
+            this.failed = failed;
+        }
+
+        public Stats(StreamInput in) throws IOException {
+            queued = in.readVInt();
+            written = in.readVLong();
+            dropped = in.readVLong();
+            failed = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVInt(queued);
+            out.writeVLong(written);
+            out.writeVLong(dropped);
+            out.writeVLong(failed);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            return builder.startObject()
+                    .field("queued", queued)
+                    .field("written", written)
+                    .field("dropped", dropped)
+                    .field("failed", failed)
+                    .endObject();
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getWritten() {
+            return written;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+    }
+}
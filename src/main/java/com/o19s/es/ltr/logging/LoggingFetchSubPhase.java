@@ -17,9 +17,12 @@
 package com.o19s.es.ltr.logging;
 
 import com.o19s.es.ltr.feature.FeatureSet;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
+import com.o19s.es.ltr.feature.store.ParallelFeatureExecutor;
 import com.o19s.es.ltr.query.RankerQuery;
 import com.o19s.es.ltr.ranker.LogLtrRanker;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
@@ -27,16 +30,20 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Weight;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.fetch.FetchPhaseExecutionException;
 import org.elasticsearch.search.fetch.FetchSubPhase;
 import org.elasticsearch.search.internal.SearchContext;
 import org.elasticsearch.search.rescore.QueryRescorer;
 import org.elasticsearch.search.rescore.RescoreContext;
+import org.elasticsearch.tasks.TaskId;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -45,40 +52,209 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class LoggingFetchSubPhase implements FetchSubPhase {
+    public static final String LOG_FIELD = "_ltrlog";
+    public static final String COMPACT_NAMES = "names";
+    public static final String COMPACT_VALUES = "values";
+    public static final String COMPACT_MISSING = "missing";
+
+    private final LtrNodeServices services;
+
+    public LoggingFetchSubPhase(LtrNodeServices services) {
+        this.services = services;
+    }
+
     @Override
     public void hitsExecute(SearchContext context, SearchHit[] hits) throws IOException {
         LoggingSearchExtBuilder ext = (LoggingSearchExtBuilder) context.getSearchExt(LoggingSearchExtBuilder.NAME);
         if (ext == null) {
             return;
         }
+        FeatureLogSink sink = null;
+        if (ext.getSink() != null) {
+            sink = services.getFeatureLogSink();
+            if (sink == null || !FeatureLogSink.sampled(parentTask(context), ext.getSink().getRate())) {
+                return;
+            }
+        }
 
-        // Use a boolean query with all the models to log
-        // This way we reuse existing code to advance through multiple scorers/iterators
-        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        List<RankerQuery> queries = new ArrayList<>();
         List<HitLogConsumer> loggers = new ArrayList<>();
         Map<String, Query> namedQueries = context.parsedQuery().namedFilters();
         ext.logSpecsStream().filter((l) -> l.getNamedQuery() != null).forEach((l) -> {
             Tuple<RankerQuery, HitLogConsumer> query = extractQuery(l, namedQueries);
-            builder.add(new BooleanClause(query.v1(), BooleanClause.Occur.MUST));
+            queries.add(query.v1());
             loggers.add(query.v2());
         });
 
         ext.logSpecsStream().filter((l) -> l.getRescoreIndex() != null).forEach((l) -> {
             Tuple<RankerQuery, HitLogConsumer> query = extractRescore(l, context.rescore());
-            builder.add(new BooleanClause(query.v1(), BooleanClause.Occur.MUST));
+            queries.add(query.v1());
             loggers.add(query.v2());
         });
 
+        if (sink != null) {
+            // log detached copies of the top hits, the response is left untouched
+            SearchHit[] topHits = new SearchHit[Math.min(hits.length, ext.getSink().getTopN())];
+            for (int i = 0; i < topHits.length; i++) {
+                topHits[i] = new SearchHit(hits[i].docId(), hits[i].getId(), null, null);
+            }
+            hits = topHits;
+        }
+        // the profiled weights are not thread safe
+        ParallelFeatureExecutor executor = context.getProfilers() == null ? services.getFeatureExecutor() : null;
         try {
-            doLog(builder.build(), loggers, context.searcher(), hits);
+            doLog(executor, queries, loggers, context.searcher(), hits);
         } catch (LtrLoggingException e) {
             throw new FetchPhaseExecutionException(context, e.getMessage(), e);
         }
+        if (sink != null) {
+            offer(sink, context, hits);
+        }
+    }
+
+    private static TaskId parentTask(SearchContext context) {
+        return context.getTask() != null ? context.getTask().getParentTaskId() : null;
+    }
+
+    private static void offer(FeatureLogSink sink, SearchContext context, SearchHit[] hits) {
+        long now = System.currentTimeMillis();
+        TaskId parent = parentTask(context);
+        String request = parent != null && parent.isSet() ? parent.toString() : null;
+        ShardId shardId = context.indexShard().shardId();
+        for (int i = 0; i < hits.length; i++) {
+            Map<String, Object> log = hits[i].getFields().get(LOG_FIELD).getValue();
+            if (!sink.offer(new FeatureLogSink.Entry(now, request, shardId.getIndexName(), shardId.id(), i,
+                    hits[i].getId(), log))) {
+                // full, the next hits would be dropped as well
+                return;
+            }
+        }
+    }
+
+    /**
+     * Log the hits, the segments with enough hits are logged concurrently when parallel logging
+     * is enabled (see {@link ParallelFeatureExecutor}) and all the feature queries can be built again
+     * (see {@link RankerQuery#withOwnSearchLookup()}).
+     * Each chunk of hits is logged with its own copy of the loggers.
+     *
+     * @param executor the executor of the node, null to log sequentially
+     */
+    void doLog(@Nullable ParallelFeatureExecutor executor, List<RankerQuery> queries, List<HitLogConsumer> loggers,
+               IndexSearcher searcher, SearchHit[] hits) throws IOException {
+        List<List<SearchHit>> chunks = executor == null || !queries.stream().allMatch(RankerQuery::canRebuild) ?
+                Collections.emptyList() :
+                chunks(searcher.getTopReaderContext().leaves(), hits, executor.logMinHitsPerLeaf(), executor.logParallelism());
+        if (chunks.size() <= 1) {
+            doLog(toBooleanQuery(queries), loggers, searcher, hits);
+        } else {
+            doLog(executor, queries, loggers, searcher, chunks);
+        }
+    }
+
+    /**
+     * Log the chunks of hits concurrently.
+     * The feature queries of the chunks are built again so that their scripts do not share a search lookup,
+     * the first chunk uses the original queries. The weights are created on the calling thread: the searcher of
+     * the search context is not thread safe, the chunks only share the leaves of its reader.
+     */
+    void doLog(@Nullable ParallelFeatureExecutor executor, List<RankerQuery> queries, List<HitLogConsumer> loggers,
+               IndexSearcher searcher, List<List<SearchHit>> chunks) throws IOException {
+        List<Weight> weights = new ArrayList<>(chunks.size());
+        List<List<HitLogConsumer>> chunkLoggers = new ArrayList<>(chunks.size());
+        for (int c = 0; c < chunks.size(); c++) {
+            List<RankerQuery> chunkQueries = new ArrayList<>(queries.size());
+            List<HitLogConsumer> copies = new ArrayList<>(loggers.size());
+            for (int i = 0; i < queries.size(); i++) {
+                RankerQuery query = queries.get(i);
+                if (c > 0 && query.canRebuild()) {
+                    query = query.withOwnSearchLookup();
+                }
+                HitLogConsumer copy = loggers.get(i).copy();
+                chunkQueries.add(query.toLoggerQuery(copy, true));
+                copies.add(copy);
+            }
+            weights.add(searcher.createNormalizedWeight(toBooleanQuery(chunkQueries), true));
+            chunkLoggers.add(copies);
+        }
+        List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+        try {
+            ParallelFeatureExecutor.log(executor, chunks.size(), (c) -> {
+                List<SearchHit> chunk = chunks.get(c);
+                try {
+                    doLog(weights.get(c), chunkLoggers.get(c), leaves, chunk.toArray(new SearchHit[chunk.size()]));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Use a boolean query with all the models to log
+     * This way we reuse existing code to advance through multiple scorers/iterators
+     */
+    private static Query toBooleanQuery(List<RankerQuery> queries) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (RankerQuery query : queries) {
+            builder.add(new BooleanClause(query, BooleanClause.Occur.MUST));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Split the hits in at most maxChunks chunks: the hits of a segment with at least minHitsPerLeaf hits
+     * are logged together, the hits of the other segments are grouped. The largest groups are spread first
+     * on the least loaded chunks.
+     */
+    static List<List<SearchHit>> chunks(List<LeafReaderContext> leaves, SearchHit[] hits, int minHitsPerLeaf, int maxChunks) {
+        if (maxChunks <= 1 || hits.length < 2 * minHitsPerLeaf) {
+            return Collections.singletonList(Arrays.asList(hits));
+        }
+        List<List<SearchHit>> perLeaf = new ArrayList<>(leaves.size());
+        for (int i = 0; i < leaves.size(); i++) {
+            perLeaf.add(new ArrayList<>());
+        }
+        for (SearchHit hit : hits) {
+            perLeaf.get(ReaderUtil.subIndex(hit.docId(), leaves)).add(hit);
+        }
+        List<List<SearchHit>> groups = new ArrayList<>();
+        List<SearchHit> small = new ArrayList<>();
+        for (List<SearchHit> leafHits : perLeaf) {
+            if (leafHits.size() >= minHitsPerLeaf) {
+                groups.add(leafHits);
+            } else {
+                small.addAll(leafHits);
+            }
+        }
+        if (!small.isEmpty()) {
+            groups.add(small);
+        }
+        if (groups.size() <= 1) {
+            return Collections.singletonList(Arrays.asList(hits));
+        }
+        groups.sort(Comparator.comparingInt((List<SearchHit> g) -> g.size()).reversed());
+        int nChunks = Math.min(maxChunks, groups.size());
+        List<List<SearchHit>> chunks = new ArrayList<>(nChunks);
+        for (int i = 0; i < nChunks; i++) {
+            chunks.add(new ArrayList<>());
+        }
+        for (List<SearchHit> group : groups) {
+            chunks.stream().min(Comparator.comparingInt(List::size)).get().addAll(group);
+        }
+        return chunks;
     }
 
     void doLog(Query query, List<HitLogConsumer> loggers, IndexSearcher searcher, SearchHit[] hits) throws IOException {
+        doLog(searcher.createNormalizedWeight(query, true), loggers, searcher.getTopReaderContext().leaves(), hits);
+    }
+
+    private static void doLog(Weight weight, List<HitLogConsumer> loggers, List<LeafReaderContext> leaves,
+                              SearchHit[] hits) throws IOException {
         // Reorder hits by id so we can scan all the docs belonging to the same
         // segment by reusing the same scorer.
         SearchHit[] reordered = new SearchHit[hits.length];
@@ -90,7 +266,6 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
         int endDoc = 0;
         int docBase = 0;
         Scorer scorer = null;
-        Weight weight = searcher.createNormalizedWeight(query, true);
         // Loop logic borrowed from lucene QueryRescorer
         while (hitUpto < reordered.length) {
             SearchHit hit = reordered[hitUpto];
@@ -99,7 +274,7 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
             LeafReaderContext readerContext = null;
             while (docID >= endDoc) {
                 readerUpto++;
-                readerContext = searcher.getTopReaderContext().leaves().get(readerUpto);
+                readerContext = leaves.get(readerUpto);
                 endDoc = readerContext.docBase + readerContext.reader().maxDoc();
             }
 
@@ -166,7 +341,11 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
     }
 
     private Tuple<RankerQuery, HitLogConsumer> toLogger(LoggingSearchExtBuilder.LogSpec logSpec, RankerQuery query) {
-        HitLogConsumer consumer = new HitLogConsumer(logSpec.getLoggerName(), query.featureSet(), logSpec.isMissingAsZero());
+        HitLogConsumer consumer = new HitLogConsumer(logSpec.getLoggerName(), query.featureSet(), logSpec.isMissingAsZero(),
+                logSpec.isCompact());
+        if (logSpec.getActiveFeatures() != null) {
+            query = query.withActiveFeatures(query.featureSet().activeFeatures(logSpec.getActiveFeatures()));
+        }
         // Use a null ranker, we don't care about the final score here so don't spend time on it.
         query = query.toLoggerQuery(consumer, true);
 
@@ -174,10 +353,12 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
     }
 
     static class HitLogConsumer implements LogLtrRanker.LogConsumer {
-        private static final String FIELD_NAME = "_ltrlog";
         private final String name;
         private final FeatureSet set;
         private final boolean missingAsZero;
+        private final boolean compact;
+        // feature names of the compact format, written once for all the copies
+        private final AtomicReference<List<String>> header;
 
         // [
         //      {
@@ -189,13 +370,70 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
         //      }
         // ]
         private List<Map<String, Object>> currentLog;
+        // compact format:
+        // {
+        //      "names": ["featureName", "otherFeatureName"], (first hit logged only)
+        //      "values": [1.33, 0.0],
+        //      "missing": [2] (bitmap of the missing features, unless missing_as_zero is set)
+        // }
+        private float[] currentValues;
+        private long[] currentMissing;
         private SearchHit currentHit;
 
 
         HitLogConsumer(String name, FeatureSet set, boolean missingAsZero) {
+            this(name, set, missingAsZero, false);
+        }
+
+        HitLogConsumer(String name, FeatureSet set, boolean missingAsZero, boolean compact) {
             this.name = name;
             this.set = set;
             this.missingAsZero = missingAsZero;
+            this.compact = compact;
+            if (compact) {
+                List<String> names = new ArrayList<>(set.size());
+                for (int i = 0; i < set.size(); i++) {
+                    names.add(set.feature(i).name());
+                }
+                header = new AtomicReference<>(Collections.unmodifiableList(names));
+            } else {
+                header = null;
+            }
+        }
+
+        private HitLogConsumer(HitLogConsumer other) {
+            this.name = other.name;
+            this.set = other.set;
+            this.missingAsZero = other.missingAsZero;
+            this.compact = other.compact;
+            this.header = other.header;
+        }
+
+        /**
+         * A consumer logging other hits of the same shard
+         */
+        HitLogConsumer copy() {
+            return new HitLogConsumer(this);
+        }
+
+        private Map<String, Object> rebuildCompact() {
+            Map<String, Object> log = new HashMap<>();
+            currentValues = new float[set.size()];
+            log.put(COMPACT_VALUES, currentValues);
+            if (!missingAsZero) {
+                currentMissing = new long[(set.size() + Long.SIZE - 1) / Long.SIZE];
+                // all missing until logged
+                Arrays.fill(currentMissing, -1L);
+                if (set.size() % Long.SIZE != 0) {
+                    currentMissing[currentMissing.length - 1] = (1L << set.size()) - 1;
+                }
+                log.put(COMPACT_MISSING, currentMissing);
+            }
+            List<String> names = header != null ? header.getAndSet(null) : null;
+            if (names != null) {
+                log.put(COMPACT_NAMES, names);
+            }
+            return log;
         }
 
         private void rebuild() {
@@ -214,13 +452,20 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
 
         @Override
         public void accept(int featureOrdinal, float score) {
-            assert currentLog != null;
+            assert compact ? currentValues != null : currentLog != null;
             assert currentHit != null;
             if (Float.isNaN(score)) {
                 // NOTE: should we fail on Float#isInfinite() as well?
                 throw new LtrLoggingException("Feature [" + set.feature(featureOrdinal).name() +"] produced a NaN value " +
                         "for doc [" + currentHit.getId() + "]" );
             }
+            if (compact) {
+                currentValues[featureOrdinal] = score;
+                if (currentMissing != null) {
+                    currentMissing[featureOrdinal / Long.SIZE] &= ~(1L << featureOrdinal);
+                }
+                return;
+            }
             currentLog.get(featureOrdinal).put("value", score);
         }
 
@@ -229,16 +474,20 @@ public class LoggingFetchSubPhase implements FetchSubPhase {
                 hit.fields(new HashMap<>());
             }
             DocumentField logs = hit.getFields()
-                    .computeIfAbsent(FIELD_NAME,(k) -> newLogField());
-            Map<String, List<Map<String, Object>>> entries = logs.getValue();
-            rebuild();
+                    .computeIfAbsent(LOG_FIELD,(k) -> newLogField());
+            Map<String, Object> entries = logs.getValue();
             currentHit = hit;
+            if (compact) {
+                entries.put(name, rebuildCompact());
+                return;
+            }
+            rebuild();
             entries.put(name, currentLog);
         }
 
         DocumentField newLogField() {
-            List<Object> logList = Collections.singletonList(new HashMap<String, List<Map<String, Object>>>());
-            return new DocumentField(FIELD_NAME, logList);
+            List<Object> logList = Collections.singletonList(new HashMap<String, Object>());
+            return new DocumentField(LOG_FIELD, logList);
         }
     }
 }
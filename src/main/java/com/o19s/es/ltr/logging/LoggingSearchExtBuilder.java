@@ -30,6 +30,7 @@ import org.elasticsearch.search.SearchExtBuilder;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Stream;
@@ -39,22 +40,27 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
 
     private static final ObjectParser<LoggingSearchExtBuilder, Void> PARSER;
     private static ParseField LOG_SPECS = new ParseField("log_specs");
+    private static ParseField SINK = new ParseField("sink");
 
     static {
         PARSER = new ObjectParser<>(NAME, LoggingSearchExtBuilder::new);
         PARSER.declareObjectArray(LoggingSearchExtBuilder::setLogSpecs, LogSpec::parse, LOG_SPECS);
+        PARSER.declareObject(LoggingSearchExtBuilder::setSink, Sink::parse, SINK);
     }
     private List<LogSpec> logSpecs;
+    private Sink sink;
 
     public LoggingSearchExtBuilder() {}
 
     public LoggingSearchExtBuilder(StreamInput input) throws IOException {
         logSpecs = input.readList(LogSpec::new);
+        sink = input.readOptionalWriteable(Sink::new);
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         out.writeList(logSpecs);
+        out.writeOptionalWriteable(sink);
     }
 
     @Override
@@ -79,6 +85,9 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
         builder.startObject();
         builder.field(LOG_SPECS.getPreferredName(), logSpecs);
+        if (sink != null) {
+            builder.field(SINK.getPreferredName(), sink);
+        }
         return builder.endObject();
     }
 
@@ -90,13 +99,62 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
         this.logSpecs = logSpecs;
     }
 
+    /**
+     * Send the logs of a sample of the requests to the {@link FeatureLogSink} of the nodes instead of the response,
+     * null if the logs are returned with the hits
+     */
+    @Nullable
+    public Sink getSink() {
+        return sink;
+    }
+
+    private void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Log the top topN hits of each shard for a rate fraction of the requests to the {@link FeatureLogSink}
+     */
+    public LoggingSearchExtBuilder setSink(double rate, int topN) {
+        this.sink = new Sink(rate, topN);
+        return this;
+    }
+
     public LoggingSearchExtBuilder addQueryLogging(String name, String namedQuery, boolean missingAsZero) {
-        addLogSpec(new LogSpec(name, Objects.requireNonNull(namedQuery), missingAsZero));
+        return addQueryLogging(name, namedQuery, missingAsZero, false);
+    }
+
+    public LoggingSearchExtBuilder addQueryLogging(String name, String namedQuery, boolean missingAsZero, boolean compact) {
+        return addQueryLogging(name, namedQuery, missingAsZero, compact, null);
+    }
+
+    /**
+     * @param activeFeatures names or patterns of the features to log, null to log all the features
+     */
+    public LoggingSearchExtBuilder addQueryLogging(String name, String namedQuery, boolean missingAsZero, boolean compact,
+                                                   @Nullable List<String> activeFeatures) {
+        LogSpec spec = new LogSpec(name, Objects.requireNonNull(namedQuery), missingAsZero, compact);
+        spec.setActiveFeatures(activeFeatures);
+        addLogSpec(spec);
         return this;
     }
 
     public LoggingSearchExtBuilder addRescoreLogging(String name, int rescoreIndex, boolean missingAsZero) {
-        addLogSpec(new LogSpec(name, rescoreIndex, missingAsZero));
+        return addRescoreLogging(name, rescoreIndex, missingAsZero, false);
+    }
+
+    public LoggingSearchExtBuilder addRescoreLogging(String name, int rescoreIndex, boolean missingAsZero, boolean compact) {
+        return addRescoreLogging(name, rescoreIndex, missingAsZero, compact, null);
+    }
+
+    /**
+     * @param activeFeatures names or patterns of the features to log, null to log all the features
+     */
+    public LoggingSearchExtBuilder addRescoreLogging(String name, int rescoreIndex, boolean missingAsZero, boolean compact,
+                                                     @Nullable List<String> activeFeatures) {
+        LogSpec spec = new LogSpec(name, rescoreIndex, missingAsZero, compact);
+        spec.setActiveFeatures(activeFeatures);
+        addLogSpec(spec);
         return this;
     }
 
@@ -109,7 +167,7 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
 
     @Override
     public int hashCode() {
-        return Objects.hash(this.getClass(), logSpecs);
+        return Objects.hash(this.getClass(), logSpecs, sink);
     }
 
     @Override
@@ -121,7 +179,104 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             return false;
         }
         LoggingSearchExtBuilder o = (LoggingSearchExtBuilder) obj;
-        return Objects.equals(logSpecs, o.logSpecs);
+        return Objects.equals(logSpecs, o.logSpecs) && Objects.equals(sink, o.sink);
+    }
+
+    public static class Sink implements Writeable, ToXContentObject {
+        public static final int DEFAULT_TOP_N = 10;
+        private static final ParseField RATE = new ParseField("rate");
+        private static final ParseField TOP_N = new ParseField("top_n");
+
+        private static final ObjectParser<Sink, Void> PARSER;
+
+        static {
+            PARSER = new ObjectParser<>("sink", Sink::new);
+            PARSER.declareDouble(Sink::setRate, RATE);
+            PARSER.declareInt(Sink::setTopN, TOP_N);
+        }
+        private double rate = 1D;
+        private int topN = DEFAULT_TOP_N;
+
+        private Sink() {}
+
+        Sink(double rate, int topN) {
+            this.rate = rate;
+            this.topN = topN;
+            validate();
+        }
+
+        private Sink(StreamInput input) throws IOException {
+            rate = input.readDouble();
+            topN = input.readVInt();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeDouble(rate);
+            out.writeVInt(topN);
+        }
+
+        private static Sink parse(XContentParser parser, Void context) throws IOException {
+            try {
+                Sink sink = PARSER.parse(parser, null);
+                sink.validate();
+                return sink;
+            } catch (IllegalArgumentException iae) {
+                throw new ParsingException(parser.getTokenLocation(), iae.getMessage(), iae);
+            }
+        }
+
+        private void validate() {
+            if (!(rate > 0D && rate <= 1D)) {
+                throw new IllegalArgumentException("[" + RATE + "] must be in (0, 1]");
+            }
+            if (topN <= 0) {
+                throw new IllegalArgumentException("[" + TOP_N + "] must be a positive integer");
+            }
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            return builder.startObject()
+                    .field(RATE.getPreferredName(), rate)
+                    .field(TOP_N.getPreferredName(), topN)
+                    .endObject();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Sink sink = (Sink) o;
+            return Double.compare(sink.rate, rate) == 0 && topN == sink.topN;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rate, topN);
+        }
+
+        /**
+         * Fraction of the requests being logged
+         */
+        public double getRate() {
+            return rate;
+        }
+
+        private void setRate(double rate) {
+            this.rate = rate;
+        }
+
+        /**
+         * Number of hits logged per shard, the first hits fetched by the shard
+         */
+        public int getTopN() {
+            return topN;
+        }
+
+        private void setTopN(int topN) {
+            this.topN = topN;
+        }
     }
 
     public static class LogSpec implements Writeable, ToXContentObject {
@@ -129,6 +284,8 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
         private static final ParseField NAMED_QUERY = new ParseField("named_query");
         private static final ParseField RESCORE_INDEX = new ParseField("rescore_index");
         private static final ParseField MISSING_AS_ZERO = new ParseField("missing_as_zero");
+        private static final ParseField COMPACT = new ParseField("compact");
+        private static final ParseField ACTIVE_FEATURES = new ParseField("active_features");
 
         private static final ObjectParser<LogSpec, Void> PARSER;
 
@@ -138,24 +295,30 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             PARSER.declareString(LogSpec::setNamedQuery, NAMED_QUERY);
             PARSER.declareInt(LogSpec::setRescoreIndex, RESCORE_INDEX);
             PARSER.declareBoolean(LogSpec::setMissingAsZero, MISSING_AS_ZERO);
+            PARSER.declareBoolean(LogSpec::setCompact, COMPACT);
+            PARSER.declareStringArray(LogSpec::setActiveFeatures, ACTIVE_FEATURES);
         }
         private String loggerName;
         private String namedQuery;
         private Integer rescoreIndex;
         private boolean missingAsZero;
+        private boolean compact;
+        private List<String> activeFeatures;
 
         private LogSpec() {}
 
-        LogSpec(@Nullable String loggerName, String namedQuery, boolean missingAsZero) {
+        LogSpec(@Nullable String loggerName, String namedQuery, boolean missingAsZero, boolean compact) {
             this.loggerName = loggerName;
             this.namedQuery = Objects.requireNonNull(namedQuery);
             this.missingAsZero = missingAsZero;
+            this.compact = compact;
         }
 
-        LogSpec(@Nullable String loggerName, int rescoreIndex, boolean missingAsZero) {
+        LogSpec(@Nullable String loggerName, int rescoreIndex, boolean missingAsZero, boolean compact) {
             this.loggerName = loggerName;
             this.rescoreIndex = rescoreIndex;
             this.missingAsZero = missingAsZero;
+            this.compact = compact;
         }
 
         private LogSpec(StreamInput input) throws IOException {
@@ -163,6 +326,9 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             namedQuery = input.readOptionalString();
             rescoreIndex = input.readOptionalVInt();
             missingAsZero = input.readBoolean();
+            compact = input.readBoolean();
+            String[] active = input.readOptionalStringArray();
+            activeFeatures = active != null ? Arrays.asList(active) : null;
         }
 
         @Override
@@ -171,6 +337,8 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             out.writeOptionalString(namedQuery);
             out.writeOptionalVInt(rescoreIndex);
             out.writeBoolean(missingAsZero);
+            out.writeBoolean(compact);
+            out.writeOptionalStringArray(activeFeatures != null ? activeFeatures.toArray(new String[activeFeatures.size()]) : null);
         }
 
         private static LogSpec parse(XContentParser parser, Void context) throws IOException {
@@ -183,6 +351,9 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
                 if (spec.rescoreIndex != null && spec.rescoreIndex < 0) {
                     throw new ParsingException(parser.getTokenLocation(), "[" + RESCORE_INDEX + "] must be a non-negative integer.");
                 }
+                if (spec.activeFeatures != null && spec.activeFeatures.isEmpty()) {
+                    throw new ParsingException(parser.getTokenLocation(), "[" + ACTIVE_FEATURES + "] must not be empty.");
+                }
                 return spec;
             } catch (IllegalArgumentException iae) {
                 throw new ParsingException(parser.getTokenLocation(), iae.getMessage(), iae);
@@ -203,6 +374,12 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             if (missingAsZero) {
                 builder.field(MISSING_AS_ZERO.getPreferredName(), missingAsZero);
             }
+            if (compact) {
+                builder.field(COMPACT.getPreferredName(), compact);
+            }
+            if (activeFeatures != null) {
+                builder.field(ACTIVE_FEATURES.getPreferredName(), activeFeatures);
+            }
             return builder.endObject();
         }
 
@@ -214,6 +391,8 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             LogSpec logSpec = (LogSpec) o;
 
             if (missingAsZero != logSpec.missingAsZero) return false;
+            if (compact != logSpec.compact) return false;
+            if (!Objects.equals(activeFeatures, logSpec.activeFeatures)) return false;
             if (loggerName != null ? !loggerName.equals(logSpec.loggerName) : logSpec.loggerName != null) return false;
             if (namedQuery != null ? !namedQuery.equals(logSpec.namedQuery) : logSpec.namedQuery != null) return false;
             return rescoreIndex != null ? rescoreIndex.equals(logSpec.rescoreIndex) : logSpec.rescoreIndex == null;
@@ -225,6 +404,8 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
             result = 31 * result + (namedQuery != null ? namedQuery.hashCode() : 0);
             result = 31 * result + (rescoreIndex != null ? rescoreIndex.hashCode() : 0);
             result = 31 * result + (missingAsZero ? 1 : 0);
+            result = 31 * result + (compact ? 1 : 0);
+            result = 31 * result + Objects.hashCode(activeFeatures);
             return result;
         }
 
@@ -262,5 +443,29 @@ public class LoggingSearchExtBuilder extends SearchExtBuilder {
         private void setMissingAsZero(boolean missingAsZero) {
             this.missingAsZero = missingAsZero;
         }
+
+        /**
+         * Log the feature values of each hit in an array, the feature names are not repeated for every hit
+         */
+        public boolean isCompact() {
+            return compact;
+        }
+
+        private void setCompact(boolean compact) {
+            this.compact = compact;
+        }
+
+        /**
+         * Names or simple wildcard patterns of the features to log, null to log all the features of the query.
+         * The other features are not computed and logged as missing.
+         */
+        @Nullable
+        public List<String> getActiveFeatures() {
+            return activeFeatures;
+        }
+
+        private void setActiveFeatures(List<String> activeFeatures) {
+            this.activeFeatures = activeFeatures;
+        }
     }
 }
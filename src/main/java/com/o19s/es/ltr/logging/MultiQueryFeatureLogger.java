@@ -0,0 +1,164 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.logging;
+
+import com.o19s.es.ltr.query.RankerQuery;
+import com.o19s.es.ltr.ranker.LogLtrRanker;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+import org.elasticsearch.index.fieldvisitor.FieldsVisitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Logs the features of several queries in a single pass over the segments of a shard.
+ * The weights of all the queries are created up front, then each segment is visited once
+ * and the docs of every query in that segment are scored in docID order.
+ * Missing features are logged as 0.
+ */
+public class MultiQueryFeatureLogger implements LogLtrRanker.LogConsumer {
+    private final List<RankerQuery> queries = new ArrayList<>();
+    private final List<int[]> docs = new ArrayList<>();
+    private RankerQuery currentQuery;
+    private int currentDoc;
+    private float[] currentValues;
+
+    /**
+     * Add a query to log
+     *
+     * @param query a query logging to this consumer, see {@link RankerQuery#buildLogQuery}
+     * @param docs the docIDs (relative to the top reader) to log, sorted
+     */
+    public void add(RankerQuery query, int[] docs) {
+        assert isSorted(docs);
+        queries.add(query);
+        this.docs.add(docs);
+    }
+
+    /**
+     * Log the features of the queries in the order they were added
+     *
+     * @return the features of each query, indexed like its docs
+     */
+    public List<float[][]> log(IndexSearcher searcher) throws IOException {
+        List<Weight> weights = new ArrayList<>(queries.size());
+        List<float[][]> values = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            weights.add(searcher.createNormalizedWeight(queries.get(i), true));
+            values.add(new float[docs.get(i).length][]);
+        }
+        int[] upTo = new int[queries.size()];
+        for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+            int endDoc = leaf.docBase + leaf.reader().maxDoc();
+            for (int i = 0; i < queries.size(); i++) {
+                int[] queryDocs = docs.get(i);
+                if (upTo[i] == queryDocs.length || queryDocs[upTo[i]] >= endDoc) {
+                    continue;
+                }
+                currentQuery = queries.get(i);
+                Scorer scorer = weights.get(i).scorer(leaf);
+                for (; upTo[i] < queryDocs.length && queryDocs[upTo[i]] < endDoc; upTo[i]++) {
+                    currentDoc = queryDocs[upTo[i]];
+                    currentValues = new float[currentQuery.featureSet().size()];
+                    values.get(i)[upTo[i]] = currentValues;
+                    if (scorer == null) {
+                        continue;
+                    }
+                    int targetDoc = currentDoc - leaf.docBase;
+                    int actualDoc = scorer.docID();
+                    if (actualDoc < targetDoc) {
+                        actualDoc = scorer.iterator().advance(targetDoc);
+                    }
+                    if (actualDoc == targetDoc) {
+                        // Scoring will trigger log collection
+                        scorer.score();
+                    }
+                }
+            }
+        }
+        currentQuery = null;
+        currentValues = null;
+        return values;
+    }
+
+    @Override
+    public void accept(int featureOrdinal, float score) {
+        assert currentValues != null;
+        if (Float.isNaN(score)) {
+            throw new LtrLoggingException("Feature [" + currentQuery.featureSet().feature(featureOrdinal).name()
+                    + "] produced a NaN value for doc [" + currentDoc + "]");
+        }
+        currentValues[featureOrdinal] = score;
+    }
+
+    /**
+     * Map the ids of the live docs matching the query to their docIDs (relative to the top reader)
+     */
+    public static Map<String, Integer> docIds(IndexSearcher searcher, Query idsQuery) throws IOException {
+        Map<String, Integer> docIds = new HashMap<>();
+        Weight weight = searcher.createNormalizedWeight(idsQuery, false);
+        for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+            Scorer scorer = weight.scorer(leaf);
+            if (scorer == null) {
+                continue;
+            }
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            DocIdSetIterator iterator = scorer.iterator();
+            for (int doc = iterator.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iterator.nextDoc()) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                IdVisitor visitor = new IdVisitor();
+                leaf.reader().document(doc, visitor);
+                docIds.put(visitor.id(), leaf.docBase + doc);
+            }
+        }
+        return docIds;
+    }
+
+    /**
+     * Reads the id of the doc from _id (or _uid for indices created before 6.0)
+     */
+    private static class IdVisitor extends FieldsVisitor {
+        IdVisitor() {
+            super(false);
+        }
+
+        String id() {
+            return id;
+        }
+    }
+
+    private static boolean isSorted(int[] docs) {
+        for (int i = 1; i < docs.length; i++) {
+            if (docs[i - 1] > docs[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.query;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.AttributeSource;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.mapper.MappedFieldType;
+import org.elasticsearch.index.mapper.ObjectMapper;
+import org.elasticsearch.index.query.QueryShardContext;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Memoizes the analysis of the query text while the queries of the features of a single
+ * {@link RankerQuery} are built: features querying several fields that share the same search
+ * analyzer with the same text analyze it only once.
+ * The tokens are cached by (analyzer, text), or by (analyzer, field, text) for the analyzers that
+ * may depend on the field (the per field wrappers of the mapper service).
+ *
+ * Analyzers are intercepted through a copy of the shard context whose search analyzers are wrapped,
+ * the named queries and the cachability of the copy are reported back to the original context.
+ * Features requiring an unmapped field policy set by the caller (percolator) are not supported.
+ */
+class AnalysisCache {
+    private final Map<Analyzer, CachingAnalyzer> analyzers = new IdentityHashMap<>();
+    private final Map<Key, CachedTokens> tokens = new HashMap<>();
+
+    /**
+     * Build the feature queries with a context sharing the analysis of identical texts
+     */
+    static List<Query> withCache(QueryShardContext context, Function<QueryShardContext, List<Query>> builder) {
+        if (context == null) {
+            return builder.apply(null);
+        }
+        AnalysisCache cache = new AnalysisCache();
+        CachingContext cachingContext = new CachingContext(context, cache);
+        List<Query> queries = builder.apply(cachingContext);
+        cachingContext.copyStateTo(context);
+        return queries;
+    }
+
+    Analyzer wrap(Analyzer analyzer) {
+        // the keyword analyzer is special cased by the match queries, they compare it by identity
+        if (analyzer == null || analyzer == Lucene.KEYWORD_ANALYZER || analyzer instanceof CachingAnalyzer) {
+            return analyzer;
+        }
+        return analyzers.computeIfAbsent(analyzer, CachingAnalyzer::new);
+    }
+
+    int size() {
+        return tokens.size();
+    }
+
+    private static class CachingContext extends QueryShardContext {
+        private final AnalysisCache cache;
+
+        CachingContext(QueryShardContext source, AnalysisCache cache) {
+            super(source);
+            this.cache = cache;
+            setIsFilter(source.isFilter());
+            ObjectMapper nested = source.nestedScope().getObjectMapper();
+            if (nested != null) {
+                nestedScope().nextLevel(nested);
+            }
+        }
+
+        @Override
+        public Analyzer getSearchAnalyzer(MappedFieldType fieldType) {
+            return cache.wrap(super.getSearchAnalyzer(fieldType));
+        }
+
+        @Override
+        public Analyzer getSearchQuoteAnalyzer(MappedFieldType fieldType) {
+            return cache.wrap(super.getSearchQuoteAnalyzer(fieldType));
+        }
+
+        void copyStateTo(QueryShardContext context) {
+            copyNamedQueries().forEach(context::addNamedQuery);
+            if (!isCachable()) {
+                // marks the original context as not cachable (or fails if it is frozen, like this copy would have)
+                context.nowInMillis();
+            }
+        }
+    }
+
+    private class CachingAnalyzer extends AnalyzerWrapper {
+        private final Analyzer delegate;
+        private final boolean perField;
+        // text being analyzed for each field, captured when the reader is set
+        private final Map<String, String> pendingTexts = new HashMap<>();
+
+        CachingAnalyzer(Analyzer delegate) {
+            super(PER_FIELD_REUSE_STRATEGY);
+            this.delegate = delegate;
+            this.perField = !(delegate instanceof NamedAnalyzer);
+        }
+
+        @Override
+        protected Analyzer getWrappedAnalyzer(String fieldName) {
+            return delegate;
+        }
+
+        @Override
+        protected Reader wrapReader(String fieldName, Reader reader) {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[256];
+            int read;
+            try {
+                while ((read = reader.read(buffer)) != -1) {
+                    text.append(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pendingTexts.put(fieldName, text.toString());
+            return new StringReader(text.toString());
+        }
+
+        @Override
+        protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+            return new TokenStreamComponents(components.getTokenizer(),
+                    new CachingTokenStream(this, fieldName, components.getTokenStream()));
+        }
+
+        String takePendingText(String fieldName) {
+            return pendingTexts.remove(fieldName);
+        }
+
+        @Override
+        public String toString() {
+            return "CachingAnalyzer(" + delegate + ")";
+        }
+    }
+
+    /**
+     * Replays the cached tokens, or consumes the analysis chain and caches its tokens
+     */
+    private class CachingTokenStream extends TokenFilter {
+        private final CachingAnalyzer analyzer;
+        private final String fieldName;
+        private CachedTokens current;
+        private int position;
+
+        CachingTokenStream(CachingAnalyzer analyzer, String fieldName, TokenStream input) {
+            super(input);
+            this.analyzer = analyzer;
+            this.fieldName = fieldName;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            String text = analyzer.takePendingText(fieldName);
+            Key key = text != null ? new Key(analyzer.delegate, analyzer.perField ? fieldName : null, text) : null;
+            current = key != null ? tokens.get(key) : null;
+            if (current == null) {
+                input.reset();
+                List<AttributeSource.State> states = new ArrayList<>();
+                while (input.incrementToken()) {
+                    states.add(captureState());
+                }
+                input.end();
+                current = new CachedTokens(states, captureState());
+                if (key != null) {
+                    tokens.put(key, current);
+                }
+            }
+            // the analysis chain is not reset when the tokens are replayed, its tokenizer is released by close()
+            position = 0;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (current == null || position >= current.states.size()) {
+                return false;
+            }
+            restoreState(current.states.get(position++));
+            return true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            if (current != null) {
+                restoreState(current.endState);
+            }
+        }
+    }
+
+    private static class CachedTokens {
+        private final List<AttributeSource.State> states;
+        private final AttributeSource.State endState;
+
+        CachedTokens(List<AttributeSource.State> states, AttributeSource.State endState) {
+            this.states = states;
+            this.endState = endState;
+        }
+    }
+
+    private static class Key {
+        private final Analyzer analyzer;
+        private final String field;
+        private final String text;
+
+        Key(Analyzer analyzer, String field, String text) {
+            this.analyzer = analyzer;
+            this.field = field;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return analyzer == key.analyzer && Objects.equals(field, key.field) && text.equals(key.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(analyzer) + Objects.hashCode(field)) + text.hashCode();
+        }
+    }
+}
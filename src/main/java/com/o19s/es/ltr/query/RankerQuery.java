@@ -35,10 +35,12 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Weight;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.index.query.QueryShardContext;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -57,11 +59,23 @@ public class RankerQuery extends Query {
     private final List<Query> queries;
     private final FeatureSet features;
     private final LtrRanker ranker;
+    // context, params and active features the queries were built with, null if not built from a shard context
+    private final QueryShardContext context;
+    private final Map<String, Object> params;
+    private final BitSet active;
 
     private RankerQuery(List<Query> queries, FeatureSet features, LtrRanker ranker) {
+        this(queries, features, ranker, null, null, null);
+    }
+
+    private RankerQuery(List<Query> queries, FeatureSet features, LtrRanker ranker,
+                        @Nullable QueryShardContext context, @Nullable Map<String, Object> params, @Nullable BitSet active) {
         this.queries = Objects.requireNonNull(queries);
         this.features = Objects.requireNonNull(features);
         this.ranker = Objects.requireNonNull(ranker);
+        this.context = context;
+        this.params = params;
+        this.active = active;
     }
 
     /**
@@ -72,7 +86,7 @@ public class RankerQuery extends Query {
      * @return the lucene query
      */
     public static RankerQuery build(PrebuiltLtrModel model) {
-        return build(model.ranker(), model.featureSet(), null, Collections.emptyMap());
+        return build(model.ranker(), model.featureSet(), null, Collections.emptyMap(), null);
     }
 
     /**
@@ -84,26 +98,85 @@ public class RankerQuery extends Query {
      * @return the lucene query
      */
     public static RankerQuery build(LtrModel model, QueryShardContext context, Map<String, Object> params) {
-        return build(model.ranker(), model.featureSet(), context, params);
+        return build(model.ranker(), model.featureSet(), context, params, null);
+    }
+
+    /**
+     * Build a RankerQuery computing the active features only, the other features are missing
+     *
+     * @param active ordinals of the active features (see {@link FeatureSet#activeFeatures(java.util.Collection)}),
+     *               null if all the features are active
+     */
+    public static RankerQuery build(LtrModel model, QueryShardContext context, Map<String, Object> params,
+                                    @Nullable BitSet active) {
+        return build(model.ranker(), model.featureSet(), context, params, active);
     }
 
-    private static RankerQuery build(LtrRanker ranker, FeatureSet features, QueryShardContext context, Map<String, Object> params) {
-        List<Query> queries = features.toQueries(context, params);
-        return new RankerQuery(queries, features, ranker);
+    private static RankerQuery build(LtrRanker ranker, FeatureSet features, QueryShardContext context, Map<String, Object> params,
+                                     BitSet active) {
+        List<Query> queries = toQueries(features, context, params, active);
+        return new RankerQuery(queries, features, ranker, context, params, active);
     }
 
     public static RankerQuery buildLogQuery(LogLtrRanker.LogConsumer consumer, FeatureSet features,
                                             QueryShardContext context, Map<String, Object> params) {
-        List<Query> queries = features.toQueries(context, params);
+        List<Query> queries = toQueries(features, context, params, null);
         return new RankerQuery(queries, features, new LogLtrRanker(consumer, features.size()));
     }
 
+    private static List<Query> toQueries(FeatureSet features, QueryShardContext context, Map<String, Object> params,
+                                         BitSet active) {
+        if (features.size() < 2) {
+            return features.toQueries(context, params, active);
+        }
+        // features often query the same text on several fields sharing an analyzer
+        return AnalysisCache.withCache(context, (ctx) -> features.toQueries(ctx, params, active));
+    }
+
+    /**
+     * A query computing the active features of this query only, the other features are missing
+     */
+    public RankerQuery withActiveFeatures(BitSet active) {
+        List<Query> activeQueries = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            activeQueries.add(active.get(i) ? queries.get(i) : FeatureSet.inactiveQuery());
+        }
+        BitSet newActive = active;
+        if (this.active != null) {
+            newActive = (BitSet) active.clone();
+            newActive.and(this.active);
+        }
+        return new RankerQuery(activeQueries, features, ranker, context, params, newActive);
+    }
+
     public RankerQuery toLoggerQuery(LogLtrRanker.LogConsumer consumer, boolean replaceWithNullRanker) {
         LtrRanker newRanker = ranker;
         if (replaceWithNullRanker && !(ranker instanceof NullRanker)) {
             newRanker = new NullRanker(features.size());
         }
-        return new RankerQuery(queries, features, new LogLtrRanker(newRanker, consumer));
+        return new RankerQuery(queries, features, new LogLtrRanker(newRanker, consumer), context, params, active);
+    }
+
+    /**
+     * Whether the feature queries can be built again, see {@link #withOwnSearchLookup()}
+     */
+    public boolean canRebuild() {
+        return context != null;
+    }
+
+    /**
+     * A copy of this query whose feature queries are built again on a copy of the shard context.
+     * The scripts of the features read the docs through the search lookup of the context they
+     * are built with, it is not thread safe: the copy can be scored concurrently with this query.
+     *
+     * @throws IllegalStateException if this query was not built from a shard context
+     */
+    public RankerQuery withOwnSearchLookup() {
+        if (context == null) {
+            throw new IllegalStateException("The feature queries of this query cannot be built again");
+        }
+        List<Query> rebuilt = toQueries(features, new QueryShardContext(context), params, active);
+        return new RankerQuery(rebuilt, features, ranker, context, params, active);
     }
 
     @Override
@@ -115,7 +188,7 @@ public class RankerQuery extends Query {
             rewritten |= rewrittenQuery != query;
             rewrittenQueries.add(rewrittenQuery);
         }
-        return rewritten ? new RankerQuery(rewrittenQueries, features, ranker) : this;
+        return rewritten ? new RankerQuery(rewrittenQueries, features, ranker, context, params, active) : this;
     }
 
     @Override
@@ -19,12 +19,16 @@ package com.o19s.es.ltr.query;
 import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.store.CompiledLtrModel;
 import com.o19s.es.ltr.feature.store.FeatureStore;
+import com.o19s.es.ltr.feature.store.file.FileFeatureStore;
 import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
 import com.o19s.es.ltr.ranker.linear.LinearRanker;
 import com.o19s.es.ltr.utils.FeatureStoreLoader;
 import com.o19s.es.ltr.utils.AbstractQueryBuilderUtils;
+import org.apache.lucene.util.SetOnce;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.common.ParseField;
 import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.io.stream.NamedWriteable;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
@@ -32,12 +36,17 @@ import org.elasticsearch.common.xcontent.ObjectParser;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.index.query.AbstractQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryRewriteContext;
 import org.elasticsearch.index.query.QueryShardContext;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * sltr query, build a ltr query based on a stored model.
@@ -48,6 +57,7 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
     public static final ParseField FEATURESET_NAME = new ParseField("featureset");
     public static final ParseField STORE_NAME = new ParseField("store");
     public static final ParseField PARAMS = new ParseField("params");
+    public static final ParseField ACTIVE_FEATURES = new ParseField("active_features");
     private static final ObjectParser<StoredLtrQueryBuilder, Void> PARSER;
 
     static {
@@ -57,6 +67,7 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
         PARSER.declareString(StoredLtrQueryBuilder::storeName, STORE_NAME);
         PARSER.declareField(StoredLtrQueryBuilder::params, XContentParser::map,
                 PARAMS, ObjectParser.ValueType.OBJECT);
+        PARSER.declareStringArray(StoredLtrQueryBuilder::activeFeatures, ACTIVE_FEATURES);
         AbstractQueryBuilderUtils.declareStandardFields(PARSER);
     }
 
@@ -68,9 +79,36 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
     private String featureSetName;
     private String storeName;
     private Map<String, Object> params;
+    /**
+     * Names or patterns of the features to compute, null to compute all the features.
+     */
+    private List<String> activeFeatures;
+    /**
+     * Version of the model resolved on the coordinating node, all the shards score with this version.
+     */
+    private Long modelVersion;
+    /**
+     * Name and version of the model being resolved on the coordinating node
+     */
+    private final transient Supplier<Tuple<String, Long>> modelVersionSupplier;
 
     public StoredLtrQueryBuilder(FeatureStoreLoader storeLoader) {
         this.storeLoader = storeLoader;
+        this.modelVersionSupplier = null;
+    }
+
+    private StoredLtrQueryBuilder(StoredLtrQueryBuilder other, String modelName, Long modelVersion,
+                                  Supplier<Tuple<String, Long>> modelVersionSupplier) {
+        this.storeLoader = other.storeLoader;
+        this.modelName = modelName;
+        this.featureSetName = other.featureSetName;
+        this.storeName = other.storeName;
+        this.params = other.params;
+        this.activeFeatures = other.activeFeatures;
+        this.modelVersion = modelVersion;
+        this.modelVersionSupplier = modelVersionSupplier;
+        this.boost(other.boost());
+        this.queryName(other.queryName());
     }
 
 
@@ -81,6 +119,10 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
         featureSetName = input.readOptionalString();
         params = input.readMap();
         storeName = input.readOptionalString();
+        modelVersion = input.readOptionalLong();
+        String[] active = input.readOptionalStringArray();
+        activeFeatures = active != null ? Arrays.asList(active) : null;
+        modelVersionSupplier = null;
     }
 
     public static StoredLtrQueryBuilder fromXContent(FeatureStoreLoader storeLoader,
@@ -98,15 +140,23 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
         if (builder.params() == null) {
             throw new ParsingException(parser.getTokenLocation(), "Field [" + PARAMS + "] is mandatory.");
         }
+        if (builder.activeFeatures() != null && builder.activeFeatures().isEmpty()) {
+            throw new ParsingException(parser.getTokenLocation(), "Field [" + ACTIVE_FEATURES + "] must not be empty.");
+        }
         return builder;
     }
 
     @Override
     protected void doWriteTo(StreamOutput out) throws IOException {
+        if (modelVersionSupplier != null) {
+            throw new IllegalStateException("The model version must be resolved before sending the query, missing a rewrite?");
+        }
         out.writeOptionalString(modelName);
         out.writeOptionalString(featureSetName);
         out.writeMap(params);
         out.writeOptionalString(storeName);
+        out.writeOptionalLong(modelVersion);
+        out.writeOptionalStringArray(activeFeatures != null ? activeFeatures.toArray(new String[activeFeatures.size()]) : null);
     }
 
     @Override
@@ -124,17 +174,51 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
         if (this.params != null && !this.params.isEmpty()) {
             builder.field(PARAMS.getPreferredName(), this.params);
         }
+        if (activeFeatures != null) {
+            builder.field(ACTIVE_FEATURES.getPreferredName(), activeFeatures);
+        }
         printBoostAndQueryName(builder);
         builder.endObject();
     }
 
+    /**
+     * On the coordinating node resolve the version of the model so that the shards do not have
+     * to look it up, the version comes from the model cached on this node or from a recent
+     * resolution (ltr.caches.resolved_model_ttl) and is only fetched from the store otherwise.
+     * All the shards score with exactly this version: a model cached from an older version is
+     * reloaded, and the shard fails if the model was updated since it was resolved.
+     * Model aliases are resolved as well, through the aliases cached on this node, the shards
+     * receive the name of the model the alias points to.
+     */
+    @Override
+    protected QueryBuilder doRewrite(QueryRewriteContext context) throws IOException {
+        if (modelVersionSupplier != null) {
+            Tuple<String, Long> model = modelVersionSupplier.get();
+            return model == null ? this : new StoredLtrQueryBuilder(this, model.v1(), model.v2(), null);
+        }
+        if (modelName == null || modelVersion != null || context.convertToShardContext() != null) {
+            return this;
+        }
+        String indexName = indexName();
+        // Only the index stores track the versions of their elements
+        if (!IndexFeatureStore.isIndexStore(indexName)) {
+            return this;
+        }
+        SetOnce<Tuple<String, Long>> model = new SetOnce<>();
+        context.registerAsyncAction((client, listener) ->
+                storeLoader.load(indexName, client).resolveModelVersion(modelName, ActionListener.wrap((m) -> {
+                    model.set(m);
+                    listener.onResponse(null);
+                }, listener::onFailure)));
+        return new StoredLtrQueryBuilder(this, modelName, null, model::get);
+    }
+
     @Override
     protected RankerQuery doToQuery(QueryShardContext context) throws IOException {
-        String indexName = storeName != null ? IndexFeatureStore.indexName(storeName) : IndexFeatureStore.DEFAULT_STORE;
-        FeatureStore store = storeLoader.load(indexName, context.getClient());
+        FeatureStore store = storeLoader.load(indexName(), context.getClient());
         if (modelName != null) {
-            CompiledLtrModel model = store.loadModel(modelName);
-            return RankerQuery.build(model, context, params);
+            CompiledLtrModel model = store.loadModel(modelName, modelVersion, context);
+            return RankerQuery.build(model, context, params, activeFeatures(model.featureSet()));
         } else {
             assert featureSetName != null;
             FeatureSet set = store.loadSet(featureSetName);
@@ -142,21 +226,45 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
             Arrays.fill(weitghs, 1F);
             LinearRanker ranker = new LinearRanker(weitghs);
             CompiledLtrModel model = new CompiledLtrModel("linear", set, ranker);
-            return RankerQuery.build(model, context, params);
+            return RankerQuery.build(model, context, params, activeFeatures(set));
         }
     }
 
+    private BitSet activeFeatures(FeatureSet set) {
+        return activeFeatures != null ? set.activeFeatures(activeFeatures) : null;
+    }
+
+    private String indexName() {
+        return storeIndexName(storeName);
+    }
+
+    /**
+     * Name of the store as known by the {@link FeatureStoreLoader}: the store index
+     * or the name of a file store.
+     *
+     * @param storeName the name of the store in the query, null for the default store
+     */
+    public static String storeIndexName(String storeName) {
+        if (storeName == null) {
+            return IndexFeatureStore.DEFAULT_STORE;
+        }
+        return FileFeatureStore.isFileStore(storeName) ? storeName : IndexFeatureStore.indexName(storeName);
+    }
+
     @Override
     protected boolean doEquals(StoredLtrQueryBuilder other) {
         return Objects.equals(modelName, other.modelName) &&
                 Objects.equals(featureSetName, other.featureSetName) &&
                 Objects.equals(storeName, other.storeName) &&
-                Objects.equals(params, other.params);
+                Objects.equals(params, other.params) &&
+                Objects.equals(activeFeatures, other.activeFeatures) &&
+                Objects.equals(modelVersion, other.modelVersion) &&
+                Objects.equals(modelVersionSupplier, other.modelVersionSupplier);
     }
 
     @Override
     protected int doHashCode() {
-        return Objects.hash(modelName, featureSetName, storeName, params);
+        return Objects.hash(modelName, featureSetName, storeName, params, activeFeatures, modelVersion, modelVersionSupplier);
     }
 
     @Override
@@ -199,4 +307,26 @@ public class StoredLtrQueryBuilder extends AbstractQueryBuilder<StoredLtrQueryBu
         this.params = Objects.requireNonNull(params);
         return this;
     }
+
+    /**
+     * Names or simple wildcard patterns of the features to compute, null if all the features are computed
+     */
+    public List<String> activeFeatures() {
+        return activeFeatures;
+    }
+
+    /**
+     * Compute only the features matching these names or patterns, the other features are missing
+     */
+    public StoredLtrQueryBuilder activeFeatures(List<String> activeFeatures) {
+        this.activeFeatures = activeFeatures;
+        return this;
+    }
+
+    /**
+     * Version of the model resolved during the rewrite, null if not resolved
+     */
+    public Long modelVersion() {
+        return modelVersion;
+    }
 }
@@ -25,6 +25,8 @@ import com.o19s.es.ltr.feature.store.StorableElement;
 import com.o19s.es.ltr.feature.store.StoredFeature;
 import com.o19s.es.ltr.feature.store.StoredFeatureSet;
 import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
+import com.o19s.es.ltr.feature.store.index.Caches;
 import com.o19s.es.ltr.ranker.linear.LinearRanker;
 import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
 import com.o19s.es.ltr.utils.AbstractQueryBuilderUtils;
@@ -86,19 +88,29 @@ public class ValidatingLtrQueryBuilder extends AbstractQueryBuilder<ValidatingLt
     }
 
     private final transient LtrRankerParserFactory factory;
+    // caches the compiled models by content, may be null
+    private final transient Caches caches;
+    private final transient LtrNodeServices services;
     private StorableElement element;
     private FeatureValidation validation;
-    private ValidatingLtrQueryBuilder(LtrRankerParserFactory factory) {
+    private ValidatingLtrQueryBuilder(LtrRankerParserFactory factory, Caches caches, LtrNodeServices services) {
         this.factory = factory;
+        this.caches = caches;
+        this.services = Objects.requireNonNull(services);
     }
 
     public ValidatingLtrQueryBuilder(StorableElement element, FeatureValidation validation, LtrRankerParserFactory factory) {
-        this(factory);
+        this(factory, null, new LtrNodeServices());
         this.element = Objects.requireNonNull(element);
         this.validation = Objects.requireNonNull(validation);
     }
 
     public ValidatingLtrQueryBuilder(StreamInput input, LtrRankerParserFactory factory) throws IOException {
+        this(input, factory, null, new LtrNodeServices());
+    }
+
+    public ValidatingLtrQueryBuilder(StreamInput input, LtrRankerParserFactory factory,
+                                     Caches caches, LtrNodeServices services) throws IOException {
         super(input);
         // XXX: hack because AbstractQueryTest does not inject
         // our NamedWriteable to the context.
@@ -120,12 +132,21 @@ public class ValidatingLtrQueryBuilder extends AbstractQueryBuilder<ValidatingLt
         this.element = reader.read(input);
         this.validation = new FeatureValidation(input);
         this.factory = factory;
+        this.caches = caches;
+        this.services = Objects.requireNonNull(services);
     }
 
     public static ValidatingLtrQueryBuilder fromXContent(XContentParser parser,
                                                          LtrRankerParserFactory factory) throws IOException {
+        return fromXContent(parser, factory, null, new LtrNodeServices());
+    }
+
+    public static ValidatingLtrQueryBuilder fromXContent(XContentParser parser,
+                                                         LtrRankerParserFactory factory,
+                                                         Caches caches,
+                                                         LtrNodeServices services) throws IOException {
         try {
-            ValidatingLtrQueryBuilder builder = new ValidatingLtrQueryBuilder(factory);
+            ValidatingLtrQueryBuilder builder = new ValidatingLtrQueryBuilder(factory, caches, services);
             PARSER.parse(parser, builder, null);
             if (builder.element == null) {
                 throw new ParsingException(parser.getTokenLocation(), "Element of type [" + SUPPORTED_TYPES.stream().collect(joining(",")) +
@@ -160,19 +181,23 @@ public class ValidatingLtrQueryBuilder extends AbstractQueryBuilder<ValidatingLt
     @Override
     protected Query doToQuery(QueryShardContext context) throws IOException {
         if (StoredFeature.TYPE.equals(element.type())) {
-            Feature feature = ((StoredFeature) element).optimize();
+            Feature feature = ((StoredFeature) element).optimize(services);
             if (feature instanceof PrecompiledExpressionFeature) {
                 // Derived features cannot be tested alone
                 return new MatchAllDocsQuery();
             }
             return feature.doToQuery(context, null, validation.getParams());
         } else if (StoredFeatureSet.TYPE.equals(element.type())) {
-            FeatureSet set = ((StoredFeatureSet) element).optimize();
+            FeatureSet set = ((StoredFeatureSet) element).optimize(services);
             LinearRanker ranker = new LinearRanker(new float[set.size()]);
             CompiledLtrModel model = new CompiledLtrModel("validation", set, ranker);
             return RankerQuery.build(model, context, validation.getParams());
         } else if (StoredLtrModel.TYPE.equals(element.type())) {
-            CompiledLtrModel model = ((StoredLtrModel) element).compile(factory);
+            StoredLtrModel storedModel = (StoredLtrModel) element;
+            // identical models are compiled once per node
+            CompiledLtrModel model = caches != null ?
+                    caches.loadInlineModel(storedModel, factory, services, context) :
+                    storedModel.compile(factory);
             return RankerQuery.build(model, context, validation.getParams());
         } else {
             throw new QueryShardException(context, "Unknown element type [" + element.type() + "]");
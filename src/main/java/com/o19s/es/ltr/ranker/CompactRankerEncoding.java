@@ -0,0 +1,78 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker;
+
+import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree;
+import com.o19s.es.ltr.ranker.linear.LinearRanker;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+
+import java.io.IOException;
+
+/**
+ * Compact (compressed binary) encoding of the rankers that support it.
+ * Encoded rankers are read back directly, without going through the parser of the model definition.
+ */
+public final class CompactRankerEncoding {
+    private static final int VERSION = 1;
+    private static final String LINEAR = "linear";
+    private static final String TREES = "naive_additive_decision_tree";
+
+    private CompactRankerEncoding() {}
+
+    /**
+     * Whether this ranker can be encoded
+     */
+    public static boolean supports(LtrRanker ranker) {
+        return ranker instanceof LinearRanker || ranker instanceof NaiveAdditiveDecisionTree;
+    }
+
+    public static BytesReference encode(LtrRanker ranker) throws IOException {
+        if (!supports(ranker)) {
+            throw new IllegalArgumentException("Ranker [" + ranker.name() + "] does not support the compact encoding");
+        }
+        BytesStreamOutput bytes = new BytesStreamOutput();
+        try (StreamOutput out = CompressorFactory.COMPRESSOR.streamOutput(bytes)) {
+            out.writeVInt(VERSION);
+            out.writeString(ranker instanceof LinearRanker ? LINEAR : TREES);
+            ((Writeable) ranker).writeTo(out);
+        }
+        return bytes.bytes();
+    }
+
+    public static LtrRanker decode(BytesReference encoded) throws IOException {
+        try (StreamInput in = CompressorFactory.uncompressIfNeeded(encoded).streamInput()) {
+            int version = in.readVInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported compact ranker encoding version [" + version + "]");
+            }
+            String type = in.readString();
+            switch (type) {
+            case LINEAR:
+                return new LinearRanker(in);
+            case TREES:
+                return new NaiveAdditiveDecisionTree(in);
+            default:
+                throw new IllegalArgumentException("Unsupported compact ranker type [" + type + "]");
+            }
+        }
+    }
+}
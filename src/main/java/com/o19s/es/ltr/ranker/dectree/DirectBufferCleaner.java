@@ -0,0 +1,100 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.SpecialPermission;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+/**
+ * Frees the memory of a direct buffer without waiting for the buffer to be collected.
+ * Long lived buffers are promoted to the old generation and, with explicit GCs disabled,
+ * their memory would only be reclaimed by a full collection.
+ * Uses the cleaner of the buffer on java 8 and Unsafe#invokeCleaner on java 9 and later, if neither
+ * is available the memory is freed once the buffer is collected.
+ */
+final class DirectBufferCleaner {
+    private static final Logger LOGGER = ESLoggerFactory.getLogger(DirectBufferCleaner.class);
+    private static final Cleaner CLEANER = lookupCleaner();
+
+    private DirectBufferCleaner() {}
+
+    /**
+     * Free the memory of this buffer, the buffer must no longer be accessed.
+     *
+     * @return false if the memory will only be freed once the buffer is collected
+     */
+    static boolean free(ByteBuffer buffer) {
+        assert buffer.isDirect();
+        if (CLEANER == null) {
+            return false;
+        }
+        try {
+            CLEANER.clean(buffer);
+            return true;
+        } catch (Exception e) {
+            LOGGER.warn("Failed to free a direct buffer, its memory is freed once collected", e);
+            return false;
+        }
+    }
+
+    private static Cleaner lookupCleaner() {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            sm.checkPermission(new SpecialPermission());
+        }
+        return AccessController.doPrivileged((PrivilegedAction<Cleaner>) () -> {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                try {
+                    // java 9 and later
+                    Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                    Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                    theUnsafe.setAccessible(true);
+                    Object unsafe = theUnsafe.get(null);
+                    return (b) -> invokeCleaner.invoke(unsafe, b);
+                } catch (NoSuchMethodException e) {
+                    // java 8
+                    Method cleaner = Class.forName("java.nio.DirectByteBuffer").getMethod("cleaner");
+                    cleaner.setAccessible(true);
+                    Method clean = cleaner.getReturnType().getMethod("clean");
+                    return (b) -> {
+                        Object c = cleaner.invoke(b);
+                        if (c != null) {
+                            clean.invoke(c);
+                        }
+                    };
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.warn("Cannot free the direct buffers explicitly, their memory is freed once collected", e);
+                return null;
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface Cleaner {
+        void clean(ByteBuffer buffer) throws ReflectiveOperationException;
+    }
+}
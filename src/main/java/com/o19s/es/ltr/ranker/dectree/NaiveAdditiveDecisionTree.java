@@ -20,14 +20,18 @@ import com.o19s.es.ltr.ranker.DenseFeatureVector;
 import com.o19s.es.ltr.ranker.DenseLtrRanker;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
 
+import java.io.IOException;
 import java.util.Objects;
 
 /**
  * Naive implementation of additive decision tree.
  * May be slow when the number of trees and tree complexity if high comparatively to the number of features.
  */
-public class NaiveAdditiveDecisionTree extends DenseLtrRanker implements Accountable {
+public class NaiveAdditiveDecisionTree extends DenseLtrRanker implements Accountable, Writeable {
     private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(Split.class);
 
     private final Node[] trees;
@@ -50,6 +54,52 @@ public class NaiveAdditiveDecisionTree extends DenseLtrRanker implements Account
         this.modelSize = modelSize;
     }
 
+    public NaiveAdditiveDecisionTree(StreamInput in) throws IOException {
+        modelSize = in.readVInt();
+        weights = in.readFloatArray();
+        trees = new Node[weights.length];
+        for (int i = 0; i < trees.length; i++) {
+            trees[i] = readNode(in);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeVInt(modelSize);
+        out.writeFloatArray(weights);
+        for (Node tree : trees) {
+            writeNode(tree, out);
+        }
+    }
+
+    // Trees are written depth first: a leaf is written as its output,
+    // a split as its feature and threshold followed by its left and right children.
+    private static Node readNode(StreamInput in) throws IOException {
+        if (in.readBoolean()) {
+            return new Leaf(in.readFloat());
+        }
+        int feature = in.readVInt();
+        float threshold = in.readFloat();
+        Node left = readNode(in);
+        Node right = readNode(in);
+        return new Split(left, right, feature, threshold);
+    }
+
+    private static void writeNode(Node node, StreamOutput out) throws IOException {
+        out.writeBoolean(node.isLeaf());
+        if (node.isLeaf()) {
+            assert node instanceof Leaf;
+            out.writeFloat(((Leaf) node).output);
+        } else {
+            assert node instanceof Split;
+            Split split = (Split) node;
+            out.writeVInt(split.feature);
+            out.writeFloat(split.threshold);
+            writeNode(split.left, out);
+            writeNode(split.right, out);
+        }
+    }
+
     @Override
     public String name() {
         return "naive_additive_decision_tree";
@@ -70,6 +120,14 @@ public class NaiveAdditiveDecisionTree extends DenseLtrRanker implements Account
         return modelSize;
     }
 
+    Node[] trees() {
+        return trees;
+    }
+
+    float[] weights() {
+        return weights;
+    }
+
     /**
      * Return the memory usage of this object in bytes. Negative values are illegal.
      */
@@ -103,6 +161,22 @@ public class NaiveAdditiveDecisionTree extends DenseLtrRanker implements Account
             return false;
         }
 
+        Node left() {
+            return left;
+        }
+
+        Node right() {
+            return right;
+        }
+
+        int feature() {
+            return feature;
+        }
+
+        float threshold() {
+            return threshold;
+        }
+
         @Override
         public float eval(float[] scores) {
             Node n = this;
@@ -142,6 +216,10 @@ public class NaiveAdditiveDecisionTree extends DenseLtrRanker implements Account
             return true;
         }
 
+        float output() {
+            return output;
+        }
+
         @Override
         public float eval(float[] scores) {
             return output;
@@ -0,0 +1,195 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import com.o19s.es.ltr.ranker.DenseFeatureVector;
+import com.o19s.es.ltr.ranker.DenseLtrRanker;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.util.concurrent.AbstractRefCounted;
+import org.elasticsearch.common.util.concurrent.RefCounted;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Additive decision tree whose nodes are flattened in a direct buffer, outside of the heap.
+ * Large tree models are then no longer a graph of small objects promoted to the old generation.
+ *
+ * The trees are stored depth first, each node uses 12 bytes: the feature ordinal (-1 for a leaf),
+ * the threshold of a split or the output of a leaf and the offset of the right child of a split.
+ * The left child of a split is the node that follows it.
+ * The buffer is only read with absolute gets and can be shared by concurrent searches.
+ * The ranker is reference counted: it is created with a reference held by its owner, the users must
+ * acquire it with {@link #tryIncRef()} and release it with {@link #decRef()}. The memory of the buffer
+ * is freed when the last reference is released, the ranker must no longer be used.
+ */
+public class OffHeapDecisionTree extends DenseLtrRanker implements Accountable, RefCounted {
+    private static final long BASE_RAM_USED = RamUsageEstimator.shallowSizeOfInstance(OffHeapDecisionTree.class)
+            + RamUsageEstimator.shallowSizeOfInstance(ByteBuffer.class);
+    private static final int NODE_BYTES = 3 * Integer.BYTES;
+    private static final int VALUE_OFFSET = Integer.BYTES;
+    private static final int RIGHT_OFFSET = 2 * Integer.BYTES;
+    private static final int LEAF = -1;
+
+    private final ByteBuffer nodes;
+    // offsets of the root nodes
+    private final int[] roots;
+    private final float[] weights;
+    private final int modelSize;
+    private final AbstractRefCounted refCounted;
+
+    private OffHeapDecisionTree(ByteBuffer nodes, int[] roots, float[] weights, int modelSize) {
+        this.nodes = nodes;
+        this.roots = roots;
+        this.weights = weights;
+        this.modelSize = modelSize;
+        this.refCounted = new AbstractRefCounted("off_heap_trees") {
+            @Override
+            protected void closeInternal() {
+                DirectBufferCleaner.free(nodes);
+            }
+        };
+    }
+
+    /**
+     * Copy the trees of this ranker outside of the heap
+     *
+     * @throws IllegalArgumentException if the trees do not fit in a single buffer
+     */
+    public static OffHeapDecisionTree build(NaiveAdditiveDecisionTree tree) {
+        NaiveAdditiveDecisionTree.Node[] trees = tree.trees();
+        long nbNodes = 0;
+        for (NaiveAdditiveDecisionTree.Node root : trees) {
+            nbNodes += count(root);
+        }
+        if (nbNodes * NODE_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cannot store [" + nbNodes + "] tree nodes outside of the heap");
+        }
+        ByteBuffer nodes = ByteBuffer.allocateDirect((int) nbNodes * NODE_BYTES).order(ByteOrder.nativeOrder());
+        int[] roots = new int[trees.length];
+        for (int i = 0; i < trees.length; i++) {
+            roots[i] = nodes.position();
+            write(trees[i], nodes);
+        }
+        assert !nodes.hasRemaining();
+        return new OffHeapDecisionTree(nodes, roots, tree.weights().clone(), tree.size());
+    }
+
+    private static long count(NaiveAdditiveDecisionTree.Node node) {
+        if (node.isLeaf()) {
+            return 1;
+        }
+        NaiveAdditiveDecisionTree.Split split = (NaiveAdditiveDecisionTree.Split) node;
+        return 1 + count(split.left()) + count(split.right());
+    }
+
+    private static void write(NaiveAdditiveDecisionTree.Node node, ByteBuffer nodes) {
+        int offset = nodes.position();
+        if (node.isLeaf()) {
+            nodes.putInt(LEAF);
+            nodes.putFloat(((NaiveAdditiveDecisionTree.Leaf) node).output());
+            nodes.putInt(0);
+            return;
+        }
+        NaiveAdditiveDecisionTree.Split split = (NaiveAdditiveDecisionTree.Split) node;
+        assert split.feature() >= 0;
+        nodes.putInt(split.feature());
+        nodes.putFloat(split.threshold());
+        // the offset of the right child is known once the left subtree is written
+        nodes.putInt(0);
+        write(split.left(), nodes);
+        nodes.putInt(offset + RIGHT_OFFSET, nodes.position());
+        write(split.right(), nodes);
+    }
+
+    @Override
+    public String name() {
+        return "off_heap_additive_decision_tree";
+    }
+
+    @Override
+    protected float score(DenseFeatureVector vector) {
+        assert refCounted.refCount() > 0 : "the nodes are freed";
+        float[] scores = vector.scores;
+        float sum = 0;
+        for (int i = 0; i < roots.length; i++) {
+            int node = roots[i];
+            int feature;
+            while ((feature = nodes.getInt(node)) != LEAF) {
+                if (nodes.getFloat(node + VALUE_OFFSET) > scores[feature]) {
+                    node += NODE_BYTES;
+                } else {
+                    node = nodes.getInt(node + RIGHT_OFFSET);
+                }
+            }
+            sum += weights[i] * nodes.getFloat(node + VALUE_OFFSET);
+        }
+        return sum;
+    }
+
+    @Override
+    protected int size() {
+        return modelSize;
+    }
+
+    /**
+     * Return the heap memory usage of this object in bytes, the nodes are not included.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_USED + RamUsageEstimator.sizeOf(roots) + RamUsageEstimator.sizeOf(weights);
+    }
+
+    /**
+     * Memory used outside of the heap by the nodes
+     */
+    public long offHeapBytesUsed() {
+        return nodes.capacity();
+    }
+
+    @Override
+    public void incRef() {
+        refCounted.incRef();
+    }
+
+    /**
+     * Acquire a reference to this ranker
+     *
+     * @return false if the nodes are already freed
+     */
+    @Override
+    public boolean tryIncRef() {
+        return refCounted.tryIncRef();
+    }
+
+    /**
+     * Release a reference, the nodes are freed when the last reference is released
+     */
+    @Override
+    public void decRef() {
+        refCounted.decRef();
+    }
+
+    /**
+     * Number of references held on this ranker, 0 once its nodes are freed
+     */
+    public int refCount() {
+        return refCounted.refCount();
+    }
+}
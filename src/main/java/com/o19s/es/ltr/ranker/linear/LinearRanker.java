@@ -20,7 +20,11 @@ import com.o19s.es.ltr.ranker.DenseFeatureVector;
 import com.o19s.es.ltr.ranker.DenseLtrRanker;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -28,13 +32,22 @@ import java.util.Objects;
  * Simple linear ranker that applies a dot product based
  * on the provided weights array.
  */
-public class LinearRanker extends DenseLtrRanker implements Accountable {
+public class LinearRanker extends DenseLtrRanker implements Accountable, Writeable {
     private final float[] weights;
 
     public LinearRanker(float[] weights) {
         this.weights = Objects.requireNonNull(weights);
     }
 
+    public LinearRanker(StreamInput in) throws IOException {
+        this(in.readFloatArray());
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeFloatArray(weights);
+    }
+
     @Override
     public String name() {
         return "linear";
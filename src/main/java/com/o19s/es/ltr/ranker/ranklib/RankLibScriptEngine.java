@@ -16,8 +16,12 @@
  */
 package com.o19s.es.ltr.ranker.ranklib;
 
+import com.o19s.es.ltr.feature.store.LtrCircuitBreaker;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
 import com.o19s.es.ltr.ranker.LtrRanker;
 import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import org.apache.lucene.util.Accountable;
+import org.elasticsearch.common.breaker.CircuitBreaker;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.script.ExecutableScript;
@@ -25,8 +29,13 @@ import org.elasticsearch.script.ScriptContext;
 import org.elasticsearch.script.ScriptEngine;
 
 import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by doug on 12/30/16.
@@ -37,16 +46,26 @@ import java.util.Objects;
  * <p>
  * So this code acts as a hook for deserializing Ranklib models from ranklib XML
  * and as a convenient means for caching those deserialized model
+ * <p>
+ * The model is parsed once when the script is compiled, the script service caches
+ * the compiled factory and all its instances share the same immutable ranker.
+ * The weight of the ranker is reported to the ltr circuit breaker until the script
+ * service drops the factory.
  */
 public class RankLibScriptEngine extends AbstractComponent implements ScriptEngine {
 
     public static final String NAME = "ranklib";
     public static final String EXTENSION = "ranklib";
     private final LtrRankerParserFactory factory;
+    private final LtrNodeServices services;
+    // the factories held by the script cache, enqueued once collected
+    private final ReferenceQueue<ExecutableScript.Factory> collected = new ReferenceQueue<>();
+    private final Set<ResidentRanker> residents = ConcurrentHashMap.newKeySet();
 
-    public RankLibScriptEngine(Settings settings, LtrRankerParserFactory factory) {
+    public RankLibScriptEngine(Settings settings, LtrRankerParserFactory factory, LtrNodeServices services) {
         super(settings);
         this.factory = Objects.requireNonNull(factory);
+        this.services = Objects.requireNonNull(services);
     }
 
 
@@ -57,21 +76,69 @@ public class RankLibScriptEngine extends AbstractComponent implements ScriptEngi
 
     @Override
     public <T> T compile(String scriptName, String scriptSource, ScriptContext<T> context, Map<String, String> params) {
-
-        ExecutableScript.Factory retFactory = params1 -> {
-            LtrRanker ltrRanker = factory.getParser(RanklibModelParser.TYPE).parse(null, scriptSource);
-            return new RankLibExecutableScript(ltrRanker);
-        };
+        releaseCollected();
+        CircuitBreaker breaker = services.getCircuitBreaker();
+        LtrRanker ltrRanker = LtrCircuitBreaker.compile(breaker, "ranklib model",
+                scriptSource.length() * Character.BYTES,
+                () -> factory.getParser(RanklibModelParser.TYPE).parse(null, scriptSource));
+        long weight = ltrRanker instanceof Accountable ? ((Accountable) ltrRanker).ramBytesUsed() : 0;
+        breaker.addEstimateBytesAndMaybeBreak(weight, "ranklib model");
+        ExecutableScript.Factory retFactory = new RankLibScriptFactory(ltrRanker);
+        residents.add(new ResidentRanker(retFactory, collected, breaker, weight));
 
         return context.factoryClazz.cast(retFactory);
     }
 
+    /**
+     * Release the weight of the rankers whose factory was dropped by the script service
+     */
+    void releaseCollected() {
+        Reference<? extends ExecutableScript.Factory> ref;
+        while ((ref = collected.poll()) != null) {
+            if (residents.remove(ref)) {
+                ((ResidentRanker) ref).release();
+            }
+        }
+    }
+
     @Override
     public void close() throws IOException {
+        residents.removeIf((r) -> {
+            r.release();
+            return true;
+        });
+    }
+
+    private static class RankLibScriptFactory implements ExecutableScript.Factory {
+        private final LtrRanker ranker;
+
+        RankLibScriptFactory(LtrRanker ranker) {
+            this.ranker = ranker;
+        }
 
+        @Override
+        public ExecutableScript newInstance(Map<String, Object> params) {
+            return new RankLibExecutableScript(ranker);
+        }
+    }
+
+    private static class ResidentRanker extends PhantomReference<ExecutableScript.Factory> {
+        private final CircuitBreaker breaker;
+        private final long weight;
+
+        ResidentRanker(ExecutableScript.Factory factory, ReferenceQueue<ExecutableScript.Factory> queue,
+                       CircuitBreaker breaker, long weight) {
+            super(factory, queue);
+            this.breaker = breaker;
+            this.weight = weight;
+        }
+
+        void release() {
+            breaker.addWithoutBreaking(-weight);
+        }
     }
 
-    public class RankLibExecutableScript implements ExecutableScript {
+    public static class RankLibExecutableScript implements ExecutableScript {
 
         LtrRanker _ranker;
 
@@ -28,6 +28,12 @@ import com.o19s.es.ltr.ranker.parser.LtrRankerParser;
  */
 public class RanklibModelParser implements LtrRankerParser {
     public static final String TYPE = "model/ranklib";
+    /**
+     * Estimated heap used by the parsed model per char of its definition:
+     * the text of a tree node (split, feature, threshold, output) is roughly as
+     * large as the objects it is parsed into.
+     */
+    private static final long RAM_BYTES_PER_DEFINITION_CHAR = 1;
     private final RankerFactory factory;
 
     public RanklibModelParser(RankerFactory factory) {
@@ -41,6 +47,6 @@ public class RanklibModelParser implements LtrRankerParser {
         if (set != null) {
             numFeatures = set.size();
         }
-        return new RanklibRanker(ranklibRanker, numFeatures);
+        return new RanklibRanker(ranklibRanker, numFeatures, model.length() * RAM_BYTES_PER_DEFINITION_CHAR);
     }
 }
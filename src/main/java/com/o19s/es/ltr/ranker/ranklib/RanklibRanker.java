@@ -18,14 +18,24 @@ package com.o19s.es.ltr.ranker.ranklib;
 
 import ciir.umass.edu.learning.Ranker;
 import com.o19s.es.ltr.ranker.LtrRanker;
+import org.apache.lucene.util.Accountable;
 
-public class RanklibRanker implements LtrRanker {
+public class RanklibRanker implements LtrRanker, Accountable {
     private final Ranker ranker;
     private final int featureSetSize;
+    private final long ramBytesUsed;
 
     public RanklibRanker(Ranker ranker, int featureSetSize) {
+        this(ranker, featureSetSize, 0);
+    }
+
+    /**
+     * @param ramBytesUsed estimated memory usage of the ranklib model, ranklib models cannot be measured
+     */
+    public RanklibRanker(Ranker ranker, int featureSetSize, long ramBytesUsed) {
         this.ranker = ranker;
         this.featureSetSize = featureSetSize;
+        this.ramBytesUsed = ramBytesUsed;
     }
 
     /**
@@ -71,4 +81,12 @@ public class RanklibRanker implements LtrRanker {
         assert point instanceof DenseProgramaticDataPoint;
         return (float) ranker.eval((DenseProgramaticDataPoint) point);
     }
+
+    /**
+     * Return the memory usage of this object in bytes. Negative values are illegal.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return ramBytesUsed;
+    }
 }
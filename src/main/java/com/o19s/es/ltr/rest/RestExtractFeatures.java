@@ -0,0 +1,86 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.rest;
+
+import com.o19s.es.ltr.action.ExtractFeaturesAction;
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesRequest;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.rest.action.RestToXContentListener;
+import org.elasticsearch.tasks.LoggingTaskListener;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+import java.io.IOException;
+
+/**
+ * Start a feature extraction job, with wait_for_completion=false the task id is returned
+ * and the job can be followed and cancelled with the task management APIs.
+ */
+public class RestExtractFeatures extends BaseRestHandler {
+    private static final ObjectParser<ExtractFeaturesRequest, Void> PARSER = new ObjectParser<>("extract_features",
+            ExtractFeaturesRequest::new);
+
+    static {
+        PARSER.declareString(ExtractFeaturesRequest::setIndex, new ParseField("index"));
+        PARSER.declareString(ExtractFeaturesRequest::setFeatureSet, new ParseField("featureset"));
+        PARSER.declareString(ExtractFeaturesRequest::setJudgments, new ParseField("judgments"));
+        PARSER.declareString(ExtractFeaturesRequest::setOutput, new ParseField("output"));
+        PARSER.declareInt(ExtractFeaturesRequest::setParallelism, new ParseField("parallelism"));
+    }
+
+    public RestExtractFeatures(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.POST, "/_ltr/{store}/_extract_features", this);
+        controller.registerHandler(RestRequest.Method.POST, "/_ltr/_extract_features", this);
+    }
+
+    @Override
+    public String getName() {
+        return "Extract the features of a judgment file";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        ExtractFeaturesRequest extractRequest = new ExtractFeaturesRequest();
+        request.applyContentParser((p) -> PARSER.parse(p, extractRequest, null));
+        // the name of the store as used by the sltr query
+        extractRequest.setStore(request.param("store"));
+        if (request.paramAsBoolean("wait_for_completion", true)) {
+            return (channel) -> client.executeLocally(ExtractFeaturesAction.INSTANCE, extractRequest,
+                    new RestToXContentListener<>(channel));
+        }
+        extractRequest.setShouldStoreResult(true);
+        return (channel) -> {
+            Task task = client.executeLocally(ExtractFeaturesAction.INSTANCE, extractRequest, LoggingTaskListener.instance());
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("task", new TaskId(client.getLocalNodeId(), task.getId()).toString());
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+}
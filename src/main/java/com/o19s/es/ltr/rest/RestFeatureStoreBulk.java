@@ -0,0 +1,153 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.rest;
+
+import com.o19s.es.ltr.action.FeatureStoreAction.FeatureStoreRequest;
+import com.o19s.es.ltr.action.FeatureStoreBulkAction;
+import com.o19s.es.ltr.action.FeatureStoreBulkAction.FeatureStoreBulkRequest;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestStatusToXContentListener;
+
+import java.io.IOException;
+
+/**
+ * Store several elements at once (newline delimited JSON):
+ * POST /_ltr/_bulk
+ * POST /_ltr/{store}/_bulk
+ *
+ * Each element is described by two lines, the action (create or update) with an optional routing
+ * followed by the element in the same format as the single element API:
+ * { "create": { "routing": "optional" } }
+ * { "feature": { "name": "my_feature", ... }, "validation": { ... } }
+ */
+public class RestFeatureStoreBulk extends FeatureStoreBaseRestHandler {
+    public RestFeatureStoreBulk(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.POST, "/_ltr/_bulk", this);
+        controller.registerHandler(RestRequest.Method.POST, "/_ltr/{store}/_bulk", this);
+    }
+
+    @Override
+    public String getName() {
+        return "Store several elements in a feature store";
+    }
+
+    @Override
+    public boolean supportsContentStream() {
+        return true;
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        FeatureStoreBulkRequest bulkRequest = parse(indexName(request), request.requiredContent(), request.getXContentType());
+        return (channel) -> client.execute(FeatureStoreBulkAction.INSTANCE, bulkRequest, new RestStatusToXContentListener<>(channel));
+    }
+
+    /**
+     * Parse the elements one line at a time
+     */
+    static FeatureStoreBulkRequest parse(String store, BytesReference data, XContentType xContentType) throws IOException {
+        FeatureStoreBulkRequest bulkRequest = new FeatureStoreBulkRequest(store);
+        byte separator = xContentType.xContent().streamSeparator();
+        int from = 0;
+        int line = 0;
+        FeatureStoreRequest pending = null;
+        while (from < data.length()) {
+            int next = nextMarker(separator, from, data);
+            line++;
+            if (next > from) {
+                try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY,
+                        data.slice(from, next - from), xContentType)) {
+                    if (pending == null) {
+                        pending = parseAction(store, parser, line);
+                    } else {
+                        RestSimpleFeatureStore.AutoDetectParser parserState = new RestSimpleFeatureStore.AutoDetectParser(null);
+                        parserState.parse(parser);
+                        pending.setStorableElement(parserState.getElement());
+                        pending.setValidation(parserState.getValidation());
+                        bulkRequest.add(pending);
+                        pending = null;
+                    }
+                }
+            }
+            from = next + 1;
+        }
+        if (pending != null) {
+            throw new IllegalArgumentException("The element of the action at line [" + line + "] is missing");
+        }
+        return bulkRequest;
+    }
+
+    private static int nextMarker(byte marker, int from, BytesReference data) {
+        for (int i = from; i < data.length(); i++) {
+            if (data.get(i) == marker) {
+                return i;
+            }
+        }
+        return data.length();
+    }
+
+    private static FeatureStoreRequest parseAction(String store, XContentParser parser, int line) throws IOException {
+        if (parser.nextToken() != XContentParser.Token.START_OBJECT
+                || parser.nextToken() != XContentParser.Token.FIELD_NAME) {
+            throw new ParsingException(parser.getTokenLocation(), "Malformed action at line [" + line + "], " +
+                    "expected an object with a single [create] or [update] field");
+        }
+        String actionName = parser.currentName();
+        FeatureStoreRequest request = new FeatureStoreRequest();
+        request.setStore(store);
+        switch (actionName) {
+        case "create":
+            request.setAction(FeatureStoreRequest.Action.CREATE);
+            break;
+        case "update":
+            request.setAction(FeatureStoreRequest.Action.UPDATE);
+            break;
+        default:
+            throw new ParsingException(parser.getTokenLocation(), "Unknown action [" + actionName + "] at line [" + line + "], " +
+                    "expected [create] or [update]");
+        }
+        if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+            throw new ParsingException(parser.getTokenLocation(), "Malformed action at line [" + line + "], " +
+                    "expected an object for [" + actionName + "]");
+        }
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME && "routing".equals(parser.currentName())) {
+                parser.nextToken();
+                request.setRouting(parser.text());
+            } else {
+                throw new ParsingException(parser.getTokenLocation(), "Unsupported field [" + parser.currentName() + "] " +
+                        "in the action at line [" + line + "]");
+            }
+        }
+        if (parser.nextToken() != XContentParser.Token.END_OBJECT) {
+            throw new ParsingException(parser.getTokenLocation(), "Malformed action at line [" + line + "], " +
+                    "expected a single action");
+        }
+        return request;
+    }
+}
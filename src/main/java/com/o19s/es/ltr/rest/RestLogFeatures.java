@@ -0,0 +1,66 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.rest;
+
+import com.o19s.es.ltr.action.LogFeaturesAction;
+import com.o19s.es.ltr.action.LogFeaturesAction.LogFeaturesRequest;
+import com.o19s.es.ltr.action.LogFeaturesAction.LogQuery;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestToXContentListener;
+
+import java.io.IOException;
+
+/**
+ * Log the features of a batch of queries in a single pass per shard
+ */
+public class RestLogFeatures extends BaseRestHandler {
+    private static final ObjectParser<LogFeaturesRequest, Void> PARSER = new ObjectParser<>("log_features");
+
+    static {
+        PARSER.declareString(LogFeaturesRequest::setStore, new ParseField("store"));
+        PARSER.declareString(LogFeaturesRequest::setFeatureSet, new ParseField("featureset"));
+        PARSER.declareObjectArray(LogFeaturesRequest::setQueries, (p, c) -> LogQuery.parse(p), new ParseField("queries"));
+    }
+
+    public RestLogFeatures(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.GET, "/{index}/_ltr/_log_features", this);
+        controller.registerHandler(RestRequest.Method.POST, "/{index}/_ltr/_log_features", this);
+    }
+
+    @Override
+    public String getName() {
+        return "Log the features of a batch of queries";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        LogFeaturesRequest logRequest = new LogFeaturesRequest(Strings.splitStringByCommaToArray(request.param("index")));
+        logRequest.indicesOptions(IndicesOptions.fromRequest(request, logRequest.indicesOptions()));
+        request.applyContentParser((p) -> PARSER.parse(p, logRequest, null));
+        return (channel) -> client.execute(LogFeaturesAction.INSTANCE, logRequest, new RestToXContentListener<>(channel));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.rest;
+
+import com.o19s.es.ltr.action.ModelAliasAction;
+import com.o19s.es.ltr.action.ModelAliasAction.ModelAliasRequestBuilder;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestToXContentListener;
+
+import java.io.IOException;
+
+public class RestModelAlias extends FeatureStoreBaseRestHandler {
+    public RestModelAlias(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.PUT, "/_ltr/{store}/_model_alias/{name}", this);
+        controller.registerHandler(RestRequest.Method.PUT, "/_ltr/_model_alias/{name}", this);
+        controller.registerHandler(RestRequest.Method.POST, "/_ltr/{store}/_model_alias/{name}", this);
+        controller.registerHandler(RestRequest.Method.POST, "/_ltr/_model_alias/{name}", this);
+        controller.registerHandler(RestRequest.Method.DELETE, "/_ltr/{store}/_model_alias/{name}", this);
+        controller.registerHandler(RestRequest.Method.DELETE, "/_ltr/_model_alias/{name}", this);
+    }
+
+    @Override
+    public String getName() {
+        return "Point a model alias to a model";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        String store = indexName(request);
+        String alias = request.param("name");
+        ModelAliasRequestBuilder builder = ModelAliasAction.INSTANCE.newRequestBuilder(client);
+        if (request.method() == RestRequest.Method.DELETE) {
+            builder.deleteAlias(store, alias);
+        } else {
+            ParserState state = new ParserState();
+            request.applyContentParser((p) -> ParserState.parse(p, state));
+            builder.setAlias(store, alias, state.model);
+        }
+        return (channel) -> builder.execute(new RestToXContentListener<>(channel));
+    }
+
+    private static class ParserState {
+        private static final ObjectParser<ParserState, Void> PARSER = new ObjectParser<>("model_alias", ParserState::new);
+
+        static {
+            PARSER.declareString(ParserState::setModel, new ParseField("model"));
+        }
+
+        private String model;
+
+        public void setModel(String model) {
+            this.model = model;
+        }
+
+        public static void parse(XContentParser parser, ParserState value) throws IOException {
+            PARSER.parse(parser, value, null);
+            if (value.model == null) {
+                throw new ParsingException(parser.getTokenLocation(), "Missing required value [model]");
+            }
+        }
+    }
+}
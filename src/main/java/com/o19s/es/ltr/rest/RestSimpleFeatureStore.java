@@ -216,7 +216,9 @@ public abstract class RestSimpleFeatureStore extends FeatureStoreBaseRestHandler
 
     RestChannelConsumer createIndex(NodeClient client, String indexName) {
         return (channel) -> client.admin().indices()
-                .create(IndexFeatureStore.buildIndexRequest(indexName), new AcknowledgedRestListener<>(channel));
+                .create(IndexFeatureStore.buildIndexRequest(indexName,
+                        IndexFeatureStore.LTR_STORE_REPLICAS_ON_ALL_NODES.get(settings)),
+                        new AcknowledgedRestListener<>(channel));
     }
 
     RestChannelConsumer deleteIndex(NodeClient client, String indexName) {
@@ -373,6 +375,14 @@ public abstract class RestSimpleFeatureStore extends FeatureStoreBaseRestHandler
             this.element = element;
         }
 
+        StorableElement getElement() {
+            return element;
+        }
+
+        FeatureValidation getValidation() {
+            return validation;
+        }
+
         public void setValidation(FeatureValidation validation) {
             this.validation = validation;
         }
@@ -0,0 +1,238 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.training;
+
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesRequest;
+import com.o19s.es.ltr.action.ExtractFeaturesAction.ExtractFeaturesResponse;
+import com.o19s.es.ltr.action.LogFeaturesAction;
+import com.o19s.es.ltr.action.LogFeaturesAction.LogFeaturesRequest;
+import com.o19s.es.ltr.action.LogFeaturesAction.LogFeaturesResponse;
+import com.o19s.es.ltr.action.LogFeaturesAction.LogQuery;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.tasks.TaskCancelledException;
+import org.elasticsearch.tasks.TaskId;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.elasticsearch.action.ActionListener.wrap;
+
+/**
+ * Turns a judgment file into training data in the RankLib/SVMLight format:
+ * <pre>
+ * 4 qid:1 1:12.318474 2:9.8376875 # 7555
+ * </pre>
+ * The judgments are sent in batches to the {@link LogFeaturesAction}, each shard logs the docs
+ * of all the queries of a batch in a single pass over its segments. Up to parallelism batches
+ * are sent concurrently, the rows of a query are written together.
+ * The output is written to a temporary file moved in place when the job succeeds.
+ */
+public class FeatureExtractionJob {
+    public static final Setting<String> LTR_TRAINING_PATH = new Setting<>("ltr.training.path", "ltr-training",
+            Function.identity(), Setting.Property.NodeScope);
+    private static final Logger LOGGER = ESLoggerFactory.getLogger(FeatureExtractionJob.class);
+    // Judgments are sent once the batch has at least this number of docs
+    static final int MIN_DOCS_PER_REQUEST = 1000;
+
+    private final Client client;
+    private final FeatureExtractionTask task;
+    private final TaskId taskId;
+    private final ExtractFeaturesRequest request;
+
+    public FeatureExtractionJob(Client client, FeatureExtractionTask task, TaskId taskId, ExtractFeaturesRequest request) {
+        this.client = client;
+        this.task = task;
+        this.taskId = taskId;
+        this.request = request;
+    }
+
+    /**
+     * Resolve a path relative to the training directory
+     *
+     * @throws IllegalArgumentException if the path is outside of the training directory
+     */
+    public static Path resolve(Path root, String path) {
+        Path resolved = root.resolve(path).normalize();
+        if (!resolved.startsWith(root) || resolved.equals(root)) {
+            throw new IllegalArgumentException("Invalid path [" + path + "], training files must be in [" + root + "]");
+        }
+        return resolved;
+    }
+
+    /**
+     * Run the job, blocks until all the queries are processed or the task is cancelled.
+     */
+    public ExtractFeaturesResponse run(Path judgments, Path output) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Files.createDirectories(output.getParent());
+        Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+        boolean success = false;
+        try {
+            try (JudgmentReader reader = new JudgmentReader(Files.newBufferedReader(judgments, StandardCharsets.UTF_8));
+                 Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                BlockingQueue<List<Result>> results = new LinkedBlockingQueue<>();
+                int inFlight = 0;
+                List<Judgment> batch = new ArrayList<>();
+                int batchDocs = 0;
+                Judgment judgment;
+                while (!task.isCancelled() && (judgment = reader.next()) != null) {
+                    batch.add(judgment);
+                    batchDocs += judgment.docs().size();
+                    if (batchDocs < MIN_DOCS_PER_REQUEST) {
+                        continue;
+                    }
+                    if (inFlight == request.getParallelism()) {
+                        write(writer, results.take());
+                        inFlight--;
+                    }
+                    extract(batch, results::add);
+                    inFlight++;
+                    batch = new ArrayList<>();
+                    batchDocs = 0;
+                }
+                if (!batch.isEmpty() && !task.isCancelled()) {
+                    extract(batch, results::add);
+                    inFlight++;
+                }
+                while (inFlight > 0) {
+                    write(writer, results.take());
+                    inFlight--;
+                }
+            }
+            if (task.isCancelled()) {
+                throw new TaskCancelledException("Feature extraction cancelled: " + task.getReasonCancelled());
+            }
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            success = true;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        return new ExtractFeaturesResponse(request.getOutput(), TimeValue.timeValueNanos(System.nanoTime() - start),
+                task.getStatus());
+    }
+
+    private void write(Writer writer, List<Result> results) throws IOException {
+        for (Result result : results) {
+            if (result.failure != null) {
+                LOGGER.warn((org.apache.logging.log4j.util.Supplier<?>) () -> new ParameterizedMessage(
+                        "Failed to extract the features of query [{}]", result.qid), result.failure);
+                task.onFailedQuery();
+                continue;
+            }
+            for (String row : result.rows) {
+                writer.write(row);
+                writer.write('\n');
+            }
+            task.onQuery(result.rows.size(), result.missingDocs);
+        }
+    }
+
+    /**
+     * Log the features of the judged docs of a batch of queries, the consumer is called exactly once.
+     */
+    private void extract(List<Judgment> batch, Consumer<List<Result>> consumer) {
+        LogFeaturesRequest logRequest = new LogFeaturesRequest(request.getIndex());
+        logRequest.setStore(request.getStore());
+        logRequest.setFeatureSet(request.getFeatureSet());
+        List<LogQuery> queries = new ArrayList<>(batch.size());
+        for (Judgment judgment : batch) {
+            List<String> ids = new ArrayList<>(judgment.docs().size());
+            judgment.docs().forEach((d) -> ids.add(d.id()));
+            queries.add(new LogQuery(judgment.qid(), judgment.params(), ids));
+        }
+        logRequest.setQueries(queries);
+        logRequest.setParentTask(taskId);
+        client.execute(LogFeaturesAction.INSTANCE, logRequest, wrap((LogFeaturesResponse r) -> {
+            if (r.getFailedShards() > 0) {
+                // the docs of the failed shards would be reported as missing
+                throw new IllegalStateException(r.getFailedShards() + " shard failure(s)", r.getShardFailures()[0].getCause());
+            }
+            List<Result> results = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                results.add(Result.rows(batch.get(i), r.getQueries().get(i).getDocs()));
+            }
+            consumer.accept(results);
+        }, (e) -> {
+            List<Result> results = new ArrayList<>(batch.size());
+            batch.forEach((j) -> results.add(Result.failure(j, e)));
+            consumer.accept(results);
+        }));
+    }
+
+    /**
+     * A row of training data, features are numbered from 1 in the order of the feature set
+     */
+    static String row(int grade, String qid, float[] features, String docId) {
+        StringBuilder row = new StringBuilder();
+        row.append(grade).append(" qid:").append(qid);
+        for (int i = 0; i < features.length; i++) {
+            row.append(' ').append(i + 1).append(':').append(features[i]);
+        }
+        return row.append(" # ").append(docId).toString();
+    }
+
+    private static class Result {
+        private final String qid;
+        private final List<String> rows;
+        private final int missingDocs;
+        private final Exception failure;
+
+        private Result(String qid, List<String> rows, int missingDocs, Exception failure) {
+            this.qid = qid;
+            this.rows = rows;
+            this.missingDocs = missingDocs;
+            this.failure = failure;
+        }
+
+        static Result rows(Judgment judgment, Map<String, float[]> features) {
+            List<String> rows = new ArrayList<>(judgment.docs().size());
+            int missing = 0;
+            for (Judgment.GradedDoc doc : judgment.docs()) {
+                float[] values = features.get(doc.id());
+                if (values == null) {
+                    missing++;
+                } else {
+                    rows.add(row(doc.grade(), judgment.qid(), values, doc.id()));
+                }
+            }
+            return new Result(judgment.qid(), rows, missing, null);
+        }
+
+        static Result failure(Judgment judgment, Exception e) {
+            return new Result(judgment.qid(), null, 0, e);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.training;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.tasks.CancellableTask;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.tasks.TaskId;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A feature extraction job, the searches it sends are cancelled with it.
+ */
+public class FeatureExtractionTask extends CancellableTask {
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong failedQueries = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong missingDocs = new AtomicLong();
+
+    public FeatureExtractionTask(long id, String type, String action, String description, TaskId parentTaskId,
+                                 Map<String, String> headers) {
+        super(id, type, action, description, parentTaskId, headers);
+    }
+
+    @Override
+    public boolean shouldCancelChildrenOnCancellation() {
+        return true;
+    }
+
+    void onQuery(long rows, long missingDocs) {
+        this.queries.incrementAndGet();
+        this.rows.addAndGet(rows);
+        this.missingDocs.addAndGet(missingDocs);
+    }
+
+    void onFailedQuery() {
+        this.queries.incrementAndGet();
+        this.failedQueries.incrementAndGet();
+    }
+
+    @Override
+    public Status getStatus() {
+        return new Status(queries.get(), failedQueries.get(), rows.get(), missingDocs.get());
+    }
+
+    /**
+     * Progress of the job: the queries processed so far and the rows written
+     */
+    public static class Status implements Task.Status {
+        public static final String NAME = "ltr_feature_extraction";
+        private final long queries;
+        private final long failedQueries;
+        private final long rows;
+        private final long missingDocs;
+
+        public Status(long queries, long failedQueries, long rows, long missingDocs) {
+            this.queries = queries;
+            this.failedQueries = failedQueries;
+            this.rows = rows;
+            this.missingDocs = missingDocs;
+        }
+
+        public Status(StreamInput in) throws IOException {
+            queries = in.readVLong();
+            failedQueries = in.readVLong();
+            rows = in.readVLong();
+            missingDocs = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(queries);
+            out.writeVLong(failedQueries);
+            out.writeVLong(rows);
+            out.writeVLong(missingDocs);
+        }
+
+        @Override
+        public String getWriteableName() {
+            return NAME;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            toXContentFragment(builder);
+            return builder.endObject();
+        }
+
+        public XContentBuilder toXContentFragment(XContentBuilder builder) throws IOException {
+            builder.field("queries", queries);
+            builder.field("failed_queries", failedQueries);
+            builder.field("rows", rows);
+            builder.field("missing_docs", missingDocs);
+            return builder;
+        }
+
+        public long getQueries() {
+            return queries;
+        }
+
+        public long getFailedQueries() {
+            return failedQueries;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getMissingDocs() {
+            return missingDocs;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Status)) return false;
+            Status status = (Status) o;
+            return queries == status.queries && failedQueries == status.failedQueries && rows == status.rows
+                    && missingDocs == status.missingDocs;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(queries, failedQueries, rows, missingDocs);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.training;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.xcontent.ObjectParser;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The judgments of a query: the params of the feature set and the graded docs.
+ * A judgment file has one judgment per line:
+ * <pre>
+ * {"qid": "1", "params": {"keywords": "rambo"}, "docs": [{"id": "7555", "grade": 4}, {"id": "1370", "grade": 0}]}
+ * </pre>
+ */
+public class Judgment {
+    private static final ObjectParser<Judgment, Void> PARSER = new ObjectParser<>("judgment", Judgment::new);
+    private static final ParseField QID = new ParseField("qid");
+    private static final ParseField PARAMS = new ParseField("params");
+    private static final ParseField DOCS = new ParseField("docs");
+
+    static {
+        PARSER.declareField(Judgment::setQid, XContentParser::text, QID, ObjectParser.ValueType.VALUE);
+        PARSER.declareObject(Judgment::setParams, (p, c) -> p.map(), PARAMS);
+        PARSER.declareObjectArray(Judgment::setDocs, (p, c) -> GradedDoc.parse(p), DOCS);
+    }
+
+    private String qid;
+    private Map<String, Object> params = Collections.emptyMap();
+    private List<GradedDoc> docs;
+
+    public Judgment(String qid, Map<String, Object> params, List<GradedDoc> docs) {
+        this.qid = Objects.requireNonNull(qid);
+        this.params = Objects.requireNonNull(params);
+        this.docs = Objects.requireNonNull(docs);
+    }
+
+    private Judgment() {
+    }
+
+    public static Judgment parse(XContentParser parser) throws IOException {
+        Judgment judgment = PARSER.parse(parser, null);
+        if (judgment.qid == null) {
+            throw new ParsingException(parser.getTokenLocation(), "Field [" + QID.getPreferredName() + "] is mandatory");
+        }
+        if (judgment.qid.isEmpty() || judgment.qid.chars().anyMatch(Character::isWhitespace)) {
+            throw new ParsingException(parser.getTokenLocation(), "Field [" + QID.getPreferredName() + "] must be a non empty "
+                    + "string without whitespaces, got [" + judgment.qid + "]");
+        }
+        if (judgment.docs == null || judgment.docs.isEmpty()) {
+            throw new ParsingException(parser.getTokenLocation(), "Field [" + DOCS.getPreferredName() + "] must have at least "
+                    + "one doc");
+        }
+        return judgment;
+    }
+
+    private void setQid(String qid) {
+        this.qid = qid;
+    }
+
+    private void setParams(Map<String, Object> params) {
+        this.params = params;
+    }
+
+    private void setDocs(List<GradedDoc> docs) {
+        this.docs = docs;
+    }
+
+    public String qid() {
+        return qid;
+    }
+
+    public Map<String, Object> params() {
+        return params;
+    }
+
+    public List<GradedDoc> docs() {
+        return docs;
+    }
+
+    public static class GradedDoc {
+        private static final ObjectParser<GradedDoc, Void> PARSER = new ObjectParser<>("doc", GradedDoc::new);
+        private static final ParseField ID = new ParseField("id");
+        private static final ParseField GRADE = new ParseField("grade");
+
+        static {
+            PARSER.declareField(GradedDoc::setId, XContentParser::text, ID, ObjectParser.ValueType.VALUE);
+            PARSER.declareInt(GradedDoc::setGrade, GRADE);
+        }
+
+        private String id;
+        private Integer grade;
+
+        public GradedDoc(String id, int grade) {
+            this.id = Objects.requireNonNull(id);
+            this.grade = grade;
+        }
+
+        private GradedDoc() {
+        }
+
+        static GradedDoc parse(XContentParser parser) throws IOException {
+            GradedDoc doc = PARSER.parse(parser, null);
+            if (doc.id == null || doc.grade == null) {
+                throw new ParsingException(parser.getTokenLocation(), "Fields [" + ID.getPreferredName() + "] and ["
+                        + GRADE.getPreferredName() + "] are mandatory");
+            }
+            return doc;
+        }
+
+        private void setId(String id) {
+            this.id = id;
+        }
+
+        private void setGrade(int grade) {
+            this.grade = grade;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public int grade() {
+            return grade;
+        }
+    }
+}
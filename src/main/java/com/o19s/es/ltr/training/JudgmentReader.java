@@ -0,0 +1,65 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.training;
+
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads a judgment file one line at a time, blank lines and lines starting with # are skipped.
+ */
+public class JudgmentReader implements Closeable {
+    private final BufferedReader reader;
+    private int lineNumber;
+
+    public JudgmentReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * The next judgment or null at the end of the file
+     *
+     * @throws IllegalArgumentException if the line cannot be parsed
+     */
+    public Judgment next() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, line)) {
+                return Judgment.parse(parser);
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalArgumentException("Failed to parse the judgment at line [" + lineNumber + "]", e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -16,8 +16,11 @@
 
 package com.o19s.es.template.mustache;
 
+import com.github.mustachejava.Code;
 import com.github.mustachejava.Mustache;
 import com.github.mustachejava.MustacheException;
+import com.github.mustachejava.codes.ExtendCode;
+import com.github.mustachejava.codes.PartialCode;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.ParameterizedMessage;
 import org.apache.logging.log4j.util.Supplier;
@@ -28,7 +31,9 @@ import org.elasticsearch.common.logging.ESLoggerFactory;
 import java.io.StringWriter;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class MustacheUtils {
     public static final String TEMPLATE_LANGUAGE = "mustache";
@@ -67,4 +72,35 @@ public class MustacheUtils {
         return writer.toString();
 
     }
+
+    /**
+     * Names of the top level params a compiled template may read ({{a.b}} reads a).
+     * Names referenced inside sections are included as they may resolve against the top level scope.
+     *
+     * @return the param names or null if they cannot be determined (partials, inheritance)
+     */
+    public static Set<String> referencedParams(Mustache template) {
+        Set<String> names = new HashSet<>();
+        return collectParams(template.getCodes(), names) ? names : null;
+    }
+
+    private static boolean collectParams(Code[] codes, Set<String> names) {
+        if (codes == null) {
+            return true;
+        }
+        for (Code code : codes) {
+            if (code instanceof PartialCode || code instanceof ExtendCode) {
+                return false;
+            }
+            String name = code.getName();
+            if (name != null && !name.isEmpty() && !".".equals(name)) {
+                int dot = name.indexOf('.');
+                names.add(dot > 0 ? name.substring(0, dot) : name);
+            }
+            if (!collectParams(code.getCodes(), names)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
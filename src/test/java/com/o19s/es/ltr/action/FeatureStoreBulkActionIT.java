@@ -0,0 +1,126 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.action.FeatureStoreAction.FeatureStoreRequest;
+import com.o19s.es.ltr.action.FeatureStoreBulkAction.FeatureStoreBulkRequestBuilder;
+import com.o19s.es.ltr.action.FeatureStoreBulkAction.FeatureStoreBulkResponse;
+import com.o19s.es.ltr.feature.FeatureValidation;
+import com.o19s.es.ltr.feature.store.StoredFeature;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import org.apache.lucene.search.BooleanQuery;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.hamcrest.CoreMatchers;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+
+public class FeatureStoreBulkActionIT extends BaseIntegrationTest {
+    public void testBulkCreate() throws ExecutionException, InterruptedException, IOException {
+        client().admin().indices().prepareCreate("test_index").get();
+        String matchQuery = QueryBuilders.matchQuery("test", "{{query_string}}").toString();
+        Map<String, Object> params = new HashMap<>();
+        params.put("query_string", "a query");
+        FeatureValidation validation = new FeatureValidation("test_index", params);
+
+        FeatureStoreBulkRequestBuilder builder = FeatureStoreBulkAction.INSTANCE.newRequestBuilder(client());
+        builder.request().setStore(IndexFeatureStore.DEFAULT_STORE);
+        for (int i = 0; i < 5; i++) {
+            StoredFeature feature = new StoredFeature("feat" + i, singletonList("query_string"), "mustache", matchQuery);
+            FeatureStoreRequest request = new FeatureStoreRequest(IndexFeatureStore.DEFAULT_STORE, feature,
+                    FeatureStoreRequest.Action.CREATE);
+            request.setValidation(validation);
+            builder.request().add(request);
+        }
+        FeatureStoreBulkResponse response = builder.execute().get();
+        assertFalse(response.getResponse().hasFailures());
+        assertEquals(5, response.getResponse().getItems().length);
+        for (int i = 0; i < 5; i++) {
+            StoredFeature feature = getElement(StoredFeature.class, StoredFeature.TYPE, "feat" + i);
+            assertEquals("feat" + i, feature.name());
+        }
+    }
+
+    public void testBulkValidationFailure() throws ExecutionException, InterruptedException, IOException {
+        client().admin().indices().prepareCreate("test_index").get();
+        String matchQuery = QueryBuilders.matchQuery("test", "{{query_string}}").toString();
+        String brokenQuery = "{\"query\": {\"match\":{\"test\": \"{{query_string}}\"}}}";
+        Map<String, Object> params = new HashMap<>();
+        params.put("query_string", "a query");
+        FeatureValidation validation = new FeatureValidation("test_index", params);
+
+        FeatureStoreBulkRequestBuilder builder = FeatureStoreBulkAction.INSTANCE.newRequestBuilder(client());
+        builder.request().setStore(IndexFeatureStore.DEFAULT_STORE);
+        FeatureStoreRequest valid = new FeatureStoreRequest(IndexFeatureStore.DEFAULT_STORE,
+                new StoredFeature("valid", singletonList("query_string"), "mustache", matchQuery), FeatureStoreRequest.Action.CREATE);
+        valid.setValidation(validation);
+        FeatureStoreRequest broken = new FeatureStoreRequest(IndexFeatureStore.DEFAULT_STORE,
+                new StoredFeature("broken", singletonList("query_string"), "mustache", brokenQuery), FeatureStoreRequest.Action.CREATE);
+        broken.setValidation(validation);
+        builder.request().add(valid).add(broken);
+        FeatureStoreBulkResponse response = builder.execute().get();
+        // the invalid element is reported in its item, the valid one is stored
+        BulkItemResponse[] items = response.getResponse().getItems();
+        assertEquals(2, items.length);
+        assertFalse(items[0].isFailed());
+        assertTrue(items[1].isFailed());
+        assertEquals(StoredFeature.TYPE + "-broken", items[1].getId());
+        assertThat(items[1].getFailureMessage(), CoreMatchers.containsString("Validation of the feature [broken] failed"));
+        assertNotNull(getElement(StoredFeature.class, StoredFeature.TYPE, "valid"));
+        assertNull(getElement(StoredFeature.class, StoredFeature.TYPE, "broken"));
+    }
+
+    public void testBulkValidationBatches() throws ExecutionException, InterruptedException, IOException {
+        client().admin().indices().prepareCreate("test_index").get();
+        String matchQuery = QueryBuilders.matchQuery("test", "{{query_string}}").toString();
+        String brokenQuery = "{\"query\": {\"match\":{\"test\": \"{{query_string}}\"}}}";
+        FeatureValidation validation = new FeatureValidation("test_index", singletonMap("query_string", "a query"));
+
+        // more elements than the clauses of a bool query
+        int nElements = BooleanQuery.getMaxClauseCount() + 4;
+        int brokenIdx = nElements - 2;
+        FeatureStoreBulkRequestBuilder builder = FeatureStoreBulkAction.INSTANCE.newRequestBuilder(client());
+        builder.request().setStore(IndexFeatureStore.DEFAULT_STORE);
+        for (int i = 0; i < nElements; i++) {
+            StoredFeature feature = new StoredFeature("feat" + i, singletonList("query_string"), "mustache",
+                    i == brokenIdx ? brokenQuery : matchQuery);
+            FeatureStoreRequest request = new FeatureStoreRequest(IndexFeatureStore.DEFAULT_STORE, feature,
+                    FeatureStoreRequest.Action.CREATE);
+            request.setValidation(validation);
+            builder.request().add(request);
+        }
+        List<List<Integer>> batches = TransportFeatureStoreBulkAction.validationBatches(builder.request().getRequests());
+        assertTrue(batches.size() > 1);
+        assertTrue(batches.stream().allMatch((b) -> b.size() <= TransportFeatureStoreBulkAction.VALIDATION_BATCH_SIZE));
+
+        BulkItemResponse[] items = builder.execute().get().getResponse().getItems();
+        assertEquals(nElements, items.length);
+        for (int i = 0; i < nElements; i++) {
+            assertEquals(i == brokenIdx, items[i].isFailed());
+        }
+        assertThat(items[brokenIdx].getFailureMessage(), CoreMatchers.containsString("[feat" + brokenIdx + "]"));
+        assertNotNull(getElement(StoredFeature.class, StoredFeature.TYPE, "feat0"));
+        assertNull(getElement(StoredFeature.class, StoredFeature.TYPE, "feat" + brokenIdx));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.action;
+
+import com.o19s.es.ltr.LtrTestUtils;
+import com.o19s.es.ltr.action.ModelAliasAction.ModelAliasResponse;
+import com.o19s.es.ltr.feature.store.StoredFeatureSet;
+import com.o19s.es.ltr.feature.store.StoredModelAlias;
+import com.o19s.es.ltr.feature.store.index.Caches;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+
+public class ModelAliasActionIT extends BaseIntegrationTest {
+    public void testSwitchAlias() throws Exception {
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet("set");
+        addElement(LtrTestUtils.randomLinearModel("v1", set));
+        addElement(LtrTestUtils.randomLinearModel("v2", set));
+        Caches caches = getInstanceFromNode(Caches.class);
+
+        ModelAliasResponse response = ModelAliasAction.INSTANCE.newRequestBuilder(client())
+                .setAlias(IndexFeatureStore.DEFAULT_STORE, "prod", "v1")
+                .get();
+        assertNull(response.getPreviousModel());
+        assertEquals("v1", getElement(StoredModelAlias.class, StoredModelAlias.TYPE, "prod").model());
+        // loaded before the switch
+        assertNotNull(caches.modelCache().get(new Caches.CacheKey(IndexFeatureStore.DEFAULT_STORE, "v1")));
+        assertEquals("v1", caches.getModelAlias(IndexFeatureStore.DEFAULT_STORE, "prod"));
+
+        response = ModelAliasAction.INSTANCE.newRequestBuilder(client())
+                .setAlias(IndexFeatureStore.DEFAULT_STORE, "prod", "v2")
+                .get();
+        assertEquals("v1", response.getPreviousModel());
+        assertNotNull(caches.modelCache().get(new Caches.CacheKey(IndexFeatureStore.DEFAULT_STORE, "v2")));
+        assertNull(caches.modelCache().get(new Caches.CacheKey(IndexFeatureStore.DEFAULT_STORE, "v1")));
+        assertEquals("v2", caches.getModelAlias(IndexFeatureStore.DEFAULT_STORE, "prod"));
+
+        response = ModelAliasAction.INSTANCE.newRequestBuilder(client())
+                .deleteAlias(IndexFeatureStore.DEFAULT_STORE, "prod")
+                .get();
+        assertEquals("v2", response.getPreviousModel());
+        assertNull(getElement(StoredModelAlias.class, StoredModelAlias.TYPE, "prod"));
+        assertNull(caches.getModelAlias(IndexFeatureStore.DEFAULT_STORE, "prod"));
+    }
+
+    public void testInvalidAlias() throws Exception {
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet("set");
+        addElement(LtrTestUtils.randomLinearModel("v1", set));
+        Throwable e = expectThrows(ExecutionException.class, () -> ModelAliasAction.INSTANCE.newRequestBuilder(client())
+                .setAlias(IndexFeatureStore.DEFAULT_STORE, "prod", "unknown")
+                .execute().get()).getCause();
+        assertThat(e, instanceOf(IllegalArgumentException.class));
+        e = expectThrows(ExecutionException.class, () -> ModelAliasAction.INSTANCE.newRequestBuilder(client())
+                .setAlias(IndexFeatureStore.DEFAULT_STORE, "v1", "v1")
+                .execute().get()).getCause();
+        assertThat(e, instanceOf(IllegalArgumentException.class));
+        assertNull(getElement(StoredModelAlias.class, StoredModelAlias.TYPE, "prod"));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.ltr.LtrTestUtils;
+import com.o19s.es.ltr.feature.store.index.CachedFeatureStore;
+import com.o19s.es.ltr.feature.store.index.Caches;
+import com.o19s.es.ltr.ranker.parser.LinearRankerParser;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.NoopCircuitBreaker;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.indices.breaker.HierarchyCircuitBreakerService;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.instanceOf;
+
+public class LtrCircuitBreakerTests extends ESTestCase {
+    private final LtrRankerParserFactory factory = new LtrRankerParserFactory.Builder()
+            .register(LinearRankerParser.TYPE, LinearRankerParser::new)
+            .build();
+    private CircuitBreaker breaker;
+    private LtrNodeServices services;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Settings settings = Settings.builder().put(LtrCircuitBreaker.LTR_BREAKER_LIMIT.getKey(), "4kb").build();
+        breaker = LtrCircuitBreaker.register(settings, new HierarchyCircuitBreakerService(settings,
+                new ClusterSettings(settings, ClusterSettings.BUILT_IN_CLUSTER_SETTINGS)));
+        services = new LtrNodeServices();
+        services.setCircuitBreaker(breaker);
+    }
+
+    public void testRegister() {
+        assertEquals(LtrCircuitBreaker.NAME, breaker.getName());
+        assertEquals(4096, breaker.getLimit());
+        assertSame(breaker, services.getCircuitBreaker());
+        services.setCircuitBreaker(null);
+        assertThat(services.getCircuitBreaker(), instanceOf(NoopCircuitBreaker.class));
+    }
+
+    public void testCompileReleasesTheReservation() throws IOException {
+        StoredLtrModel model = LtrTestUtils.randomLinearModel("model", LtrTestUtils.randomFeatureSet(2));
+        assertEquals("model", model.compile(factory, services).name());
+        assertEquals(0, breaker.getUsed());
+        expectThrows(IllegalStateException.class, () -> LtrCircuitBreaker.compile(breaker, "failing", 10, () -> {
+            throw new IllegalStateException("compilation failed");
+        }));
+        assertEquals(0, breaker.getUsed());
+    }
+
+    public void testOversizedModelIsRejected() throws IOException {
+        StoredLtrModel model = LtrTestUtils.randomLinearModel("model", LtrTestUtils.randomFeatureSet(200));
+        CircuitBreakingException e = expectThrows(CircuitBreakingException.class, () -> model.compile(factory, services));
+        assertTrue(e.getMessage().contains("ltr model [model]"));
+        assertEquals(0, breaker.getUsed());
+        assertEquals(1, breaker.getTrippedCount());
+    }
+
+    public void testCachesWeight() throws IOException {
+        MemStore memStore = new MemStore();
+        Caches caches = new Caches(Settings.EMPTY);
+        CompiledLtrModel model = LtrTestUtils.buildRandomModel();
+        memStore.add(model);
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        store.loadModel(model.name());
+        caches.setCircuitBreaker(breaker);
+        assertEquals(caches.getTotalWeight(), breaker.getUsed());
+
+        StoredFeature feature = LtrTestUtils.randomFeature();
+        memStore.add(feature);
+        store.load(feature.name());
+        assertEquals(caches.getTotalWeight(), breaker.getUsed());
+
+        caches.evict(memStore.getStoreName());
+        assertEquals(0, breaker.getUsed());
+    }
+}
@@ -18,6 +18,8 @@ package com.o19s.es.ltr.feature.store;
 
 import com.o19s.es.ltr.feature.Feature;
 import com.o19s.es.ltr.feature.FeatureSet;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.collect.Tuple;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -30,6 +32,9 @@ public class MemStore implements FeatureStore {
     private final Map<String, StoredFeature> features = new HashMap<>();
     private final Map<String, StoredFeatureSet> sets = new HashMap<>();
     private final Map<String, CompiledLtrModel> models = new HashMap<>();
+    private final Map<String, String> modelAliases = new HashMap<>();
+    // doc id -> version, bumped every time an element is added
+    private final Map<String, Long> versions = new HashMap<>();
 
     private final String storeName;
 
@@ -48,46 +53,113 @@ public class MemStore implements FeatureStore {
 
     @Override
     public Feature load(String id) throws IOException {
+        return load(id, LoadListener.NOOP);
+    }
+
+    @Override
+    public FeatureSet loadSet(String id) throws IOException {
+        return loadSet(id, LoadListener.NOOP);
+    }
+
+    @Override
+    public CompiledLtrModel loadModel(String id) throws IOException {
+        return loadModel(id, LoadListener.NOOP);
+    }
+
+    @Override
+    public Feature load(String id, LoadListener listener) throws IOException {
         StoredFeature feature = features.get(id);
         if (feature == null) {
             throw new IllegalArgumentException("Feature [" + id + "] not found");
         }
+        listener.onVersion(getVersion(StoredFeature.TYPE, id));
         return feature.optimize();
     }
 
     @Override
-    public FeatureSet loadSet(String id) throws IOException {
+    public FeatureSet loadSet(String id, LoadListener listener) throws IOException {
         StoredFeatureSet set = sets.get(id);
         if (set == null) {
             throw new IllegalArgumentException("Feature [" + id + "] not found");
         }
+        listener.onVersion(getVersion(StoredFeatureSet.TYPE, id));
         return set.optimize();
     }
 
     @Override
-    public CompiledLtrModel loadModel(String id) throws IOException {
+    public CompiledLtrModel loadModel(String id, LoadListener listener) throws IOException {
         CompiledLtrModel model = models.get(id);
         if (model == null) {
             throw new IllegalArgumentException("Feature [" + id + "] not found");
         }
+        listener.onVersion(getVersion(StoredLtrModel.TYPE, id));
         return model;
     }
 
+    @Override
+    public String resolveModelAlias(String name) {
+        return modelAliases.get(name);
+    }
+
+    @Override
+    public String resolveModelAlias(String name, LoadListener listener) {
+        String model = modelAliases.get(name);
+        if (model != null) {
+            listener.onVersion(getVersion(StoredModelAlias.TYPE, name));
+        }
+        return model;
+    }
+
+    @Override
+    public void resolveModelVersion(String name, ActionListener<Tuple<String, Long>> listener) {
+        String model = models.containsKey(name) ? name : modelAliases.get(name);
+        if (model == null || !models.containsKey(model)) {
+            listener.onFailure(new IllegalArgumentException("Unknown model [" + name + "]"));
+            return;
+        }
+        listener.onResponse(new Tuple<>(model, getVersion(StoredLtrModel.TYPE, model)));
+    }
+
+    public void addModelAlias(String alias, String model) {
+        modelAliases.put(alias, model);
+        bumpVersion(StoredModelAlias.TYPE, alias);
+    }
+
     public void add(StoredFeature feature) {
         features.put(feature.name(), feature);
+        bumpVersion(StoredFeature.TYPE, feature.name());
     }
 
     public void add(StoredFeatureSet set) {
         sets.put(set.name(), set);
+        bumpVersion(StoredFeatureSet.TYPE, set.name());
     }
 
     public void add(CompiledLtrModel model) {
         models.put(model.name(), model);
+        bumpVersion(StoredLtrModel.TYPE, model.name());
+    }
+
+    /**
+     * Current versions of the stored elements indexed by their document id
+     */
+    public Map<String, Long> getVersions() {
+        return new HashMap<>(versions);
     }
 
     public void clear() {
         features.clear();
         sets.clear();
         models.clear();
+        modelAliases.clear();
+        versions.clear();
+    }
+
+    private long getVersion(String type, String name) {
+        return versions.get(StorableElement.generateId(type, name));
+    }
+
+    private void bumpVersion(String type, String name) {
+        versions.merge(StorableElement.generateId(type, name), 1L, Long::sum);
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.ltr.feature.FeatureSet;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static java.util.Collections.singletonList;
+
+public class ParallelFeatureExecutorTests extends ESTestCase {
+    private ThreadPool threadPool;
+
+    private ParallelFeatureExecutor build(Settings settings) {
+        Settings nodeSettings = Settings.builder()
+                .put("node.name", getTestName())
+                .put("thread_pool." + ParallelFeatureExecutor.THREAD_POOL_NAME + ".size", 3)
+                .put(settings)
+                .build();
+        threadPool = new ThreadPool(nodeSettings, ParallelFeatureExecutor.executorBuilder(nodeSettings));
+        return new ParallelFeatureExecutor(nodeSettings, threadPool);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (threadPool != null) {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+        super.tearDown();
+    }
+
+    public void testForEachVisitsAllOrdinalsOnce() {
+        ParallelFeatureExecutor executor = build(Settings.EMPTY);
+        int size = randomIntBetween(1, 2000);
+        AtomicIntegerArray visits = new AtomicIntegerArray(size);
+        executor.forEach(size, visits::incrementAndGet);
+        for (int i = 0; i < size; i++) {
+            assertEquals(1, visits.get(i));
+        }
+    }
+
+    public void testFailuresArePropagated() {
+        ParallelFeatureExecutor executor = build(Settings.EMPTY);
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> executor.forEach(1000, (i) -> {
+            if (i == 500) {
+                throw new IllegalArgumentException("boom");
+            }
+        }));
+        assertEquals("boom", e.getMessage());
+    }
+
+    public void testSaturatedPoolRunsOnCallingThread() throws InterruptedException {
+        ParallelFeatureExecutor executor = build(Settings.EMPTY);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            threadPool.executor(ParallelFeatureExecutor.THREAD_POOL_NAME).execute(() -> {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        blocked.await();
+        try {
+            AtomicIntegerArray visits = new AtomicIntegerArray(100);
+            String caller = Thread.currentThread().getName();
+            executor.forEach(100, (i) -> {
+                assertEquals(caller, Thread.currentThread().getName());
+                visits.incrementAndGet(i);
+            });
+            for (int i = 0; i < 100; i++) {
+                assertEquals(1, visits.get(i));
+            }
+        } finally {
+            release.countDown();
+        }
+    }
+
+    public void testParallelOptimize() {
+        LtrNodeServices services = new LtrNodeServices();
+        services.setFeatureExecutor(build(Settings.builder()
+                .put(ParallelFeatureExecutor.LTR_PARALLEL_COMPILE_MIN_FEATURES.getKey(), 2).build()));
+        int nFeatures = randomIntBetween(2, 200);
+        List<StoredFeature> features = new ArrayList<>(nFeatures);
+        for (int i = 0; i < nFeatures; i++) {
+            features.add(new StoredFeature("feat" + i, singletonList("query_string"), "mustache",
+                    QueryBuilders.matchQuery("field" + i, "{{query_string}}").toString()));
+        }
+        FeatureSet optimized = new StoredFeatureSet("my_set", features).optimize(services);
+        assertTrue(optimized instanceof OptimizedFeatureSet);
+        assertEquals(nFeatures, optimized.size());
+        for (int i = 0; i < nFeatures; i++) {
+            assertEquals(features.get(i).optimize(), optimized.feature(i));
+            assertEquals(i, optimized.featureOrdinal("feat" + i));
+        }
+    }
+}
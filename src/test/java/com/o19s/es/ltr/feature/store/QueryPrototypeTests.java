@@ -0,0 +1,91 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.template.mustache.MustacheUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchModule;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Collections.emptyList;
+import static org.elasticsearch.index.query.AbstractQueryBuilder.parseInnerQueryBuilder;
+
+public class QueryPrototypeTests extends LuceneTestCase {
+    private static final NamedXContentRegistry REGISTRY = new NamedXContentRegistry(
+            new SearchModule(Settings.EMPTY, false, emptyList()).getNamedXContents());
+
+    public void testParsesLikeTheRenderedTemplate() throws IOException {
+        String template = "{\"bool\": {" +
+                "\"must\": [" +
+                "{\"match\": {\"title\": {\"query\": \"{{keywords}}\", \"boost\": 2.5, \"operator\": \"and\"}}}," +
+                "{\"term\": {\"user\": \"{{ user }}\"}}," +
+                "{\"terms\": {\"tags\": [\"a\", \"b\"]}}," +
+                "{\"range\": {\"age\": {\"gte\": 10, \"lt\": \"{{max_age}}\"}}}" +
+                "]," +
+                "\"should\": {\"match\": {\"body\": \"{{keywords}}\"}}," +
+                "\"minimum_should_match\": 0," +
+                "\"adjust_pure_negative\": true}}";
+        QueryPrototype prototype = QueryPrototype.compile(template);
+        assertNotNull(prototype);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("keywords", "a \"quoted\" {query}");
+        params.put("user", "bob");
+        params.put("max_age", 42);
+        String[] slotValues = prototype.fill(params);
+        assertNotNull(slotValues);
+
+        QueryBuilder expected = parse(JsonXContent.jsonXContent.createParser(REGISTRY,
+                MustacheUtils.execute(MustacheUtils.compile("test", template), params)));
+        QueryBuilder actual = parse(prototype.parser(REGISTRY, slotValues));
+        assertEquals(expected, actual);
+    }
+
+    public void testFallsBackOnParamsThatAreNotStrings() {
+        QueryPrototype prototype = QueryPrototype.compile("{\"match\": {\"title\": \"{{keywords}}\"}}");
+        assertNotNull(prototype);
+        Map<String, Object> params = new HashMap<>();
+        params.put("keywords", Arrays.asList("a", "b"));
+        assertNull(prototype.fill(params));
+        assertNull(prototype.fill(new HashMap<>()));
+    }
+
+    public void testTemplatesNotCompiled() {
+        assertNull(QueryPrototype.compile("{\"match\": {\"title\": \"prefix {{keywords}}\"}}"));
+        assertNull(QueryPrototype.compile("{\"match\": {\"{{field}}\": \"test\"}}"));
+        assertNull(QueryPrototype.compile("{\"match\": {\"title\": {\"query\": \"test\", \"boost\": {{boost}}}}}"));
+        assertNull(QueryPrototype.compile("{\"match\": {\"title\": \"{{#toJson}}keywords{{/toJson}}\"}}"));
+        assertNull(QueryPrototype.compile("{\"match\": {\"title\": \"{{{keywords}}}\"}}"));
+        assertNull(QueryPrototype.compile("{\"match\": {\"title\": \"{{obj.keywords}}\"}}"));
+        assertNull(QueryPrototype.compile("{\"terms\": {\"title\": {{#toJson}}keywords{{/toJson}}}}"));
+    }
+
+    private static QueryBuilder parse(XContentParser parser) throws IOException {
+        try (XContentParser p = parser) {
+            return parseInnerQueryBuilder(p);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.template.mustache.MustacheUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonList;
+
+public class RenderedQueryCacheTests extends LuceneTestCase {
+    public void testReferencedParams() {
+        assertEquals(new HashSet<>(Arrays.asList("query_string", "obj", "list", "other")), MustacheUtils.referencedParams(
+                MustacheUtils.compile("test", "{\"match\": {\"field\": \"{{query_string}} {{obj.field}}\"}, " +
+                        "\"x\": {{#toJson}}list{{/toJson}}, \"y\": \"{{#other}}{{.}}{{/other}}\"}")));
+        assertEquals(new HashSet<>(), MustacheUtils.referencedParams(MustacheUtils.compile("test", "{\"match_all\": {}}")));
+    }
+
+    public void testCachesOnReferencedParams() {
+        RenderedQueryCache cache = new RenderedQueryCache(1024 * 1024);
+        PrecompiledTemplateFeature feature = PrecompiledTemplateFeature.compile(new StoredFeature("feat",
+                singletonList("query_string"), "mustache", QueryBuilders.matchQuery("field", "{{query_string}}").toString()));
+        AtomicInteger renders = new AtomicInteger();
+        QueryBuilder query = QueryBuilders.matchQuery("field", "a query");
+        Map<String, Object> params = new HashMap<>();
+        params.put("query_string", "a query");
+        params.put("unused", "value");
+
+        assertSame(query, cache.getOrRender(feature, singletonList("query_string"), params, () -> {
+            renders.incrementAndGet();
+            return new RenderedQueryCache.Rendered(query, 100);
+        }));
+        // unused params are not part of the key
+        params.put("unused", "other value");
+        assertSame(query, cache.getOrRender(feature, singletonList("query_string"), params, () -> {
+            renders.incrementAndGet();
+            return new RenderedQueryCache.Rendered(QueryBuilders.matchAllQuery(), 100);
+        }));
+        assertEquals(1, renders.get());
+
+        params.put("query_string", "another query");
+        QueryBuilder other = QueryBuilders.matchQuery("field", "another query");
+        assertSame(other, cache.getOrRender(feature, singletonList("query_string"), params, () -> {
+            renders.incrementAndGet();
+            return new RenderedQueryCache.Rendered(other, 100);
+        }));
+        assertEquals(2, renders.get());
+
+        RenderedQueryCache.Stats stats = cache.stats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(2, stats.getCount());
+        assertTrue(stats.getRam() > 0);
+        assertEquals(1D / 3D, stats.hitRate(), 0.0001);
+    }
+
+    public void testDisabled() {
+        assertNull(RenderedQueryCache.create(Settings.builder()
+                .put(RenderedQueryCache.LTR_CACHE_RENDERED_QUERIES_MEM.getKey(), "0b").build()));
+        assertNotNull(RenderedQueryCache.create(Settings.EMPTY));
+    }
+}
@@ -229,6 +229,8 @@ public class StoredFeatureParserTests extends LuceneTestCase {
                 "\"}";
         StoredFeature feature = parse(featureString);
         assertThat(feature.optimize(), instanceOf(PrecompiledTemplateFeature.class));
+        // no placeholders: queries are parsed from the tokens of the template
+        assertTrue(((PrecompiledTemplateFeature) feature.optimize()).hasPrototype());
     }
 
     public void testDontOptimizeOnThirdPartyTemplateEngine() throws IOException {
@@ -16,6 +16,7 @@
 
 package com.o19s.es.ltr.feature.store;
 
+import com.o19s.es.ltr.feature.FeatureSet;
 import org.apache.lucene.util.LuceneTestCase;
 
 import java.io.IOException;
@@ -114,4 +115,32 @@ public class StoredFeatureSetTests extends LuceneTestCase {
         assertSame(feat2_v1, set_v3.feature(1));
         assertSame(feat3_v1, set_v3.feature(2));
     }
-}
\ No newline at end of file
+
+    public void testOptimizeSharesCompiledFeatures() throws IOException {
+        LtrNodeServices services = new LtrNodeServices();
+        StoredFeature f1 = new StoredFeature("f1", singletonList("query"), "mustache", "{\"match\":{\"field\":\"{{query}}\"}}");
+        StoredFeature f2 = new StoredFeature("f2", emptyList(), "derived_expression", "f1 * 2");
+        FeatureSet set1 = new StoredFeatureSet("set1", asList(f1, f2)).optimize(services);
+        // Same definitions parsed from another document
+        StoredFeature f1Copy = new StoredFeature("f1", singletonList("query"), "mustache",
+                "{\"match\":{\"field\":\"{{query}}\"}}");
+        FeatureSet set2 = new StoredFeatureSet("set2", singletonList(f1Copy)).optimize(services);
+        assertSame(set1.feature(0), set2.feature(0));
+        // The compiled features are only shared on the same node
+        FeatureSet otherNode = new StoredFeatureSet("set2", singletonList(f1Copy)).optimize(new LtrNodeServices());
+        assertNotSame(set1.feature(0), otherNode.feature(0));
+
+        // Only the new features are compiled when appending to a set
+        FeatureSet appended = new StoredFeatureSet("set1", asList(f1, f2))
+                .append(singletonList(new StoredFeature("f3", emptyList(), "derived_expression", "f1 * 3")))
+                .optimize(services);
+        assertSame(set1.feature(0), appended.feature(0));
+        assertSame(set1.feature(1), appended.feature(1));
+
+        // Different definitions are not shared
+        StoredFeature f1Updated = new StoredFeature("f1", singletonList("query"), "mustache",
+                "{\"match\":{\"other_field\":\"{{query}}\"}}");
+        FeatureSet updated = new StoredFeatureSet("set1", singletonList(f1Updated)).optimize(services);
+        assertNotSame(set1.feature(0), updated.feature(0));
+    }
+}
@@ -25,11 +25,14 @@ import java.io.IOException;
 
 import org.apache.lucene.util.LuceneTestCase;
 import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
 
+import com.o19s.es.ltr.ranker.CompactRankerEncoding;
 import com.o19s.es.ltr.ranker.LtrRanker;
 import com.o19s.es.ltr.ranker.linear.LinearRanker;
 import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
@@ -108,6 +111,32 @@ public class StoredLtrModelParserTests extends LuceneTestCase {
         assertTestModelAsXContent(modelReparsed);
     }
 
+    public void testCompactModel() throws IOException {
+        StoredLtrModel model = parse(getTestModel());
+        BytesReference compact = CompactRankerEncoding.encode(ranker);
+        model = model.withCompactModel(compact);
+
+        XContentBuilder builder = XContentFactory.contentBuilder(XContentType.JSON);
+        String modelString = model.toXContent(builder, ToXContent.EMPTY_PARAMS).bytes().utf8ToString();
+        StoredLtrModel modelReparsed = parse(modelString);
+        assertEquals(model, modelReparsed);
+        assertEquals("completely ignored", modelReparsed.rankingModel());
+
+        // The definition is not sent over the wire when the compact encoding is available
+        BytesStreamOutput out = new BytesStreamOutput();
+        modelReparsed.writeTo(out);
+        StoredLtrModel modelRead = new StoredLtrModel(out.bytes().streamInput());
+        assertNull(modelRead.rankingModel());
+        assertEquals(compact, modelRead.compactModel());
+
+        LtrRanker decoded = modelRead.compile(factory).ranker();
+        assertNotSame(ranker, decoded);
+        LtrRanker.FeatureVector vector = decoded.newFeatureVector(null);
+        vector.setFeatureScore(0, 1F);
+        vector.setFeatureScore(2, 2F);
+        assertEquals(7F, decoded.score(vector), 0F);
+    }
+
     public void testParseFailureOnMissingName() throws IOException {
         String modelString = "{\n" +
                 " \"feature_set\":" +
@@ -0,0 +1,64 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store;
+
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import org.apache.lucene.util.LuceneTestCase;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.xcontent.XContentParser;
+
+import java.io.IOException;
+
+import static org.elasticsearch.common.xcontent.NamedXContentRegistry.EMPTY;
+import static org.elasticsearch.common.xcontent.json.JsonXContent.jsonXContent;
+import static org.hamcrest.CoreMatchers.containsString;
+
+public class StoredModelAliasParserTests extends LuceneTestCase {
+    public void testParse() throws IOException {
+        StoredModelAlias alias = parse("{\"name\": \"prod\", \"model\": \"my_model_v2\"}");
+        assertEquals("prod", alias.name());
+        assertEquals("my_model_v2", alias.model());
+        assertEquals(StoredModelAlias.TYPE, alias.type());
+    }
+
+    public void testRoundTrip() throws IOException {
+        StoredModelAlias alias = new StoredModelAlias("prod", "my_model_v2");
+        BytesReference source = IndexFeatureStore.toSource(alias).bytes();
+        assertEquals(alias, IndexFeatureStore.parse(StoredModelAlias.class, StoredModelAlias.TYPE, source));
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        alias.writeTo(out);
+        assertEquals(alias, new StoredModelAlias(out.bytes().streamInput()));
+    }
+
+    public void testMissingModel() throws IOException {
+        assertThat(expectThrows(ParsingException.class, () -> parse("{\"name\": \"prod\"}")).getMessage(),
+                containsString("Field [model] is mandatory"));
+    }
+
+    public void testAliasToItself() throws IOException {
+        expectThrows(ParsingException.class, () -> parse("{\"name\": \"prod\", \"model\": \"prod\"}"));
+    }
+
+    private static StoredModelAlias parse(String json) throws IOException {
+        try (XContentParser parser = jsonXContent.createParser(EMPTY, json)) {
+            return StoredModelAlias.parse(parser);
+        }
+    }
+}
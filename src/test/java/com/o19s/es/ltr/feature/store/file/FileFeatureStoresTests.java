@@ -0,0 +1,186 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.file;
+
+import com.o19s.es.ltr.LtrTestUtils;
+import com.o19s.es.ltr.feature.store.FeatureStore;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
+import com.o19s.es.ltr.feature.store.StorableElement;
+import com.o19s.es.ltr.feature.store.StoredFeature;
+import com.o19s.es.ltr.feature.store.StoredFeatureSet;
+import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.StoredModelAlias;
+import com.o19s.es.ltr.feature.store.index.CachedFeatureStore;
+import com.o19s.es.ltr.feature.store.index.Caches;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import com.o19s.es.ltr.ranker.parser.LinearRankerParser;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import org.apache.lucene.util.IOUtils;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.watcher.ResourceWatcher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.util.Collections.singletonList;
+
+public class FileFeatureStoresTests extends ESTestCase {
+    private static final String STORE = "file:models";
+    private final LtrRankerParserFactory factory = new LtrRankerParserFactory.Builder()
+            .register(LinearRankerParser.TYPE, LinearRankerParser::new)
+            .build();
+    private final Caches caches = new Caches(Settings.EMPTY);
+    private Path dir;
+    private FileFeatureStores stores;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Path config = createTempDir();
+        dir = Files.createDirectories(config.resolve("ltr-stores").resolve("models"));
+        stores = new FileFeatureStores(Settings.EMPTY, config, caches, factory, new LtrNodeServices());
+    }
+
+    public void testStoreNames() {
+        assertTrue(FileFeatureStore.isFileStore("file:models"));
+        assertFalse(FileFeatureStore.isFileStore("file:"));
+        assertFalse(FileFeatureStore.isFileStore("models"));
+        assertFalse(FileFeatureStore.isFileStore(IndexFeatureStore.DEFAULT_STORE));
+        assertEquals("file:models", FileFeatureStore.storeName("models"));
+    }
+
+    public void testLoad() throws IOException {
+        StoredFeature feature = feature("feature1", "{\"match\":{\"field\":\"{{query}}\"}}");
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet("set1");
+        StoredLtrModel model = LtrTestUtils.randomLinearModel("model1", set);
+        write("feature1.json", feature);
+        write("sets/set1.json", set);
+        write("models/model1.json", model);
+        write("models/prod.json", new StoredModelAlias("prod", "model1"));
+        stores.watcher().init();
+
+        FeatureStore store = stores.get(STORE);
+        assertEquals(STORE, store.getStoreName());
+        assertEquals("feature1", store.load("feature1").name());
+        assertEquals(set.size(), store.loadSet("set1").size());
+        // Compiled and loaded in the caches with the store
+        assertNotNull(caches.modelCache().get(new Caches.CacheKey(STORE, "model1")));
+        assertEquals("model1", store.loadModel("model1").name());
+        assertEquals(set.size(), store.loadModel("model1").featureSet().size());
+        assertEquals("model1", store.resolveModelAlias("prod"));
+        assertEquals("model1", new CachedFeatureStore(store, caches).loadModel("prod").name());
+
+        expectThrows(IllegalArgumentException.class, () -> store.load("unknown"));
+        expectThrows(IllegalArgumentException.class, () -> store.loadSet("unknown"));
+        expectThrows(IllegalArgumentException.class, () -> store.loadModel("unknown"));
+        expectThrows(IllegalArgumentException.class, () -> stores.get("file:unknown"));
+    }
+
+    public void testReloadEvictsModifiedElements() throws IOException {
+        write("feature1.json", feature("feature1", "{\"match\":{\"field\":\"{{query}}\"}}"));
+        write("feature2.json", feature("feature2", "{\"match\":{\"field2\":\"{{query}}\"}}"));
+        ResourceWatcher watcher = stores.watcher();
+        watcher.init();
+        CachedFeatureStore cached = new CachedFeatureStore(stores.get(STORE), caches);
+        cached.load("feature1");
+        cached.load("feature2");
+        assertEquals(2, caches.getPerStoreStats(STORE).featureCount());
+
+        write("feature1.json", feature("feature1", "{\"match_phrase\":{\"other_field\":\"{{query}}\"}}"));
+        watcher.checkAndNotify();
+        assertNull(caches.featureCache().get(new Caches.CacheKey(STORE, "feature1")));
+        assertNotNull(caches.featureCache().get(new Caches.CacheKey(STORE, "feature2")));
+        FeatureStore reloaded = stores.get(STORE);
+        assertNotSame(cached, reloaded);
+        assertEquals("feature1", reloaded.load("feature1").name());
+    }
+
+    public void testLoadsFromThePreviousVersionAreNotCached() throws IOException {
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet("set1");
+        write("set1.json", set);
+        write("model1.json", LtrTestUtils.randomLinearModel("model1", set));
+        write("feature1.json", feature("feature1", "{\"match\":{\"field\":\"{{query}}\"}}"));
+        write("prod.json", new StoredModelAlias("prod", "model1"));
+        ResourceWatcher watcher = stores.watcher();
+        watcher.init();
+        // a search holding the previous version of the store
+        CachedFeatureStore previous = new CachedFeatureStore(stores.get(STORE), caches);
+
+        write("feature1.json", feature("feature1", "{\"match_phrase\":{\"other_field\":\"{{query}}\"}}"));
+        write("model2.json", LtrTestUtils.randomLinearModel("model2", set));
+        write("prod.json", new StoredModelAlias("prod", "model2"));
+        watcher.checkAndNotify();
+
+        // completes after the eviction, served to its search only
+        assertNotNull(previous.load("feature1"));
+        assertNull(caches.featureCache().get(new Caches.CacheKey(STORE, "feature1")));
+        caches.evictModel(STORE, "model1");
+        caches.setModelAlias(STORE, "prod", null);
+        assertEquals("model1", previous.loadModel("prod").name());
+        assertNull(caches.getModelAlias(STORE, "prod"));
+        assertNull(caches.modelCache().get(new Caches.CacheKey(STORE, "model1")));
+
+        CachedFeatureStore current = new CachedFeatureStore(stores.get(STORE), caches);
+        assertEquals("model2", current.loadModel("prod").name());
+        assertEquals("model2", caches.getModelAlias(STORE, "prod"));
+        assertNotNull(current.load("feature1"));
+        assertNotNull(caches.featureCache().get(new Caches.CacheKey(STORE, "feature1")));
+    }
+
+    public void testInvalidFilesKeepThePreviousVersion() throws IOException {
+        write("feature1.json", feature("feature1", "{\"match\":{\"field\":\"{{query}}\"}}"));
+        ResourceWatcher watcher = stores.watcher();
+        watcher.init();
+        FeatureStore store = stores.get(STORE);
+
+        Files.write(dir.resolve("broken.json"), "{\"feature\": {".getBytes(StandardCharsets.UTF_8));
+        watcher.checkAndNotify();
+        assertSame(store, stores.get(STORE));
+
+        Files.delete(dir.resolve("broken.json"));
+        write("duplicate.json", feature("feature1", "{\"term\":{\"field\":\"{{query}}\"}}"));
+        watcher.checkAndNotify();
+        assertSame(store, stores.get(STORE));
+    }
+
+    public void testDeletedDirectoryRemovesTheStore() throws IOException {
+        write("feature1.json", feature("feature1", "{\"match\":{\"field\":\"{{query}}\"}}"));
+        ResourceWatcher watcher = stores.watcher();
+        watcher.init();
+        new CachedFeatureStore(stores.get(STORE), caches).load("feature1");
+        assertEquals(1, caches.getPerStoreStats(STORE).featureCount());
+
+        IOUtils.rm(dir);
+        watcher.checkAndNotify();
+        expectThrows(IllegalArgumentException.class, () -> stores.get(STORE));
+        assertEquals(0, caches.getPerStoreStats(STORE).featureCount());
+    }
+
+    private static StoredFeature feature(String name, String template) {
+        return new StoredFeature(name, singletonList("query"), "mustache", template);
+    }
+
+    private void write(String file, StorableElement elt) throws IOException {
+        Path path = dir.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.write(path, BytesReference.toBytes(IndexFeatureStore.toSource(elt).bytes()));
+    }
+}
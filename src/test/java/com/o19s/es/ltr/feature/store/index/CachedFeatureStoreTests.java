@@ -17,17 +17,36 @@
 package com.o19s.es.ltr.feature.store.index;
 
 import com.o19s.es.ltr.LtrTestUtils;
+import com.o19s.es.ltr.NodeSettingsIT;
 import com.o19s.es.ltr.feature.store.CompiledLtrModel;
+import com.o19s.es.ltr.feature.store.FeatureStore;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
 import com.o19s.es.ltr.feature.store.MemStore;
+import com.o19s.es.ltr.feature.store.StorableElement;
 import com.o19s.es.ltr.feature.store.StoredFeature;
 import com.o19s.es.ltr.feature.store.StoredFeatureSet;
+import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.StoredModelAlias;
+import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree;
+import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTreeTests;
+import com.o19s.es.ltr.ranker.dectree.OffHeapDecisionTree;
+import com.o19s.es.ltr.ranker.parser.LinearRankerParser;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
 import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.SetOnce;
 import org.apache.lucene.util.TestUtil;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.LongStream;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 
@@ -190,4 +209,486 @@ public class CachedFeatureStoreTests extends LuceneTestCase {
         caches.evict(two.getStoreName());
         assertTrue(caches.getCachedStoreNames().isEmpty());
     }
-}
\ No newline at end of file
+
+    public void testEvictStale() throws IOException {
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        StoredFeature unchanged = LtrTestUtils.randomFeature("unchanged");
+        StoredFeature updated = LtrTestUtils.randomFeature("updated");
+        StoredFeatureSet deleted = LtrTestUtils.randomFeatureSet("deleted");
+        memStore.add(unchanged);
+        memStore.add(updated);
+        memStore.add(deleted);
+        store.load(unchanged.name());
+        store.load(updated.name());
+        store.loadSet(deleted.name());
+        assertEquals(3, caches.versionedDocIds(memStore.getStoreName()).size());
+
+        memStore.add(updated);
+        Map<String, Long> versions = memStore.getVersions();
+        String deletedId = StorableElement.generateId(StoredFeatureSet.TYPE, deleted.name());
+        versions.remove(deletedId);
+        Set<String> deletedIds = Collections.singleton(deletedId);
+        assertEquals(2, caches.evictStale(memStore.getStoreName(), versions, deletedIds));
+        assertNotNull(store.getCachedFeature(unchanged.name()));
+        assertNull(store.getCachedFeature(updated.name()));
+        assertNull(store.getCachedFeatureSet(deleted.name()));
+        assertEquals(0, caches.evictStale(memStore.getStoreName(), versions, deletedIds));
+        assertEquals(1, caches.getPerStoreCounters(memStore.getStoreName()).features().evictions(CacheCounters.EvictionCause.STALE));
+        assertEquals(1, caches.getPerStoreCounters(memStore.getStoreName()).featureSets()
+                .evictions(CacheCounters.EvictionCause.STALE));
+    }
+
+    public void testEvictStaleKeepsUncheckedAndNewerEntries() throws IOException {
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        StoredFeature unchecked = LtrTestUtils.randomFeature("unchecked");
+        StoredFeature refreshing = LtrTestUtils.randomFeature("refreshing");
+        memStore.add(unchecked);
+        memStore.add(refreshing);
+        String refreshingId = StorableElement.generateId(StoredFeature.TYPE, refreshing.name());
+        long searchedVersion = memStore.getVersions().get(refreshingId);
+        // updated and loaded after the search saw the previous version
+        memStore.add(refreshing);
+        store.load(unchecked.name());
+        store.load(refreshing.name());
+
+        Map<String, Long> versions = Collections.singletonMap(refreshingId, searchedVersion);
+        assertEquals(0, caches.evictStale(memStore.getStoreName(), versions, Collections.emptySet()));
+        assertNotNull(store.getCachedFeature(unchecked.name()));
+        assertNotNull(store.getCachedFeature(refreshing.name()));
+    }
+
+    public void testLoadModelAtVersion() throws IOException {
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        CompiledLtrModel model = LtrTestUtils.buildRandomModel();
+        memStore.add(model);
+        String id = StorableElement.generateId(StoredLtrModel.TYPE, model.name());
+        long v1 = memStore.getVersions().get(id);
+        assertSame(model, store.loadModel(model.name(), v1));
+        assertSame(model, store.loadModel(model.name(), v1));
+        assertEquals(1, caches.getPerStoreCounters(memStore.getStoreName()).models().hits());
+
+        CompiledLtrModel updated = new CompiledLtrModel(model.name(), model.featureSet(), model.ranker());
+        memStore.add(updated);
+        long v2 = memStore.getVersions().get(id);
+        // Cached at v1, reloaded
+        assertSame(updated, store.loadModel(model.name(), v2));
+        assertEquals(1, caches.getPerStoreCounters(memStore.getStoreName()).models().evictions(CacheCounters.EvictionCause.STALE));
+        // Cached at a newer version, the search cannot score with the version it resolved
+        expectThrows(IllegalStateException.class, () -> store.loadModel(model.name(), v1));
+        assertEquals(1, caches.getPerStoreCounters(memStore.getStoreName()).models().evictions(CacheCounters.EvictionCause.STALE));
+        assertEquals(v2, caches.cachedModelVersion(memStore.getStoreName(), model.name()));
+        // Updated while the search ran
+        memStore.add(model);
+        expectThrows(IllegalStateException.class, () -> store.loadModel(model.name(), v2 + 2));
+        assertSame(model, store.loadModel(model.name(), v2 + 1));
+    }
+
+    public void testResolvedModelsReused() throws IOException {
+        CompiledLtrModel v1 = LtrTestUtils.buildRandomModel();
+        CompiledLtrModel v2 = LtrTestUtils.buildRandomModel();
+        memStore.add(v1);
+        memStore.add(v2);
+        memStore.addModelAlias("prod", v1.name());
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        String id = StorableElement.generateId(StoredLtrModel.TYPE, v1.name());
+        long version = memStore.getVersions().get(id);
+
+        assertEquals(new Tuple<>(v1.name(), version), resolveModelVersion(store, v1.name()));
+        assertEquals(new Tuple<>(v1.name(), version), resolveModelVersion(store, "prod"));
+        // not looked up again, the model is not cached on this node
+        memStore.add(v1);
+        assertNull(store.getCachedModel(v1.name()));
+        assertEquals(new Tuple<>(v1.name(), version), resolveModelVersion(store, v1.name()));
+        assertEquals(new Tuple<>(v1.name(), version), resolveModelVersion(store, "prod"));
+
+        caches.evictStale(memStore.getStoreName(), memStore.getVersions(), Collections.emptySet());
+        assertEquals(new Tuple<>(v1.name(), version + 1), resolveModelVersion(store, v1.name()));
+        caches.evictModel(memStore.getStoreName(), v1.name());
+        assertEquals(new Tuple<>(v1.name(), version + 1), resolveModelVersion(store, "prod"));
+
+        memStore.addModelAlias("prod", v2.name());
+        caches.setModelAlias(memStore.getStoreName(), "prod", v2.name());
+        assertEquals(v2.name(), resolveModelVersion(store, "prod").v1());
+    }
+
+    public void testResolvedModelsExpire() throws IOException, InterruptedException {
+        Caches caches = new Caches(TimeValue.timeValueHours(1), TimeValue.timeValueHours(1), new ByteSizeValue(1000000),
+                new ByteSizeValue(1000000), Collections.emptyMap(), true, false, TimeValue.timeValueMillis(100));
+        CompiledLtrModel model = LtrTestUtils.buildRandomModel();
+        memStore.add(model);
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        long version = resolveModelVersion(store, model.name()).v2();
+        memStore.add(model);
+        assertEquals(version, resolveModelVersion(store, model.name()).v2().longValue());
+        Thread.sleep(500);
+        assertEquals(version + 1, resolveModelVersion(store, model.name()).v2().longValue());
+    }
+
+    public void testEvictStaleIgnoresUnversionedEntries() throws IOException {
+        StoredFeature feat = LtrTestUtils.randomFeature();
+        memStore.add(feat);
+        // Load without version tracking
+        caches.loadFeature(new Caches.CacheKey(memStore.getStoreName(), feat.name()), (l) -> memStore.load(feat.name()));
+        assertTrue(caches.versionedDocIds(memStore.getStoreName()).isEmpty());
+        assertEquals(0, caches.evictStale(memStore.getStoreName(), Collections.emptyMap(),
+                Collections.singleton(StorableElement.generateId(StoredFeature.TYPE, feat.name()))));
+        assertEquals(1, caches.getPerStoreStats(memStore.getStoreName()).featureCount());
+    }
+
+    public void testStoreQuota() throws IOException {
+        long modelSize = 100000;
+        Caches caches = new Caches(TimeValue.timeValueHours(1), TimeValue.timeValueHours(1), new ByteSizeValue(modelSize * 100),
+                new ByteSizeValue(modelSize * 20), Collections.singletonMap("small", new ByteSizeValue(modelSize * 3)), false);
+        MemStore small = new MemStore("small");
+        MemStore large = new MemStore("large");
+        CachedFeatureStore smallfs = new CachedFeatureStore(small, caches);
+        CachedFeatureStore largefs = new CachedFeatureStore(large, caches);
+        for (int i = 0; i < 10; i++) {
+            CompiledLtrModel model = new NodeSettingsIT.DummyModel("model" + i, modelSize);
+            small.add(model);
+            large.add(model);
+            smallfs.loadModel(model.name());
+            largefs.loadModel(model.name());
+            assertTrue(caches.getPerStoreStats("small").totalRam() <= caches.getStoreMaxWeight("small"));
+        }
+        assertEquals(2, caches.getPerStoreStats("small").modelCount());
+        assertEquals(10, caches.getPerStoreStats("large").modelCount());
+        // least recently used entries were evicted
+        assertNotNull(smallfs.getCachedModel("model9"));
+        assertNotNull(smallfs.getCachedModel("model8"));
+        assertEquals(caches.getPerStoreStats("small").totalRam() + caches.getPerStoreStats("large").totalRam(),
+                caches.getTotalWeight());
+
+        caches.evict("small");
+        assertEquals(0, caches.getPerStoreStats("small").totalCount());
+        assertEquals(10, caches.getPerStoreStats("large").modelCount());
+    }
+
+    public void testInlineModels() throws IOException {
+        LtrRankerParserFactory factory = new LtrRankerParserFactory.Builder()
+                .register(LinearRankerParser.TYPE, LinearRankerParser::new)
+                .build();
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet();
+        StoredLtrModel model = LtrTestUtils.randomLinearModel("inline", set);
+        BytesStreamOutput out = new BytesStreamOutput();
+        model.writeTo(out);
+        StoredLtrModel copy = new StoredLtrModel(out.bytes().streamInput());
+
+        CompiledLtrModel compiled = caches.loadInlineModel(model, factory, new LtrNodeServices(), null);
+        assertSame(compiled, caches.loadInlineModel(copy, factory, new LtrNodeServices(), null));
+        assertEquals(1, caches.getPerStoreStats(Caches.INLINE_MODELS_STORE).modelCount());
+        assertEquals(1, caches.getPerStoreCounters(Caches.INLINE_MODELS_STORE).models().loads());
+        assertEquals(compiled.ramBytesUsed(), caches.getPerStoreStats(Caches.INLINE_MODELS_STORE).modelRam());
+
+        StoredLtrModel other = LtrTestUtils.randomLinearModel("inline", set);
+        assertNotSame(compiled, caches.loadInlineModel(other, factory, new LtrNodeServices(), null));
+        assertEquals(2, caches.getPerStoreStats(Caches.INLINE_MODELS_STORE).modelCount());
+    }
+
+    public void testInlineModelsQuota() throws IOException {
+        Caches caches = new Caches(Settings.builder()
+                .put(Caches.LTR_CACHE_MEM_SETTING.getKey(), "10mb")
+                .build());
+        // sized like the other stores so that the inline tree models are not rejected
+        assertEquals(10 * 1024 * 1024, caches.getStoreMaxWeight(Caches.INLINE_MODELS_STORE));
+        assertEquals(10 * 1024 * 1024, caches.getStoreMaxWeight("other"));
+        CompiledLtrModel large = new NodeSettingsIT.DummyModel("large", 2 * 1024 * 1024);
+        assertSame(large, caches.loadModel(new Caches.CacheKey(Caches.INLINE_MODELS_STORE, "large"), (l) -> large));
+        assertEquals(1, caches.getPerStoreStats(Caches.INLINE_MODELS_STORE).modelCount());
+
+        caches = new Caches(Settings.builder()
+                .put(Caches.LTR_CACHE_MEM_SETTING.getKey(), "10mb")
+                .put(Caches.LTR_CACHE_MEM_PER_STORE_SETTING.getKey(), "512kb")
+                .build());
+        assertEquals(512 * 1024, caches.getStoreMaxWeight(Caches.INLINE_MODELS_STORE));
+
+        caches = new Caches(Settings.builder()
+                .put(Caches.LTR_CACHE_MEM_SETTING.getKey(), "10mb")
+                .put("ltr.caches.store._inline_models_.max_mem", "4mb")
+                .build());
+        assertEquals(4 * 1024 * 1024, caches.getStoreMaxWeight(Caches.INLINE_MODELS_STORE));
+    }
+
+    public void testOffHeapTrees() throws IOException {
+        Caches caches = new Caches(TimeValue.timeValueHours(1), TimeValue.timeValueHours(1), new ByteSizeValue(10000000),
+                new ByteSizeValue(10000000), Collections.emptyMap(), false, true);
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet();
+        NaiveAdditiveDecisionTree tree = NaiveAdditiveDecisionTreeTests.generateRandomDecTree(set.size(), 10, 1, 5, null);
+        CompiledLtrModel model = new CompiledLtrModel("trees", set, tree);
+        memStore.add(model);
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        CompiledLtrModel loaded = store.loadModel("trees");
+        assertThat(loaded.ranker(), instanceOf(OffHeapDecisionTree.class));
+        long offHeap = ((OffHeapDecisionTree) loaded.ranker()).offHeapBytesUsed();
+        Caches.PerStoreStats stats = caches.getPerStoreStats(memStore.getStoreName());
+        assertEquals(offHeap, stats.modelOffHeapRam());
+        assertEquals(loaded.ramBytesUsed() + offHeap, stats.modelRam());
+        assertEquals(stats.totalRam(), caches.getTotalWeight());
+
+        caches.evict(memStore.getStoreName());
+        assertEquals(0, caches.getPerStoreStats(memStore.getStoreName()).modelOffHeapRam());
+        assertEquals(0, caches.getTotalWeight());
+    }
+
+    public void testOffHeapTreesLeasedToSearches() throws IOException {
+        Caches caches = new Caches(TimeValue.timeValueHours(1), TimeValue.timeValueHours(1), new ByteSizeValue(10000000),
+                new ByteSizeValue(10000000), Collections.emptyMap(), false, true);
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet();
+        NaiveAdditiveDecisionTree tree = NaiveAdditiveDecisionTreeTests.generateRandomDecTree(set.size(), 10, 1, 5, null);
+        memStore.add(new CompiledLtrModel("trees", set, tree));
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        // searches lease the trees to the context of their query, tested without a context
+        CompiledLtrModel leased = store.loadModel("trees", null, null);
+        OffHeapDecisionTree trees = (OffHeapDecisionTree) leased.ranker();
+        assertSame(leased, store.loadModel("trees", null, null));
+        assertEquals(3, trees.refCount());
+        assertEquals(1, caches.getModelLeases().size());
+
+        caches.evict(memStore.getStoreName());
+        assertEquals(2, trees.refCount());
+        caches.releaseModels(null);
+        assertEquals(0, trees.refCount());
+        assertEquals(0, caches.getModelLeases().size());
+
+        // a freed model is loaded again
+        CompiledLtrModel reloaded = store.loadModel("trees", null, null);
+        assertNotSame(leased, reloaded);
+        assertEquals(2, ((OffHeapDecisionTree) reloaded.ranker()).refCount());
+        caches.releaseModels(null);
+        assertEquals(1, ((OffHeapDecisionTree) reloaded.ranker()).refCount());
+        caches.evict(memStore.getStoreName());
+        assertEquals(0, ((OffHeapDecisionTree) reloaded.ranker()).refCount());
+    }
+
+    public void testRejectedOffHeapTreesKeptByTheSearch() throws IOException {
+        StoredFeatureSet set = LtrTestUtils.randomFeatureSet();
+        NaiveAdditiveDecisionTree tree = NaiveAdditiveDecisionTreeTests.generateRandomDecTree(set.size(), 10, 1, 5, null);
+        memStore.add(new CompiledLtrModel("trees", set, tree));
+        // too large for the cache
+        Caches caches = new Caches(TimeValue.timeValueHours(1), TimeValue.timeValueHours(1), new ByteSizeValue(10),
+                new ByteSizeValue(10), Collections.emptyMap(), false, true);
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        CompiledLtrModel leased = store.loadModel("trees", null, null);
+        assertEquals(0, caches.getTotalWeight());
+        OffHeapDecisionTree trees = (OffHeapDecisionTree) leased.ranker();
+        assertEquals(1, trees.refCount());
+        assertEquals(tree.score(tree.newFeatureVector(null)), trees.score(trees.newFeatureVector(null)), 0F);
+        caches.releaseModels(null);
+        assertEquals(0, trees.refCount());
+    }
+
+    public void testMaxWeightSharedByAllCaches() throws IOException {
+        long modelSize = 100000;
+        Caches caches = new Caches(TimeValue.timeValueHours(1), TimeValue.timeValueHours(1), new ByteSizeValue(modelSize * 5));
+        MemStore one = new MemStore("one");
+        MemStore two = new MemStore("two");
+        CachedFeatureStore onefs = new CachedFeatureStore(one, caches);
+        CachedFeatureStore twofs = new CachedFeatureStore(two, caches);
+        for (int i = 0; i < 10; i++) {
+            CompiledLtrModel model = new NodeSettingsIT.DummyModel("model" + i, modelSize);
+            one.add(model);
+            two.add(model);
+            onefs.loadModel(model.name());
+            twofs.loadModel(model.name());
+            // make the last one popular enough to be admitted
+            onefs.loadModel(model.name());
+            twofs.loadModel(model.name());
+            assertTrue(caches.getTotalWeight() <= caches.getMaxWeight());
+        }
+        assertTrue(caches.getPerStoreStats("one").modelCount() > 0);
+        assertTrue(caches.getPerStoreStats("two").modelCount() > 0);
+    }
+
+    public void testAdmissionFilterProtectsHotEntries() throws IOException {
+        long modelSize = 100000;
+        Caches caches = new Caches(TimeValue.timeValueHours(1), TimeValue.timeValueHours(1), new ByteSizeValue(modelSize * 100),
+                new ByteSizeValue(modelSize * 5 / 2), Collections.emptyMap(), true);
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        for (int i = 0; i < 2; i++) {
+            CompiledLtrModel hot = new NodeSettingsIT.DummyModel("hot" + i, modelSize);
+            memStore.add(hot);
+            for (int j = 0; j < 5; j++) {
+                store.loadModel(hot.name());
+            }
+        }
+        for (int i = 0; i < 20; i++) {
+            CompiledLtrModel cold = new NodeSettingsIT.DummyModel("cold" + i, modelSize);
+            memStore.add(cold);
+            assertSame(cold, store.loadModel(cold.name()));
+            assertNull(store.getCachedModel(cold.name()));
+        }
+        assertNotNull(store.getCachedModel("hot0"));
+        assertNotNull(store.getCachedModel("hot1"));
+        Caches.StoreCounters counters = caches.getPerStoreCounters(memStore.getStoreName());
+        assertEquals(20, counters.models().evictions(CacheCounters.EvictionCause.REJECTED));
+        assertEquals(0, counters.models().evictions(CacheCounters.EvictionCause.QUOTA));
+
+        // a cold entry becoming popular is eventually admitted
+        for (int j = 0; j < 10; j++) {
+            store.loadModel("cold0");
+        }
+        assertNotNull(store.getCachedModel("cold0"));
+        assertEquals(1, counters.models().evictions(CacheCounters.EvictionCause.QUOTA));
+        assertEquals(2, caches.getPerStoreStats(memStore.getStoreName()).modelCount());
+    }
+
+    public void testCounters() throws IOException {
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        StoredFeature feat = LtrTestUtils.randomFeature();
+        memStore.add(feat);
+        store.load(feat.name());
+        store.load(feat.name());
+        store.load(feat.name());
+        expectThrows(IOException.class, () -> store.load("unknown"));
+
+        CacheCounters counters = caches.getPerStoreCounters(memStore.getStoreName()).features();
+        assertEquals(2, counters.hits());
+        assertEquals(2, counters.misses());
+        assertEquals(1, counters.loads());
+        assertEquals(1, counters.loadFailures());
+        assertEquals(1, LongStream.of(counters.fetchTime().counts()).sum());
+        assertEquals(1, LongStream.of(counters.compileTime().counts()).sum());
+        assertEquals(0, caches.getPerStoreCounters(memStore.getStoreName()).models().loads());
+
+        caches.evictFeature(memStore.getStoreName(), feat.name());
+        assertEquals(1, counters.evictions(CacheCounters.EvictionCause.INVALIDATED));
+        // counters survive the eviction of all the entries of a store
+        assertSame(counters, caches.getPerStoreCounters(memStore.getStoreName()).features());
+        caches.removeStore(memStore.getStoreName());
+        assertEquals(0, caches.getPerStoreCounters(memStore.getStoreName()).features().loads());
+    }
+
+    public void testModelAlias() throws IOException {
+        CompiledLtrModel v1 = LtrTestUtils.buildRandomModel();
+        CompiledLtrModel v2 = LtrTestUtils.buildRandomModel();
+        memStore.add(v1);
+        memStore.add(v2);
+        memStore.addModelAlias("prod", v1.name());
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+
+        assertSame(v1, store.loadModel("prod"));
+        // cached under the name of the model only
+        assertNotNull(store.getCachedModel(v1.name()));
+        assertNull(store.getCachedModel("prod"));
+        assertEquals(1, caches.getPerStoreStats(memStore.getStoreName()).modelCount());
+        assertEquals(v1.name(), caches.getModelAlias(memStore.getStoreName(), "prod"));
+        assertSame(v1, store.loadModel(v1.name()));
+
+        // resolved aliases are kept until they are switched
+        memStore.addModelAlias("prod", v2.name());
+        assertSame(v1, store.loadModel("prod"));
+        store.loadModel(v2.name());
+        caches.setModelAlias(memStore.getStoreName(), "prod", v2.name());
+        caches.evictModel(memStore.getStoreName(), v1.name());
+        long misses = caches.getPerStoreCounters(memStore.getStoreName()).models().misses();
+        assertSame(v2, store.loadModel("prod"));
+        // the model was loaded before the switch
+        assertEquals(misses, caches.getPerStoreCounters(memStore.getStoreName()).models().misses());
+        assertNull(store.getCachedModel(v1.name()));
+
+        caches.evict(memStore.getStoreName());
+        assertNull(caches.getModelAlias(memStore.getStoreName(), "prod"));
+    }
+
+    public void testStaleModelAliasEvicted() throws IOException {
+        CompiledLtrModel v1 = LtrTestUtils.buildRandomModel();
+        CompiledLtrModel v2 = LtrTestUtils.buildRandomModel();
+        memStore.add(v1);
+        memStore.add(v2);
+        memStore.addModelAlias("prod", v1.name());
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        String aliasId = StorableElement.generateId(StoredModelAlias.TYPE, "prod");
+
+        assertSame(v1, store.loadModel("prod"));
+        assertTrue(caches.versionedDocIds(memStore.getStoreName()).contains(aliasId));
+        assertEquals(0, caches.evictStale(memStore.getStoreName(), memStore.getVersions(), Collections.emptySet()));
+
+        // switched on the store but not on this node
+        memStore.addModelAlias("prod", v2.name());
+        assertSame(v1, store.loadModel("prod"));
+        // evicted even if none of the models is cached
+        caches.evictModel(memStore.getStoreName(), v1.name());
+        assertTrue(caches.getCachedStoreNames().isEmpty());
+        assertTrue(caches.getCachedAndAliasedStoreNames().contains(memStore.getStoreName()));
+        assertEquals(1, caches.evictStale(memStore.getStoreName(), memStore.getVersions(), Collections.emptySet()));
+        assertNull(caches.getModelAlias(memStore.getStoreName(), "prod"));
+        assertSame(v2, store.loadModel("prod"));
+
+        caches.evictStale(memStore.getStoreName(), Collections.emptyMap(), Collections.singleton(aliasId));
+        assertNull(caches.getModelAlias(memStore.getStoreName(), "prod"));
+    }
+
+    public void testModelAliasExpires() throws IOException, InterruptedException {
+        Caches caches = new Caches(TimeValue.timeValueMillis(100), TimeValue.timeValueHours(1), new ByteSizeValue(1000000));
+        CompiledLtrModel v1 = LtrTestUtils.buildRandomModel();
+        memStore.add(v1);
+        memStore.addModelAlias("prod", v1.name());
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        assertSame(v1, store.loadModel("prod"));
+        assertEquals(v1.name(), caches.getModelAlias(memStore.getStoreName(), "prod"));
+        Thread.sleep(500);
+        assertNull(caches.getModelAlias(memStore.getStoreName(), "prod"));
+    }
+
+    public void testWarmedModelBypassesTheAdmissionFilter() throws IOException {
+        long modelSize = 100000;
+        Caches caches = new Caches(TimeValue.timeValueHours(1), TimeValue.timeValueHours(1), new ByteSizeValue(modelSize * 100),
+                new ByteSizeValue(modelSize * 5 / 2), Collections.emptyMap(), true);
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+        for (int i = 0; i < 2; i++) {
+            CompiledLtrModel hot = new NodeSettingsIT.DummyModel("hot" + i, modelSize);
+            memStore.add(hot);
+            for (int j = 0; j < 5; j++) {
+                store.loadModel(hot.name());
+            }
+        }
+        CompiledLtrModel cold = new NodeSettingsIT.DummyModel("cold", modelSize);
+        memStore.add(cold);
+        assertSame(cold, store.loadModel(cold.name()));
+        assertNull(store.getCachedModel(cold.name()));
+
+        CompiledLtrModel warmed = new NodeSettingsIT.DummyModel("warmed", modelSize);
+        memStore.add(warmed);
+        assertSame(warmed, store.warmModel(warmed.name()));
+        assertSame(warmed, store.getCachedModel(warmed.name()));
+        assertEquals(2, caches.getPerStoreStats(memStore.getStoreName()).modelCount());
+    }
+
+    public void testResolveModelVersionFollowsCachedAliases() throws IOException {
+        CompiledLtrModel v1 = LtrTestUtils.buildRandomModel();
+        CompiledLtrModel v2 = LtrTestUtils.buildRandomModel();
+        memStore.add(v1);
+        memStore.add(v2);
+        memStore.addModelAlias("prod", v1.name());
+        CachedFeatureStore store = new CachedFeatureStore(memStore, caches);
+
+        assertEquals(v1.name(), resolveModelVersion(store, "prod").v1());
+        assertEquals(v1.name(), caches.getModelAlias(memStore.getStoreName(), "prod"));
+        assertEquals(v1.name(), store.resolveModelAlias("prod"));
+        assertNull(store.resolveModelAlias(v1.name()));
+
+        // served from the caches once the model is cached
+        store.loadModel(v1.name());
+        memStore.add(v1);
+        Tuple<String, Long> cached = resolveModelVersion(store, "prod");
+        assertEquals(v1.name(), cached.v1());
+        assertEquals(caches.cachedModelVersion(memStore.getStoreName(), v1.name()), cached.v2().longValue());
+        assertEquals(memStore.getVersions().get(StorableElement.generateId(StoredLtrModel.TYPE, v1.name())) - 1,
+                cached.v2().longValue());
+
+        // the alias is not looked up again until it is switched
+        memStore.addModelAlias("prod", v2.name());
+        assertEquals(v1.name(), resolveModelVersion(store, "prod").v1());
+        assertEquals(v1.name(), store.resolveModelAlias("prod"));
+        caches.setModelAlias(memStore.getStoreName(), "prod", v2.name());
+        assertEquals(v2.name(), resolveModelVersion(store, "prod").v1());
+    }
+
+    private static Tuple<String, Long> resolveModelVersion(FeatureStore store, String name) {
+        SetOnce<Tuple<String, Long>> resolved = new SetOnce<>();
+        store.resolveModelVersion(name, ActionListener.wrap(resolved::set, (e) -> {
+            throw new AssertionError(e);
+        }));
+        return resolved.get();
+    }
+}
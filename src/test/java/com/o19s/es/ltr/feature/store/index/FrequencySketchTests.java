@@ -0,0 +1,117 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.feature.store.index;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class FrequencySketchTests extends ESTestCase {
+    public void testFrequency() {
+        FrequencySketch sketch = new FrequencySketch(256, 1);
+        for (int i = 0; i < 5; i++) {
+            sketch.record(1);
+        }
+        sketch.record(2);
+        assertEquals(5, sketch.frequency(1));
+        assertEquals(1, sketch.frequency(2));
+        assertEquals(0, sketch.frequency(3));
+    }
+
+    public void testFullBufferDropsAccesses() {
+        FrequencySketch sketch = new FrequencySketch(256, 1);
+        boolean drainRequested = false;
+        for (int i = 1; i <= FrequencySketch.BUFFER_SIZE + 8; i++) {
+            drainRequested |= sketch.record(i);
+        }
+        assertTrue(drainRequested);
+        assertEquals(1, sketch.frequency(1));
+        assertEquals(1, sketch.frequency(FrequencySketch.BUFFER_SIZE));
+        assertEquals(0, sketch.frequency(FrequencySketch.BUFFER_SIZE + 1));
+
+        // recorded again once drained
+        sketch.record(FrequencySketch.BUFFER_SIZE + 1);
+        assertEquals(1, sketch.frequency(FrequencySketch.BUFFER_SIZE + 1));
+    }
+
+    public void testDecay() {
+        FrequencySketch sketch = new FrequencySketch(256, 1);
+        for (int i = 0; i < 8; i++) {
+            sketch.record(1);
+        }
+        assertEquals(8, sketch.frequency(1));
+        // 10 * width accesses halve all the counters
+        for (int i = 0; i < 10 * 256 - 8; i++) {
+            if (sketch.record(2)) {
+                sketch.drain();
+            }
+        }
+        assertEquals(4, sketch.frequency(1));
+    }
+
+    public void testScheduleDrain() {
+        FrequencySketch sketch = new FrequencySketch(256, 1);
+        List<Runnable> tasks = new ArrayList<>();
+        sketch.record(1);
+        sketch.scheduleDrain(tasks::add);
+        sketch.scheduleDrain(tasks::add);
+        // a single drain is scheduled at a time
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        sketch.scheduleDrain(tasks::add);
+        assertEquals(2, tasks.size());
+
+        // drained on the calling thread without an executor
+        sketch.record(2);
+        sketch.scheduleDrain(null);
+        assertEquals(1, sketch.frequency(2));
+    }
+
+    public void testConcurrentRecords() throws InterruptedException {
+        FrequencySketch sketch = new FrequencySketch(256, 4);
+        int nThreads = 4;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                for (int i = 0; i < 10000; i++) {
+                    if (sketch.record(i % 4)) {
+                        sketch.scheduleDrain(null);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // hash 0 is recorded as 1
+        for (int h = 1; h < 4; h++) {
+            assertTrue(sketch.frequency(h) > 0);
+        }
+    }
+}
@@ -23,7 +23,9 @@ import com.o19s.es.ltr.feature.store.StoredFeatureSet;
 import com.o19s.es.ltr.feature.store.StoredLtrModel;
 import org.apache.lucene.util.LuceneTestCase;
 import org.apache.lucene.util.TestUtil;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -55,6 +57,13 @@ public class IndexFeatureStoreTests extends LuceneTestCase {
                 true));
     }
 
+    public void testBuildIndexRequest() {
+        CreateIndexRequest request = IndexFeatureStore.buildIndexRequest(IndexFeatureStore.DEFAULT_STORE);
+        assertEquals("0-2", request.settings().get(IndexMetaData.INDEX_AUTO_EXPAND_REPLICAS_SETTING.getKey()));
+        request = IndexFeatureStore.buildIndexRequest(IndexFeatureStore.DEFAULT_STORE, true);
+        assertEquals("0-all", request.settings().get(IndexMetaData.INDEX_AUTO_EXPAND_REPLICAS_SETTING.getKey()));
+    }
+
     public void testIsIndexName() {
         assertTrue(isIndexStore(IndexFeatureStore.DEFAULT_STORE));
         assertFalse(isIndexStore("not_really"));
@@ -0,0 +1,168 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.feature.store.index;
+
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LoadExecutorTests extends ESTestCase {
+    private ThreadPool threadPool;
+
+    private LoadExecutor build(Settings settings) {
+        Settings nodeSettings = Settings.builder()
+                .put("node.name", getTestName())
+                .put(settings)
+                .build();
+        threadPool = new ThreadPool(nodeSettings, LoadExecutor.executorBuilder(nodeSettings));
+        return new LoadExecutor(nodeSettings, threadPool);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (threadPool != null) {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+        super.tearDown();
+    }
+
+    public void testCoalescesConcurrentLoads() throws Exception {
+        LoadExecutor executor = build(Settings.EMPTY);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger nbLoads = new AtomicInteger();
+        AtomicReference<Object> other = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                other.set(executor.load("key", () -> {
+                    nbLoads.incrementAndGet();
+                    return new Object();
+                }));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        Object loaded = new Object();
+        Thread first = new Thread(() -> {
+            try {
+                assertSame(loaded, executor.load("key", () -> {
+                    nbLoads.incrementAndGet();
+                    await(release);
+                    return loaded;
+                }));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        first.start();
+        assertBusy(() -> assertEquals(1, executor.stats().getInflight()));
+        waiter.start();
+        assertBusy(() -> assertEquals(1, executor.stats().getCoalesced()));
+        release.countDown();
+        first.join();
+        waiter.join();
+        assertSame(loaded, other.get());
+        assertEquals(1, nbLoads.get());
+        assertEquals(0, executor.stats().getInflight());
+    }
+
+    public void testTimeout() throws Exception {
+        LoadExecutor executor = build(Settings.builder().put(LoadExecutor.LTR_CACHE_LOAD_TIMEOUT.getKey(), "10ms").build());
+        CountDownLatch release = new CountDownLatch(1);
+        expectThrows(ElasticsearchTimeoutException.class, () -> executor.load("key", () -> {
+            await(release);
+            return new Object();
+        }));
+        assertEquals(1, executor.stats().getTimeouts());
+        release.countDown();
+        assertBusy(() -> assertEquals(0, executor.stats().getInflight()));
+    }
+
+    public void testRejected() throws Exception {
+        LoadExecutor executor = build(Settings.builder()
+                .put("thread_pool." + LoadExecutor.THREAD_POOL_NAME + ".size", 1)
+                .put("thread_pool." + LoadExecutor.THREAD_POOL_NAME + ".queue_size", 1)
+                .build());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService pool = threadPool.executor(LoadExecutor.THREAD_POOL_NAME);
+        pool.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        pool.execute(() -> {});
+        expectThrows(EsRejectedExecutionException.class, () -> executor.load("key", Object::new));
+        LoadExecutor.Stats stats = executor.stats();
+        assertEquals(1, stats.getRejected());
+        assertEquals(1, stats.getQueue());
+        assertEquals(1, stats.getActive());
+        assertEquals(0, stats.getInflight());
+        release.countDown();
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    public void testNestedLoadsRunInline() throws IOException {
+        LoadExecutor executor = build(Settings.builder()
+                .put("thread_pool." + LoadExecutor.THREAD_POOL_NAME + ".size", 1)
+                .build());
+        AtomicReference<Thread> outer = new AtomicReference<>();
+        AtomicReference<Thread> inner = new AtomicReference<>();
+        executor.load("outer", () -> {
+            outer.set(Thread.currentThread());
+            // would dead lock if submitted to the single thread of the pool
+            return executor.load("inner", () -> {
+                inner.set(Thread.currentThread());
+                return new Object();
+            });
+        });
+        assertNotSame(Thread.currentThread(), outer.get());
+        assertSame(outer.get(), inner.get());
+        assertEquals(0, executor.stats().getInflight());
+    }
+
+    public void testFailuresArePropagated() {
+        LoadExecutor executor = build(Settings.EMPTY);
+        IOException e = expectThrows(IOException.class, () -> executor.load("key", () -> {
+            throw new IOException("boom");
+        }));
+        assertEquals("boom", e.getMessage());
+        expectThrows(IllegalArgumentException.class, () -> executor.load("key", () -> {
+            throw new IllegalArgumentException("boom");
+        }));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.logging;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.tasks.TaskId;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.singletonMap;
+
+public class FeatureLogSinkTests extends ESTestCase {
+    public void testDropsOnOverflow() {
+        FeatureLogSink sink = new FeatureLogSink(Settings.builder()
+                .put(FeatureLogSink.LTR_LOG_SINK_QUEUE_SIZE.getKey(), 2)
+                .build(), createTempDir());
+        assertTrue(sink.offer(entry(0)));
+        assertTrue(sink.offer(entry(1)));
+        assertFalse(sink.offer(entry(2)));
+        assertEquals(2, sink.stats().getQueued());
+        assertEquals(1, sink.stats().getDropped());
+        sink.drain();
+        assertEquals(0, sink.stats().getQueued());
+        assertEquals(2, sink.stats().getWritten());
+        assertTrue(sink.offer(entry(3)));
+        sink.close();
+        assertEquals(3, sink.stats().getWritten());
+    }
+
+    public void testDisabledByDefault() {
+        assertNull(FeatureLogSink.create(Settings.EMPTY, createTempDir(), null));
+    }
+
+    public void testDirIsResolvedAgainstTheLogsPath() {
+        Path logs = createTempDir();
+        assertEquals(logs.resolve("ltr-features"), FeatureLogSink.dir(Settings.EMPTY, logs));
+        Path custom = createTempDir().resolve("sink");
+        assertEquals(custom, FeatureLogSink.dir(Settings.builder()
+                .put(FeatureLogSink.LTR_LOG_SINK_PATH.getKey(), custom.toString())
+                .build(), logs));
+    }
+
+    public void testWritesRollingFiles() throws IOException {
+        Path dir = createTempDir().resolve("logs");
+        FeatureLogSink sink = new FeatureLogSink(Settings.builder()
+                .put(FeatureLogSink.LTR_LOG_SINK_QUEUE_SIZE.getKey(), 1000)
+                .put(FeatureLogSink.LTR_LOG_SINK_MAX_FILE_SIZE.getKey(), "1kb")
+                .put(FeatureLogSink.LTR_LOG_SINK_MAX_FILES.getKey(), 2)
+                .build(), dir);
+        int nEntries = 100;
+        for (int i = 0; i < nEntries; i++) {
+            assertTrue(sink.offer(entry(i)));
+            if (randomBoolean()) {
+                sink.drain();
+            }
+        }
+        sink.close();
+        assertEquals(nEntries, sink.stats().getWritten());
+        assertEquals(0, sink.stats().getFailed());
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir,
+                FeatureLogSink.FILE_PREFIX + "*" + FeatureLogSink.FILE_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        assertEquals(2, files.size());
+        Collections.sort(files);
+        List<String> lines = new ArrayList<>();
+        for (Path file : files) {
+            lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+        }
+        assertFalse(lines.isEmpty());
+        // the most recent logs are kept
+        Map<String, Object> last = XContentHelper.convertToMap(new BytesArray(lines.get(lines.size() - 1)), false,
+                XContentType.JSON).v2();
+        assertEquals("doc" + (nEntries - 1), last.get("_id"));
+        assertEquals("test", last.get("index"));
+        assertEquals(nEntries - 1, last.get("rank"));
+        assertEquals("node:1", last.get("request"));
+        assertTrue(last.containsKey(LoggingFetchSubPhase.LOG_FIELD));
+    }
+
+    public void testSampled() {
+        TaskId task = new TaskId("node", randomNonNegativeLong());
+        double rate = randomDoubleBetween(0.01D, 0.99D, true);
+        boolean sampled = FeatureLogSink.sampled(task, rate);
+        // every shard of the request takes the same decision
+        assertEquals(sampled, FeatureLogSink.sampled(new TaskId("node", task.getId()), rate));
+        assertTrue(FeatureLogSink.sampled(task, 1D));
+        assertTrue(FeatureLogSink.sampled(TaskId.EMPTY_TASK_ID, 1D));
+
+        int nSampled = 0;
+        int nTasks = 10000;
+        for (int i = 0; i < nTasks; i++) {
+            if (FeatureLogSink.sampled(new TaskId("node", i), 0.1D)) {
+                nSampled++;
+            }
+        }
+        assertTrue(nSampled > 800 && nSampled < 1200);
+    }
+
+    private FeatureLogSink.Entry entry(int rank) {
+        Map<String, Object> log = singletonMap("logger", singletonMap(LoggingFetchSubPhase.COMPACT_VALUES,
+                new float[]{randomFloat(), randomFloat()}));
+        return new FeatureLogSink.Entry(System.currentTimeMillis(), "node:1", "test", 0, rank, "doc" + rank, log);
+    }
+}
@@ -17,9 +17,15 @@
 package com.o19s.es.ltr.logging;
 
 import com.o19s.es.ltr.LtrTestUtils;
+import com.o19s.es.ltr.feature.Feature;
+import com.o19s.es.ltr.feature.FeatureSet;
 import com.o19s.es.ltr.feature.PrebuiltFeature;
 import com.o19s.es.ltr.feature.PrebuiltFeatureSet;
 import com.o19s.es.ltr.feature.PrebuiltLtrModel;
+import com.o19s.es.ltr.feature.store.CompiledLtrModel;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
+import com.o19s.es.ltr.feature.store.OptimizedFeatureSet;
+import com.o19s.es.ltr.feature.store.ParallelFeatureExecutor;
 import com.o19s.es.ltr.query.RankerQuery;
 import com.o19s.es.ltr.ranker.LtrRanker;
 import com.o19s.es.ltr.ranker.linear.LinearRankerTests;
@@ -27,10 +33,12 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FloatDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
@@ -41,28 +49,56 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.LuceneTestCase;
 import org.apache.lucene.util.TestUtil;
 import org.elasticsearch.common.lucene.search.function.CombineFunction;
 import org.elasticsearch.common.lucene.search.function.FieldValueFactorFunction;
 import org.elasticsearch.common.lucene.search.function.FunctionScoreQuery;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.text.Text;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.fielddata.plain.SortedNumericDVIndexFieldData;
+import org.elasticsearch.index.MapperTestUtils;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.SourceFieldMapper;
+import org.elasticsearch.index.query.MatchAllQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryShardContext;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
+import org.elasticsearch.index.query.functionscore.ScriptScoreFunctionBuilder;
+import org.elasticsearch.script.MockScriptEngine;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptModule;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.threadpool.ThreadPool;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.elasticsearch.common.lucene.search.function.FieldValueFactorFunction.Modifier.LN2P;
 import static org.elasticsearch.index.fielddata.IndexNumericFieldData.NumericType.FLOAT;
 
@@ -114,7 +150,7 @@ public class LoggingFetchSubPhaseTests extends LuceneTestCase {
                 .add(new BooleanClause(query1, BooleanClause.Occur.MUST))
                 .add(new BooleanClause(query2, BooleanClause.Occur.MUST))
                 .build();
-        LoggingFetchSubPhase subPhase = new LoggingFetchSubPhase();
+        LoggingFetchSubPhase subPhase = new LoggingFetchSubPhase(new LtrNodeServices());
         SearchHit[] hits = selectRandomHits();
         subPhase.doLog(query, Arrays.asList(logger1, logger2), searcher, hits);
         for (SearchHit hit : hits) {
@@ -150,13 +186,217 @@ public class LoggingFetchSubPhaseTests extends LuceneTestCase {
         }
     }
 
+    public void testCompactLogging() throws IOException {
+        RankerQuery query1 = buildQuery("foo");
+        RankerQuery query2 = buildQuery("bar");
+        LoggingFetchSubPhase.HitLogConsumer logger1 = new LoggingFetchSubPhase.HitLogConsumer("logger1", query1.featureSet(),
+                true, true);
+        LoggingFetchSubPhase.HitLogConsumer logger2 = new LoggingFetchSubPhase.HitLogConsumer("logger2", query2.featureSet(),
+                false, true);
+        query1 = query1.toLoggerQuery(logger1, true);
+        query2 = query2.toLoggerQuery(logger2, true);
+        BooleanQuery query = new BooleanQuery.Builder()
+                .add(new BooleanClause(query1, BooleanClause.Occur.MUST))
+                .add(new BooleanClause(query2, BooleanClause.Occur.MUST))
+                .build();
+        SearchHit[] hits = selectRandomHits();
+        new LoggingFetchSubPhase(new LtrNodeServices()).doLog(query, Arrays.asList(logger1, logger2), searcher, hits);
+        int headers = 0;
+        for (SearchHit hit : hits) {
+            Document d = docs.get(hit.getId());
+            DocumentField field = hit.getFields().get("_ltrlog");
+            // Serialized over transport and rendered with the generic writers
+            BytesStreamOutput out = new BytesStreamOutput();
+            field.writeTo(out);
+            field = DocumentField.readDocumentField(out.bytes().streamInput());
+            XContentBuilder builder = JsonXContent.contentBuilder();
+            field.toXContent(builder.startObject(), ToXContent.EMPTY_PARAMS).endObject();
+            assertTrue(builder.bytes().utf8ToString().contains("\"values\":["));
+
+            Map<String, Map<String, Object>> logs = field.getValue();
+            Map<String, Object> log1 = logs.get("logger1");
+            Map<String, Object> log2 = logs.get("logger2");
+            if (log1.containsKey(LoggingFetchSubPhase.COMPACT_NAMES)) {
+                headers++;
+                assertEquals(Arrays.asList("text_feat", "score_feat"), log1.get(LoggingFetchSubPhase.COMPACT_NAMES));
+                assertEquals(Arrays.asList("text_feat", "score_feat"), log2.get(LoggingFetchSubPhase.COMPACT_NAMES));
+            }
+            // missing as zero
+            assertFalse(log1.containsKey(LoggingFetchSubPhase.COMPACT_MISSING));
+            float[] values1 = (float[]) log1.get(LoggingFetchSubPhase.COMPACT_VALUES);
+            float[] values2 = (float[]) log2.get(LoggingFetchSubPhase.COMPACT_VALUES);
+            long[] missing2 = (long[]) log2.get(LoggingFetchSubPhase.COMPACT_MISSING);
+            assertEquals(2, values1.length);
+            assertEquals(1, missing2.length);
+            if (d.get("text").equals("foo")) {
+                assertTrue(values1[0] > 0F);
+                // text_feat missing, score_feat logged
+                assertEquals(1L, missing2[0]);
+                assertEquals(0F, values2[0], 0F);
+            } else {
+                assertEquals(0F, values1[0], 0F);
+                assertEquals(0L, missing2[0]);
+                assertTrue(values2[0] > 0F);
+            }
+            int bits = (int)(long) d.getField("score").numericValue();
+            float expectedScore = (float) Math.log1p(Float.intBitsToFloat(bits) * FACTOR + 1);
+            assertEquals(expectedScore, values1[1], Math.ulp(expectedScore));
+            assertEquals(expectedScore, values2[1], Math.ulp(expectedScore));
+        }
+        assertEquals(1, headers);
+    }
+
+    public void testChunks() throws IOException {
+        List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+        SearchHit[] hits = selectRandomHits();
+        int minHitsPerLeaf = TestUtil.nextInt(random(), 1, 4);
+        int maxChunks = TestUtil.nextInt(random(), 2, 4);
+        List<List<SearchHit>> chunks = LoggingFetchSubPhase.chunks(leaves, hits, minHitsPerLeaf, maxChunks);
+        assertTrue(chunks.size() <= maxChunks);
+        List<SearchHit> all = new ArrayList<>();
+        chunks.forEach(all::addAll);
+        assertEquals(hits.length, all.size());
+        assertTrue(all.containsAll(Arrays.asList(hits)));
+        if (chunks.size() > 1) {
+            // the hits of a large segment are never split
+            for (List<SearchHit> chunk : chunks) {
+                assertFalse(chunk.isEmpty());
+                for (SearchHit hit : chunk) {
+                    int leaf = ReaderUtil.subIndex(hit.docId(), leaves);
+                    long inLeaf = Arrays.stream(hits).filter((h) -> ReaderUtil.subIndex(h.docId(), leaves) == leaf).count();
+                    long inChunk = chunk.stream().filter((h) -> ReaderUtil.subIndex(h.docId(), leaves) == leaf).count();
+                    assertTrue(inLeaf < minHitsPerLeaf || inLeaf == inChunk);
+                }
+            }
+        }
+
+        assertEquals(1, LoggingFetchSubPhase.chunks(leaves, hits, minHitsPerLeaf, 1).size());
+        assertEquals(1, LoggingFetchSubPhase.chunks(leaves, hits, hits.length, maxChunks).size());
+    }
+
+    public void testChunkedLogging() throws IOException {
+        RankerQuery query1 = buildQuery("foo");
+        RankerQuery query2 = buildQuery("bar");
+        LoggingFetchSubPhase.HitLogConsumer logger1 = new LoggingFetchSubPhase.HitLogConsumer("logger1", query1.featureSet(),
+                true, true);
+        LoggingFetchSubPhase.HitLogConsumer logger2 = new LoggingFetchSubPhase.HitLogConsumer("logger2", query2.featureSet(),
+                false, true);
+        SearchHit[] hits = selectRandomHits();
+        List<List<SearchHit>> chunks = new ArrayList<>();
+        for (SearchHit hit : hits) {
+            if (chunks.isEmpty() || random().nextInt(3) == 0) {
+                chunks.add(new ArrayList<>());
+            }
+            chunks.get(chunks.size() - 1).add(hit);
+        }
+        new LoggingFetchSubPhase(new LtrNodeServices()).doLog(null, Arrays.asList(query1, query2), Arrays.asList(logger1, logger2), searcher, chunks);
+
+        LoggingFetchSubPhase.HitLogConsumer seqLogger = new LoggingFetchSubPhase.HitLogConsumer("logger1", query1.featureSet(),
+                true, true);
+        SearchHit[] seqHits = new SearchHit[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            seqHits[i] = new SearchHit(hits[i].docId(), hits[i].getId(), new Text("text"), null);
+        }
+        new LoggingFetchSubPhase(new LtrNodeServices()).doLog(query1.toLoggerQuery(seqLogger, true), singletonList(seqLogger), searcher, seqHits);
+
+        int headers = 0;
+        for (int i = 0; i < hits.length; i++) {
+            Map<String, Map<String, Object>> logs = hits[i].getFields().get("_ltrlog").getValue();
+            assertEquals(2, logs.size());
+            Map<String, Map<String, Object>> seqLogs = seqHits[i].getFields().get("_ltrlog").getValue();
+            assertArrayEquals((float[]) seqLogs.get("logger1").get(LoggingFetchSubPhase.COMPACT_VALUES),
+                    (float[]) logs.get("logger1").get(LoggingFetchSubPhase.COMPACT_VALUES), 0F);
+            if (logs.get("logger1").containsKey(LoggingFetchSubPhase.COMPACT_NAMES)) {
+                headers++;
+                assertTrue(logs.get("logger2").containsKey(LoggingFetchSubPhase.COMPACT_NAMES));
+            }
+        }
+        // the feature names are written once for all the chunks
+        assertEquals(1, headers);
+    }
+
+    public void testConcurrentChunksWithScriptFeature() throws IOException {
+        // the script reads the docs through the source lookup of the shard context, it is not thread safe
+        Set<Object> sourceLookups = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        ScriptService scriptService = new ScriptService(Settings.EMPTY, singletonMap("mockscript",
+                new MockScriptEngine("mockscript", singletonMap("source_score", (vars) -> {
+                    Map<?, ?> source = (Map<?, ?>) vars.get("_source");
+                    sourceLookups.add(source);
+                    return source.get("score");
+                }))),
+                ScriptModule.CORE_CONTEXTS);
+        MapperService mapperService = MapperTestUtils.newMapperService(NamedXContentRegistry.EMPTY, createTempDir(),
+                Settings.EMPTY, "test");
+        QueryShardContext context = new QueryShardContext(0, mapperService.getIndexSettings(), null, null, mapperService,
+                null, scriptService, null, null, null, searcher.getIndexReader(), () -> 0L, null);
+        List<Feature> features = new ArrayList<>(2);
+        features.add(new QueryBuilderFeature("script_feat", new FunctionScoreQueryBuilder(
+                new ScriptScoreFunctionBuilder(new Script(ScriptType.INLINE, "mockscript", "source_score", emptyMap())))
+                .boostMode(CombineFunction.REPLACE)));
+        features.add(new QueryBuilderFeature("all_feat", new MatchAllQueryBuilder()));
+        Map<String, Integer> featureMap = new HashMap<>();
+        featureMap.put("script_feat", 0);
+        featureMap.put("all_feat", 1);
+        FeatureSet set = new OptimizedFeatureSet("script_set", features, featureMap);
+        RankerQuery query = RankerQuery.build(new CompiledLtrModel("script_model", set,
+                LinearRankerTests.generateRandomRanker(set.size())), context, emptyMap());
+        assertTrue(query.canRebuild());
+
+        LoggingFetchSubPhase.HitLogConsumer logger = new LoggingFetchSubPhase.HitLogConsumer("logger", set, false, true);
+        SearchHit[] hits = selectRandomHits();
+        // a chunk per hit, the chunks of a segment run concurrently as well
+        List<List<SearchHit>> chunks = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            chunks.add(singletonList(hit));
+        }
+        Settings nodeSettings = Settings.builder()
+                .put("node.name", getTestName())
+                .put("thread_pool." + ParallelFeatureExecutor.THREAD_POOL_NAME + ".size", 4)
+                .build();
+        ThreadPool threadPool = new ThreadPool(nodeSettings, ParallelFeatureExecutor.executorBuilder(nodeSettings));
+        try {
+            new LoggingFetchSubPhase(new LtrNodeServices()).doLog(new ParallelFeatureExecutor(nodeSettings, threadPool),
+                    singletonList(query), singletonList(logger), searcher, chunks);
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+            mapperService.close();
+        }
+        // each chunk scored its own copy of the script
+        assertEquals(chunks.size(), sourceLookups.size());
+        for (SearchHit hit : hits) {
+            Map<String, Map<String, Object>> logs = hit.getFields().get("_ltrlog").getValue();
+            float[] values = (float[]) logs.get("logger").get(LoggingFetchSubPhase.COMPACT_VALUES);
+            float score = Float.intBitsToFloat(docs.get(hit.getId()).getField("score").numericValue().intValue());
+            assertEquals(score, values[0], 0F);
+        }
+    }
+
+    public void testActiveFeatures() throws IOException {
+        RankerQuery query = buildQuery("foo");
+        LoggingFetchSubPhase.HitLogConsumer logger = new LoggingFetchSubPhase.HitLogConsumer("logger", query.featureSet(),
+                false, true);
+        query = query.withActiveFeatures(query.featureSet().activeFeatures(singletonList("score_*")))
+                .toLoggerQuery(logger, true);
+        SearchHit[] hits = selectRandomHits();
+        new LoggingFetchSubPhase(new LtrNodeServices()).doLog(query, singletonList(logger), searcher, hits);
+        for (SearchHit hit : hits) {
+            Map<String, Map<String, Object>> logs = hit.getFields().get("_ltrlog").getValue();
+            float[] values = (float[]) logs.get("logger").get(LoggingFetchSubPhase.COMPACT_VALUES);
+            long[] missing = (long[]) logs.get("logger").get(LoggingFetchSubPhase.COMPACT_MISSING);
+            // text_feat is not computed, even on the docs it matches
+            assertEquals(0F, values[0], 0F);
+            assertEquals(1L, missing[0]);
+            assertTrue(values[1] > 0F);
+        }
+    }
+
     public void testBogusQuery() throws IOException {
         PrebuiltFeatureSet set = new PrebuiltFeatureSet("test",
                 singletonList(new PrebuiltFeature("test", new BoostQuery(new MatchAllDocsQuery(), Float.NaN))));
         LoggingFetchSubPhase.HitLogConsumer logger1 = new LoggingFetchSubPhase.HitLogConsumer("logger1", set, true);
         RankerQuery q = RankerQuery.build(new PrebuiltLtrModel("test", LtrTestUtils.buildRandomRanker(set.size()), set));
         Query lq = q.toLoggerQuery(logger1, true);
-        LoggingFetchSubPhase subPhase = new LoggingFetchSubPhase();
+        LoggingFetchSubPhase subPhase = new LoggingFetchSubPhase(new LtrNodeServices());
         SearchHit[] hits = selectRandomHits();
         expectThrows(LtrLoggingException.class, () -> subPhase.doLog(lq, singletonList(logger1), searcher, hits));
     }
@@ -201,6 +441,7 @@ public class LoggingFetchSubPhaseTests extends LuceneTestCase {
         d.add(newStringField("id", id, Field.Store.YES));
         d.add(newStringField("text", text, Field.Store.NO));
         d.add(new FloatDocValuesField("score", value));
+        d.add(new StoredField(SourceFieldMapper.NAME, new BytesRef("{\"score\":" + value + "}")));
         return d;
     }
 
@@ -221,4 +462,28 @@ public class LoggingFetchSubPhaseTests extends LuceneTestCase {
         return new FunctionScoreQuery(new MatchAllDocsQuery(),
                 fieldValueFactorFunction, CombineFunction.MULTIPLY, 0F, Float.MAX_VALUE);
     }
+
+    private static class QueryBuilderFeature implements Feature {
+        private final String name;
+        private final QueryBuilder builder;
+
+        QueryBuilderFeature(String name, QueryBuilder builder) {
+            this.name = name;
+            this.builder = builder;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public Query doToQuery(QueryShardContext context, FeatureSet set, Map<String, Object> params) {
+            try {
+                return builder.toQuery(context);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
 }
\ No newline at end of file
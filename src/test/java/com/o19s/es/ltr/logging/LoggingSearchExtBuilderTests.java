@@ -27,6 +27,7 @@ import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.test.ESTestCase;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -37,18 +38,18 @@ public class LoggingSearchExtBuilderTests extends ESTestCase {
     public LoggingSearchExtBuilder buildTestExt() {
         LoggingSearchExtBuilder builder = new LoggingSearchExtBuilder();
         builder.addQueryLogging("name1", "query1", true);
-        builder.addQueryLogging(null, "query2", false);
+        builder.addQueryLogging(null, "query2", false, true);
         builder.addRescoreLogging("rescore0", 0, true);
-        builder.addRescoreLogging(null, 1, false);
+        builder.addRescoreLogging(null, 1, false, true, Arrays.asList("title_*", "body"));
         return builder;
     }
 
     public String getTestExtAsString() {
         return "{\"log_specs\":[" +
                 "{\"name\":\"name1\",\"named_query\":\"query1\",\"missing_as_zero\":true}," +
-                "{\"named_query\":\"query2\"}," +
+                "{\"named_query\":\"query2\",\"compact\":true}," +
                 "{\"name\":\"rescore0\",\"rescore_index\":0,\"missing_as_zero\":true}," +
-                "{\"rescore_index\":1}]}";
+                "{\"rescore_index\":1,\"compact\":true,\"active_features\":[\"title_*\",\"body\"]}]}";
     }
 
     public void testEquals() {
@@ -109,6 +110,13 @@ public class LoggingSearchExtBuilderTests extends ESTestCase {
                 containsString("Either [named_query] or [rescore_index] must be set"));
     }
 
+    public void testFailOnEmptyActiveFeatures() throws IOException {
+        String data = "{\"log_specs\":[{\"named_query\":\"query1\",\"active_features\":[]}]}";
+        ParsingException exc = expectThrows(ParsingException.class,
+                () -> parse(createParser(JsonXContent.jsonXContent, data)));
+        assertThat(exc.getCause().getMessage(), containsString("[active_features] must not be empty"));
+    }
+
     public void testFailOnNegativeRescoreIndex() throws IOException {
         String data = "{\"log_specs\":[" +
                 "{\"name\":\"name1\",\"rescore_index\":-1, \"missing_as_zero\":true}," +
@@ -119,6 +127,39 @@ public class LoggingSearchExtBuilderTests extends ESTestCase {
                 containsString("non-negative"));
     }
 
+    public void testSink() throws IOException {
+        String data = "{\"log_specs\":[{\"named_query\":\"query1\"}],\"sink\":{\"rate\":0.05,\"top_n\":5}}";
+        LoggingSearchExtBuilder ext = parse(createParser(JsonXContent.jsonXContent, data));
+        assertEquals(0.05D, ext.getSink().getRate(), 0D);
+        assertEquals(5, ext.getSink().getTopN());
+        assertEquals(new LoggingSearchExtBuilder().addQueryLogging(null, "query1", false).setSink(0.05D, 5), ext);
+
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        ext.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        builder.close();
+        assertEquals(data, builder.bytes().utf8ToString());
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        ext.writeTo(out);
+        out.close();
+        assertEquals(ext, new LoggingSearchExtBuilder(StreamInput.wrap(out.bytes().toBytesRef().bytes)));
+
+        ext = parse(createParser(JsonXContent.jsonXContent, "{\"log_specs\":[{\"named_query\":\"query1\"}],\"sink\":{}}"));
+        assertEquals(1D, ext.getSink().getRate(), 0D);
+        assertEquals(LoggingSearchExtBuilder.Sink.DEFAULT_TOP_N, ext.getSink().getTopN());
+        assertNull(buildTestExt().getSink());
+    }
+
+    public void testFailOnBadSink() throws IOException {
+        String data = "{\"log_specs\":[{\"named_query\":\"query1\"}],\"sink\":{\"rate\":1.5}}";
+        ParsingException exc = expectThrows(ParsingException.class,
+                () -> parse(createParser(JsonXContent.jsonXContent, data)));
+        assertThat(exc.getCause().getMessage(), containsString("[rate] must be in (0, 1]"));
+        String data2 = "{\"log_specs\":[{\"named_query\":\"query1\"}],\"sink\":{\"top_n\":0}}";
+        exc = expectThrows(ParsingException.class, () -> parse(createParser(JsonXContent.jsonXContent, data2)));
+        assertThat(exc.getCause().getMessage(), containsString("[top_n] must be a positive integer"));
+    }
+
     public void assertTestExt(LoggingSearchExtBuilder actual) {
         List<LoggingSearchExtBuilder.LogSpec> logSpecs = actual.logSpecsStream().collect(Collectors.toList());
         assertEquals(4, logSpecs.size());
@@ -127,12 +168,14 @@ public class LoggingSearchExtBuilderTests extends ESTestCase {
         assertEquals("query1", l.getNamedQuery());
         assertNull(l.getRescoreIndex());
         assertTrue(l.isMissingAsZero());
+        assertFalse(l.isCompact());
 
         l = logSpecs.get(1);
         assertEquals("query2", l.getLoggerName());
         assertEquals("query2", l.getNamedQuery());
         assertNull(l.getRescoreIndex());
         assertFalse(l.isMissingAsZero());
+        assertTrue(l.isCompact());
 
         l = logSpecs.get(2);
         assertEquals("rescore0", l.getLoggerName());
@@ -145,5 +188,7 @@ public class LoggingSearchExtBuilderTests extends ESTestCase {
         assertNull(l.getNamedQuery());
         assertEquals((Integer) 1, l.getRescoreIndex());
         assertFalse(l.isMissingAsZero());
+        assertTrue(l.isCompact());
+        assertEquals(Arrays.asList("title_*", "body"), l.getActiveFeatures());
     }
 }
\ No newline at end of file
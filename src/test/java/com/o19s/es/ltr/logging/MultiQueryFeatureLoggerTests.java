@@ -0,0 +1,142 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.logging;
+
+import com.o19s.es.ltr.LtrTestUtils;
+import com.o19s.es.ltr.feature.PrebuiltFeature;
+import com.o19s.es.ltr.feature.PrebuiltFeatureSet;
+import com.o19s.es.ltr.feature.PrebuiltLtrModel;
+import com.o19s.es.ltr.query.RankerQuery;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.TestUtil;
+import org.elasticsearch.index.mapper.IdFieldMapper;
+import org.elasticsearch.index.mapper.Uid;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.singletonList;
+
+public class MultiQueryFeatureLoggerTests extends LuceneTestCase {
+    private static final String[] TERMS = {"foo", "bar", "baz"};
+
+    public void testLog() throws IOException {
+        try (Directory dir = newDirectory(random())) {
+            int nDoc = TestUtil.nextInt(random(), 20, 100);
+            try (IndexWriter writer = new IndexWriter(dir, newIndexWriterConfig(new StandardAnalyzer()))) {
+                for (int i = 0; i < nDoc; i++) {
+                    writer.addDocument(doc(Integer.toString(i), TERMS[random().nextInt(TERMS.length)] + " "
+                            + TERMS[random().nextInt(TERMS.length)]));
+                    if (random().nextInt(5) == 0) {
+                        writer.commit();
+                    }
+                }
+                // deleted docs are not resolved
+                writer.deleteDocuments(new Term("text", "baz"));
+                writer.commit();
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                Map<String, Integer> docIds = MultiQueryFeatureLogger.docIds(searcher, new MatchAllDocsQuery());
+                assertEquals(reader.numDocs(), docIds.size());
+                for (Map.Entry<String, Integer> doc : docIds.entrySet()) {
+                    assertEquals(doc.getKey(), reader.document(doc.getValue()).get("id"));
+                }
+
+                MultiQueryFeatureLogger logger = new MultiQueryFeatureLogger();
+                List<PrebuiltFeatureSet> sets = new ArrayList<>();
+                List<int[]> docs = new ArrayList<>();
+                int nQueries = TestUtil.nextInt(random(), 1, 5);
+                for (int i = 0; i < nQueries; i++) {
+                    // the same feature set with different params
+                    PrebuiltFeatureSet set = set(TERMS[random().nextInt(TERMS.length)], TERMS[random().nextInt(TERMS.length)]);
+                    int[] queryDocs = docIds.values().stream()
+                            .filter((d) -> random().nextBoolean())
+                            .mapToInt(Integer::intValue)
+                            .sorted()
+                            .toArray();
+                    sets.add(set);
+                    docs.add(queryDocs);
+                    RankerQuery query = RankerQuery.build(new PrebuiltLtrModel("model", LtrTestUtils.buildRandomRanker(set.size()), set));
+                    logger.add(query.toLoggerQuery(logger, true), queryDocs);
+                }
+
+                List<float[][]> values = logger.log(searcher);
+                assertEquals(nQueries, values.size());
+                for (int i = 0; i < nQueries; i++) {
+                    assertEquals(docs.get(i).length, values.get(i).length);
+                    for (int j = 0; j < docs.get(i).length; j++) {
+                        float[] docValues = values.get(i)[j];
+                        assertEquals(2, docValues.length);
+                        for (int f = 0; f < 2; f++) {
+                            Query featureQuery = sets.get(i).feature(f).doToQuery(null, null, null);
+                            float expected = searcher.explain(featureQuery, docs.get(i)[j]).getValue();
+                            assertEquals(expected, docValues[f], Math.ulp(expected));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void testNaN() throws IOException {
+        try (Directory dir = newDirectory(random())) {
+            try (IndexWriter writer = new IndexWriter(dir, newIndexWriterConfig(new StandardAnalyzer()))) {
+                writer.addDocument(doc("1", "foo"));
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                PrebuiltFeatureSet set = new PrebuiltFeatureSet("test",
+                        singletonList(new PrebuiltFeature("test", new BoostQuery(new MatchAllDocsQuery(), Float.NaN))));
+                MultiQueryFeatureLogger logger = new MultiQueryFeatureLogger();
+                RankerQuery query = RankerQuery.build(new PrebuiltLtrModel("test", LtrTestUtils.buildRandomRanker(set.size()), set));
+                logger.add(query.toLoggerQuery(logger, true), new int[]{0});
+                expectThrows(LtrLoggingException.class, () -> logger.log(new IndexSearcher(reader)));
+            }
+        }
+    }
+
+    private static PrebuiltFeatureSet set(String term1, String term2) {
+        return new PrebuiltFeatureSet("set", Arrays.asList(
+                new PrebuiltFeature("feat1", new TermQuery(new Term("text", term1))),
+                new PrebuiltFeature("feat2", new TermQuery(new Term("text", term2)))));
+    }
+
+    private static Document doc(String id, String text) {
+        Document d = new Document();
+        d.add(new StoredField(IdFieldMapper.NAME, Uid.encodeId(id)));
+        d.add(newStringField("id", id, Field.Store.YES));
+        d.add(newTextField("text", text, Field.Store.NO));
+        return d;
+    }
+}
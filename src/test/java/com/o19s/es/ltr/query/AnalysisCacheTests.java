@@ -0,0 +1,110 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.query;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.LuceneTestCase;
+import org.elasticsearch.index.analysis.AnalyzerScope;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AnalysisCacheTests extends LuceneTestCase {
+    public void testSharesAnalysisAcrossFields() throws IOException {
+        AtomicInteger analyzed = new AtomicInteger();
+        NamedAnalyzer named = new NamedAnalyzer("counting", AnalyzerScope.INDEX, new CountingAnalyzer(analyzed));
+        AnalysisCache cache = new AnalysisCache();
+        Analyzer wrapped = cache.wrap(named);
+        assertSame(wrapped, cache.wrap(named));
+
+        List<String> expected = analyze(named, "field1", "Hello wonderful World");
+        assertEquals(1, analyzed.get());
+        assertEquals(expected, analyze(wrapped, "field1", "Hello wonderful World"));
+        assertEquals(2, analyzed.get());
+        assertEquals(expected, analyze(wrapped, "field2", "Hello wonderful World"));
+        assertEquals(expected, analyze(wrapped, "field1", "Hello wonderful World"));
+        assertEquals(2, analyzed.get());
+        assertEquals(1, cache.size());
+
+        assertEquals(analyze(named, "field1", "Another query"), analyze(wrapped, "field2", "Another query"));
+        assertEquals(4, analyzed.get());
+        assertEquals(2, cache.size());
+    }
+
+    public void testAnalyzersThatMayDependOnTheField() throws IOException {
+        AtomicInteger analyzed = new AtomicInteger();
+        AnalysisCache cache = new AnalysisCache();
+        Analyzer wrapped = cache.wrap(new CountingAnalyzer(analyzed));
+        List<String> expected = analyze(wrapped, "field1", "Hello World");
+        assertEquals(expected, analyze(wrapped, "field1", "Hello World"));
+        assertEquals(1, analyzed.get());
+        assertEquals(expected, analyze(wrapped, "field2", "Hello World"));
+        assertEquals(2, analyzed.get());
+    }
+
+    private static List<String> analyze(Analyzer analyzer, String field, String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posInc = stream.addAttribute(PositionIncrementAttribute.class);
+            OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(term.toString() + "/" + posInc.getPositionIncrement() + "/" + offset.startOffset() + "-" + offset.endOffset());
+            }
+            stream.end();
+            tokens.add("end/" + offset.endOffset());
+        }
+        return tokens;
+    }
+
+    private static class CountingAnalyzer extends Analyzer {
+        private final AtomicInteger analyzed;
+
+        CountingAnalyzer(AtomicInteger analyzed) {
+            this.analyzed = analyzed;
+        }
+
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            StandardTokenizer tokenizer = new StandardTokenizer();
+            TokenStream stream = new TokenFilter(new LowerCaseFilter(tokenizer)) {
+                @Override
+                public boolean incrementToken() throws IOException {
+                    return input.incrementToken();
+                }
+
+                @Override
+                public void reset() throws IOException {
+                    super.reset();
+                    analyzed.incrementAndGet();
+                }
+            };
+            return new TokenStreamComponents(tokenizer, stream);
+        }
+    }
+}
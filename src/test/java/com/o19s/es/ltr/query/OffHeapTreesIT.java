@@ -0,0 +1,97 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.query;
+
+import com.o19s.es.ltr.LtrTestUtils;
+import com.o19s.es.ltr.action.BaseIntegrationTest;
+import com.o19s.es.ltr.feature.store.CompiledLtrModel;
+import com.o19s.es.ltr.feature.store.StoredFeature;
+import com.o19s.es.ltr.feature.store.StoredFeatureSet;
+import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.index.Caches;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import com.o19s.es.ltr.ranker.dectree.OffHeapDecisionTree;
+import com.o19s.es.ltr.ranker.parser.XGBoostJsonParser;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.WrapperQueryBuilder;
+
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+
+public class OffHeapTreesIT extends BaseIntegrationTest {
+    private static final String MODEL = "[{" +
+            "\"nodeid\": 0," +
+            "\"split\":\"feature1\"," +
+            "\"depth\":0," +
+            "\"split_condition\":0.123," +
+            "\"yes\":1," +
+            "\"no\": 2," +
+            "\"missing\":2," +
+            "\"children\": [" +
+            "   {\"nodeid\": 1, \"depth\": 1, \"leaf\": 0.5}," +
+            "   {\"nodeid\": 2, \"depth\": 1, \"leaf\": 2}" +
+            "]}]";
+
+    @Override
+    protected Settings nodeSettings() {
+        return Settings.builder().put(super.nodeSettings())
+                .put(Caches.LTR_CACHE_OFF_HEAP_TREES.getKey(), true)
+                .build();
+    }
+
+    public void testTreesReleasedWithTheSearchContext() throws Exception {
+        StoredFeature feature = new StoredFeature("feature1", Collections.singletonList("query"), "mustache",
+                QueryBuilders.matchQuery("field1", "{{query}}").toString());
+        StoredFeatureSet set = new StoredFeatureSet("my_set", Collections.singletonList(feature));
+        addElement(new StoredLtrModel("my_model", set,
+                new StoredLtrModel.LtrModelDefinition(XGBoostJsonParser.TYPE, MODEL, true)));
+        client().admin().indices().prepareCreate("test_index").get();
+        client().prepareIndex("test_index", "test")
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE)
+                .setSource("field1", "hello world")
+                .get();
+
+        SearchResponse sr = client().prepareSearch("test_index")
+                .setQuery(new WrapperQueryBuilder(new StoredLtrQueryBuilder(LtrTestUtils.nullLoader())
+                        .modelName("my_model")
+                        .params(Collections.singletonMap("query", "hello")).toString()))
+                .setScroll(TimeValue.timeValueMinutes(1))
+                .get();
+        assertEquals(1, sr.getHits().getTotalHits());
+        assertEquals(2F, sr.getHits().getAt(0).getScore(), 0F);
+
+        Caches caches = getInstanceFromNode(Caches.class);
+        CompiledLtrModel model = caches.modelCache().get(new Caches.CacheKey(IndexFeatureStore.DEFAULT_STORE, "my_model"));
+        assertNotNull(model);
+        assertThat(model.ranker(), instanceOf(OffHeapDecisionTree.class));
+        OffHeapDecisionTree trees = (OffHeapDecisionTree) model.ranker();
+        // the cache and the scroll
+        assertEquals(2, trees.refCount());
+
+        caches.evictModel(IndexFeatureStore.DEFAULT_STORE, "my_model");
+        assertEquals(1, trees.refCount());
+
+        assertTrue(client().prepareClearScroll().addScrollId(sr.getScrollId()).get().isSucceeded());
+        assertEquals(0, trees.refCount());
+    }
+}
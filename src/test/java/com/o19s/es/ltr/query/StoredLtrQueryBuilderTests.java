@@ -26,8 +26,11 @@ import com.o19s.es.ltr.ranker.DenseFeatureVector;
 import com.o19s.es.ltr.ranker.LtrRanker;
 import com.o19s.es.ltr.ranker.linear.LinearRanker;
 import com.o19s.es.ltr.utils.FeatureStoreLoader;
+import org.apache.lucene.search.MatchNoDocsQuery;
 import org.apache.lucene.search.Query;
+import org.elasticsearch.common.ParsingException;
 import org.elasticsearch.common.lucene.search.function.FieldValueFactorFunction;
+import org.elasticsearch.common.regex.Regex;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.query.MatchQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -41,11 +44,13 @@ import org.elasticsearch.test.AbstractQueryTestCase;
 import org.junit.Before;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -108,9 +113,29 @@ public class StoredLtrQueryBuilderTests extends AbstractQueryTestCase<StoredLtrQ
         Map<String, Object> params = new HashMap<>();
         params.put("query_string", "a wonderful query");
         builder.params(params);
+        if (random().nextBoolean()) {
+            List<List<String>> activeFeatures = new ArrayList<>();
+            activeFeatures.add(Collections.singletonList("match*"));
+            activeFeatures.add(Collections.singletonList("score3"));
+            activeFeatures.add(Arrays.asList("match1", "score3"));
+            builder.activeFeatures(randomFrom(activeFeatures));
+        }
         return builder;
     }
 
+    public void testActiveFeatures() throws IOException {
+        StoredLtrQueryBuilder builder = new StoredLtrQueryBuilder(LtrTestUtils.wrapMemStore(StoredLtrQueryBuilderTests.store));
+        builder.modelName("model1");
+        builder.params(Collections.singletonMap("query_string", "a wonderful query"));
+        builder.activeFeatures(Arrays.asList("match2", "unknown*"));
+        assertThat(expectThrows(IllegalArgumentException.class, () -> builder.toQuery(createShardContext())).getMessage(),
+                equalTo("No feature matching [unknown*] in the feature set [set1]"));
+
+        String json = "{\"sltr\":{\"model\":\"model1\",\"params\":{},\"active_features\":[]}}";
+        assertThat(expectThrows(ParsingException.class, () -> parseQuery(json)).getMessage(),
+                equalTo("Field [active_features] must not be empty."));
+    }
+
     public void testMissingParams() {
         StoredLtrQueryBuilder builder = new StoredLtrQueryBuilder(LtrTestUtils.wrapMemStore(StoredLtrQueryBuilderTests.store));
         builder.modelName("model1");
@@ -139,14 +164,14 @@ public class StoredLtrQueryBuilderTests extends AbstractQueryTestCase<StoredLtrQ
         QueryShardContext qcontext = createShardContext();
 
         Query expected = Rewriteable.rewrite(builder, qcontext).toQuery(qcontext);
-        assertEquals(expected, featureQuery);
+        assertFeatureQuery(queryBuilder, "match1", expected, featureQuery);
 
         assertTrue(ite.hasNext());
         featureQuery = ite.next();
         builder = new MatchQueryBuilder("field2", queryBuilder.params().get("query_string"));
         qcontext = createShardContext();
         expected = Rewriteable.rewrite(builder, qcontext).toQuery(qcontext);
-        assertEquals(expected, featureQuery);
+        assertFeatureQuery(queryBuilder, "match2", expected, featureQuery);
 
         assertTrue(ite.hasNext());
 
@@ -157,12 +182,21 @@ public class StoredLtrQueryBuilderTests extends AbstractQueryTestCase<StoredLtrQ
                 .missing(0F));
         qcontext = createShardContext();
         expected = Rewriteable.rewrite(builder, qcontext).toQuery(qcontext);
-        assertEquals(expected, featureQuery);
+        assertFeatureQuery(queryBuilder, "score3", expected, featureQuery);
 
         assertThat(rquery.ranker(), instanceOf(LinearRanker.class));
         assertThat(rquery.ranker().newFeatureVector(null), instanceOf(DenseFeatureVector.class));
     }
 
+    private void assertFeatureQuery(StoredLtrQueryBuilder queryBuilder, String feature, Query expected, Query actual) {
+        if (queryBuilder.activeFeatures() == null ||
+                queryBuilder.activeFeatures().stream().anyMatch((p) -> Regex.simpleMatch(p, feature))) {
+            assertEquals(expected, actual);
+        } else {
+            assertThat(actual, instanceOf(MatchNoDocsQuery.class));
+        }
+    }
+
     @Override
     protected boolean isCachable(StoredLtrQueryBuilder queryBuilder) {
         // This query is not cachable as it needs a ScriptService
@@ -42,6 +42,7 @@ import com.o19s.es.ltr.action.CreateModelFromSetAction;
 import com.o19s.es.ltr.action.CreateModelFromSetAction.CreateModelFromSetRequestBuilder;
 import com.o19s.es.ltr.feature.store.StoredFeature;
 import com.o19s.es.ltr.feature.store.StoredLtrModel;
+import com.o19s.es.ltr.feature.store.index.CacheCounters;
 import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
 
 /**
@@ -133,6 +134,10 @@ public class StoredLtrQueryIT extends BaseIntegrationTest {
         assertEquals(0, stats.getAll().getFeatures().getRam());
         assertEquals(0, stats.getAll().getFeaturesets().getCount());
         assertEquals(0, stats.getAll().getFeaturesets().getRam());
+        assertEquals(1, stats.getAll().getModels().getLoads());
+        assertEquals(0, stats.getAll().getModels().getLoadFailures());
+        assertThat(stats.getAll().getModels().getMisses(), Matchers.greaterThanOrEqualTo(1L));
+        assertThat(stats.getAll().getModels().getHits(), Matchers.greaterThanOrEqualTo(1L));
 
         ClearCachesAction.RequestBuilder clearCache = ClearCachesAction.INSTANCE.newRequestBuilder(client());
         clearCache.request().clearModel(IndexFeatureStore.DEFAULT_STORE, "my_model");
@@ -141,6 +146,7 @@ public class StoredLtrQueryIT extends BaseIntegrationTest {
         stats = CachesStatsAction.INSTANCE.newRequestBuilder(client()).execute().get();
         assertEquals(0, stats.getAll().getTotal().getCount());
         assertEquals(0, stats.getAll().getTotal().getRam());
+        assertEquals(1, stats.getAll().getModels().getEvictions(CacheCounters.EvictionCause.INVALIDATED));
     }
 
     public void testInvalidDerived() throws Exception {
@@ -0,0 +1,58 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.ranker;
+
+import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTree;
+import com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTreeTests;
+import com.o19s.es.ltr.ranker.linear.LinearRanker;
+import com.o19s.es.ltr.ranker.linear.LinearRankerTests;
+import org.apache.lucene.util.LuceneTestCase;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.instanceOf;
+
+public class CompactRankerEncodingTests extends LuceneTestCase {
+    public void testLinear() throws IOException {
+        LinearRanker ranker = LinearRankerTests.generateRandomRanker(1, 100);
+        LtrRanker decoded = CompactRankerEncoding.decode(CompactRankerEncoding.encode(ranker));
+        assertThat(decoded, instanceOf(LinearRanker.class));
+        assertSameScores(ranker, decoded);
+    }
+
+    public void testDecisionTrees() throws IOException {
+        NaiveAdditiveDecisionTree ranker = NaiveAdditiveDecisionTreeTests.generateRandomDecTree(1, 50, 1, 100, 1, 10, null);
+        LtrRanker decoded = CompactRankerEncoding.decode(CompactRankerEncoding.encode(ranker));
+        assertThat(decoded, instanceOf(NaiveAdditiveDecisionTree.class));
+        assertEquals(ranker.ramBytesUsed(), ((NaiveAdditiveDecisionTree) decoded).ramBytesUsed());
+        assertSameScores(ranker, decoded);
+    }
+
+    public void testUnsupported() {
+        assertFalse(CompactRankerEncoding.supports(new LogLtrRanker(LinearRankerTests.generateRandomRanker(1), null)));
+    }
+
+    private void assertSameScores(DenseLtrRanker expected, LtrRanker actual) {
+        assertEquals(expected.size(), ((DenseLtrRanker) actual).size());
+        for (int i = 0; i < 10; i++) {
+            DenseFeatureVector vector = expected.newFeatureVector(null);
+            LinearRankerTests.fillRandomWeights(vector.scores);
+            assertEquals(expected.score(vector), actual.score(vector), 0F);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.ranker.dectree;
+
+import com.o19s.es.ltr.ranker.DenseFeatureVector;
+import com.o19s.es.ltr.ranker.linear.LinearRankerTests;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.TestUtil;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+import static com.o19s.es.ltr.ranker.dectree.NaiveAdditiveDecisionTreeTests.generateRandomDecTree;
+
+public class OffHeapDecisionTreeTests extends LuceneTestCase {
+    public void testSameScores() {
+        NaiveAdditiveDecisionTree tree = generateRandomDecTree(10, 100, 10, 100, 1, 10, null);
+        OffHeapDecisionTree offHeap = OffHeapDecisionTree.build(tree);
+        assertEquals(tree.size(), offHeap.size());
+
+        int nPass = TestUtil.nextInt(random(), 10, 100);
+        DenseFeatureVector vector = null;
+        for (int i = 0; i < nPass; i++) {
+            vector = tree.newFeatureVector(vector);
+            LinearRankerTests.fillRandomWeights(vector.scores);
+            assertEquals(tree.score(vector), offHeap.score(vector), 0F);
+        }
+    }
+
+    public void testSingleLeaf() {
+        NaiveAdditiveDecisionTree tree = new NaiveAdditiveDecisionTree(
+                new NaiveAdditiveDecisionTree.Node[]{new NaiveAdditiveDecisionTree.Leaf(2F)}, new float[]{3F}, 1);
+        OffHeapDecisionTree offHeap = OffHeapDecisionTree.build(tree);
+        assertEquals(6F, offHeap.score(offHeap.newFeatureVector(null)), 0F);
+        assertEquals(12, offHeap.offHeapBytesUsed());
+    }
+
+    public void testRamSize() {
+        NaiveAdditiveDecisionTree tree = generateRandomDecTree(100, 1000, 100, 1000, 5, 50, null);
+        OffHeapDecisionTree offHeap = OffHeapDecisionTree.build(tree);
+        long nodes = 0;
+        for (NaiveAdditiveDecisionTree.Node root : tree.trees()) {
+            nodes += count(root);
+        }
+        assertEquals(nodes * 12, offHeap.offHeapBytesUsed());
+        // only the roots and the weights remain on heap
+        assertTrue(offHeap.ramBytesUsed() < tree.ramBytesUsed() / 10);
+    }
+
+    public void testNodesFreedWithTheLastReference() {
+        NaiveAdditiveDecisionTree tree = generateRandomDecTree(100, 1000, 100, 1000, 5, 50, null);
+        BufferPoolMXBean direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter((p) -> "direct".equals(p.getName()))
+                .findFirst()
+                .get();
+        long before = direct.getMemoryUsed();
+        OffHeapDecisionTree offHeap = OffHeapDecisionTree.build(tree);
+        assertEquals(before + offHeap.offHeapBytesUsed(), direct.getMemoryUsed());
+        assertEquals(1, offHeap.refCount());
+
+        assertTrue(offHeap.tryIncRef());
+        offHeap.decRef();
+        assertEquals(1, offHeap.refCount());
+        assertEquals(before + offHeap.offHeapBytesUsed(), direct.getMemoryUsed());
+
+        offHeap.decRef();
+        assertEquals(0, offHeap.refCount());
+        assertFalse(offHeap.tryIncRef());
+        // freed without a GC
+        assertEquals(before, direct.getMemoryUsed());
+    }
+
+    private static long count(NaiveAdditiveDecisionTree.Node node) {
+        if (node.isLeaf()) {
+            return 1;
+        }
+        NaiveAdditiveDecisionTree.Split split = (NaiveAdditiveDecisionTree.Split) node;
+        return 1 + count(split.left()) + count(split.right());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.ranker.ranklib;
+
+import com.o19s.es.ltr.feature.store.LtrCircuitBreaker;
+import com.o19s.es.ltr.feature.store.LtrNodeServices;
+import com.o19s.es.ltr.ranker.LtrRanker;
+import com.o19s.es.ltr.ranker.parser.LtrRankerParserFactory;
+import org.apache.lucene.util.Accountable;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.indices.breaker.HierarchyCircuitBreakerService;
+import org.elasticsearch.script.ExecutableScript;
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.o19s.es.ltr.ranker.linear.LinearRankerTests.generateRandomRanker;
+import static java.util.Collections.emptyMap;
+
+public class RankLibScriptEngineTests extends ESTestCase {
+    private final AtomicInteger parses = new AtomicInteger();
+    // parses the models with a linear ranker, the tests only check how the parsed rankers are shared
+    private final LtrRankerParserFactory factory = new LtrRankerParserFactory.Builder()
+            .register(RanklibModelParser.TYPE, () -> (set, model) -> {
+                parses.incrementAndGet();
+                return generateRandomRanker(1, 10);
+            })
+            .build();
+    private CircuitBreaker breaker;
+    private RankLibScriptEngine engine;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Settings settings = Settings.builder().put(LtrCircuitBreaker.LTR_BREAKER_LIMIT.getKey(), "1mb").build();
+        breaker = LtrCircuitBreaker.register(settings, new HierarchyCircuitBreakerService(settings,
+                new ClusterSettings(settings, ClusterSettings.BUILT_IN_CLUSTER_SETTINGS)));
+        LtrNodeServices services = new LtrNodeServices();
+        services.setCircuitBreaker(breaker);
+        engine = new RankLibScriptEngine(Settings.EMPTY, factory, services);
+    }
+
+    public void testInstancesShareTheParsedRanker() {
+        ExecutableScript.Factory script = engine.compile("model", "## model", ExecutableScript.CONTEXT, emptyMap());
+        LtrRanker ranker = (LtrRanker) script.newInstance(null).run();
+        assertSame(ranker, script.newInstance(null).run());
+        assertEquals(1, parses.get());
+    }
+
+    public void testResidentRankerIsAccounted() throws Exception {
+        ExecutableScript.Factory script = engine.compile("model", "## model", ExecutableScript.CONTEXT, emptyMap());
+        long weight = ((Accountable) script.newInstance(null).run()).ramBytesUsed();
+        assertTrue(weight > 0);
+        assertEquals(weight, breaker.getUsed());
+
+        ExecutableScript.Factory other = engine.compile("other", "## other", ExecutableScript.CONTEXT, emptyMap());
+        long otherWeight = ((Accountable) other.newInstance(null).run()).ramBytesUsed();
+        assertEquals(weight + otherWeight, breaker.getUsed());
+
+        // released once the script service drops the factory
+        script = null;
+        assertBusy(() -> {
+            System.gc();
+            engine.releaseCollected();
+            assertEquals(otherWeight, breaker.getUsed());
+        });
+        assertNotNull(other);
+
+        engine.close();
+        assertEquals(0, breaker.getUsed());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.o19s.es.ltr.rest;
+
+import com.o19s.es.ltr.action.FeatureStoreAction.FeatureStoreRequest;
+import com.o19s.es.ltr.action.FeatureStoreBulkAction.FeatureStoreBulkRequest;
+import com.o19s.es.ltr.feature.store.StoredFeature;
+import com.o19s.es.ltr.feature.store.index.IndexFeatureStore;
+import org.apache.lucene.util.LuceneTestCase;
+import org.elasticsearch.common.ParsingException;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.IOException;
+
+import static com.o19s.es.ltr.feature.store.StoredFeatureParserTests.generateTestFeature;
+
+public class RestFeatureStoreBulkTests extends LuceneTestCase {
+    private static final String STORE = IndexFeatureStore.indexName("my_store");
+
+    public void testParse() throws IOException {
+        String body = "{\"create\": {}}\n" +
+                "{\"feature\":" + generateTestFeature("feat1").replace('\n', ' ') + "}\n" +
+                "\n" +
+                "{\"update\": {\"routing\": \"my_routing\"}}\n" +
+                "{\"feature\":" + generateTestFeature("feat2").replace('\n', ' ') + ", " +
+                "\"validation\": {\"index\": \"test_index\", \"params\": {\"param1\": \"x\"}}}";
+        FeatureStoreBulkRequest request = RestFeatureStoreBulk.parse(STORE, new BytesArray(body), XContentType.JSON);
+        assertEquals(STORE, request.getStore());
+        assertEquals(2, request.getRequests().size());
+
+        FeatureStoreRequest first = request.getRequests().get(0);
+        assertEquals(FeatureStoreRequest.Action.CREATE, first.getAction());
+        assertEquals(STORE, first.getStore());
+        assertEquals("feat1", first.getStorableElement().name());
+        assertEquals(StoredFeature.TYPE, first.getStorableElement().type());
+        assertNull(first.getRouting());
+        assertNull(first.getValidation());
+
+        FeatureStoreRequest second = request.getRequests().get(1);
+        assertEquals(FeatureStoreRequest.Action.UPDATE, second.getAction());
+        assertEquals("feat2", second.getStorableElement().name());
+        assertEquals("my_routing", second.getRouting());
+        assertEquals("test_index", second.getValidation().getIndex());
+        assertNull(request.validate());
+    }
+
+    public void testUnknownAction() {
+        String body = "{\"delete\": {}}\n{\"feature\":" + generateTestFeature().replace('\n', ' ') + "}\n";
+        ParsingException e = expectThrows(ParsingException.class,
+                () -> RestFeatureStoreBulk.parse(STORE, new BytesArray(body), XContentType.JSON));
+        assertTrue(e.getMessage().contains("Unknown action [delete] at line [1]"));
+    }
+
+    public void testMissingElement() {
+        String body = "{\"create\": {}}\n{\"feature\":" + generateTestFeature().replace('\n', ' ') + "}\n{\"create\": {}}\n";
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class,
+                () -> RestFeatureStoreBulk.parse(STORE, new BytesArray(body), XContentType.JSON));
+        assertTrue(e.getMessage().contains("line [3]"));
+    }
+}
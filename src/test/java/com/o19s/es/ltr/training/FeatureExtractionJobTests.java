@@ -0,0 +1,47 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.training;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class FeatureExtractionJobTests extends ESTestCase {
+    public void testRow() {
+        assertEquals("4 qid:1 1:12.5 2:0.0 3:-1.25 # 7555", FeatureExtractionJob.row(4, "1", new float[]{12.5F, 0F, -1.25F}, "7555"));
+        assertEquals("0 qid:q2 # doc", FeatureExtractionJob.row(0, "q2", new float[0], "doc"));
+    }
+
+    public void testResolve() {
+        Path root = createTempDir().resolve("ltr-training").toAbsolutePath().normalize();
+        assertEquals(root.resolve("judgments.txt"), FeatureExtractionJob.resolve(root, "judgments.txt"));
+        assertEquals(root.resolve("sub").resolve("out.txt"), FeatureExtractionJob.resolve(root, "sub/../sub/out.txt"));
+        expectThrows(IllegalArgumentException.class, () -> FeatureExtractionJob.resolve(root, "../judgments.txt"));
+        expectThrows(IllegalArgumentException.class, () -> FeatureExtractionJob.resolve(root, "sub/../../judgments.txt"));
+        expectThrows(IllegalArgumentException.class, () -> FeatureExtractionJob.resolve(root, "."));
+        expectThrows(IllegalArgumentException.class, () -> FeatureExtractionJob.resolve(root,
+                createTempDir().resolve("judgments.txt").toAbsolutePath().toString()));
+    }
+
+    public void testStatusSerialization() throws IOException {
+        FeatureExtractionTask.Status status = new FeatureExtractionTask.Status(randomNonNegativeLong(), randomNonNegativeLong(),
+                randomNonNegativeLong(), randomNonNegativeLong());
+        assertEquals(status, copyWriteable(status, writableRegistry(), FeatureExtractionTask.Status::new));
+    }
+}
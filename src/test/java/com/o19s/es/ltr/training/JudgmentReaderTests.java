@@ -0,0 +1,83 @@
+/*
+ * Copyright [2017] Wikimedia Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.o19s.es.ltr.training;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static java.util.Collections.singletonMap;
+import static org.hamcrest.Matchers.containsString;
+
+public class JudgmentReaderTests extends ESTestCase {
+    public void testRead() throws IOException {
+        String file = "# judgments of the rambo queries\n" +
+                "{\"qid\": 1, \"params\": {\"keywords\": \"rambo\"}, \"docs\": [{\"id\": \"7555\", \"grade\": 4}, " +
+                "{\"id\": 1370, \"grade\": 0}]}\n" +
+                "\n" +
+                "{\"qid\": \"q2\", \"docs\": [{\"id\": \"1368\", \"grade\": 3}]}\n";
+        try (JudgmentReader reader = reader(file)) {
+            Judgment judgment = reader.next();
+            assertEquals("1", judgment.qid());
+            assertEquals(singletonMap("keywords", "rambo"), judgment.params());
+            assertEquals(2, judgment.docs().size());
+            assertEquals("7555", judgment.docs().get(0).id());
+            assertEquals(4, judgment.docs().get(0).grade());
+            assertEquals("1370", judgment.docs().get(1).id());
+            assertEquals(0, judgment.docs().get(1).grade());
+
+            judgment = reader.next();
+            assertEquals("q2", judgment.qid());
+            assertTrue(judgment.params().isEmpty());
+            assertEquals(1, judgment.docs().size());
+            assertNull(reader.next());
+        }
+    }
+
+    public void testInvalidLines() throws IOException {
+        assertInvalid("{\"qid\": \"1\", \"docs\": [{\"id\": \"7555\", \"grade\": 4}]}\n{\"docs\": [{\"id\": \"7555\", \"grade\": 4}]}",
+                2, "Field [qid] is mandatory");
+        assertInvalid("{\"qid\": \"1 2\", \"docs\": [{\"id\": \"7555\", \"grade\": 4}]}", 1, "without whitespaces");
+        assertInvalid("{\"qid\": \"1\", \"docs\": []}", 1, "at least one doc");
+        assertInvalid("{\"qid\": \"1\", \"docs\": [{\"id\": \"7555\"}]}", 1, "are mandatory");
+        assertInvalid("{\"qid\": \"1\", \"docs\": [{\"id\": \"7555\", \"grade\": 4}], \"unknown\": 1}", 1, "unknown");
+    }
+
+    private void assertInvalid(String file, int line, String message) throws IOException {
+        try (JudgmentReader reader = reader(file)) {
+            IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> {
+                while (reader.next() != null) {
+                    // consume
+                }
+            });
+            assertEquals("Failed to parse the judgment at line [" + line + "]", e.getMessage());
+            // the errors of the nested docs are wrapped by the parser of the judgment
+            Throwable cause = e.getCause();
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            assertThat(cause.getMessage(), containsString(message));
+        }
+    }
+
+    private JudgmentReader reader(String file) {
+        return new JudgmentReader(new BufferedReader(new StringReader(file)));
+    }
+}